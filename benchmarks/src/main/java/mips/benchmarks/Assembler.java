@@ -0,0 +1,196 @@
+package mips.benchmarks;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mips.ProgramCounter;
+
+/**
+ * A tiny assembler for the benchmark programs.  Instructions are placed
+ * from the first instruction address onwards, labels can be used before
+ * they're defined, and the image is written in the little-endian word
+ * format read by <code>MemoryStore</code>.
+ * 
+ * Like the simulator, immediates are unsigned, so branches can only go
+ * forwards.  Loops have to jump back with <code>j</code>.
+ */
+class Assembler {
+	private static final int ADDI = 0x8;
+	private static final int ANDI = 0xC;
+	private static final int BEQ = 0x4;
+	private static final int BNE = 0x5;
+	private static final int J = 0x2;
+	private static final int LW = 0x23;
+	private static final int SW = 0x2B;
+	private static final int ADD_FUNCT = 0x20;
+	private static final int SUB_FUNCT = 0x22;
+	private static final int AND_FUNCT = 0x24;
+	private static final int OR_FUNCT = 0x25;
+	private static final int JR_FUNCT = 0x8;
+	private static final int HLT = 0xFC000000;
+	
+	private final List<Integer> words = new ArrayList<Integer>();
+	private final Map<String, Integer> labels = new HashMap<String, Integer>();
+	
+	/**
+	 * The instructions waiting for a label, by the index of the 
+	 * instruction.
+	 */
+	private final Map<Integer, String> fixups = new HashMap<Integer, String>();
+	
+	/**
+	 * @return The address of the next instruction.
+	 */
+	int here() {
+		return ProgramCounter.FIRST_INSTRUCTION + 4 * words.size();
+	}
+	
+	Assembler label(String name) {
+		labels.put(name, here());
+		return this;
+	}
+	
+	Assembler add(int rd, int rs, int rt) {
+		return register(rd, rs, rt, ADD_FUNCT);
+	}
+	
+	Assembler sub(int rd, int rs, int rt) {
+		return register(rd, rs, rt, SUB_FUNCT);
+	}
+	
+	Assembler and(int rd, int rs, int rt) {
+		return register(rd, rs, rt, AND_FUNCT);
+	}
+	
+	Assembler or(int rd, int rs, int rt) {
+		return register(rd, rs, rt, OR_FUNCT);
+	}
+	
+	Assembler addi(int rt, int rs, int immediate) {
+		return immediate(ADDI, rs, rt, immediate);
+	}
+	
+	/**
+	 * Load the address of a label into a register.
+	 */
+	Assembler la(int rt, String label) {
+		fixups.put(words.size(), label);
+		return immediate(ADDI, 0, rt, 0);
+	}
+	
+	Assembler andi(int rt, int rs, int immediate) {
+		return immediate(ANDI, rs, rt, immediate);
+	}
+	
+	Assembler lw(int rt, int offset, int rs) {
+		return immediate(LW, rs, rt, offset);
+	}
+	
+	Assembler sw(int rt, int offset, int rs) {
+		return immediate(SW, rs, rt, offset);
+	}
+	
+	Assembler beq(int rs, int rt, String label) {
+		fixups.put(words.size(), label);
+		return immediate(BEQ, rs, rt, 0);
+	}
+	
+	Assembler bne(int rs, int rt, String label) {
+		fixups.put(words.size(), label);
+		return immediate(BNE, rs, rt, 0);
+	}
+	
+	Assembler j(String label) {
+		fixups.put(words.size(), label);
+		words.add(J << 26);
+		return this;
+	}
+	
+	Assembler jr(int rs) {
+		return register(0, rs, 0, JR_FUNCT);
+	}
+	
+	Assembler hlt() {
+		words.add(HLT);
+		return this;
+	}
+	
+	/**
+	 * Write the assembled program, preceded by the memory below the first
+	 * instruction, to the given file.
+	 * 
+	 * @param filename The file to write.
+	 * @throws IOException Thrown if there's a problem writing the file.
+	 */
+	void write(String filename) throws IOException {
+		resolve();
+		
+		int start = ProgramCounter.FIRST_INSTRUCTION;
+		ByteBuffer buffer = ByteBuffer.allocate(start + 4 * words.size());
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(start);
+		for (int word : words) {
+			buffer.putInt(word);
+		}
+		buffer.flip();
+		
+		FileChannel channel = new FileOutputStream(filename).getChannel();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+	
+	private Assembler register(int rd, int rs, int rt, int funct) {
+		words.add((rs << 21) | (rt << 16) | (rd << 11) | funct);
+		return this;
+	}
+	
+	private Assembler immediate(int opCode, int rs, int rt, int immediate) {
+		if (immediate < 0 || immediate > 0xFFFF) {
+			throw new IllegalArgumentException("Immediates are unsigned 16 bit values");
+		}
+		
+		words.add((opCode << 26) | (rs << 21) | (rt << 16) | immediate);
+		return this;
+	}
+	
+	/**
+	 * Fill in the label of every instruction that used one.
+	 */
+	private void resolve() {
+		for (Map.Entry<Integer, String> fixup : fixups.entrySet()) {
+			int index = fixup.getKey();
+			Integer target = labels.get(fixup.getValue());
+			if (target == null) {
+				throw new IllegalStateException("Undefined label " + fixup.getValue());
+			}
+			
+			int word = words.get(index);
+			int opCode = word >>> 26;
+			if (opCode == J) {
+				word |= target / 4;
+			} else if (opCode == ADDI) {
+				word |= target;
+			} else {
+				int offset = (target - (ProgramCounter.FIRST_INSTRUCTION + 4 * index) - 4) / 4;
+				if (offset < 0) {
+					throw new IllegalStateException("Branches can only go forwards");
+				}
+				word |= offset;
+			}
+			
+			words.set(index, word);
+		}
+	}
+}
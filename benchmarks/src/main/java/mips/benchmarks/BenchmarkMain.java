@@ -0,0 +1,17 @@
+package mips.benchmarks;
+
+/**
+ * The launching point for the benchmarks.  This takes the same arguments
+ * as the JMH runner, and always adds the GC profiler so every run reports
+ * the allocation rate alongside the timings.
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		String[] jmhArgs = new String[args.length + 2];
+		jmhArgs[0] = "-prof";
+		jmhArgs[1] = "gc";
+		System.arraycopy(args, 0, jmhArgs, 2, args.length);
+		
+		org.openjdk.jmh.Main.main(jmhArgs);
+	}
+}
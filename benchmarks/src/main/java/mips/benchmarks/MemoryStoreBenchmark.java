@@ -0,0 +1,73 @@
+package mips.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import mips.MemoryStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Word reads and writes at random addresses spread over a data footprint
+ * of the given number of words.  The pages of the footprint are written
+ * before measuring, so page allocation isn't included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MemoryStoreBenchmark {
+	/**
+	 * The number of addresses cycled through, which must be a power of two.
+	 */
+	private static final int ADDRESSES = 1 << 16;
+	
+	/**
+	 * Where the data footprint starts, well above the program.
+	 */
+	private static final long DATA_START = 0x100000;
+	
+	@Param({"1024", "1048576"})
+	public int footprint;
+	
+	private final long[] addresses = new long[ADDRESSES];
+	private MemoryStore memory;
+	private int next = 0;
+	
+	@Setup
+	public void createMemory() throws IOException {
+		memory = new MemoryStore(Programs.write(Programs.LOOP, 1000));
+		
+		for (long word = 0; word < footprint; word += MemoryStore.PAGE_SIZE) {
+			memory.storeValue(DATA_START + 4 * word, word);
+		}
+		
+		Random random = new Random(42);
+		for (int i = 0; i < ADDRESSES; i++) {
+			addresses[i] = DATA_START + 4L * random.nextInt(footprint);
+		}
+	}
+	
+	@Benchmark
+	public long getValue() {
+		return memory.getValue(addresses[next++ & (ADDRESSES - 1)]);
+	}
+	
+	@Benchmark
+	public void storeValue() {
+		memory.storeValue(addresses[next++ & (ADDRESSES - 1)], next);
+	}
+}
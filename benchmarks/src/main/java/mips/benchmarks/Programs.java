@@ -0,0 +1,120 @@
+package mips.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The programs the benchmarks run, each a loop of the given number of
+ * iterations ending in a halt.
+ */
+final class Programs {
+	/**
+	 * An arithmetic loop with no stalls.
+	 */
+	static final String LOOP = "loop";
+	
+	/**
+	 * A loop incrementing each word of a 4 KB buffer in turn, with a 
+	 * load-use stall every iteration.
+	 */
+	static final String MEMORY = "memory";
+	
+	/**
+	 * A loop that alternates between two handlers through a jump register.
+	 */
+	static final String DISPATCH = "dispatch";
+	
+	private Programs() {
+	}
+	
+	/**
+	 * Assemble one of the programs into a temporary file, which is deleted
+	 * when the JVM exits.
+	 * 
+	 * @param name The name of the program.
+	 * @param iterations The number of times the loop of the program runs,
+	 * which has to fit in an unsigned 16 bit immediate.
+	 * @return The path of the program file.
+	 * @throws IOException Thrown if there's a problem writing the file.
+	 */
+	static String write(String name, int iterations) throws IOException {
+		Assembler program;
+		if (name.equals(LOOP)) {
+			program = loop(iterations);
+		} else if (name.equals(MEMORY)) {
+			program = memory(iterations);
+		} else if (name.equals(DISPATCH)) {
+			program = dispatch(iterations);
+		} else {
+			throw new IllegalArgumentException("Unknown program " + name);
+		}
+		
+		File file = File.createTempFile("mips-" + name, ".bin");
+		file.deleteOnExit();
+		program.write(file.getPath());
+		
+		return file.getPath();
+	}
+	
+	// branches in decode don't see forwarded values, so every loop leaves
+	// at least two instructions between writing its counter and testing it
+	
+	private static Assembler loop(int iterations) {
+		return new Assembler()
+			.addi(5, 0, 1)
+			.addi(1, 0, iterations)
+			.label("loop")
+			.sub(1, 1, 5)
+			.addi(2, 2, 1)
+			.add(3, 3, 2)
+			.and(4, 3, 2)
+			.beq(1, 0, "done")
+			.j("loop")
+			.label("done")
+			.hlt();
+	}
+	
+	private static Assembler memory(int iterations) {
+		return new Assembler()
+			.addi(5, 0, 1)
+			.addi(6, 0, 4)
+			.addi(1, 0, iterations)
+			.label("loop")
+			.lw(2, 0x2000, 7)
+			.add(2, 2, 5)
+			.sw(2, 0x2000, 7)
+			.add(3, 3, 2)
+			.sub(1, 1, 5)
+			.add(7, 7, 6)
+			.andi(7, 7, 0xFFF)
+			.beq(1, 0, "done")
+			.j("loop")
+			.label("done")
+			.hlt();
+	}
+	
+	private static Assembler dispatch(int iterations) {
+		return new Assembler()
+			.addi(5, 0, 1)
+			.addi(1, 0, iterations)
+			.la(10, "first")
+			.la(11, "second")
+			.label("loop")
+			.or(12, 10, 0)
+			.sub(1, 1, 5)
+			.add(13, 13, 5)
+			.jr(12)
+			.label("first")
+			.add(3, 3, 5)
+			.or(10, 11, 0)
+			.beq(1, 0, "done")
+			.j("loop")
+			.label("second")
+			.add(4, 4, 5)
+			.la(10, "first")
+			.beq(1, 0, "done")
+			.j("loop")
+			.label("done")
+			.hlt();
+	}
+}
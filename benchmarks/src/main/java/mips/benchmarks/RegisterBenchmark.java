@@ -0,0 +1,84 @@
+package mips.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import mips.MachineState;
+import mips.RegisterFile;
+import mips.RegisterName;
+import mips.pipeline.PipelineRegister;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ticking a register file with a writeback's worth of new values,
+ * forwarding a fully decoded instruction from one pipeline register to 
+ * the next, and committing a whole pipeline's worth of state at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RegisterBenchmark {
+	private final RegisterFile registerFile = new RegisterFile();
+	private final PipelineRegister source = new PipelineRegister();
+	private final PipelineRegister target = new PipelineRegister();
+	private final MachineState state = new MachineState(6);
+	private final PipelineRegister[] stages = {
+		new PipelineRegister(state, 2), new PipelineRegister(state, 3),
+		new PipelineRegister(state, 4), new PipelineRegister(state, 5)
+	};
+	private long value = 0;
+	
+	@Setup
+	public void decodeInstruction() {
+		// the registers decode sets for an add
+		source.setControlLines(0);
+		source.setValue(RegisterName.REG_DST, 1);
+		source.setValue(RegisterName.REG_WRITE, 1);
+		source.setValue(RegisterName.R_S, 2);
+		source.setValue(RegisterName.R_T, 3);
+		source.setValue(RegisterName.R_D, 4);
+		source.setValue(RegisterName.SHAMT, 0);
+		source.setValue(RegisterName.IMMEDIATE, 0x2020);
+		source.setValue(RegisterName.ADDRESS, 0x432020);
+		source.setValue(RegisterName.OP_CODE, 0);
+		source.setValue(RegisterName.READ_DATA_1, 5);
+		source.setValue(RegisterName.READ_DATA_2, 6);
+		source.setValue(RegisterName.PC, 0x1000);
+		source.setValue(RegisterName.INSTRUCTION, 0x432020);
+		source.tick();
+	}
+	
+	@Benchmark
+	public RegisterFile tick() {
+		registerFile.setValue(RegisterName.R_4, value++);
+		registerFile.tick();
+		return registerFile;
+	}
+	
+	@Benchmark
+	public PipelineRegister forwardValues() {
+		source.forwardValues(target);
+		return target;
+	}
+	
+	@Benchmark
+	public MachineState commit() {
+		for (PipelineRegister stage : stages) {
+			source.forwardValues(stage);
+		}
+		state.commit();
+		return state;
+	}
+}
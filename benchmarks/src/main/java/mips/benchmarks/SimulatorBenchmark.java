@@ -0,0 +1,73 @@
+package mips.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import mips.Mips;
+import mips.SimulationResult;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end runs of whole programs through the pipeline, from loading the
+ * program file to halting.  Besides runs per second, the simulated cycles
+ * and instructions per second are reported as the <code>cycles</code> and
+ * <code>instructions</code> secondary results.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimulatorBenchmark {
+	@Param({Programs.LOOP, Programs.MEMORY, Programs.DISPATCH})
+	public String program;
+	
+	@Param({"50000"})
+	public int iterations;
+	
+	private String filename;
+	
+	/**
+	 * The simulated work done by the runs of an iteration.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class SimulatedWork {
+		public long cycles;
+		public long instructions;
+		
+		@Setup(Level.Iteration)
+		public void clear() {
+			cycles = 0;
+			instructions = 0;
+		}
+	}
+	
+	@Setup(Level.Trial)
+	public void writeProgram() throws IOException {
+		filename = Programs.write(program, iterations);
+	}
+	
+	@Benchmark
+	public SimulationResult simulate(SimulatedWork work) throws IOException {
+		SimulationResult result = new Mips(filename).simulate();
+		
+		work.cycles += result.getCycleCount();
+		work.instructions += result.getInstructionCount();
+		return result;
+	}
+}
@@ -0,0 +1,110 @@
+package mips.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import mips.MemoryStore;
+import mips.PipelineConfig;
+import mips.ProgramCounter;
+import mips.RegisterFile;
+import mips.RegisterName;
+import mips.pipeline.PipelineRegister;
+import mips.pipeline.prediction.BranchPredictor;
+import mips.pipeline.stages.Decode;
+import mips.pipeline.stages.Execute;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single runs of the decode and execute stages.  The pipeline registers
+ * are never ticked, so every run sees the same inputs.  Decode cycles
+ * through the instructions of the loop program.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StageBenchmark {
+	/**
+	 * The number of instructions decode cycles through, which must be a
+	 * power of two.
+	 */
+	private static final int INSTRUCTIONS = 8;
+	
+	private final Decode[] decoders = new Decode[INSTRUCTIONS];
+	private Execute execute;
+	private int next = 0;
+	
+	@Setup
+	public void createStages() throws IOException {
+		MemoryStore memory = new MemoryStore(Programs.write(Programs.LOOP, 1000));
+		PipelineConfig config = new PipelineConfig();
+		ProgramCounter pc = new ProgramCounter();
+		RegisterFile registerFile = new RegisterFile();
+		PipelineRegister id_ex = new PipelineRegister();
+		PipelineRegister ex_mem = new PipelineRegister();
+		PipelineRegister mem_wb = new PipelineRegister();
+		
+		// a decoder for each instruction of the program, each with its own
+		// fetched instruction
+		for (int i = 0; i < INSTRUCTIONS; i++) {
+			long address = ProgramCounter.FIRST_INSTRUCTION + 4 * i;
+			PipelineRegister if_id = new PipelineRegister();
+			if_id.setValue(RegisterName.INSTRUCTION, memory.getValue(address));
+			if_id.setValue(RegisterName.OP_CODE, 0);
+			if_id.setValue(RegisterName.PC, address);
+			if_id.tick();
+			
+			decoders[i] = new Decode(
+				if_id, id_ex, ex_mem, registerFile, pc, memory, config,
+				BranchPredictor.create(config)
+			);
+		}
+		
+		// an add whose first operand is forwarded from the memory stage
+		// and whose second operand is forwarded from the execute stage
+		id_ex.setValue(RegisterName.REG_DST, 1);
+		id_ex.setValue(RegisterName.REG_WRITE, 1);
+		id_ex.setValue(RegisterName.R_S, 2);
+		id_ex.setValue(RegisterName.R_T, 3);
+		id_ex.setValue(RegisterName.R_D, 4);
+		id_ex.setValue(RegisterName.READ_DATA_1, 5);
+		id_ex.setValue(RegisterName.READ_DATA_2, 6);
+		id_ex.tick();
+		
+		ex_mem.setValue(RegisterName.REG_DST, 1);
+		ex_mem.setValue(RegisterName.REG_WRITE, 1);
+		ex_mem.setValue(RegisterName.R_D, 3);
+		ex_mem.setValue(RegisterName.ALU_RESULT, 7);
+		ex_mem.tick();
+		
+		mem_wb.setValue(RegisterName.REG_DST, 1);
+		mem_wb.setValue(RegisterName.REG_WRITE, 1);
+		mem_wb.setValue(RegisterName.R_D, 2);
+		mem_wb.setValue(RegisterName.ALU_RESULT, 8);
+		mem_wb.tick();
+		
+		execute = new Execute(id_ex, ex_mem, mem_wb, config);
+	}
+	
+	@Benchmark
+	public void decode() {
+		decoders[next++ & (INSTRUCTIONS - 1)].run();
+	}
+	
+	@Benchmark
+	public void execute() {
+		execute.run();
+	}
+}
@@ -0,0 +1,16 @@
+package mips;
+
+/**
+ * Implemented by anything that caches information derived from the
+ * instructions in a <code>MemoryStore</code>, so that it can be told when
+ * memory it has marked as code is written.
+ */
+public interface CodeListener {
+	/**
+	 * Called after a word is stored into a page of memory that has been
+	 * marked as holding code.
+	 * 
+	 * @param location The byte address of the word that was written.
+	 */
+	public void codeModified(long location);
+}
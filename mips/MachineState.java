@@ -0,0 +1,231 @@
+package mips;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * All of the state of the simulator that changes from cycle to cycle, held
+ * in two flat buffers: the current values, and the values to be written
+ * when the cycle is committed.  The state is divided into groups, such as
+ * the program counter, the register file and each pipeline register, and
+ * each group has <code>GROUP_SIZE</code> slots.  <code>Register</code>,
+ * <code>RegisterFile</code> and <code>PipelineRegister</code> are views
+ * of one group each.
+ *
+ * A bit set per group records which of its slots have been written during
+ * the cycle, so committing only copies those slots, however many slots
+ * there are.  A stall holds back the writes to whole groups with a mask of
+ * groups, and the held writes stay waiting until the next commit.  Any
+ * value at all can be written, since nothing is used to mean "no write".
+ */
+public class MachineState {
+	/**
+	 * The number of slots in each group.  Each slot of a group gets one bit
+	 * in the bit sets below, so there can be no more than 64.
+	 */
+	public static final int GROUP_SIZE = 64;
+	
+	/**
+	 * The number of bits to shift a group number by to get its first slot.
+	 */
+	static final int GROUP_SHIFT = 6;
+	
+	/**
+	 * The most groups there can be, since each gets one bit of the held
+	 * mask.
+	 */
+	public static final int MAX_GROUPS = 64;
+	
+	/**
+	 * The number of groups.
+	 */
+	private final int groups;
+	
+	/**
+	 * The current values of every slot.
+	 */
+	final long[] current;
+	
+	/**
+	 * The values to be written into the slots when the cycle is committed.
+	 */
+	final long[] next;
+	
+	/**
+	 * A bit set for each group of the slots written since the last commit.
+	 */
+	final long[] dirty;
+	
+	/**
+	 * A bit set for each group of the slots that have ever been written.
+	 */
+	final long[] used;
+	
+	/**
+	 * A bit set of the groups whose writes are held back at the next
+	 * commit.
+	 */
+	private long held = 0;
+	
+	/**
+	 * Create the state with every slot zero.
+	 *
+	 * @param groups The number of groups.
+	 */
+	public MachineState(int groups) {
+		if (groups < 1 || groups > MAX_GROUPS) {
+			throw new IllegalArgumentException("Between 1 and " + MAX_GROUPS + " groups are allowed");
+		}
+		
+		this.groups = groups;
+		current = new long[groups << GROUP_SHIFT];
+		next = new long[groups << GROUP_SHIFT];
+		dirty = new long[groups];
+		used = new long[groups];
+	}
+	
+	/**
+	 * @return The number of bytes written by <code>writeState</code>.
+	 */
+	public int getStateSize() {
+		return stateSize(groups);
+	}
+	
+	/**
+	 * @return The number of bytes <code>writeState</code> writes for the
+	 * given number of groups.
+	 */
+	public static int stateSize(int groups) {
+		return groups * groupStateSize() + 8;
+	}
+	
+	/**
+	 * @return The number of bytes <code>writeState</code> writes for each
+	 * group: the current and next value of each slot, followed by the bit
+	 * sets of dirty and used slots.
+	 */
+	public static int groupStateSize() {
+		return GROUP_SIZE * 16 + 8 + 8;
+	}
+	
+	/**
+	 * Hold back the writes to the given groups at the next commit, leaving
+	 * them waiting until the one after.
+	 *
+	 * @param mask A bit set of the groups to hold.
+	 */
+	public void hold(long mask) {
+		held |= mask;
+	}
+	
+	/**
+	 * Let the writes to the given groups through at the next commit after
+	 * all.
+	 *
+	 * @param mask A bit set of the groups to release.
+	 */
+	public void release(long mask) {
+		held &= ~mask;
+	}
+	
+	/**
+	 * Commit the cycle: copy every slot written since the last commit into
+	 * its current value, except in the groups being held, which are
+	 * released for the next cycle instead.
+	 */
+	public void commit() {
+		for (int group = 0; group < groups; group++) {
+			if (dirty[group] != 0) {
+				commitGroup(group);
+			}
+		}
+		
+		held = 0;
+	}
+	
+	/**
+	 * Commit a single group, or release it if it's being held.
+	 *
+	 * @param group The group to commit.
+	 */
+	public void commit(int group) {
+		commitGroup(group);
+		held &= ~(1L << group);
+	}
+	
+	/**
+	 * Put a group back to its initial state, with every slot zero, nothing
+	 * waiting to be written and its writes not held.
+	 *
+	 * @param group The group to clear.
+	 */
+	public void clear(int group) {
+		int first = group << GROUP_SHIFT;
+		Arrays.fill(current, first, first + GROUP_SIZE, 0);
+		Arrays.fill(next, first, first + GROUP_SIZE, 0);
+		dirty[group] = 0;
+		used[group] = 0;
+		held &= ~(1L << group);
+	}
+	
+	/**
+	 * Write the whole state, including values waiting to be written and
+	 * the groups being held, into the given buffer.
+	 *
+	 * @param buffer The buffer to write <code>getStateSize()</code> bytes
+	 * into.
+	 */
+	public void writeState(ByteBuffer buffer) {
+		for (int group = 0; group < groups; group++) {
+			int first = group << GROUP_SHIFT;
+			for (int slot = first; slot < first + GROUP_SIZE; slot++) {
+				buffer.putLong(current[slot]);
+				buffer.putLong(next[slot]);
+			}
+			
+			buffer.putLong(dirty[group]);
+			buffer.putLong(used[group]);
+		}
+		
+		buffer.putLong(held);
+	}
+	
+	/**
+	 * Replace the whole state with the state written by
+	 * <code>writeState</code>.
+	 *
+	 * @param buffer The buffer to read <code>getStateSize()</code> bytes
+	 * from.
+	 */
+	public void readState(ByteBuffer buffer) {
+		for (int group = 0; group < groups; group++) {
+			int first = group << GROUP_SHIFT;
+			for (int slot = first; slot < first + GROUP_SIZE; slot++) {
+				current[slot] = buffer.getLong();
+				next[slot] = buffer.getLong();
+			}
+			
+			dirty[group] = buffer.getLong();
+			used[group] = buffer.getLong();
+		}
+		
+		held = buffer.getLong() & (groups == MAX_GROUPS ? -1L : (1L << groups) - 1);
+	}
+	
+	private void commitGroup(int group) {
+		if ((held & (1L << group)) != 0) {
+			return;
+		}
+		
+		// copy over only the slots that have been written
+		int first = group << GROUP_SHIFT;
+		long written = dirty[group];
+		while (written != 0) {
+			int slot = first + Long.numberOfTrailingZeros(written);
+			current[slot] = next[slot];
+			written &= written - 1;
+		}
+		
+		dirty[group] = 0;
+	}
+}
@@ -0,0 +1,94 @@
+package mips;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file read through memory mapped windows.  A single buffer can't map
+ * more than 2 GB, so the file is mapped a window at a time, moving the 
+ * window whenever a read falls outside it.  Reading sequentially through
+ * a file therefore only maps each part of it once, and the parts that are
+ * skipped over are never read from disk at all.
+ */
+public class MappedFile {
+	/**
+	 * The usual size of a window.
+	 */
+	private static final long WINDOW_SIZE = 1L << 28;
+	
+	/**
+	 * Windows start on a multiple of this, to line up with pages.
+	 */
+	private static final long ALIGNMENT = 1 << 16;
+	
+	private final File file;
+	private final FileChannel channel;
+	private final long size;
+	
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	
+	/**
+	 * Open a file for reading.
+	 * 
+	 * @param file The file.
+	 * @throws IOException Thrown if the file can't be opened.
+	 */
+	public MappedFile(File file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.size = channel.size();
+	}
+	
+	/**
+	 * @return The size of the file in bytes.
+	 */
+	public long size() {
+		return size;
+	}
+	
+	/**
+	 * Get a read-only view of part of the file.  The view is big-endian 
+	 * and starts at position zero.
+	 * 
+	 * @param position The offset of the part in the file.
+	 * @param length The length of the part.
+	 * @return A buffer holding the part.
+	 * @throws EOFException Thrown if the part runs past the end of the file.
+	 * @throws IOException Thrown if the file can't be mapped.
+	 */
+	public ByteBuffer slice(long position, int length) throws IOException {
+		if (position < 0 || length < 0 || position + length > size) {
+			throw new EOFException(file + " ends part way through a record");
+		}
+		
+		if (window == null || position < windowStart || 
+			position + length > windowStart + window.capacity())
+		{
+			windowStart = position & ~(ALIGNMENT - 1);
+			long windowLength = Math.min(
+				Math.max(WINDOW_SIZE, position + length - windowStart), 
+				size - windowStart
+			);
+			window = channel.map(
+				FileChannel.MapMode.READ_ONLY, windowStart, windowLength
+			);
+		}
+		
+		ByteBuffer view = window.duplicate();
+		view.position((int)(position - windowStart));
+		view.limit(view.position() + length);
+		
+		return view.slice().asReadOnlyBuffer();
+	}
+	
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+}
@@ -2,7 +2,12 @@ package mips;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 /**
  * A simulator for memory that stores and retrieves data on word boundaries.
@@ -13,13 +18,111 @@ import java.util.ArrayList;
  * we are actually using values of length 32 bits.  The reason we use
  * longs is because Java has no concept of unsigned ints, and we want to 
  * avoid using negative numbers.
+ * 
+ * The memory covers the whole 32 bit address space.  It is split into
+ * fixed size pages of words that are only allocated the first time they
+ * are written, so untouched memory reads as zero and costs nothing.
+ * 
+ * The program image can optionally be memory mapped instead of read in.
+ * In that case words are read straight out of the mapped file until a page
+ * is first written, at which point that page is copied into a writable page.
+ * 
+ * A memory store can also be created as a copy-on-write view of another 
+ * one, sharing its pages and image until they are written.  This lets many
+ * simulations run over the same program at once without each holding a
+ * copy of it.
+ * 
+ * A program can also be loaded from an image already in memory, and a
+ * memory store can be reset to a new image, reusing the pages it has 
+ * already allocated, so one memory store can run many programs in turn.
  */
 public class MemoryStore {
 	/**
-	 * The internal representation of the memory.
+	 * The number of address bits used to index a word within a page.
 	 */
-	private ArrayList<Long> memory = new ArrayList<Long>();
-	            
+	private static final int PAGE_BITS = 12;
+	
+	/**
+	 * The number of words in a single page.
+	 */
+	public static final int PAGE_SIZE = 1 << PAGE_BITS;
+	
+	/**
+	 * Mask used to get the index of a word within its page.
+	 */
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	
+	/**
+	 * The number of pages needed to cover the 2^30 words of a 32 bit
+	 * address space.
+	 */
+	private static final int PAGE_COUNT = 1 << (30 - PAGE_BITS);
+	
+	/**
+	 * The internal representation of the memory.  Each entry is a page of
+	 * words, or null if that page has never been written.
+	 */
+	private final long[][] pages = new long[PAGE_COUNT][];
+	
+	/**
+	 * The number of address bits used to index a word within a single
+	 * segment of a mapped image.  A single buffer can't map more than 2 GB,
+	 * so larger images are split into several segments.
+	 */
+	private static final int SEGMENT_BITS = 28;
+	
+	/**
+	 * Mask used to get the index of a word within its image segment.
+	 */
+	private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+	
+	/**
+	 * The little-endian segments of the read-only program image backing any
+	 * page that hasn't been written yet, or null if the whole image was
+	 * read into pages up front.
+	 */
+	private ByteBuffer[] image = null;
+	
+	/**
+	 * The number of whole words in the read-only program image.
+	 */
+	private int imageWords = 0;
+	
+	/**
+	 * A bit set of the pages that have been marked as holding code.
+	 */
+	private final long[] codePages = new long[PAGE_COUNT / 64];
+	
+	/**
+	 * A bit set of the pages that still belong to the memory store this one
+	 * was copied from, and so must be copied before they're written.
+	 */
+	private final long[] sharedPages = new long[PAGE_COUNT / 64];
+	
+	/**
+	 * A bit set of the pages that have been written since the program was
+	 * loaded or since they were last taken by <code>takeDirtyPages</code>.
+	 */
+	private final long[] dirtyPages = new long[PAGE_COUNT / 64];
+	
+	/**
+	 * A bit set of the pages that have been allocated, so they can be found
+	 * without looking through every page.
+	 */
+	private final long[] allocatedPages = new long[PAGE_COUNT / 64];
+	
+	/**
+	 * The listeners to tell about stores into pages marked as holding code.
+	 */
+	private CodeListener[] codeListeners = new CodeListener[0];
+	
+	/**
+	 * Create an empty memory store with no image, for subclasses that keep
+	 * their contents somewhere else.
+	 */
+	protected MemoryStore() {
+	}
+	
 	/**
 	 * Create a new memory store from the given input file.
 	 * 
@@ -28,25 +131,312 @@ public class MemoryStore {
 	 * file of the given name.
 	 */
 	public MemoryStore(String filename) throws IOException {
-		// create a new input stream
+		this(filename, false);
+	}
+	
+	/**
+	 * Create a new memory store from the given input file, either reading
+	 * the whole file in or memory mapping it.  A mapped image is only copied
+	 * into memory a page at a time, as each page is first written.
+	 * 
+	 * @param filename The name of the input file.
+	 * @param mapped Whether or not to memory map the input file.
+	 * @throws IOException Thrown if there's a problem opening the
+	 * file of the given name.
+	 */
+	public MemoryStore(String filename, boolean mapped) throws IOException {
+		if (mapped) {
+			mapImage(filename);
+		} else {
+			readImage(filename);
+		}
+		
+		// the image itself can always be loaded again, so it isn't dirty
+		Arrays.fill(dirtyPages, 0);
+	}
+	
+	/**
+	 * Create a new memory store from a program image held in memory.
+	 * 
+	 * @param image The bytes of the program, in the same format as an
+	 * input file.  The array is copied.
+	 */
+	public MemoryStore(byte[] image) {
+		this(ByteBuffer.wrap(image));
+	}
+	
+	/**
+	 * Create a new memory store from a program image held in memory.
+	 * 
+	 * @param image The bytes of the program from the buffer's position to
+	 * its limit, in the same format as an input file.  They are copied, and
+	 * the position of the buffer isn't changed.
+	 */
+	public MemoryStore(ByteBuffer image) {
+		load(image);
+	}
+	
+	/**
+	 * Create a new memory store from a program image held in memory.
+	 * 
+	 * @param image The words of the program from the buffer's position to
+	 * its limit, one per int.  They are copied, and the position of the
+	 * buffer isn't changed.
+	 */
+	public MemoryStore(IntBuffer image) {
+		load(image.slice(), 0, false);
+	}
+	
+	/**
+	 * Create a new memory store holding the same contents as the given one.
+	 * The pages and image of the given memory store are shared rather than
+	 * copied, and each page is only copied the first time it's written, so
+	 * the given memory store must not be written to while this one is in
+	 * use.  Any number of memory stores can share the same one from 
+	 * different threads.
+	 * 
+	 * @param base The memory store to copy.
+	 */
+	public MemoryStore(MemoryStore base) {
+		image = base.image;
+		imageWords = base.imageWords;
+		
+		for (int i = 0; i < PAGE_COUNT; i++) {
+			if (base.pages[i] != null) {
+				pages[i] = base.pages[i];
+				sharedPages[i >>> 6] |= 1L << i;
+				allocatedPages[i >>> 6] |= 1L << i;
+			}
+		}
+	}
+	
+	/**
+	 * Replace the whole contents of memory with a new program image, as if
+	 * the memory store had just been created from it.  Pages already
+	 * allocated are reused rather than thrown away, and anything caching
+	 * decoded instructions is only told about the words that change, so a
+	 * run of similar programs doesn't have to decode them all again.
+	 * 
+	 * @param image The bytes of the program, in the same format as an
+	 * input file.
+	 */
+	public void reset(byte[] image) {
+		reset(ByteBuffer.wrap(image));
+	}
+	
+	/**
+	 * Replace the whole contents of memory with a new program image.
+	 * 
+	 * @param image The bytes of the program from the buffer's position to
+	 * its limit.  The position of the buffer isn't changed.
+	 * @see #reset(byte[])
+	 */
+	public void reset(ByteBuffer image) {
+		load(image);
+	}
+	
+	/**
+	 * Replace the whole contents of memory with a new program image.
+	 * 
+	 * @param image The words of the program from the buffer's position to
+	 * its limit, one per int.  The position of the buffer isn't changed.
+	 * @see #reset(byte[])
+	 */
+	public void reset(IntBuffer image) {
+		load(image.slice(), 0, false);
+	}
+	
+	/**
+	 * Load a program image from the bytes remaining in the given buffer.
+	 * 
+	 * @param image The bytes of the program, which are read from a view so
+	 * the buffer itself isn't changed.
+	 */
+	private void load(ByteBuffer image) {
+		ByteBuffer bytes = image.slice().order(ByteOrder.LITTLE_ENDIAN);
+		IntBuffer words = bytes.asIntBuffer();
+		
+		// a trailing partial word is padded with zeros
+		bytes.position(words.remaining() * 4);
+		load(words, partialWord(bytes), bytes.hasRemaining());
+	}
+	
+	/**
+	 * Replace the contents of memory with the given words, followed by a
+	 * trailing partial word if there is one, and zeros everywhere else.
+	 * 
+	 * @param words The whole words of the program, from index zero.
+	 * @param tail The trailing partial word, padded with zeros.
+	 * @param hasTail Whether there is a trailing partial word.
+	 */
+	private void load(IntBuffer words, long tail, boolean hasTail) {
+		int count = words.remaining();
+		int length = count + (hasTail ? 1 : 0);
+		
+		// every page the old or new image covers, and then any other page
+		// that has been allocated
+		int imagePages = (Math.max(length, imageWords) + PAGE_MASK) >>> PAGE_BITS;
+		for (int pageIndex = 0; pageIndex < imagePages; pageIndex++) {
+			loadPage(pageIndex, words, tail, hasTail);
+		}
+		
+		for (int i = imagePages >>> 6; i < allocatedPages.length; i++) {
+			long bits = allocatedPages[i];
+			while (bits != 0) {
+				int pageIndex = (i << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				
+				if (pageIndex >= imagePages) {
+					loadPage(pageIndex, words, tail, hasTail);
+				}
+			}
+		}
+		
+		// everything is in pages now, and none of it is shared or dirty
+		image = null;
+		imageWords = 0;
+		Arrays.fill(sharedPages, 0);
+		Arrays.fill(dirtyPages, 0);
+	}
+	
+	/**
+	 * Replace the contents of one page with its part of the given words,
+	 * and zeros after them.
+	 * 
+	 * @param pageIndex The index of the page.
+	 * @param words The whole words of the program, from index zero.
+	 * @param tail The trailing partial word, padded with zeros.
+	 * @param hasTail Whether there is a trailing partial word.
+	 */
+	private void loadPage(int pageIndex, IntBuffer words, long tail, boolean hasTail) {
+		int count = words.remaining();
+		int first = pageIndex << PAGE_BITS;
+		long[] page = pages[pageIndex];
+		
+		// tell anything caching decoded instructions about the words that
+		// change, while the old contents can still be read
+		if ((codePages[pageIndex >>> 6] & (1L << pageIndex)) != 0) {
+			for (int i = 0; i < PAGE_SIZE; i++) {
+				int address = first + i;
+				long value = address < count ? words.get(address) & 0xFFFFFFFFL :
+					address == count && hasTail ? tail : 0;
+				
+				if (getValue((long)address << 2) != value) {
+					for (CodeListener listener : codeListeners) {
+						listener.codeModified((long)address << 2);
+					}
+				}
+			}
+		}
+		
+		// pages belonging to another memory store can't be reused
+		if ((sharedPages[pageIndex >>> 6] & (1L << pageIndex)) != 0) {
+			page = null;
+			pages[pageIndex] = null;
+			allocatedPages[pageIndex >>> 6] &= ~(1L << pageIndex);
+		}
+		
+		if (first >= count + (hasTail ? 1 : 0)) {
+			// nothing of the image is in this page, so it's all zero
+			if (page != null) {
+				Arrays.fill(page, 0);
+			}
+			return;
+		}
+		
+		if (page == null) {
+			page = new long[PAGE_SIZE];
+			pages[pageIndex] = page;
+			allocatedPages[pageIndex >>> 6] |= 1L << pageIndex;
+		}
+		
+		int end = Math.max(Math.min(count - first, PAGE_SIZE), 0);
+		for (int i = 0; i < end; i++) {
+			page[i] = words.get(first + i) & 0xFFFFFFFFL;
+		}
+		Arrays.fill(page, end, PAGE_SIZE, 0);
+		
+		if (hasTail && count - first < PAGE_SIZE) {
+			page[count - first] = tail;
+		}
+	}
+	
+	/**
+	 * Read the whole of the given input file into memory pages.
+	 * 
+	 * @param filename The name of the input file.
+	 * @throws IOException Thrown if there's a problem reading the file.
+	 */
+	private void readImage(String filename) throws IOException {
 		FileInputStream input = new FileInputStream(filename);
 		
-		// create a place to store the words we read in
-		byte[] b = new byte[4];
+		try {
+			FileChannel channel = input.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE * 4);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			long location = 0;
+			
+			// read in the data in the given file a buffer at a time
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				
+				// add every complete word to our memory store
+				while (buffer.remaining() >= 4) {
+					storeValue(location, buffer.getInt() & 0xFFFFFFFFL);
+					location += 4;
+				}
+				
+				buffer.compact();
+			}
+			
+			// a trailing partial word is padded with zeros
+			buffer.flip();
+			if (buffer.hasRemaining()) {
+				storeValue(location, partialWord(buffer));
+			}
+		} finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Memory map the given input file as the read-only image behind
+	 * every page that hasn't been written.
+	 * 
+	 * @param filename The name of the input file.
+	 * @throws IOException Thrown if there's a problem mapping the file.
+	 */
+	private void mapImage(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
 		
-		// read in the data in the given file
-		while (input.read(b) != -1) {
-			if (memory.size() == 1027) {
-				int foo = 1;
+		try {
+			FileChannel channel = file.getChannel();
+			long size = Math.min(channel.size(), 0x100000000L);
+			long segmentBytes = 4L << SEGMENT_BITS;
+			
+			imageWords = (int)(size >>> 2);
+			image = new ByteBuffer[(int)((size + segmentBytes - 1) / segmentBytes)];
+			
+			for (int i = 0; i < image.length; i++) {
+				long start = i * segmentBytes;
+				image[i] = channel.map(
+					FileChannel.MapMode.READ_ONLY, 
+					start, 
+					Math.min(segmentBytes, size - start)
+				).order(ByteOrder.LITTLE_ENDIAN);
 			}
-			// create a word from the 4 bytes
-			long word = getUnsignedValue(b[0]);
-			word += getUnsignedValue(b[1]) << 8;
-			word += getUnsignedValue(b[2]) << 16;
-			word += getUnsignedValue(b[3]) << 24;
 			
-			// add the word to our memory store
-			memory.add(word);
+			// a trailing partial word is padded with zeros and written
+			// into its page straight away
+			if ((size & 3) != 0) {
+				ByteBuffer tail = image[image.length - 1].duplicate();
+				tail.order(ByteOrder.LITTLE_ENDIAN);
+				tail.position((int)((size & ~3L) - (image.length - 1) * segmentBytes));
+				storeValue(size & ~3L, partialWord(tail));
+			}
+		} finally {
+			// the mapping stays valid after the file is closed
+			file.close();
 		}
 	}
 	
@@ -59,19 +449,20 @@ public class MemoryStore {
 	 */
 	public long getValue(long location) {
 		// we want to access the memory on a word boundary
-		long memoryAddress = location >> 2;
+		int memoryAddress = wordAddress(location);
 		
-		// error if we're out of bounds
-		if (memoryAddress >= memory.size()) {
-			throw new IllegalArgumentException("Memory address out of bounds");
+		// memory that has never been written comes from the image if
+		// there is one, otherwise it reads as zero
+		long[] page = pages[memoryAddress >>> PAGE_BITS];
+		if (page == null) {
+			if (memoryAddress < imageWords) {
+				return imageValue(memoryAddress);
+			}
+			
+			return 0;
 		}
 		
-		// Return the word we want.  Note that it should be safe to
-		// cast memoryAddress to the int required by ArrayList.get because
-		// we know that the given location is at most 32 bits long, so shifting
-		// right two bits should give us a non-negative number every time we
-		// go to cast it.
-		return memory.get((int)memoryAddress);
+		return page[memoryAddress & PAGE_MASK];
 	}
 	
 	/**
@@ -84,19 +475,192 @@ public class MemoryStore {
 	 */
 	public void storeValue(long location, long value) {
 		// get the word address from the byte address
-		long memoryAddress = location >> 2;
+		int memoryAddress = wordAddress(location);
+		
+		// allocate the page the first time it's written, and copy it
+		// the first time it's written if it's shared
+		int pageIndex = memoryAddress >>> PAGE_BITS;
+		long[] page = pages[pageIndex];
+		if (page == null) {
+			page = allocatePage(pageIndex);
+		} else if ((sharedPages[pageIndex >>> 6] & (1L << pageIndex)) != 0) {
+			page = copyPage(pageIndex);
+		}
+		
+		page[memoryAddress & PAGE_MASK] = value;
+		dirtyPages[pageIndex >>> 6] |= 1L << pageIndex;
+		
+		// let anything caching decoded instructions know about the change
+		if ((codePages[pageIndex >>> 6] & (1L << pageIndex)) != 0) {
+			for (CodeListener listener : codeListeners) {
+				listener.codeModified(location);
+			}
+		}
+	}
+	
+	/**
+	 * Get the indices of every page written since the last time they were
+	 * taken, or since the program was loaded, and start tracking writes 
+	 * afresh.
+	 * 
+	 * @return The indices of the written pages, in increasing order.
+	 */
+	public int[] takeDirtyPages() {
+		int count = 0;
+		for (long bits : dirtyPages) {
+			count += Long.bitCount(bits);
+		}
+		
+		int[] indices = new int[count];
+		int next = 0;
+		for (int i = 0; i < dirtyPages.length; i++) {
+			long bits = dirtyPages[i];
+			while (bits != 0) {
+				indices[next++] = (i << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+			}
+			
+			dirtyPages[i] = 0;
+		}
+		
+		return indices;
+	}
+	
+	/**
+	 * Copy the contents of a page.
+	 * 
+	 * @param pageIndex The index of the page.
+	 * @return A copy of the <code>PAGE_SIZE</code> words of the page.
+	 */
+	public long[] getPage(int pageIndex) {
+		long[] page = pages[pageIndex];
+		if (page != null) {
+			return page.clone();
+		}
 		
-		// error if we're out of bounds
-		if (memoryAddress >= memory.size()) {
-			throw new IllegalArgumentException("Memory address out of bounds");
+		long[] copy = new long[PAGE_SIZE];
+		int first = pageIndex << PAGE_BITS;
+		int end = Math.min(imageWords - first, PAGE_SIZE);
+		for (int i = 0; i < end; i++) {
+			copy[i] = imageValue(first + i);
 		}
 		
-		// Set the word we want.  Note that it should be safe to
-		// cast memoryAddress to the int required by ArrayList.get because
-		// we know that the given location is at most 32 bits long, so shifting
-		// right two bits should give us a non-negative number every time we
-		// go to cast it.
-		memory.set((int)memoryAddress, value);
+		return copy;
+	}
+	
+	/**
+	 * Replace the contents of a page, such as when restoring a checkpoint.
+	 * The page isn't counted as dirty, but anything caching decoded
+	 * instructions from it is told about the change.
+	 * 
+	 * @param pageIndex The index of the page.
+	 * @param words The <code>PAGE_SIZE</code> words of the page, which
+	 * are copied.
+	 */
+	public void restorePage(int pageIndex, long[] words) {
+		if (words.length != PAGE_SIZE) {
+			throw new IllegalArgumentException("Page must hold " + PAGE_SIZE + " words");
+		}
+		
+		pages[pageIndex] = words.clone();
+		sharedPages[pageIndex >>> 6] &= ~(1L << pageIndex);
+		allocatedPages[pageIndex >>> 6] |= 1L << pageIndex;
+		
+		if ((codePages[pageIndex >>> 6] & (1L << pageIndex)) != 0) {
+			long first = (long)pageIndex << (PAGE_BITS + 2);
+			for (int i = 0; i < PAGE_SIZE; i++) {
+				for (CodeListener listener : codeListeners) {
+					listener.codeModified(first + 4 * i);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Add a listener to be told whenever a page marked as holding code
+	 * is written.
+	 * 
+	 * @param listener The listener to add.
+	 */
+	public void addCodeListener(CodeListener listener) {
+		CodeListener[] listeners = new CodeListener[codeListeners.length + 1];
+		System.arraycopy(codeListeners, 0, listeners, 0, codeListeners.length);
+		listeners[codeListeners.length] = listener;
+		codeListeners = listeners;
+	}
+	
+	/**
+	 * Mark the page containing the given location as holding code, so that
+	 * the code listeners are told about any later stores into it.
+	 * 
+	 * @param location A byte address within the page.
+	 */
+	public void markCode(long location) {
+		int pageIndex = wordAddress(location) >>> PAGE_BITS;
+		codePages[pageIndex >>> 6] |= 1L << pageIndex;
+	}
+	
+	/**
+	 * Allocate the page of the given index, copying in its contents from
+	 * the image if the image covers any of it.
+	 * 
+	 * @param pageIndex The index of the page to allocate.
+	 * @return The newly allocated page.
+	 */
+	private long[] allocatePage(int pageIndex) {
+		long[] page = new long[PAGE_SIZE];
+		int first = pageIndex << PAGE_BITS;
+		int end = Math.min(imageWords - first, PAGE_SIZE);
+		
+		for (int i = 0; i < end; i++) {
+			page[i] = imageValue(first + i);
+		}
+		
+		pages[pageIndex] = page;
+		allocatedPages[pageIndex >>> 6] |= 1L << pageIndex;
+		return page;
+	}
+	
+	/**
+	 * Replace the shared page of the given index with a private copy.
+	 * 
+	 * @param pageIndex The index of the page to copy.
+	 * @return The copied page.
+	 */
+	private long[] copyPage(int pageIndex) {
+		long[] page = pages[pageIndex].clone();
+		
+		pages[pageIndex] = page;
+		sharedPages[pageIndex >>> 6] &= ~(1L << pageIndex);
+		return page;
+	}
+	
+	/**
+	 * Read a word straight out of the mapped image.
+	 * 
+	 * @param memoryAddress The word address to read, which must be within
+	 * the image.
+	 * @return The unsigned word at the given address.
+	 */
+	private long imageValue(int memoryAddress) {
+		ByteBuffer segment = image[memoryAddress >>> SEGMENT_BITS];
+		return segment.getInt((memoryAddress & SEGMENT_MASK) << 2) & 0xFFFFFFFFL;
+	}
+	
+	/**
+	 * Build a word from the fewer than four bytes remaining in the given
+	 * buffer, padding the missing high bytes with zeros.
+	 * 
+	 * @param buffer The buffer holding the trailing bytes.
+	 * @return The padded word.
+	 */
+	private long partialWord(ByteBuffer buffer) {
+		long word = 0;
+		for (int shift = 0; buffer.hasRemaining(); shift += 8) {
+			word += getUnsignedValue(buffer.get()) << shift;
+		}
+		
+		return word;
 	}
 	
 	public long getUnsignedValue(byte b) {
@@ -104,4 +668,15 @@ public class MemoryStore {
 		
 		return 256 + b;
 	}
+	
+	/**
+	 * Convert a byte address into a word address.  Addresses are 32 bits
+	 * wide, so any higher bits of the location are ignored.
+	 * 
+	 * @param location The byte address.
+	 * @return The index of the word containing the byte address.
+	 */
+	private static int wordAddress(long location) {
+		return (int)((location & 0xFFFFFFFFL) >>> 2);
+	}
 }
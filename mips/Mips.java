@@ -1,13 +1,34 @@
 package mips;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 
+import javax.management.JMException;
+
+import mips.cache.CacheHierarchy;
+import mips.checkpoint.Checkpoint;
+import mips.checkpoint.CheckpointLog;
+import mips.functional.FunctionalEngine;
+import mips.functional.Interpreter;
+import mips.functional.ThreadedEngine;
+import mips.functional.TieredEngine;
+import mips.metrics.SimulatorMetrics;
+import mips.outoforder.OutOfOrderConfig;
+import mips.outoforder.OutOfOrderCore;
 import mips.pipeline.PipelineRegister;
+import mips.pipeline.prediction.BranchPredictor;
 import mips.pipeline.stages.Decode;
 import mips.pipeline.stages.Execute;
 import mips.pipeline.stages.Fetch;
 import mips.pipeline.stages.Memory;
 import mips.pipeline.stages.Writeback;
+import mips.profile.Profiler;
+import mips.trace.PipelineTracer;
+import mips.trace.TraceWriter;
 
 /**
  * The main class for the MIPS simulator.  This deals with constructing
@@ -15,35 +36,92 @@ import mips.pipeline.stages.Writeback;
  * cycles and instructions.
  */
 public class Mips {
+	// the groups of the machine state holding each set of registers, in
+	// the order they're saved in a checkpoint
+	private static final int PC = 0;
+	private static final int REGISTERS = 1;
+	private static final int IF_ID = 2;
+	private static final int ID_EX = 3;
+	private static final int EX_MEM = 4;
+	private static final int MEM_WB = 5;
+	private static final int GROUPS = 6;
+	
+	/**
+	 * The names of the groups, for describing checkpoints
+	 */
+	private static final String[] GROUP_NAMES = 
+		{ "PC", "", "IF/ID ", "ID/EX ", "EX/MEM ", "MEM/WB " };
+	
+	/**
+	 * All of the registers of the simulator, double buffered so that the
+	 * whole pipeline moves on a cycle with one commit
+	 */
+	private final MachineState state = new MachineState(GROUPS);
+	
 	/**
 	 * The pipeline register between the fetch and decode stages
 	 */
-	private final PipelineRegister if_id = new PipelineRegister();
+	private final PipelineRegister if_id = new PipelineRegister(state, IF_ID);
 	
 	/**
 	 * The pipeline register between the decode and execute stages
 	 */
-	private final PipelineRegister id_ex = new PipelineRegister();
+	private final PipelineRegister id_ex = new PipelineRegister(state, ID_EX);
 	
 	/**
 	 * The pipeline register between the execute and memory stages
 	 */
-	private final PipelineRegister ex_mem = new PipelineRegister();
+	private final PipelineRegister ex_mem = new PipelineRegister(state, EX_MEM);
 	
 	/**
 	 * The pipeline register between the memory and writeback stages
 	 */
-	private final PipelineRegister mem_wb = new PipelineRegister();
+	private final PipelineRegister mem_wb = new PipelineRegister(state, MEM_WB);
 	
 	/**
 	 * The program counter
 	 */
-	private final ProgramCounter programCounter = new ProgramCounter();
+	private final ProgramCounter programCounter = new ProgramCounter(state, PC);
 	
 	/**
 	 * The register file for the CPU
 	 */
-	private final RegisterFile registerFile = new RegisterFile();
+	private final RegisterFile registerFile = new RegisterFile(state, REGISTERS);
+	
+	/**
+	 * The memory holding the program and its data
+	 */
+	private final MemoryStore memoryStore;
+	
+	/**
+	 * The number of bytes of register state saved in a checkpoint
+	 */
+	private static final int STATE_SIZE = MachineState.stateSize(GROUPS);
+	
+	/**
+	 * The registers a program starts with, all zero
+	 */
+	private static final long[] NO_REGISTERS = new long[32];
+	
+	/**
+	 * The default number of cycles between checkpoints
+	 */
+	private static final long CHECKPOINT_INTERVAL = 10000000;
+	
+	/**
+	 * The number of instructions printed in a flat profile
+	 */
+	private static final int PROFILE_LINES = 20;
+	
+	/**
+	 * Guesses where fetch should go next
+	 */
+	private final BranchPredictor predictor;
+	
+	/**
+	 * The caches between the pipeline and memory
+	 */
+	private final CacheHierarchy caches;
 	
 	/**
 	 * The fetch pipeline stage
@@ -70,24 +148,235 @@ public class Mips {
 	 */
 	private final Writeback writeback;
 	
+	/**
+	 * The number of instructions completed so far
+	 */
+	private long instructionCount = 0;
+	
+	/**
+	 * The number of cycles run so far
+	 */
+	private long cycleCount = 0;
+	
+	/**
+	 * The number of cycles the pipeline stays frozen for while a data cache
+	 * miss is filled
+	 */
+	private int dataMissCycles = 0;
+	
+	/**
+	 * Where the counts are published for JMX clients, if anywhere
+	 */
+	private SimulatorMetrics metrics;
+	
+	/**
+	 * Records every cycle of the pipeline, if it's being traced
+	 */
+	private PipelineTracer tracer;
+	
+	/**
+	 * Counts the cycles of each instruction, if the run is being profiled
+	 */
+	private Profiler profiler;
+	
 	/**
 	 * The main launching point for the program.  This should take as input
-	 * a single string that is the path to the input binary file.
+	 * a single string that is the path to the input binary file, optionally
+	 * preceded by any of these options:
+	 * <ul>
+	 * <li><code>-mmap</code> to memory map the file rather than reading 
+	 * it in</li>
+	 * <li><code>-functional</code> to execute the program at the instruction
+	 * set level rather than running it through the pipeline</li>
+	 * <li><code>-threaded</code> to execute the program at the instruction
+	 * set level using translated basic blocks</li>
+	 * <li><code>-jit</code> to execute the program at the instruction set 
+	 * level, compiling hot basic blocks into JVM bytecode</li>
+	 * <li><code>-ooo C</code> to time the program on an out of order core
+	 * in the configuration read by <code>OutOfOrderConfig.parse</code>, 
+	 * such as <code>default</code> or <code>width=2,rob=64,gshare</code>, 
+	 * rather than on the pipeline</li>
+	 * <li><code>-checkpoint FILE</code> to periodically append checkpoints
+	 * of the pipeline to the given file, first resuming from the last 
+	 * checkpoint in it if there is one</li>
+	 * <li><code>-interval N</code> to checkpoint every N cycles rather than
+	 * every ten million</li>
+	 * <li><code>-config C</code> to run the pipeline in the configuration
+	 * read by <code>PipelineConfig.parse</code>, such as 
+	 * <code>gshare,btb</code>, and report the accuracy of its branch 
+	 * predictor and the hit rates of its caches</li>
+	 * <li><code>-jmx</code> to publish live metrics of the pipeline over
+	 * JMX, named after the input file</li>
+	 * <li><code>-trace FILE</code> to write a compressed trace of every 
+	 * cycle of the pipeline to the given file</li>
+	 * <li><code>-rawtrace FILE</code> to write the trace without 
+	 * compressing it</li>
+	 * <li><code>-profile FILE</code> to count the cycles spent on each
+	 * instruction, print the instructions that took the most, and write 
+	 * the cycles spent in each chain of calls to the given file as 
+	 * collapsed stacks</li>
+	 * </ul>
 	 * 
-	 * @param args The path to the input file.
+	 * @param args The options and the path to the input file.
 	 */
 	public static void main(String[] args) {
-		if (args.length < 1) {
+		boolean mapped = false;
+		boolean functional = false;
+		boolean threaded = false;
+		boolean jit = false;
+		OutOfOrderConfig outOfOrder = null;
+		String checkpointFile = null;
+		long interval = CHECKPOINT_INTERVAL;
+		boolean jmx = false;
+		PipelineConfig config = null;
+		String traceFile = null;
+		boolean compressTrace = true;
+		String profileFile = null;
+		int i = 0;
+		
+		// read any options before the filename
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if (args[i].equals("-mmap")) {
+				mapped = true;
+			} else if (args[i].equals("-functional")) {
+				functional = true;
+			} else if (args[i].equals("-threaded")) {
+				threaded = true;
+			} else if (args[i].equals("-jit")) {
+				jit = true;
+			} else if (args[i].equals("-ooo") && i + 1 < args.length) {
+				try {
+					outOfOrder = OutOfOrderConfig.parse(args[++i]);
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+					return;
+				}
+			} else if (args[i].equals("-checkpoint") && i + 1 < args.length) {
+				checkpointFile = args[++i];
+			} else if (args[i].equals("-interval") && i + 1 < args.length) {
+				interval = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-config") && i + 1 < args.length) {
+				try {
+					config = PipelineConfig.parse(args[++i]);
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+					return;
+				}
+			} else if (args[i].equals("-jmx")) {
+				jmx = true;
+			} else if (args[i].equals("-trace") && i + 1 < args.length) {
+				traceFile = args[++i];
+				compressTrace = true;
+			} else if (args[i].equals("-rawtrace") && i + 1 < args.length) {
+				traceFile = args[++i];
+				compressTrace = false;
+			} else if (args[i].equals("-profile") && i + 1 < args.length) {
+				profileFile = args[++i];
+			} else {
+				System.out.println("Unknown option \"" + args[i] + "\"");
+				return;
+			}
+		}
+		
+		if (i >= args.length) {
 			System.out.println("You must supply an input filename");
 		} else {
 			try {
+				if (functional || threaded || jit) {
+					// run the program without the pipeline
+					MemoryStore memoryStore = new MemoryStore(args[i], mapped);
+					FunctionalEngine engine;
+					if (jit) {
+						engine = new TieredEngine(memoryStore);
+					} else if (threaded) {
+						engine = new ThreadedEngine(memoryStore);
+					} else {
+						engine = new Interpreter(memoryStore);
+					}
+					
+					engine.run();
+					return;
+				}
+				
+				if (outOfOrder != null) {
+					// time the program on an out of order core instead
+					OutOfOrderCore core = new OutOfOrderCore(
+						new MemoryStore(args[i], mapped), outOfOrder
+					);
+					
+					System.out.println(core.simulate());
+					System.out.println(core);
+					System.out.println(core.getPredictor());
+					if (outOfOrder.getPipeline().hasCaches()) {
+						System.out.println(core.getCaches());
+					}
+					return;
+				}
+				
 				// create the simulator
-				Mips mips = new Mips(args[0]);
+				Mips mips = config == null ? 
+					new Mips(args[i], mapped) :
+					new Mips(new MemoryStore(args[i], mapped), config);
+				
+				if (jmx) {
+					SimulatorMetrics metrics = new SimulatorMetrics();
+					try {
+						metrics.register(args[i]);
+					} catch (JMException e) {
+						System.out.println("Error registering metrics: " + e.getMessage());
+						return;
+					}
+					mips.setMetrics(metrics);
+				}
+				
+				if (traceFile != null) {
+					try {
+						mips.startTrace(new TraceWriter(new File(traceFile), compressTrace));
+					} catch (IOException e) {
+						System.out.println("Error creating trace file named \"" + traceFile + "\"");
+						return;
+					}
+				}
+				
+				if (profileFile != null) {
+					mips.setProfiler(new Profiler());
+				}
 				
-				// run the simulator
-				mips.run();
+				try {
+					if (checkpointFile != null) {
+						mips.run(new File(checkpointFile), interval);
+					} else {
+						// run the simulator
+						mips.run();
+					}
+				} finally {
+					mips.stopTrace();
+				}
+				
+				if (config != null) {
+					System.out.println(mips.getPredictor());
+					if (config.hasCaches()) {
+						System.out.println(mips.getCaches());
+					}
+				}
+				
+				if (profileFile != null) {
+					System.out.println();
+					mips.getProfiler().writeFlat(System.out, PROFILE_LINES);
+					
+					try {
+						Writer out = new FileWriter(profileFile);
+						try {
+							mips.getProfiler().writeCollapsed(out);
+						} finally {
+							out.close();
+						}
+					} catch (IOException e) {
+						System.out.println("Error writing profile named \"" + profileFile + "\"");
+					}
+				}
 			} catch (IOException e) {
-				System.out.println("Error opening file named \"" + args[0] + "\"");
+				System.out.println("Error opening file named \"" + args[i] + "\"");
 			}
 		}
 	}
@@ -101,14 +390,76 @@ public class Mips {
 	 * @throws IOException Thrown if there's a problem reading the input file.
 	 */
 	public Mips(String filename) throws IOException {
-		// create the memory store
-		MemoryStore memoryStore = new MemoryStore(filename);
+		this(filename, false);
+	}
+	
+	/**
+	 * Create a new MIPS simulator with the given filename as the location
+	 * of the file that provides the input to the simulator.
+	 * 
+	 * @param filename The location of the input file.
+	 * @param mapped Whether to memory map the input file rather than
+	 * reading it all in up front.
+	 * 
+	 * @throws IOException Thrown if there's a problem reading the input file.
+	 */
+	public Mips(String filename, boolean mapped) throws IOException {
+		this(new MemoryStore(filename, mapped), new PipelineConfig());
+	}
+	
+	/**
+	 * Create a new MIPS simulator running a program image held in memory,
+	 * such as one received over the network.
+	 * 
+	 * @param image The bytes of the program, in the same format as an
+	 * input file.
+	 */
+	public Mips(byte[] image) {
+		this(new MemoryStore(image), new PipelineConfig());
+	}
+	
+	/**
+	 * Create a new MIPS simulator running a program image held in memory.
+	 * 
+	 * @param image The bytes of the program from the buffer's position to
+	 * its limit.
+	 */
+	public Mips(ByteBuffer image) {
+		this(new MemoryStore(image), new PipelineConfig());
+	}
+	
+	/**
+	 * Create a new MIPS simulator running a program image held in memory.
+	 * 
+	 * @param image The words of the program from the buffer's position to
+	 * its limit, one per int.
+	 */
+	public Mips(IntBuffer image) {
+		this(new MemoryStore(image), new PipelineConfig());
+	}
+	
+	/**
+	 * Create a new MIPS simulator running the program in the given memory
+	 * store through a pipeline with the given configuration.
+	 * 
+	 * @param memoryStore The memory holding the program to run.  It is
+	 * written to as the program runs.
+	 * @param config The configuration of the pipeline.
+	 */
+	public Mips(MemoryStore memoryStore, PipelineConfig config) {
+		this.memoryStore = memoryStore;
+		
+		predictor = BranchPredictor.create(config);
+		caches = new CacheHierarchy(config);
 		
 		// create the various pipeline stages
-		fetch = new Fetch(if_id, memoryStore, programCounter);
-		decode = new Decode(if_id, id_ex, registerFile, programCounter);
-		execute = new Execute(id_ex, ex_mem, mem_wb);
-		memory = new Memory(ex_mem, mem_wb, memoryStore);
+		fetch = new Fetch(if_id, memoryStore, programCounter, predictor, caches);
+		decode = new Decode(
+			if_id, id_ex, ex_mem, registerFile, programCounter, memoryStore, 
+			config, predictor
+		);
+		execute = new Execute(id_ex, ex_mem, mem_wb, config);
+		memory = new Memory(ex_mem, mem_wb, memoryStore, caches);
 		writeback = new Writeback(mem_wb, registerFile);	
 	}
 	
@@ -116,53 +467,437 @@ public class Mips {
 	 * Runs the MIPS simulator and prints the results out after completion.
 	 */
 	public void run() {
-		// keep track of the instructions run and the cycles run
-		int instructionCount = 0;
-		int cycleCount = 0;
+		// output the results
+		System.out.println(simulate());
+	}
+	
+	/**
+	 * Runs the MIPS simulator, checkpointing it to the given log file every
+	 * so many cycles, and prints the results out after completion.  If the 
+	 * log already holds checkpoints the simulator carries on from the last
+	 * one.
+	 * 
+	 * @param log The checkpoint log file.
+	 * @param interval The number of cycles between checkpoints.
+	 * @throws IOException Thrown if there's a problem with the log.
+	 */
+	public void run(File log, long interval) throws IOException {
+		CheckpointLog checkpoints = new CheckpointLog(log, this);
+		
+		try {
+			while (!simulate(interval)) {
+				checkpoints.save(checkpoint());
+			}
+		} finally {
+			checkpoints.close();
+		}
+		
+		// output the results
+		System.out.println(getResult());
+	}
+	
+	/**
+	 * Runs the MIPS simulator until the program halts.
+	 * 
+	 * @return The instruction count, cycle count and final register file
+	 * of the run.
+	 */
+	public SimulationResult simulate() {
+		simulate(Long.MAX_VALUE);
 		
+		return getResult();
+	}
+	
+	/**
+	 * Runs the MIPS simulator until the program halts or the given number
+	 * of cycles have been run.
+	 * 
+	 * @param cycles The most cycles to run.
+	 * @return Whether the program has halted.
+	 */
+	public boolean simulate(long cycles) {
 		// while we haven't halted
-		while(!writeback.done()) {
-			// run all the pipeline stages
-			fetch.run();
-			// note: writeback has to run before decode to 
-			// avoid data hazards
-			writeback.run();
-			decode.run();
-			execute.run();
-			memory.run();
+		for (; cycles > 0 && !writeback.done(); cycles--) {
+			// a load or store that misses in the data cache freezes the
+			// whole pipeline until its line arrives
+			if (dataMissCycles == 0 && caches.isEnabled()) {
+				dataMissCycles = memory.access();
+			}
+			
+			boolean frozen = dataMissCycles > 0;
+			if (frozen) {
+				dataMissCycles--;
+			} else {
+				// run all the pipeline stages
+				fetch.run();
+				// note: writeback has to run before decode to 
+				// avoid data hazards
+				writeback.run();
+				decode.run();
+				execute.run();
+				memory.run();
+			}
+			
+			if (tracer != null) {
+				tracer.record(cycleCount);
+			}
 			
 			// if we completed a non-stall instruction, increment
 			// the instruction counter
-			if (!writeback.isNop()) {
+			if (!frozen && !writeback.isNop()) {
 				instructionCount++;
+				
+				if (profiler != null) {
+					profiler.retire(
+						mem_wb.getValue(RegisterName.PC),
+						mem_wb.getValue(RegisterName.JUMP) == 1,
+						mem_wb.getValue(RegisterName.JUMP_SRC) == 1,
+						cycleCount
+					);
+				}
 			}
 			
 			// increment the cycle counter
 			cycleCount++;
 			
+			if (metrics != null && 
+				(cycleCount & (SimulatorMetrics.PUBLISH_INTERVAL - 1)) == 0) 
+			{
+				publishMetrics();
+			}
+			
 			// tick over all our register values
-			tick();
+			if (!frozen) {
+				tick();
+			}
 		}
 		
-		// compute the cycles per instruction
-		float cpi = (float)cycleCount / instructionCount;
+		if (metrics != null && writeback.done()) {
+			publishMetrics();
+		}
 		
-		// output the results
-		System.out.println("Instruction count: \t" + instructionCount);
-		System.out.println("Cycle count: \t\t" + cycleCount);
-		System.out.println("CPI: \t\t\t" + cpi);
-		System.out.println(registerFile);
+		return writeback.done();
+	}
+	
+	/**
+	 * Publish the counts of the simulator to JMX clients every so often
+	 * while it runs, and when the program halts.
+	 * 
+	 * @param metrics Where to publish the counts, or null to stop
+	 * publishing them.
+	 */
+	public void setMetrics(SimulatorMetrics metrics) {
+		this.metrics = metrics;
+		
+		if (metrics != null) {
+			publishMetrics();
+		}
+	}
+	
+	/**
+	 * Count the cycles spent on each instruction from now on.
+	 * 
+	 * @param profiler Where to count them, or null to stop counting.
+	 */
+	public void setProfiler(Profiler profiler) {
+		this.profiler = profiler;
+		
+		if (profiler != null) {
+			profiler.skipTo(cycleCount - 1);
+		}
+	}
+	
+	/**
+	 * Start recording every cycle of the pipeline from now on.
+	 * 
+	 * @param writer Where to write the trace.
+	 */
+	public void startTrace(TraceWriter writer) {
+		tracer = new PipelineTracer(
+			programCounter, if_id, id_ex, ex_mem, mem_wb, decode, writer
+		);
+	}
+	
+	/**
+	 * Stop recording the pipeline, if it's being traced, and write out the 
+	 * rest of the trace.
+	 * 
+	 * @throws IOException Thrown if the trace couldn't be written.
+	 */
+	public void stopTrace() throws IOException {
+		if (tracer != null) {
+			PipelineTracer stopped = tracer;
+			tracer = null;
+			stopped.close();
+		}
+	}
+	
+	private void publishMetrics() {
+		metrics.publish(
+			cycleCount, instructionCount, writeback.done(), 
+			decode, execute, memory
+		);
+	}
+	
+	/**
+	 * @return The instruction count, cycle count and register file of the
+	 * run so far.
+	 */
+	public SimulationResult getResult() {
+		return new SimulationResult(instructionCount, cycleCount, registerFile);
+	}
+	
+	/**
+	 * Empty the pipeline: stop fetching and run until every instruction
+	 * already in the pipeline has completed, then start fetching again.  The
+	 * program counter is then the address of the next instruction to run.
+	 * 
+	 * @return Whether the program has halted.
+	 */
+	public boolean drain() {
+		fetch.setEnabled(false);
+		
+		try {
+			// control lines are only set from decode onwards, so a fetched
+			// instruction is only gone once fetch has replaced it with a no-op
+			while (!writeback.done() && 
+				!(if_id.getValue(RegisterName.OP_CODE) == Decode.NOP &&
+				  id_ex.isNop() && ex_mem.isNop() && mem_wb.isNop()))
+			{
+				simulate(1);
+			}
+		} finally {
+			fetch.setEnabled(true);
+		}
+		
+		return writeback.done();
+	}
+	
+	/**
+	 * Start the pipeline over, empty, from the given architectural state.
+	 * The instruction and cycle counts start again from zero, but memory is
+	 * left as it is.
+	 * 
+	 * @param pc The address of the next instruction to run.
+	 * @param registers The values of registers $r0-$r31.
+	 */
+	public void reset(long pc, long[] registers) {
+		programCounter.reset(pc);
+		registerFile.clear();
+		registerFile.setValues(registers);
+		if_id.clear();
+		id_ex.clear();
+		ex_mem.clear();
+		mem_wb.clear();
+		
+		// the caches keep their contents, but no miss is waited for
+		fetch.cancelMiss();
+		memory.cancelMiss();
+		dataMissCycles = 0;
+		
+		instructionCount = 0;
+		cycleCount = 0;
+		
+		if (profiler != null) {
+			profiler.skipTo(cycleCount - 1);
+		}
+	}
+	
+	/**
+	 * Load a new program image and start over as if the simulator had just
+	 * been created from it: memory holds only the image, the pipeline is
+	 * empty, every register is zero, and the branch predictor, caches and
+	 * counts are back to how they started.  Every array and stage is
+	 * reused, so a simulator can run one program after another without
+	 * allocating a new one each time.
+	 * 
+	 * @param image The bytes of the program, in the same format as an
+	 * input file.
+	 */
+	public void reset(byte[] image) {
+		memoryStore.reset(image);
+		restart();
+	}
+	
+	/**
+	 * Load a new program image and start over.
+	 * 
+	 * @param image The bytes of the program from the buffer's position to
+	 * its limit.
+	 * @see #reset(byte[])
+	 */
+	public void reset(ByteBuffer image) {
+		memoryStore.reset(image);
+		restart();
+	}
+	
+	/**
+	 * Load a new program image and start over.
+	 * 
+	 * @param image The words of the program from the buffer's position to
+	 * its limit, one per int.
+	 * @see #reset(byte[])
+	 */
+	public void reset(IntBuffer image) {
+		memoryStore.reset(image);
+		restart();
+	}
+	
+	/**
+	 * Start the pipeline over from the first instruction with everything
+	 * but memory as it was when the simulator was created.
+	 */
+	private void restart() {
+		reset(ProgramCounter.FIRST_INSTRUCTION, NO_REGISTERS);
+		
+		fetch.reset();
+		decode.reset();
+		execute.reset();
+		memory.reset();
+		writeback.reset();
+		predictor.reset();
+		caches.reset();
+	}
+	
+	/**
+	 * @return The number of instructions completed so far.
+	 */
+	public long getInstructionCount() {
+		return instructionCount;
+	}
+	
+	/**
+	 * @return The number of cycles run so far.
+	 */
+	public long getCycleCount() {
+		return cycleCount;
+	}
+	
+	/**
+	 * @return The branch predictor used by fetch.
+	 */
+	public BranchPredictor getPredictor() {
+		return predictor;
+	}
+	
+	/**
+	 * @return The caches between the pipeline and memory.
+	 */
+	public CacheHierarchy getCaches() {
+		return caches;
+	}
+	
+	/**
+	 * @return The profiler counting the cycles of each instruction, or null
+	 * if the run isn't being profiled.
+	 */
+	public Profiler getProfiler() {
+		return profiler;
+	}
+	
+	/**
+	 * @return The address of the next instruction to be fetched.
+	 */
+	public long getPc() {
+		return programCounter.getValue();
+	}
+	
+	/**
+	 * Take a checkpoint of the simulator.  It holds all of the registers,
+	 * but only the memory pages written since the last checkpoint was taken,
+	 * or since the program was loaded.
+	 * 
+	 * @return The checkpoint.
+	 */
+	public Checkpoint checkpoint() {
+		ByteBuffer buffer = ByteBuffer.allocate(STATE_SIZE);
+		state.writeState(buffer);
+		
+		int[] pageIndices = memoryStore.takeDirtyPages();
+		long[][] pages = new long[pageIndices.length][];
+		for (int i = 0; i < pageIndices.length; i++) {
+			pages[i] = memoryStore.getPage(pageIndices[i]);
+		}
+		
+		return new Checkpoint(
+			instructionCount, cycleCount, buffer.array(), pageIndices, pages
+		);
+	}
+	
+	/**
+	 * Name the register field that the given offset into the register state
+	 * of a checkpoint belongs to, such as <code>$r4</code> or 
+	 * <code>ID/EX ALU_RESULT</code>.
+	 * 
+	 * @param offset The offset into the state.
+	 * @return The name of the field.
+	 */
+	public static String stateField(int offset) {
+		int groupSize = MachineState.groupStateSize();
+		if (offset >= GROUPS * groupSize) {
+			return "held groups";
+		}
+		
+		String file = GROUP_NAMES[offset / groupSize];
+		offset %= groupSize;
+		
+		// each slot is written as its value and then its next value, and
+		// then come the bit sets of the group
+		if (offset >= MachineState.GROUP_SIZE * 16) {
+			return file + (file.equals("PC") ? " " : "") + "write flags";
+		}
+		
+		String pending = offset % 16 >= 8 ? " (pending)" : "";
+		if (file.equals("PC")) {
+			return offset < 16 ? "PC" + pending : "PC unused";
+		}
+		
+		RegisterName name = RegisterName.valueOf(offset / 16);
+		String field;
+		if (name == null) {
+			return file + "unused";
+		} else if (name.isPrimitive()) {
+			field = "$r" + name.ordinal();
+		} else {
+			field = name.toString();
+		}
+		
+		return file + field + pending;
+	}
+	
+	/**
+	 * Restore the simulator from a checkpoint.  Since a checkpoint only holds
+	 * the pages written since the one before it, every checkpoint taken 
+	 * since the program was loaded has to be restored in order.
+	 * 
+	 * @param checkpoint The checkpoint to restore.
+	 */
+	public void restore(Checkpoint checkpoint) {
+		ByteBuffer buffer = checkpoint.getState();
+		if (buffer.remaining() != STATE_SIZE) {
+			throw new IllegalArgumentException("Checkpoint is from a different simulator");
+		}
+		
+		state.readState(buffer);
+		
+		for (int i = 0; i < checkpoint.getPageCount(); i++) {
+			memoryStore.restorePage(checkpoint.getPageIndex(i), checkpoint.getPage(i));
+		}
+		
+		instructionCount = checkpoint.getInstructionCount();
+		cycleCount = checkpoint.getCycleCount();
+		
+		if (profiler != null) {
+			profiler.skipTo(cycleCount - 1);
+		}
 	}
 	
 	/**
 	 * Tick all the various registers of the program.  This is called
-	 * once per cycle.
+	 * once per cycle, and commits every register written during the cycle
+	 * at once.
 	 */
 	private void tick() {
-		programCounter.tick();
-		if_id.tick();
-		id_ex.tick();
-		ex_mem.tick();
-		mem_wb.tick();
+		state.commit();
 	}
 }
@@ -0,0 +1,322 @@
+package mips;
+
+import mips.cache.CacheConfig;
+
+/**
+ * The design choices of the pipeline that can be varied between runs.  The
+ * default configuration is the pipeline as originally designed: forwarding
+ * into the execute stage from both the execute and memory stages, 
+ * branches in the decode stage that don't wait for their operands, 
+ * fetch always carrying on to the next instruction, and memory accesses
+ * that take no time at all.
+ * 
+ * Turning off a forwarding path makes the decode stage stall instead, for
+ * as long as the value can't be forwarded, so the program still gets the
+ * right results.
+ */
+public class PipelineConfig {
+	// the names of the branch predictors
+	public static final String NOT_TAKEN = "nottaken";
+	public static final String BTFN = "btfn";
+	public static final String BIMODAL = "bimodal";
+	public static final String GSHARE = "gshare";
+	
+	private static final String[] PREDICTORS = { 
+		NOT_TAKEN, BTFN, BIMODAL, GSHARE 
+	};
+	
+	// the latencies of the caches and memory if none are given
+	public static final int L1_LATENCY = 0;
+	public static final int L2_LATENCY = 10;
+	public static final int MEMORY_LATENCY = 100;
+	
+	/**
+	 * Whether results are forwarded from the execute stage to the next
+	 * instruction in the execute stage.
+	 */
+	private final boolean exForwarding;
+	
+	/**
+	 * Whether results are forwarded from the memory stage to the 
+	 * execute stage.
+	 */
+	private final boolean memForwarding;
+	
+	/**
+	 * Whether branches and jumps in the decode stage stall until the
+	 * registers they compare have been written back.
+	 */
+	private final boolean branchInterlock;
+	
+	/**
+	 * The name of the predictor fetch uses for conditional branches.
+	 */
+	private final String predictor;
+	
+	/**
+	 * Whether fetch predicts the targets of jumps with a branch target
+	 * buffer.
+	 */
+	private final boolean btb;
+	
+	// the caches, or null for the ones left out
+	private final CacheConfig l1i;
+	private final CacheConfig l1d;
+	private final CacheConfig l2;
+	
+	/**
+	 * The number of cycles it takes to get a line from memory when it 
+	 * misses in the caches.
+	 */
+	private final int memoryLatency;
+	
+	/**
+	 * Create the default configuration.
+	 */
+	public PipelineConfig() {
+		this(true, true, false);
+	}
+	
+	/**
+	 * Create a configuration.
+	 * 
+	 * @param exForwarding Whether to forward from the execute stage.
+	 * @param memForwarding Whether to forward from the memory stage.
+	 * @param branchInterlock Whether branches wait for their operands.
+	 */
+	public PipelineConfig(
+		boolean exForwarding, 
+		boolean memForwarding, 
+		boolean branchInterlock
+	) {
+		this(exForwarding, memForwarding, branchInterlock, NOT_TAKEN, false);
+	}
+	
+	/**
+	 * Create a configuration.
+	 * 
+	 * @param exForwarding Whether to forward from the execute stage.
+	 * @param memForwarding Whether to forward from the memory stage.
+	 * @param branchInterlock Whether branches wait for their operands.
+	 * @param predictor The name of the branch predictor.
+	 * @param btb Whether to predict jumps with a branch target buffer.
+	 */
+	public PipelineConfig(
+		boolean exForwarding, 
+		boolean memForwarding, 
+		boolean branchInterlock,
+		String predictor,
+		boolean btb
+	) {
+		this(
+			exForwarding, memForwarding, branchInterlock, predictor, btb,
+			null, null, null, MEMORY_LATENCY
+		);
+	}
+	
+	/**
+	 * Create a configuration.
+	 * 
+	 * @param exForwarding Whether to forward from the execute stage.
+	 * @param memForwarding Whether to forward from the memory stage.
+	 * @param branchInterlock Whether branches wait for their operands.
+	 * @param predictor The name of the branch predictor.
+	 * @param btb Whether to predict jumps with a branch target buffer.
+	 * @param l1i The level 1 instruction cache, or null for none.
+	 * @param l1d The level 1 data cache, or null for none.
+	 * @param l2 The unified level 2 cache, or null for none.
+	 * @param memoryLatency The number of cycles it takes to get a line 
+	 * from memory.
+	 */
+	public PipelineConfig(
+		boolean exForwarding, 
+		boolean memForwarding, 
+		boolean branchInterlock,
+		String predictor,
+		boolean btb,
+		CacheConfig l1i,
+		CacheConfig l1d,
+		CacheConfig l2,
+		int memoryLatency
+	) {
+		if (!isPredictor(predictor)) {
+			throw new IllegalArgumentException("Unknown branch predictor: " + predictor);
+		}
+		if (memoryLatency < 0) {
+			throw new IllegalArgumentException("Memory latency can't be negative");
+		}
+		
+		this.exForwarding = exForwarding;
+		this.memForwarding = memForwarding;
+		this.branchInterlock = branchInterlock;
+		this.predictor = predictor;
+		this.btb = btb;
+		this.l1i = l1i;
+		this.l1d = l1d;
+		this.l2 = l2;
+		this.memoryLatency = memoryLatency;
+	}
+	
+	/**
+	 * Parse a configuration from a comma separated list of the changes to
+	 * make to the default configuration: <code>noex</code> to turn off 
+	 * forwarding from the execute stage, <code>nomem</code> to turn off 
+	 * forwarding from the memory stage and <code>interlock</code> to make 
+	 * branches wait for their operands.  A branch predictor can be picked
+	 * with <code>btfn</code>, <code>bimodal</code> or <code>gshare</code> 
+	 * instead of <code>nottaken</code>, and <code>btb</code> adds a branch 
+	 * target buffer for jumps.  Caches are added with <code>l1i=C</code>, 
+	 * <code>l1d=C</code> and <code>l2=C</code>, where C is in the form read
+	 * by <code>CacheConfig.parse</code>, such as <code>32k:4:64:plru</code>,
+	 * and <code>memory=N</code> makes a miss in the last cache take N 
+	 * cycles instead of 100.  <code>default</code> makes no changes.
+	 * 
+	 * @param description The list of changes.
+	 * @return The configuration.
+	 */
+	public static PipelineConfig parse(String description) {
+		boolean exForwarding = true;
+		boolean memForwarding = true;
+		boolean branchInterlock = false;
+		String predictor = NOT_TAKEN;
+		boolean btb = false;
+		CacheConfig l1i = null;
+		CacheConfig l1d = null;
+		CacheConfig l2 = null;
+		int memoryLatency = MEMORY_LATENCY;
+		
+		for (String option : description.split(",")) {
+			option = option.trim();
+			
+			if (option.equals("noex")) {
+				exForwarding = false;
+			} else if (option.equals("nomem")) {
+				memForwarding = false;
+			} else if (option.equals("interlock")) {
+				branchInterlock = true;
+			} else if (isPredictor(option)) {
+				predictor = option;
+			} else if (option.equals("btb")) {
+				btb = true;
+			} else if (option.startsWith("l1i=")) {
+				l1i = CacheConfig.parse(option.substring(4), L1_LATENCY);
+			} else if (option.startsWith("l1d=")) {
+				l1d = CacheConfig.parse(option.substring(4), L1_LATENCY);
+			} else if (option.startsWith("l2=")) {
+				l2 = CacheConfig.parse(option.substring(3), L2_LATENCY);
+			} else if (option.startsWith("memory=")) {
+				try {
+					memoryLatency = Integer.parseInt(option.substring(7));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(
+						"Unknown memory latency: " + option.substring(7)
+					);
+				}
+			} else if (!option.equals("default")) {
+				throw new IllegalArgumentException(
+					"Unknown pipeline option: " + option
+				);
+			}
+		}
+		
+		return new PipelineConfig(
+			exForwarding, memForwarding, branchInterlock, predictor, btb,
+			l1i, l1d, l2, memoryLatency
+		);
+	}
+	
+	public boolean isExForwarding() {
+		return exForwarding;
+	}
+	
+	public boolean isMemForwarding() {
+		return memForwarding;
+	}
+	
+	public boolean isBranchInterlock() {
+		return branchInterlock;
+	}
+	
+	public String getPredictor() {
+		return predictor;
+	}
+	
+	public boolean isBtb() {
+		return btb;
+	}
+	
+	public CacheConfig getL1i() {
+		return l1i;
+	}
+	
+	public CacheConfig getL1d() {
+		return l1d;
+	}
+	
+	public CacheConfig getL2() {
+		return l2;
+	}
+	
+	public int getMemoryLatency() {
+		return memoryLatency;
+	}
+	
+	/**
+	 * @return Whether the configuration has any caches.
+	 */
+	public boolean hasCaches() {
+		return l1i != null || l1d != null || l2 != null;
+	}
+	
+	/**
+	 * @return The configuration in the form read by <code>parse</code>.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		if (!exForwarding) {
+			builder.append("noex,");
+		}
+		if (!memForwarding) {
+			builder.append("nomem,");
+		}
+		if (branchInterlock) {
+			builder.append("interlock,");
+		}
+		if (!predictor.equals(NOT_TAKEN)) {
+			builder.append(predictor).append(',');
+		}
+		if (btb) {
+			builder.append("btb,");
+		}
+		if (l1i != null) {
+			builder.append("l1i=").append(l1i).append(',');
+		}
+		if (l1d != null) {
+			builder.append("l1d=").append(l1d).append(',');
+		}
+		if (l2 != null) {
+			builder.append("l2=").append(l2).append(',');
+		}
+		if (memoryLatency != MEMORY_LATENCY) {
+			builder.append("memory=").append(memoryLatency).append(',');
+		}
+		
+		if (builder.length() == 0) {
+			return "default";
+		}
+		
+		builder.setLength(builder.length() - 1);
+		return builder.toString();
+	}
+	
+	private static boolean isPredictor(String name) {
+		for (String predictor : PREDICTORS) {
+			if (predictor.equals(name)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+}
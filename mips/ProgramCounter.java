@@ -5,7 +5,7 @@ package mips;
  * be executed next.
  */
 public class ProgramCounter extends Register {
-	private static final int FIRST_INSTRUCTION = 0x1000;
+	public static final int FIRST_INSTRUCTION = 0x1000;
 	
 	/**
 	 * Create a program counter and initialize it to the first instruction
@@ -15,10 +15,22 @@ public class ProgramCounter extends Register {
 		super(FIRST_INSTRUCTION);
 	}
 	
+	/**
+	 * Create a program counter held in a group of the given state, and 
+	 * initialize it to the first instruction in the memory store.
+	 * 
+	 * @param state The state holding the program counter.
+	 * @param group The group of the state for the program counter.
+	 */
+	public ProgramCounter(MachineState state, int group) {
+		super(state, group);
+		reset(FIRST_INSTRUCTION);
+	}
+	
 	/**
 	 * Increment the program counter by one word.
 	 */
 	public void increment() {
-		newValue = getValue() + 4;
+		setValue(getValue() + 4);
 	}
 }
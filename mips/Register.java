@@ -5,24 +5,26 @@ package mips;
  * single value that can be set or retrieved.  When a value is set, the old
  * value is not overwritten with the new value until <code>tick</code> is
  * called.
+ * 
+ * A register is a view of the first slot of one group of a 
+ * <code>MachineState</code>, so it ticks along with the rest of that state
+ * when the state is committed.
  */
 public class Register {
 	/**
-	 * The current value of the register
+	 * The state holding the register.
 	 */
-	private long value = 0;
+	protected final MachineState state;
 	
 	/**
-	 * Used to keep track of whether or not we should allow the next value
-	 * to be written when tick is called.
+	 * The group of the state the register is in.
 	 */
-	private boolean disableWrite = false;
+	protected final int group;
 	
 	/**
-	 * The new value of the register.  If set to -1, the current value will
-	 * be retained when tick is called.
+	 * The slot of the state holding the register.
 	 */
-	protected long newValue = -1;
+	private final int slot;
 	
 	/**
 	 * Create a new register and initialize the value to 0.
@@ -32,19 +34,32 @@ public class Register {
 	}
 	
 	/**
-	 * Create a new register with the given value.
+	 * Create a new register, in a state of its own, with the given value.
 	 * 
 	 * @param value The initial value of the register.
 	 */
 	public Register(long value) {
-		this.value = value;
+		this(new MachineState(1), 0);
+		reset(value);
+	}
+	
+	/**
+	 * Create a register held in a group of the given state.
+	 * 
+	 * @param state The state holding the register.
+	 * @param group The group of the state for the register.
+	 */
+	public Register(MachineState state, int group) {
+		this.state = state;
+		this.group = group;
+		this.slot = group << MachineState.GROUP_SHIFT;
 	}
 	
 	/**
 	 * @return The current value of the register.
 	 */
 	public long getValue() {
-		return value;
+		return state.current[slot];
 	}
 	
 	/**
@@ -54,35 +69,59 @@ public class Register {
 	 * @param newValue The new value of the register.
 	 */
 	public void setValue(long newValue) {
-		this.newValue = newValue;
+		state.next[slot] = newValue;
+		state.dirty[group] |= 1;
+		state.used[group] |= 1;
+	}
+	
+	/**
+	 * Replace the value of the register straight away, dropping any new 
+	 * value and re-enabling writing.
+	 * 
+	 * @param value The new current value of the register.
+	 */
+	public void reset(long value) {
+		state.clear(group);
+		state.current[slot] = value;
+		state.used[group] |= 1;
+	}
+	
+	/**
+	 * @return The bit set of the groups of the state this register is in,
+	 * for holding back its writes.
+	 */
+	public long getWriteMask() {
+		return 1L << group;
+	}
+	
+	/**
+	 * @return The state holding the register.
+	 */
+	public MachineState getState() {
+		return state;
 	}
 	
 	/**
 	 * Disable writing of the register when <code>tick</code> is called.
 	 */
 	public void disableWrite() {
-		this.disableWrite = true;
+		state.hold(getWriteMask());
 	}
 	
 	/**
 	 * Enable writing of the register when <code>tick</code> is called.
 	 */
 	public void enableWrite() {
-		this.disableWrite = false;
+		state.release(getWriteMask());
 	}
 	
 	/**
 	 * Write the new value of the register into the current value of the
 	 * register if writing is enabled and there's a new value to write.
+	 * Registers in a shared state are usually ticked by committing the
+	 * whole state instead.
 	 */
 	public void tick() {
-		if (!disableWrite) {
-			if (newValue != -1) {
-				value = newValue;
-				newValue = -1;
-			}
-		} else {
-			disableWrite = false;
-		}
+		state.commit(group);
 	}
 }
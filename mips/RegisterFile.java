@@ -1,21 +1,106 @@
 package mips;
 
-import java.util.HashMap;
-
 /**
  * A grouping of registers composed entirely of registers $r0-$r31
+ * 
+ * A register file is a view of one group of a <code>MachineState</code>,
+ * with each register in the slot given by the ordinal of its 
+ * <code>RegisterName</code>.  New values are written into the next buffer
+ * of the state and go into place when the state is committed.
  */
 public class RegisterFile {
 	/**
-	 * The internal storage for the registers.
+	 * The number of register names.  Each register name gets one slot of
+	 * a group, so there can be no more than <code>GROUP_SIZE</code> of them.
+	 */
+	private static final int REGISTER_COUNT = RegisterName.values().length;
+	
+	static {
+		if (REGISTER_COUNT > MachineState.GROUP_SIZE) {
+			throw new AssertionError("Too many register names for a group");
+		}
+	}
+	
+	/**
+	 * The state holding the registers.
+	 */
+	protected final MachineState state;
+	
+	/**
+	 * The group of the state the registers are in.
+	 */
+	protected final int group;
+	
+	/**
+	 * The slot of the state holding the register with ordinal 0.
+	 */
+	protected final int base;
+	
+	/**
+	 * The current values of every slot of the state.
+	 */
+	protected final long[] values;
+	
+	/**
+	 * The values to be written into every slot of the state on the next 
+	 * commit.
+	 */
+	protected final long[] newValues;
+	
+	// the bit sets of the state for the group, of the registers written
+	// since the last commit and of those ever written
+	private final long[] dirty;
+	private final long[] used;
+	
+	/**
+	 * A bit set of the registers that may be stored in this file.
+	 */
+	private final long validRegisters;
+	
+	/**
+	 * Create a register file, in a state of its own, that only holds the
+	 * primitive registers.
 	 */
-	protected HashMap<RegisterName, Register> registers = 
-		new HashMap<RegisterName, Register>();
+	public RegisterFile() {
+		this(new MachineState(1), 0);
+	}
+	
+	/**
+	 * Create a register file held in a group of the given state that only
+	 * holds the primitive registers.
+	 * 
+	 * @param state The state holding the registers.
+	 * @param group The group of the state for the registers.
+	 */
+	public RegisterFile(MachineState state, int group) {
+		this(state, group, true);
+	}
+	
 	/**
-	 * Used to keep track of whether or not we should write to the register
-	 * groups when tick is called.
+	 * Create a register file.
+	 * 
+	 * @param state The state holding the registers.
+	 * @param group The group of the state for the registers.
+	 * @param primitiveOnly Whether or not the file is restricted to holding
+	 * the primitive registers.
 	 */
-	private boolean disableWrite = false;
+	protected RegisterFile(MachineState state, int group, boolean primitiveOnly) {
+		long valid = 0;
+		for (RegisterName registerName : RegisterName.values()) {
+			if (!primitiveOnly || registerName.isPrimitive()) {
+				valid |= 1L << registerName.ordinal();
+			}
+		}
+		
+		this.state = state;
+		this.group = group;
+		this.base = group << MachineState.GROUP_SHIFT;
+		this.values = state.current;
+		this.newValues = state.next;
+		this.dirty = state.dirty;
+		this.used = state.used;
+		this.validRegisters = valid;
+	}
 	
 	/**
 	 * Set the value of the register of the given name.  Note that this won't
@@ -25,26 +110,70 @@ public class RegisterFile {
 	 * @param value The value of the register to set.
 	 */
 	public void setValue(RegisterName registerName, long value) {
-		Register register = getRegister(registerName);
-		register.setValue(value);
+		write(checkRegister(registerName), value);
 	}
 	
 	public long getValue(RegisterName registerName) {
-		return getRegister(registerName).getValue();
+		return values[base + checkRegister(registerName)];
+	}
+	
+	/**
+	 * Copy the current values of the primitive registers into the given
+	 * array.
+	 * 
+	 * @param registers The array to fill with the values of $r0-$r31.
+	 */
+	public void getValues(long[] registers) {
+		System.arraycopy(values, base, registers, 0, 32);
+	}
+	
+	/**
+	 * Replace the current values of the primitive registers with the
+	 * values in the given array.  Unlike <code>setValue</code> this takes
+	 * effect immediately, and drops any value waiting for a tick.
+	 * 
+	 * @param registers The values of $r0-$r31.
+	 */
+	public void setValues(long[] registers) {
+		System.arraycopy(registers, 0, values, base, 32);
+		dirty[group] &= ~0xFFFFFFFFL;
+		used[group] |= 0xFFFFFFFFL;
+	}
+	
+	/**
+	 * Put the register file back into its initial state, with every 
+	 * register zero and nothing waiting for a tick.
+	 */
+	public void clear() {
+		state.clear(group);
+	}
+	
+	/**
+	 * @return The bit set of the groups of the state this file is in, for
+	 * holding back its writes.
+	 */
+	public long getWriteMask() {
+		return 1L << group;
+	}
+	
+	/**
+	 * @return The state holding the registers.
+	 */
+	public MachineState getState() {
+		return state;
 	}
 	
 	public void disableWrite() {
-		disableWrite = true;
+		state.hold(getWriteMask());
 	}
 	
+	/**
+	 * Write the new values of the registers into place, unless writing is
+	 * disabled.  Register files in a shared state are usually ticked by
+	 * committing the whole state instead.
+	 */
 	public void tick() {
-		if (!disableWrite) {
-			for (Register register : registers.values()) {
-				register.tick();
-			}
-		} else {
-			disableWrite = false;
-		}
+		state.commit(group);
 	}
 	
 	@Override
@@ -54,30 +183,72 @@ public class RegisterFile {
 			builder.append("$r");
 			builder.append(i);
 			builder.append('\t');
-			builder.append(Long.toHexString(getRegister(RegisterName.valueOf(i)).getValue()));
+			builder.append(Long.toHexString(values[base + i]));
 			builder.append('\n');
 		}
 		
 		return builder.toString();
 	}
 	
-	protected boolean validRegister(RegisterName registerName) {
-		return registerName.isPrimitive();
+	/**
+	 * Set the new value of the register with the given index.
+	 * 
+	 * @param index The ordinal of the register to set.
+	 * @param value The value of the register to set.
+	 */
+	protected void write(int index, long value) {
+		long bit = 1L << index;
+		newValues[base + index] = value;
+		dirty[group] |= bit;
+		used[group] |= bit;
+	}
+	
+	/**
+	 * Replace the current value of the register with the given index 
+	 * straight away.
+	 * 
+	 * @param index The ordinal of the register to set.
+	 * @param value The new current value of the register.
+	 */
+	protected void reset(int index, long value) {
+		values[base + index] = value;
+		used[group] |= 1L << index;
+	}
+	
+	/**
+	 * Mark registers as written, once their new values are in the next
+	 * buffer.
+	 * 
+	 * @param registers A bit set of the ordinals of the registers.
+	 */
+	protected void written(long registers) {
+		dirty[group] |= registers;
+		used[group] |= registers;
+	}
+	
+	/**
+	 * @return A bit set of the ordinals of the registers that have ever
+	 * been set.
+	 */
+	protected long usedRegisters() {
+		return used[group];
 	}
 	
-	private Register getRegister(RegisterName registerName) {
-		if (!validRegister(registerName)) {
+	/**
+	 * Make sure the given register can be stored in this file.
+	 * 
+	 * @param registerName The name of the register.
+	 * @return The index of the register.
+	 */
+	private int checkRegister(RegisterName registerName) {
+		int index = registerName.ordinal();
+		
+		if ((validRegisters & (1L << index)) == 0) {
 			throw new IllegalArgumentException(
 				"Invalid register: " + registerName.name()
 			);
 		}
-		Register register = registers.get(registerName);
-		
-		if (register == null) {
-			register = new Register();
-			registers.put(registerName, register);
-		}
 		
-		return register;
+		return index;
 	}
 }
@@ -58,7 +58,13 @@ public enum RegisterName {
 	WRITE_DATA(false),
 	HALT(false),
 	OP_CODE(false),
-	PC(false);
+	PC(false),
+	PREDICTED_PC(false);
+	
+	/**
+	 * All the register names, indexed by ordinal.
+	 */
+	private static final RegisterName[] VALUES = values();
 	
 	private final boolean isPrimitive;
 	
@@ -75,12 +81,10 @@ public enum RegisterName {
 	}
 	
 	public static RegisterName valueOf(long ordinal) {
-		for (RegisterName name : RegisterName.values()) {
-			if (name.ordinal() == ordinal) {
-				return name;
-			}
+		if (ordinal < 0 || ordinal >= VALUES.length) {
+			return null;
 		}
 		
-		return null;
+		return VALUES[(int)ordinal];
 	}
 }
@@ -0,0 +1,82 @@
+package mips;
+
+/**
+ * The results of simulating a program to completion: how many instructions
+ * and cycles it took, and the register file it finished with.
+ */
+public class SimulationResult {
+	/**
+	 * The number of instructions completed.
+	 */
+	private final long instructionCount;
+	
+	/**
+	 * The number of cycles run.
+	 */
+	private final long cycleCount;
+	
+	/**
+	 * The final values of registers $r0-$r31.
+	 */
+	private final long[] registers = new long[32];
+	
+	/**
+	 * Create the results of a run.
+	 * 
+	 * @param instructionCount The number of instructions completed.
+	 * @param cycleCount The number of cycles run.
+	 * @param registerFile The final register file, which is copied.
+	 */
+	public SimulationResult(
+		long instructionCount, 
+		long cycleCount, 
+		RegisterFile registerFile
+	) {
+		this.instructionCount = instructionCount;
+		this.cycleCount = cycleCount;
+		registerFile.getValues(registers);
+	}
+	
+	public long getInstructionCount() {
+		return instructionCount;
+	}
+	
+	public long getCycleCount() {
+		return cycleCount;
+	}
+	
+	/**
+	 * @return The cycles per instruction of the run.
+	 */
+	public float getCpi() {
+		return (float)cycleCount / instructionCount;
+	}
+	
+	/**
+	 * @return A copy of the final values of registers $r0-$r31.
+	 */
+	public long[] getRegisters() {
+		return registers.clone();
+	}
+	
+	/**
+	 * @return A register file holding the final register values.
+	 */
+	public RegisterFile getRegisterFile() {
+		RegisterFile registerFile = new RegisterFile();
+		registerFile.setValues(registers);
+		
+		return registerFile;
+	}
+	
+	/**
+	 * @return The results in the format printed by the simulator.
+	 */
+	@Override
+	public String toString() {
+		return "Instruction count: \t" + instructionCount + '\n' +
+			"Cycle count: \t\t" + cycleCount + '\n' +
+			"CPI: \t\t\t" + getCpi() + '\n' +
+			getRegisterFile();
+	}
+}
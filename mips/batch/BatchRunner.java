@@ -0,0 +1,375 @@
+package mips.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.management.JMException;
+
+import mips.Mips;
+import mips.SimulationResult;
+import mips.metrics.SimulatorMetrics;
+
+/**
+ * Simulates a whole batch of programs at once, spreading them over a
+ * work-stealing pool of threads with one simulator per program, and prints
+ * a single report of the results.
+ */
+public class BatchRunner {
+	/**
+	 * The most cycles a program is run for by default, since a program
+	 * without a halt runs on through the zeroed memory after it forever.
+	 */
+	public static final long DEFAULT_MAX_CYCLES = 1000000000L;
+	
+	/**
+	 * The number of cycles run between checks of the limits.
+	 */
+	private static final long SLICE = 100000;
+	
+	/**
+	 * The pool the simulations run on.
+	 */
+	private final ForkJoinPool pool;
+	
+	/**
+	 * Whether the programs are memory mapped rather than read in.
+	 */
+	private final boolean mapped;
+	
+	/**
+	 * Whether each simulation publishes live metrics over JMX while it runs.
+	 */
+	private boolean jmx = false;
+	
+	/**
+	 * The most cycles each program is run for, or 0 for no limit.
+	 */
+	private long maxCycles = DEFAULT_MAX_CYCLES;
+	
+	/**
+	 * How long each program is run for in milliseconds, or 0 for no limit.
+	 */
+	private long timeoutMillis = 0;
+	
+	/**
+	 * The launching point for batch runs.  This takes the path to either a
+	 * directory, in which case every file in it is simulated, or a manifest
+	 * file listing the path of one program per line.  Relative paths in a
+	 * manifest are relative to the manifest itself, and blank lines and
+	 * lines starting with <code>#</code> are skipped.  The path can be
+	 * preceded by these options:
+	 * <ul>
+	 * <li><code>-mmap</code> to memory map the programs</li>
+	 * <li><code>-threads N</code> to run on N threads instead of one per
+	 * available processor</li>
+	 * <li><code>-jmx</code> to publish live metrics of each simulation over
+	 * JMX while it runs</li>
+	 * <li><code>-maxcycles N</code> to give up on a program after N cycles
+	 * instead of a billion, or never if N is 0</li>
+	 * <li><code>-timeout MS</code> to give up on a program after MS
+	 * milliseconds</li>
+	 * </ul>
+	 * Programs that are given up on are reported as timed out.
+	 * 
+	 * @param args The options and the path to the directory or manifest.
+	 */
+	public static void main(String[] args) {
+		boolean mapped = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean jmx = false;
+		long maxCycles = DEFAULT_MAX_CYCLES;
+		long timeoutMillis = 0;
+		int i = 0;
+		
+		// read any options before the path
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if (args[i].equals("-mmap")) {
+				mapped = true;
+			} else if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-jmx")) {
+				jmx = true;
+			} else if (args[i].equals("-maxcycles") && i + 1 < args.length) {
+				maxCycles = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-timeout") && i + 1 < args.length) {
+				timeoutMillis = Long.parseLong(args[++i]);
+			} else {
+				System.out.println("Unknown option \"" + args[i] + "\"");
+				return;
+			}
+		}
+		
+		if (i >= args.length) {
+			System.out.println("You must supply a directory or manifest");
+			return;
+		}
+		
+		try {
+			List<File> programs = listPrograms(new File(args[i]));
+			BatchRunner runner = new BatchRunner(threads, mapped);
+			runner.setJmx(jmx);
+			runner.setLimits(maxCycles, timeoutMillis);
+			
+			try {
+				runner.run(programs, System.out);
+			} finally {
+				runner.shutdown();
+			}
+		} catch (IOException e) {
+			System.out.println("Error reading \"" + args[i] + "\"");
+		}
+	}
+	
+	/**
+	 * Find the programs to run from a directory or manifest.
+	 * 
+	 * @param path The directory or manifest.
+	 * @return The program files, in the order they should be reported.
+	 * @throws IOException Thrown if the directory can't be listed or the
+	 * manifest can't be read.
+	 */
+	public static List<File> listPrograms(File path) throws IOException {
+		List<File> programs = new ArrayList<File>();
+		
+		if (path.isDirectory()) {
+			File[] files = path.listFiles();
+			if (files == null) {
+				throw new IOException("Error listing directory \"" + path + "\"");
+			}
+			Arrays.sort(files);
+			
+			for (File file : files) {
+				if (file.isFile()) {
+					programs.add(file);
+				}
+			}
+		} else {
+			BufferedReader reader = new BufferedReader(new FileReader(path));
+			
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() == 0 || line.startsWith("#")) {
+						continue;
+					}
+					
+					File file = new File(line);
+					if (!file.isAbsolute()) {
+						file = new File(path.getAbsoluteFile().getParentFile(), line);
+					}
+					programs.add(file);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		
+		return programs;
+	}
+	
+	/**
+	 * Create a batch runner.
+	 * 
+	 * @param threads The number of simulations to run at once.
+	 * @param mapped Whether to memory map the programs.
+	 */
+	public BatchRunner(int threads, boolean mapped) {
+		this.pool = new ForkJoinPool(threads);
+		this.mapped = mapped;
+	}
+	
+	/**
+	 * @param jmx Whether each simulation publishes live metrics over JMX, 
+	 * named after its program, while it runs.
+	 */
+	public void setJmx(boolean jmx) {
+		this.jmx = jmx;
+	}
+	
+	/**
+	 * Set how long each program may run before it is given up on.
+	 * 
+	 * @param maxCycles The most cycles to run, or 0 for no limit.
+	 * @param timeoutMillis The most milliseconds to run, counted from when
+	 * the program starts, or 0 for no limit.
+	 */
+	public void setLimits(long maxCycles, long timeoutMillis) {
+		this.maxCycles = maxCycles;
+		this.timeoutMillis = timeoutMillis;
+	}
+	
+	/**
+	 * Run a simulator a slice at a time until the program halts or one of
+	 * the limits is reached.
+	 * 
+	 * @param mips The simulator.
+	 * @param maxCycles The most cycles to run, or 0 for no limit.
+	 * @param timeoutMillis The most milliseconds to run, or 0 for no limit.
+	 * @return Null if the program halted, otherwise why it was given up on.
+	 */
+	static String simulate(Mips mips, long maxCycles, long timeoutMillis) {
+		long start = System.nanoTime();
+		
+		while (!mips.simulate(SLICE)) {
+			if (maxCycles > 0 && mips.getCycleCount() >= maxCycles) {
+				return "Timed out after " + mips.getCycleCount() + " cycles";
+			}
+			if (timeoutMillis > 0 && System.nanoTime() - start >= timeoutMillis * 1000000L) {
+				return "Timed out after " + timeoutMillis + " ms";
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Simulate all of the given programs and print a report of the results.
+	 * 
+	 * @param programs The programs to simulate.
+	 * @param out Where to print the report.
+	 */
+	public void run(List<File> programs, PrintStream out) {
+		long start = System.nanoTime();
+		
+		// start every simulation, then wait for them in order
+		List<Job> jobs = new ArrayList<Job>();
+		for (File program : programs) {
+			Job job = new Job(program, mapped, jmx, maxCycles, timeoutMillis);
+			jobs.add(job);
+			pool.execute(job);
+		}
+		
+		for (Job job : jobs) {
+			job.join();
+		}
+		
+		double seconds = (System.nanoTime() - start) / 1e9;
+		printReport(jobs, seconds, out);
+	}
+	
+	/**
+	 * Stop the threads of the pool once the runner is no longer needed.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+	
+	private static void printReport(List<Job> jobs, double seconds, PrintStream out) {
+		long totalInstructions = 0;
+		long totalCycles = 0;
+		int failed = 0;
+		int timedOut = 0;
+		
+		// a summary line for every program
+		out.println("Program\tInstructions\tCycles\tCPI");
+		for (Job job : jobs) {
+			if (job.timedOut) {
+				out.println(job.program + "\ttimed out\t\t");
+				timedOut++;
+			} else if (job.result == null) {
+				out.println(job.program + "\tfailed\t\t");
+				failed++;
+			} else {
+				out.println(job.program + "\t" + 
+					job.result.getInstructionCount() + "\t" + 
+					job.result.getCycleCount() + "\t" + 
+					job.result.getCpi());
+				totalInstructions += job.result.getInstructionCount();
+				totalCycles += job.result.getCycleCount();
+			}
+		}
+		
+		out.println();
+		out.println("Programs: \t\t" + jobs.size());
+		out.println("Failed: \t\t" + failed);
+		out.println("Timed out: \t\t" + timedOut);
+		out.println("Instruction count: \t" + totalInstructions);
+		out.println("Cycle count: \t\t" + totalCycles);
+		out.println("CPI: \t\t\t" + (float)totalCycles / totalInstructions);
+		out.println("Wall time: \t\t" + seconds + " s");
+		
+		// then the full results of every program
+		for (Job job : jobs) {
+			out.println();
+			out.println("==> " + job.program + " <==");
+			out.println(job.result == null ? job.error : job.result);
+		}
+	}
+	
+	/**
+	 * The simulation of a single program.
+	 */
+	private static class Job extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final File program;
+		private final boolean mapped;
+		private final boolean jmx;
+		private final long maxCycles;
+		private final long timeoutMillis;
+		
+		/**
+		 * The results of the simulation, or null if it failed.
+		 */
+		private SimulationResult result = null;
+		
+		/**
+		 * Why the simulation failed, if it did.
+		 */
+		private String error = null;
+		
+		/**
+		 * Whether the simulation was given up on before the program halted.
+		 */
+		private boolean timedOut = false;
+		
+		Job(File program, boolean mapped, boolean jmx, long maxCycles, long timeoutMillis) {
+			this.program = program;
+			this.mapped = mapped;
+			this.jmx = jmx;
+			this.maxCycles = maxCycles;
+			this.timeoutMillis = timeoutMillis;
+		}
+		
+		@Override
+		protected void compute() {
+			SimulatorMetrics metrics = null;
+			
+			try {
+				Mips mips = new Mips(program.getPath(), mapped);
+				
+				if (jmx) {
+					metrics = new SimulatorMetrics();
+					metrics.register(program.getPath());
+					mips.setMetrics(metrics);
+				}
+				
+				error = simulate(mips, maxCycles, timeoutMillis);
+				if (error == null) {
+					result = mips.getResult();
+				} else {
+					timedOut = true;
+				}
+			} catch (IOException e) {
+				error = "Error opening file named \"" + program + "\"";
+			} catch (JMException e) {
+				error = "Error registering metrics: " + e.getMessage();
+			} catch (RuntimeException e) {
+				error = "Error: " + e;
+			} finally {
+				if (metrics != null) {
+					metrics.unregister();
+				}
+			}
+		}
+	}
+}
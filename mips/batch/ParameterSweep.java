@@ -0,0 +1,288 @@
+package mips.batch;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import mips.MemoryStore;
+import mips.Mips;
+import mips.PipelineConfig;
+import mips.SimulationResult;
+import mips.cache.Cache;
+import mips.cache.CacheHierarchy;
+import mips.pipeline.prediction.BranchPredictor;
+
+/**
+ * Simulates a single program on several pipeline configurations at once and
+ * prints a table comparing them.  The program is only loaded once, and every
+ * simulation runs over its own copy-on-write view of it, so a run only costs
+ * the memory for the pages it writes.
+ */
+public class ParameterSweep {
+	/**
+	 * The pool the simulations run on.
+	 */
+	private final ForkJoinPool pool;
+	
+	/**
+	 * The most cycles each configuration is run for, or 0 for no limit.
+	 */
+	private long maxCycles = BatchRunner.DEFAULT_MAX_CYCLES;
+	
+	/**
+	 * How long each configuration is run for in milliseconds, or 0 for no
+	 * limit.
+	 */
+	private long timeoutMillis = 0;
+	
+	/**
+	 * The launching point for parameter sweeps.  This takes the path to the
+	 * program followed by the configurations to run it on, each in the form
+	 * read by <code>PipelineConfig.parse</code>, such as 
+	 * <code>noex,nomem</code>.  Every combination is run if no 
+	 * configurations are given.  The path can be preceded by these options:
+	 * <ul>
+	 * <li><code>-mmap</code> to memory map the program</li>
+	 * <li><code>-threads N</code> to run on N threads instead of one per
+	 * available processor</li>
+	 * <li><code>-maxcycles N</code> to give up on a configuration after N
+	 * cycles instead of a billion, or never if N is 0</li>
+	 * <li><code>-timeout MS</code> to give up on a configuration after MS
+	 * milliseconds</li>
+	 * </ul>
+	 * 
+	 * @param args The options, the path to the program and the 
+	 * configurations.
+	 */
+	public static void main(String[] args) {
+		boolean mapped = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long maxCycles = BatchRunner.DEFAULT_MAX_CYCLES;
+		long timeoutMillis = 0;
+		int i = 0;
+		
+		// read any options before the path
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if (args[i].equals("-mmap")) {
+				mapped = true;
+			} else if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-maxcycles") && i + 1 < args.length) {
+				maxCycles = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-timeout") && i + 1 < args.length) {
+				timeoutMillis = Long.parseLong(args[++i]);
+			} else {
+				System.out.println("Unknown option \"" + args[i] + "\"");
+				return;
+			}
+		}
+		
+		if (i >= args.length) {
+			System.out.println("You must supply an input filename");
+			return;
+		}
+		
+		List<PipelineConfig> configs = new ArrayList<PipelineConfig>();
+		try {
+			for (int j = i + 1; j < args.length; j++) {
+				configs.add(PipelineConfig.parse(args[j]));
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+		
+		if (configs.isEmpty()) {
+			configs = allConfigs();
+		}
+		
+		try {
+			MemoryStore image = new MemoryStore(args[i], mapped);
+			ParameterSweep sweep = new ParameterSweep(threads);
+			sweep.setLimits(maxCycles, timeoutMillis);
+			
+			try {
+				sweep.run(image, configs, System.out);
+			} finally {
+				sweep.shutdown();
+			}
+		} catch (IOException e) {
+			System.out.println("Error opening file named \"" + args[i] + "\"");
+		}
+	}
+	
+	/**
+	 * @return Every combination of the pipeline options, starting with the
+	 * default configuration.
+	 */
+	public static List<PipelineConfig> allConfigs() {
+		List<PipelineConfig> configs = new ArrayList<PipelineConfig>();
+		
+		for (int options = 0; options < 8; options++) {
+			configs.add(new PipelineConfig(
+				(options & 1) == 0, 
+				(options & 2) == 0, 
+				(options & 4) != 0
+			));
+		}
+		
+		return configs;
+	}
+	
+	/**
+	 * Create a parameter sweep.
+	 * 
+	 * @param threads The number of simulations to run at once.
+	 */
+	public ParameterSweep(int threads) {
+		this.pool = new ForkJoinPool(threads);
+	}
+	
+	/**
+	 * Set how long each configuration may run before it is given up on.
+	 * 
+	 * @param maxCycles The most cycles to run, or 0 for no limit.
+	 * @param timeoutMillis The most milliseconds to run, counted from when
+	 * the configuration starts, or 0 for no limit.
+	 */
+	public void setLimits(long maxCycles, long timeoutMillis) {
+		this.maxCycles = maxCycles;
+		this.timeoutMillis = timeoutMillis;
+	}
+	
+	/**
+	 * Simulate the program in the given memory store on each of the given
+	 * configurations and print a table of the results.  The memory store
+	 * itself is never written to.
+	 * 
+	 * @param image The memory holding the program.
+	 * @param configs The configurations to run.
+	 * @param out Where to print the table.
+	 */
+	public void run(MemoryStore image, List<PipelineConfig> configs, PrintStream out) {
+		long start = System.nanoTime();
+		
+		// start every simulation, then wait for them in order
+		List<Job> jobs = new ArrayList<Job>();
+		for (PipelineConfig config : configs) {
+			Job job = new Job(image, config, maxCycles, timeoutMillis);
+			jobs.add(job);
+			pool.execute(job);
+		}
+		
+		for (Job job : jobs) {
+			job.join();
+		}
+		
+		double seconds = (System.nanoTime() - start) / 1e9;
+		printReport(jobs, seconds, out);
+	}
+	
+	/**
+	 * Stop the threads of the pool once the sweep is no longer needed.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+	
+	private static void printReport(List<Job> jobs, double seconds, PrintStream out) {
+		long[] expected = null;
+		
+		// the registers of every run are compared with the first one that
+		// finished, since changing the configuration can change the results
+		// of programs with branch hazards
+		out.println("Configuration\tInstructions\tCycles\tCPI\tBranches\tJumps\tL1I\tL1D\tL2\tRegisters");
+		for (Job job : jobs) {
+			if (job.result == null) {
+				out.println(job.config + "\t" + job.error + "\t\t\t");
+				continue;
+			}
+			
+			long[] registers = job.result.getRegisters();
+			if (expected == null) {
+				expected = registers;
+			}
+			
+			out.println(job.config + "\t" + 
+				job.result.getInstructionCount() + "\t" + 
+				job.result.getCycleCount() + "\t" + 
+				job.result.getCpi() + "\t" +
+				job.predictor.getBranchAccuracy() + "\t" +
+				job.predictor.getJumpAccuracy() + "\t" +
+				hitRate(job.caches.getL1i()) + "\t" +
+				hitRate(job.caches.getL1d()) + "\t" +
+				hitRate(job.caches.getL2()) + "\t" +
+				(Arrays.equals(expected, registers) ? "same" : "different"));
+		}
+		
+		out.println();
+		out.println("Wall time: \t\t" + seconds + " s");
+	}
+	
+	/**
+	 * @return The hit rate of a cache, or a dash if there's no such cache.
+	 */
+	private static String hitRate(Cache cache) {
+		return cache == null ? "-" : cache.getHitRate();
+	}
+	
+	/**
+	 * The simulation of the program on a single configuration.
+	 */
+	private static class Job extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final MemoryStore image;
+		private final PipelineConfig config;
+		private final long maxCycles;
+		private final long timeoutMillis;
+		
+		/**
+		 * The results of the simulation, or null if it failed.
+		 */
+		private SimulationResult result = null;
+		
+		/**
+		 * The branch predictor of the simulation, once it's finished.
+		 */
+		private BranchPredictor predictor = null;
+		
+		/**
+		 * The caches of the simulation, once it's finished.
+		 */
+		private CacheHierarchy caches = null;
+		
+		/**
+		 * Why the simulation failed, if it did.
+		 */
+		private String error = null;
+		
+		Job(MemoryStore image, PipelineConfig config, long maxCycles, long timeoutMillis) {
+			this.image = image;
+			this.config = config;
+			this.maxCycles = maxCycles;
+			this.timeoutMillis = timeoutMillis;
+		}
+		
+		@Override
+		protected void compute() {
+			try {
+				Mips mips = new Mips(new MemoryStore(image), config);
+				error = BatchRunner.simulate(mips, maxCycles, timeoutMillis);
+				if (error != null) {
+					return;
+				}
+				
+				result = mips.getResult();
+				predictor = mips.getPredictor();
+				caches = mips.getCaches();
+			} catch (RuntimeException e) {
+				error = "Error: " + e;
+			}
+		}
+	}
+}
@@ -0,0 +1,372 @@
+package mips.cache;
+
+import java.util.Arrays;
+
+/**
+ * One level of a cache hierarchy.  Only the tags of the lines are kept,
+ * since the data always comes from the memory store, so an access just
+ * works out whether the line is there and how many cycles it would have
+ * taken to get it.
+ * 
+ * Each line is a single word of the tag array holding its line address,
+ * a valid bit and a dirty bit.  Least recently used replacement keeps a
+ * timestamp per line, and pseudo-LRU keeps a tree of bits per set packed
+ * into one word.
+ */
+public class Cache {
+	// the flags kept in the low bits of each tag
+	private static final long VALID = 1;
+	private static final long DIRTY = 2;
+	private static final int FLAG_BITS = 2;
+	
+	/**
+	 * The starting state of the generator for random replacement.
+	 */
+	private static final long SEED = 0x9E3779B97F4A7C15L;
+	
+	private final String name;
+	private final CacheConfig config;
+	
+	/**
+	 * The next level down, or null if misses go to memory.
+	 */
+	private final Cache next;
+	
+	/**
+	 * The number of cycles it takes to get a line from memory.
+	 */
+	private final int memoryLatency;
+	
+	private final int ways;
+	private final int setMask;
+	private final int lineBits;
+	private final int latency;
+	private final boolean writeThrough;
+	
+	/**
+	 * The tag of each line: its line address, shifted up past the flags.
+	 * The lines of a set are next to each other.
+	 */
+	private final long[] tags;
+	
+	/**
+	 * When each line was last used, for LRU replacement.
+	 */
+	private final long[] lastUsed;
+	
+	/**
+	 * The pseudo-LRU tree of each set.  Bit n is node n of the tree, where
+	 * node 1 is the root and the children of node n are 2n and 2n + 1, and
+	 * is set when the least recently used half is on the right.
+	 */
+	private final long[] trees;
+	
+	/**
+	 * Counts accesses, for LRU replacement.
+	 */
+	private long clock = 0;
+	
+	/**
+	 * The state of the generator picking lines for random replacement.  It
+	 * always starts the same, so runs can be repeated.
+	 */
+	private long seed = SEED;
+	
+	private long reads = 0;
+	private long readMisses = 0;
+	private long writes = 0;
+	private long writeMisses = 0;
+	private long writebacks = 0;
+	
+	/**
+	 * Create an empty cache.
+	 * 
+	 * @param name The name of the level, such as <code>L1D</code>.
+	 * @param config The shape of the cache.
+	 * @param next The next level down, or null if misses go straight to
+	 * memory.
+	 * @param memoryLatency The number of cycles it takes to get a line from
+	 * memory.
+	 */
+	public Cache(String name, CacheConfig config, Cache next, int memoryLatency) {
+		this.name = name;
+		this.config = config;
+		this.next = next;
+		this.memoryLatency = memoryLatency;
+		
+		int lines = config.getSize() / config.getLineSize();
+		ways = config.getWays();
+		setMask = lines / ways - 1;
+		lineBits = Integer.numberOfTrailingZeros(config.getLineSize());
+		latency = config.getLatency();
+		writeThrough = config.isWriteThrough();
+		String replacement = config.getReplacement();
+		
+		tags = new long[lines];
+		lastUsed = replacement.equals(CacheConfig.LRU) ? new long[lines] : null;
+		trees = replacement.equals(CacheConfig.PLRU) ? new long[lines / ways] : null;
+	}
+	
+	/**
+	 * Read from the cache, bringing the line in if it isn't there.
+	 * 
+	 * @param address The byte address being read.
+	 * @return The number of cycles the read takes.
+	 */
+	public int read(long address) {
+		reads++;
+		
+		long lineAddress = address >>> lineBits;
+		int line = find(lineAddress);
+		if (line >= 0) {
+			touch(line);
+			return latency;
+		}
+		
+		readMisses++;
+		return latency + fill(lineAddress, 0);
+	}
+	
+	/**
+	 * Write to the cache.  A write back cache brings the line in if it isn't
+	 * there and marks it dirty.  A write through cache passes every write
+	 * on to the next level and doesn't bring lines in for them.  Writes
+	 * passed on are buffered, so they don't hold up the pipeline.
+	 * 
+	 * @param address The byte address being written.
+	 * @return The number of cycles the write takes.
+	 */
+	public int write(long address) {
+		writes++;
+		
+		long lineAddress = address >>> lineBits;
+		int line = find(lineAddress);
+		if (line >= 0) {
+			touch(line);
+			if (writeThrough) {
+				writeNext(address);
+			} else {
+				tags[line] |= DIRTY;
+			}
+			return latency;
+		}
+		
+		writeMisses++;
+		if (writeThrough) {
+			writeNext(address);
+			return latency;
+		}
+		
+		return latency + fill(lineAddress, DIRTY);
+	}
+	
+	/**
+	 * Empty the cache and zero its counts, as if it had just been created.
+	 * Dirty lines are thrown away rather than written back.
+	 */
+	public void reset() {
+		Arrays.fill(tags, 0);
+		if (lastUsed != null) {
+			Arrays.fill(lastUsed, 0);
+		}
+		if (trees != null) {
+			Arrays.fill(trees, 0);
+		}
+		
+		clock = 0;
+		seed = SEED;
+		reads = 0;
+		readMisses = 0;
+		writes = 0;
+		writeMisses = 0;
+		writebacks = 0;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public CacheConfig getConfig() {
+		return config;
+	}
+	
+	public long getAccesses() {
+		return reads + writes;
+	}
+	
+	public long getMisses() {
+		return readMisses + writeMisses;
+	}
+	
+	public long getReads() {
+		return reads;
+	}
+	
+	public long getReadMisses() {
+		return readMisses;
+	}
+	
+	public long getWrites() {
+		return writes;
+	}
+	
+	public long getWriteMisses() {
+		return writeMisses;
+	}
+	
+	/**
+	 * @return The number of dirty lines written to the next level when
+	 * they were replaced.
+	 */
+	public long getWritebacks() {
+		return writebacks;
+	}
+	
+	/**
+	 * @return The percentage of accesses that hit.
+	 */
+	public String getHitRate() {
+		return percent(getAccesses() - getMisses(), getAccesses());
+	}
+	
+	/**
+	 * @return The percentage of accesses that missed.
+	 */
+	public String getMissRate() {
+		return percent(getMisses(), getAccesses());
+	}
+	
+	/**
+	 * @return The hit and miss rates, in the format printed by the
+	 * simulator.
+	 */
+	@Override
+	public String toString() {
+		return name + " (" + config + "): \t" + getAccesses() + " accesses, " +
+			getHitRate() + " hits, " + getMissRate() + " misses (" +
+			readMisses + " of " + reads + " reads, " +
+			writeMisses + " of " + writes + " writes), " +
+			writebacks + " writebacks";
+	}
+	
+	/**
+	 * @return The line holding the given line address, or -1 if it isn't
+	 * in the cache.
+	 */
+	private int find(long lineAddress) {
+		long tag = (lineAddress << FLAG_BITS) | VALID;
+		int first = ((int)lineAddress & setMask) * ways;
+		
+		for (int line = first; line < first + ways; line++) {
+			if ((tags[line] & ~DIRTY) == tag) {
+				return line;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Bring a line into the cache from the next level, writing back the
+	 * line it replaces if that's dirty.
+	 * 
+	 * @param lineAddress The line address to bring in.
+	 * @param flags Any flags besides valid to give the line.
+	 * @return The number of cycles it takes to get the line.
+	 */
+	private int fill(long lineAddress, long flags) {
+		int set = (int)lineAddress & setMask;
+		int line = set * ways + victim(set);
+		
+		if ((tags[line] & DIRTY) != 0) {
+			writebacks++;
+			writeNext((tags[line] >>> FLAG_BITS) << lineBits);
+		}
+		
+		tags[line] = (lineAddress << FLAG_BITS) | VALID | flags;
+		touch(line);
+		
+		return next == null ? memoryLatency : next.read(lineAddress << lineBits);
+	}
+	
+	private void writeNext(long address) {
+		if (next != null) {
+			next.write(address);
+		}
+	}
+	
+	/**
+	 * @return The way of the given set to replace.
+	 */
+	private int victim(int set) {
+		int first = set * ways;
+		
+		// empty lines are used up first
+		for (int way = 0; way < ways; way++) {
+			if ((tags[first + way] & VALID) == 0) {
+				return way;
+			}
+		}
+		
+		if (lastUsed != null) {
+			int oldest = 0;
+			for (int way = 1; way < ways; way++) {
+				if (lastUsed[first + way] < lastUsed[first + oldest]) {
+					oldest = way;
+				}
+			}
+			return oldest;
+		}
+		
+		if (trees != null) {
+			// follow the tree towards the least recently used half
+			long tree = trees[set];
+			int node = 1;
+			while (node < ways) {
+				node = 2 * node + (int)((tree >>> node) & 1);
+			}
+			return node - ways;
+		}
+		
+		// xorshift
+		seed ^= seed << 13;
+		seed ^= seed >>> 7;
+		seed ^= seed << 17;
+		return (int)seed & (ways - 1);
+	}
+	
+	/**
+	 * Record that a line has just been used.
+	 */
+	private void touch(int line) {
+		if (lastUsed != null) {
+			lastUsed[line] = ++clock;
+		} else if (trees != null) {
+			int set = line / ways;
+			int way = line - set * ways;
+			long tree = trees[set];
+			
+			// point every node on the way down at the other half
+			int node = 1;
+			for (int half = ways >> 1; half > 0; half >>= 1) {
+				int right = (way & half) != 0 ? 1 : 0;
+				if (right == 0) {
+					tree |= 1L << node;
+				} else {
+					tree &= ~(1L << node);
+				}
+				node = 2 * node + right;
+			}
+			
+			trees[set] = tree;
+		}
+	}
+	
+	private static String percent(long count, long total) {
+		if (total == 0) {
+			return "n/a";
+		}
+		
+		return String.format("%.2f%%", 100.0 * count / total);
+	}
+}
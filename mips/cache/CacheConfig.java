@@ -0,0 +1,207 @@
+package mips.cache;
+
+/**
+ * The shape of one level of cache: its size, associativity and line size,
+ * how it picks a line to replace, how it handles writes, and how many
+ * cycles it takes to get a line from it.
+ */
+public class CacheConfig {
+	// the names of the replacement policies
+	public static final String LRU = "lru";
+	public static final String PLRU = "plru";
+	public static final String RANDOM = "random";
+	
+	// the names of the write policies
+	public static final String WRITE_BACK = "wb";
+	public static final String WRITE_THROUGH = "wt";
+	
+	/**
+	 * The most ways a pseudo-LRU tree fits in.
+	 */
+	static final int MAX_PLRU_WAYS = 64;
+	
+	/**
+	 * The size of the cache in bytes.
+	 */
+	private final int size;
+	
+	private final int ways;
+	
+	/**
+	 * The size of a line in bytes.
+	 */
+	private final int lineSize;
+	
+	/**
+	 * The name of the replacement policy.
+	 */
+	private final String replacement;
+	
+	/**
+	 * Whether writes go straight through to the next level, rather than
+	 * waiting until the line is replaced.
+	 */
+	private final boolean writeThrough;
+	
+	/**
+	 * The number of cycles it takes to get a line from this level.
+	 */
+	private final int latency;
+	
+	/**
+	 * Create the configuration of a cache.
+	 * 
+	 * @param size The size in bytes.
+	 * @param ways The number of lines in each set.
+	 * @param lineSize The size of a line in bytes.
+	 * @param replacement The name of the replacement policy.
+	 * @param writeThrough Whether writes go straight through to the next
+	 * level instead of being written back when the line is replaced.
+	 * @param latency The number of cycles it takes to get a line from this
+	 * level.
+	 */
+	public CacheConfig(
+		int size,
+		int ways,
+		int lineSize,
+		String replacement,
+		boolean writeThrough,
+		int latency
+	) {
+		if (!isPowerOfTwo(size) || !isPowerOfTwo(ways) ||
+			!isPowerOfTwo(lineSize) || lineSize < 4 || size < ways * lineSize)
+		{
+			throw new IllegalArgumentException(
+				"Cache sizes must be powers of two holding at least one set: " +
+				size + ":" + ways + ":" + lineSize
+			);
+		}
+		if (!replacement.equals(LRU) && !replacement.equals(PLRU) &&
+			!replacement.equals(RANDOM))
+		{
+			throw new IllegalArgumentException("Unknown replacement policy: " + replacement);
+		}
+		if (replacement.equals(PLRU) && ways > MAX_PLRU_WAYS) {
+			throw new IllegalArgumentException(
+				"Pseudo-LRU caches can have at most " + MAX_PLRU_WAYS + " ways"
+			);
+		}
+		if (latency < 0) {
+			throw new IllegalArgumentException("Cache latency can't be negative");
+		}
+		
+		this.size = size;
+		this.ways = ways;
+		this.lineSize = lineSize;
+		this.replacement = replacement;
+		this.writeThrough = writeThrough;
+		this.latency = latency;
+	}
+	
+	/**
+	 * Parse the configuration of a cache from its size, associativity and
+	 * line size separated by colons, such as <code>32k:4:64</code>.  These
+	 * can be followed by more colon separated options: <code>lru</code>
+	 * (the default), <code>plru</code> or <code>random</code> for the
+	 * replacement policy, <code>wb</code> (the default) or <code>wt</code>
+	 * for the write policy, and a number for the latency in cycles.
+	 * 
+	 * @param description The description of the cache.
+	 * @param latency The latency if none is given.
+	 * @return The configuration.
+	 */
+	public static CacheConfig parse(String description, int latency) {
+		String[] fields = description.split(":");
+		if (fields.length < 3) {
+			throw new IllegalArgumentException(
+				"Caches are given as size:ways:line, not " + description
+			);
+		}
+		
+		int size = parseSize(fields[0]);
+		int ways = parseSize(fields[1]);
+		int lineSize = parseSize(fields[2]);
+		String replacement = LRU;
+		boolean writeThrough = false;
+		
+		for (int i = 3; i < fields.length; i++) {
+			String option = fields[i];
+			
+			if (option.equals(LRU) || option.equals(PLRU) || option.equals(RANDOM)) {
+				replacement = option;
+			} else if (option.equals(WRITE_BACK)) {
+				writeThrough = false;
+			} else if (option.equals(WRITE_THROUGH)) {
+				writeThrough = true;
+			} else {
+				latency = parseSize(option);
+			}
+		}
+		
+		return new CacheConfig(size, ways, lineSize, replacement, writeThrough, latency);
+	}
+	
+	public int getSize() {
+		return size;
+	}
+	
+	public int getWays() {
+		return ways;
+	}
+	
+	public int getLineSize() {
+		return lineSize;
+	}
+	
+	public String getReplacement() {
+		return replacement;
+	}
+	
+	public boolean isWriteThrough() {
+		return writeThrough;
+	}
+	
+	public int getLatency() {
+		return latency;
+	}
+	
+	/**
+	 * @return The configuration in the form read by <code>parse</code>.
+	 */
+	@Override
+	public String toString() {
+		String sizeName = size % (1 << 20) == 0 ? (size >> 20) + "m" :
+			size % (1 << 10) == 0 ? (size >> 10) + "k" :
+			Integer.toString(size);
+		
+		return sizeName + ":" + ways + ":" + lineSize + ":" + replacement + ":" +
+			(writeThrough ? WRITE_THROUGH : WRITE_BACK) + ":" + latency;
+	}
+	
+	/**
+	 * Parse a number, which may end in <code>k</code> or <code>m</code> for
+	 * kilobytes or megabytes.
+	 */
+	private static int parseSize(String number) {
+		int scale = 1;
+		String digits = number.toLowerCase();
+		if (digits.endsWith("k")) {
+			scale = 1 << 10;
+		} else if (digits.endsWith("m")) {
+			scale = 1 << 20;
+		}
+		if (scale != 1) {
+			digits = digits.substring(0, digits.length() - 1);
+		}
+		
+		try {
+			return Integer.parseInt(digits) * scale;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Unknown cache option: " + number);
+		}
+	}
+	
+	private static boolean isPowerOfTwo(int value) {
+		return value > 0 && (value & (value - 1)) == 0;
+	}
+}
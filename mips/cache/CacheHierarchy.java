@@ -0,0 +1,175 @@
+package mips.cache;
+
+import mips.PipelineConfig;
+
+/**
+ * The caches between the pipeline and memory: split level 1 instruction
+ * and data caches and a unified level 2 cache, any of which can be left
+ * out.  Fetch and the memory stage ask it how many cycles their accesses
+ * take, and it keeps track of how many cycles they've waited in total.
+ * 
+ * Instructions or data without a level 1 cache of their own go straight
+ * to the level 2 cache, and without that take no time at all, as they do
+ * in a pipeline with no caches.
+ */
+public class CacheHierarchy {
+	private final Cache l1i;
+	private final Cache l1d;
+	private final Cache l2;
+	
+	/**
+	 * The first level instructions and data are looked up in, or null if
+	 * they don't go through a cache.
+	 */
+	private final Cache instructions;
+	private final Cache data;
+	
+	// the cycles spent waiting for each kind of access
+	private long fetchCycles = 0;
+	private long dataCycles = 0;
+	
+	/**
+	 * Create the empty caches a pipeline configuration asks for.
+	 * 
+	 * @param config The configuration.
+	 */
+	public CacheHierarchy(PipelineConfig config) {
+		int memoryLatency = config.getMemoryLatency();
+		
+		l2 = config.getL2() == null ? null :
+			new Cache("L2", config.getL2(), null, memoryLatency);
+		l1i = config.getL1i() == null ? null :
+			new Cache("L1I", config.getL1i(), l2, memoryLatency);
+		l1d = config.getL1d() == null ? null :
+			new Cache("L1D", config.getL1d(), l2, memoryLatency);
+		
+		instructions = l1i != null ? l1i : l2;
+		data = l1d != null ? l1d : l2;
+	}
+	
+	/**
+	 * @return Whether there are any caches at all.
+	 */
+	public boolean isEnabled() {
+		return l2 != null || l1i != null || l1d != null;
+	}
+	
+	/**
+	 * Fetch an instruction.
+	 * 
+	 * @param address The address of the instruction.
+	 * @return The number of cycles fetch has to wait for it.
+	 */
+	public int fetch(long address) {
+		if (instructions == null) {
+			return 0;
+		}
+		
+		int cycles = instructions.read(address);
+		fetchCycles += cycles;
+		return cycles;
+	}
+	
+	/**
+	 * Read data.
+	 * 
+	 * @param address The address being loaded.
+	 * @return The number of cycles the pipeline has to wait for it.
+	 */
+	public int read(long address) {
+		if (data == null) {
+			return 0;
+		}
+		
+		int cycles = data.read(address);
+		dataCycles += cycles;
+		return cycles;
+	}
+	
+	/**
+	 * Write data.
+	 * 
+	 * @param address The address being stored to.
+	 * @return The number of cycles the pipeline has to wait for it.
+	 */
+	public int write(long address) {
+		if (data == null) {
+			return 0;
+		}
+		
+		int cycles = data.write(address);
+		dataCycles += cycles;
+		return cycles;
+	}
+	
+	/**
+	 * Empty every cache and zero the counts.
+	 */
+	public void reset() {
+		if (l1i != null) {
+			l1i.reset();
+		}
+		if (l1d != null) {
+			l1d.reset();
+		}
+		if (l2 != null) {
+			l2.reset();
+		}
+		
+		fetchCycles = 0;
+		dataCycles = 0;
+	}
+	
+	/**
+	 * @return The level 1 instruction cache, or null if there isn't one.
+	 */
+	public Cache getL1i() {
+		return l1i;
+	}
+	
+	/**
+	 * @return The level 1 data cache, or null if there isn't one.
+	 */
+	public Cache getL1d() {
+		return l1d;
+	}
+	
+	/**
+	 * @return The level 2 cache, or null if there isn't one.
+	 */
+	public Cache getL2() {
+		return l2;
+	}
+	
+	/**
+	 * @return The number of cycles fetch has waited for instructions.
+	 */
+	public long getFetchCycles() {
+		return fetchCycles;
+	}
+	
+	/**
+	 * @return The number of cycles the pipeline has waited for data.
+	 */
+	public long getDataCycles() {
+		return dataCycles;
+	}
+	
+	/**
+	 * @return The hit and miss rates of each level and the cycles spent
+	 * waiting on them, in the format printed by the simulator.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (Cache cache : new Cache[] { l1i, l1d, l2 }) {
+			if (cache != null) {
+				builder.append(cache).append('\n');
+			}
+		}
+		
+		builder.append("Fetch miss cycles: \t").append(fetchCycles).append('\n');
+		builder.append("Data miss cycles: \t").append(dataCycles);
+		return builder.toString();
+	}
+}
@@ -0,0 +1,327 @@
+package mips.checkpoint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+import mips.MemoryStore;
+
+/**
+ * A snapshot of the state of the simulator: the instruction and cycle 
+ * counts, the registers, and the memory pages written since the previous
+ * checkpoint.  Restoring every checkpoint taken during a run in order, on
+ * top of the program it started from, gets back the state of the last one.
+ * 
+ * Each checkpoint is written as a single record: a header holding the 
+ * counts and sizes, the register state, each page prefixed by its index,
+ * and finally a CRC-32 of everything before it so that a record cut short
+ * by a crash can be recognized.
+ */
+public class Checkpoint {
+	/**
+	 * The first four bytes of every record.
+	 */
+	private static final int MAGIC = 0x4D495043;
+	
+	/**
+	 * The number of bytes in the header of a record.
+	 */
+	public static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+	
+	/**
+	 * The number of bytes used to write a single page.
+	 */
+	private static final int PAGE_RECORD_SIZE = 4 + MemoryStore.PAGE_SIZE * 8;
+	
+	/**
+	 * The size of the buffer records are written through.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final long instructionCount;
+	private final long cycleCount;
+	
+	/**
+	 * The saved state of the program counter, register file and pipeline
+	 * registers.
+	 */
+	private final byte[] state;
+	
+	/**
+	 * The indices of the saved pages.
+	 */
+	private final int[] pageIndices;
+	
+	/**
+	 * The contents of the saved pages.
+	 */
+	private final long[][] pages;
+	
+	/**
+	 * Create a checkpoint.  The arrays are kept rather than copied.
+	 * 
+	 * @param instructionCount The number of instructions completed.
+	 * @param cycleCount The number of cycles run.
+	 * @param state The saved registers.
+	 * @param pageIndices The indices of the saved pages.
+	 * @param pages The contents of the saved pages.
+	 */
+	public Checkpoint(
+		long instructionCount,
+		long cycleCount,
+		byte[] state,
+		int[] pageIndices,
+		long[][] pages
+	) {
+		this.instructionCount = instructionCount;
+		this.cycleCount = cycleCount;
+		this.state = state;
+		this.pageIndices = pageIndices;
+		this.pages = pages;
+	}
+	
+	public long getInstructionCount() {
+		return instructionCount;
+	}
+	
+	public long getCycleCount() {
+		return cycleCount;
+	}
+	
+	/**
+	 * @return A buffer for reading the saved registers.
+	 */
+	public ByteBuffer getState() {
+		return ByteBuffer.wrap(state).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * @return The number of saved pages.
+	 */
+	public int getPageCount() {
+		return pageIndices.length;
+	}
+	
+	public int getPageIndex(int page) {
+		return pageIndices[page];
+	}
+	
+	public long[] getPage(int page) {
+		return pages[page];
+	}
+	
+	/**
+	 * Write the checkpoint as a single record.
+	 * 
+	 * @param channel The channel to write to.
+	 * @throws IOException Thrown if there's a problem writing.
+	 */
+	public void write(WritableByteChannel channel) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		
+		buffer.putInt(MAGIC);
+		buffer.putInt(state.length);
+		buffer.putInt(pageIndices.length);
+		buffer.putLong(instructionCount);
+		buffer.putLong(cycleCount);
+		
+		if (buffer.remaining() < state.length) {
+			flush(channel, buffer, crc);
+		}
+		buffer.put(state);
+		
+		for (int i = 0; i < pageIndices.length; i++) {
+			if (buffer.remaining() < PAGE_RECORD_SIZE) {
+				flush(channel, buffer, crc);
+			}
+			
+			buffer.putInt(pageIndices[i]);
+			for (long word : pages[i]) {
+				buffer.putLong(word);
+			}
+		}
+		
+		flush(channel, buffer, crc);
+		
+		// the checksum covers everything but itself
+		buffer.putInt((int)crc.getValue());
+		flush(channel, buffer, null);
+	}
+	
+	/**
+	 * Work out the length of a whole record from its header, without 
+	 * reading the rest of it.  The last four bytes of a record are its
+	 * checksum.
+	 * 
+	 * @param header The first <code>HEADER_SIZE</code> bytes of the record.
+	 * @return The length of the record, or -1 if the header isn't the 
+	 * start of one.
+	 */
+	public static long recordLength(ByteBuffer header) {
+		if (header.getInt(0) != MAGIC) {
+			return -1;
+		}
+		
+		int stateLength = header.getInt(4);
+		int pageCount = header.getInt(8);
+		if (stateLength < 0 || stateLength > BUFFER_SIZE ||
+			pageCount < 0 || pageCount > (1 << 30) / MemoryStore.PAGE_SIZE) 
+		{
+			return -1;
+		}
+		
+		return HEADER_SIZE + stateLength + (long)pageCount * PAGE_RECORD_SIZE + 4;
+	}
+	
+	/**
+	 * Read a record written by <code>write</code> out of a buffer.
+	 * 
+	 * @param record The buffer holding the record.
+	 * @return The checkpoint, or null if the buffer doesn't hold a complete
+	 * record.
+	 */
+	public static Checkpoint read(final ByteBuffer record) {
+		ReadableByteChannel channel = new ReadableByteChannel() {
+			public int read(ByteBuffer dst) {
+				if (!record.hasRemaining()) {
+					return -1;
+				}
+				
+				int length = Math.min(dst.remaining(), record.remaining());
+				ByteBuffer part = record.duplicate();
+				part.limit(part.position() + length);
+				dst.put(part);
+				record.position(record.position() + length);
+				
+				return length;
+			}
+			
+			public boolean isOpen() {
+				return true;
+			}
+			
+			public void close() {
+			}
+		};
+		
+		try {
+			return read(channel);
+		} catch (IOException e) {
+			// reading from a buffer doesn't fail
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Read the next record written by <code>write</code>.
+	 * 
+	 * @param channel The channel to read from.
+	 * @return The checkpoint, or null if the channel holds no more complete
+	 * records.
+	 * @throws IOException Thrown if there's a problem reading.
+	 */
+	public static Checkpoint read(ReadableByteChannel channel) throws IOException {
+		CRC32 crc = new CRC32();
+		
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if (!readFully(channel, header, crc) || header.getInt() != MAGIC) {
+			return null;
+		}
+		
+		int stateLength = header.getInt();
+		int pageCount = header.getInt();
+		long instructionCount = header.getLong();
+		long cycleCount = header.getLong();
+		
+		// reject nonsense sizes before allocating anything for them
+		if (stateLength < 0 || stateLength > BUFFER_SIZE ||
+			pageCount < 0 || pageCount > (1 << 30) / MemoryStore.PAGE_SIZE) 
+		{
+			return null;
+		}
+		
+		ByteBuffer state = ByteBuffer.allocate(stateLength);
+		if (!readFully(channel, state, crc)) {
+			return null;
+		}
+		
+		int[] pageIndices = new int[pageCount];
+		long[][] pages = new long[pageCount][];
+		ByteBuffer page = ByteBuffer.allocate(PAGE_RECORD_SIZE);
+		for (int i = 0; i < pageCount; i++) {
+			if (!readFully(channel, page, crc)) {
+				return null;
+			}
+			
+			pageIndices[i] = page.getInt();
+			pages[i] = new long[MemoryStore.PAGE_SIZE];
+			page.asLongBuffer().get(pages[i]);
+		}
+		
+		ByteBuffer checksum = ByteBuffer.allocate(4);
+		if (!readFully(channel, checksum, null) || 
+			checksum.getInt() != (int)crc.getValue()) 
+		{
+			return null;
+		}
+		
+		return new Checkpoint(
+			instructionCount, cycleCount, state.array(), pageIndices, pages
+		);
+	}
+	
+	/**
+	 * Write out everything in the buffer and clear it.
+	 * 
+	 * @param channel The channel to write to.
+	 * @param buffer The buffer being filled.
+	 * @param crc The checksum to add the written bytes to, if any.
+	 * @throws IOException Thrown if there's a problem writing.
+	 */
+	private static void flush(
+		WritableByteChannel channel, 
+		ByteBuffer buffer, 
+		CRC32 crc
+	) throws IOException {
+		buffer.flip();
+		if (crc != null) {
+			crc.update(buffer.duplicate());
+		}
+		
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	/**
+	 * Fill the whole of the given buffer and flip it ready for reading.
+	 * 
+	 * @param channel The channel to read from.
+	 * @param buffer The buffer to fill.
+	 * @param crc The checksum to add the read bytes to, if any.
+	 * @return Whether the buffer was filled before the end of the channel.
+	 * @throws IOException Thrown if there's a problem reading.
+	 */
+	private static boolean readFully(
+		ReadableByteChannel channel, 
+		ByteBuffer buffer, 
+		CRC32 crc
+	) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				return false;
+			}
+		}
+		
+		buffer.flip();
+		if (crc != null) {
+			crc.update(buffer.duplicate());
+		}
+		return true;
+	}
+}
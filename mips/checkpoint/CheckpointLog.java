@@ -0,0 +1,181 @@
+package mips.checkpoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import mips.Mips;
+
+/**
+ * A file that checkpoints of a simulation are appended to as it runs.  Each
+ * checkpoint only holds the memory pages written since the one before, so 
+ * the simulation is resumed by restoring every checkpoint in the file in
+ * order.
+ * 
+ * Checkpoints are written by a background thread, so the simulation only
+ * stops long enough to copy its registers and dirty pages.  If the thread
+ * falls behind, saving blocks until it has caught up.
+ */
+public class CheckpointLog {
+	/**
+	 * The number of checkpoints that may be waiting to be written.
+	 */
+	private static final int QUEUE_SIZE = 2;
+	
+	/**
+	 * Queued to tell the writer thread to finish.
+	 */
+	private static final Checkpoint END = 
+		new Checkpoint(0, 0, new byte[0], new int[0], new long[0][]);
+	
+	private final FileChannel channel;
+	
+	/**
+	 * The checkpoints waiting to be written.
+	 */
+	private final BlockingQueue<Checkpoint> queue = 
+		new ArrayBlockingQueue<Checkpoint>(QUEUE_SIZE);
+	
+	/**
+	 * The thread writing out the checkpoints.
+	 */
+	private final Thread writer;
+	
+	/**
+	 * The number of checkpoints restored when the log was opened.
+	 */
+	private final int restored;
+	
+	/**
+	 * The error that stopped the writer thread, if any.
+	 */
+	private volatile IOException error = null;
+	
+	/**
+	 * Open a checkpoint log, creating it if it doesn't exist.  If it does
+	 * exist, every complete checkpoint in it is restored into the given
+	 * simulator, and anything after the last one is discarded.
+	 * 
+	 * @param file The log file.
+	 * @param mips A simulator freshly created for the same program.
+	 * @throws IOException Thrown if there's a problem opening or reading
+	 * the log.
+	 */
+	public CheckpointLog(File file, Mips mips) throws IOException {
+		channel = FileChannel.open(
+			file.toPath(), 
+			StandardOpenOption.CREATE, 
+			StandardOpenOption.READ, 
+			StandardOpenOption.WRITE
+		);
+		
+		try {
+			int count = 0;
+			long end = 0;
+			
+			Checkpoint checkpoint;
+			while ((checkpoint = Checkpoint.read(channel)) != null) {
+				mips.restore(checkpoint);
+				end = channel.position();
+				count++;
+			}
+			
+			// drop any checkpoint that was only partly written
+			channel.truncate(end);
+			channel.position(end);
+			restored = count;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		
+		writer = new Thread("checkpoint writer") {
+			@Override
+			public void run() {
+				writeCheckpoints();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * @return The number of checkpoints restored when the log was opened.
+	 */
+	public int getRestoredCount() {
+		return restored;
+	}
+	
+	/**
+	 * Queue a checkpoint to be appended to the log.
+	 * 
+	 * @param checkpoint The checkpoint to save.
+	 * @throws IOException Thrown if an earlier checkpoint couldn't be 
+	 * written.
+	 */
+	public void save(Checkpoint checkpoint) throws IOException {
+		try {
+			while (!queue.offer(checkpoint, 100, TimeUnit.MILLISECONDS)) {
+				checkError();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted saving checkpoint");
+		}
+		
+		checkError();
+	}
+	
+	/**
+	 * Wait for every queued checkpoint to be written, then close the log.
+	 * 
+	 * @throws IOException Thrown if a checkpoint couldn't be written.
+	 */
+	public void close() throws IOException {
+		try {
+			if (writer.isAlive()) {
+				queue.put(END);
+				writer.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted closing checkpoint log");
+		} finally {
+			channel.close();
+		}
+		
+		checkError();
+	}
+	
+	/**
+	 * Write checkpoints as they're queued, syncing each one to disk before
+	 * moving on to the next, until told to finish or a write fails.
+	 */
+	private void writeCheckpoints() {
+		try {
+			Checkpoint checkpoint;
+			while ((checkpoint = queue.take()) != END) {
+				checkpoint.write(channel);
+				channel.force(false);
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (InterruptedException e) {
+			error = new InterruptedIOException("Checkpoint writer interrupted");
+		}
+		
+		// nothing more will be written, so don't let anyone wait on it
+		queue.clear();
+	}
+	
+	private void checkError() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+	}
+}
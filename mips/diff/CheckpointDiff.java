@@ -0,0 +1,261 @@
+package mips.diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+
+import mips.MappedFile;
+import mips.MemoryStore;
+import mips.Mips;
+import mips.checkpoint.Checkpoint;
+
+/**
+ * Finds the first checkpoint where two checkpoint logs differ.  Records 
+ * are found from their headers alone, and records of the same length 
+ * ending in the same checksum are taken to be the same without reading 
+ * them.  The first pair that differs is read in full, and every register,
+ * pipeline register field and memory word that differs is reported.
+ */
+public class CheckpointDiff {
+	/**
+	 * The most differences of each kind that are listed.
+	 */
+	private static final int MAX_LISTED = 20;
+	
+	private final MappedFile first;
+	private final MappedFile second;
+	
+	/**
+	 * Open two checkpoint logs to compare.
+	 * 
+	 * @param first The first log.
+	 * @param second The second log.
+	 * @throws IOException Thrown if either log can't be opened.
+	 */
+	public CheckpointDiff(File first, File second) throws IOException {
+		this.first = new MappedFile(first);
+		
+		try {
+			this.second = new MappedFile(second);
+		} catch (IOException e) {
+			this.first.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Compare the logs and print a report of the first difference.
+	 * 
+	 * @param out Where to print the report.
+	 * @return Whether the logs are the same.
+	 * @throws IOException Thrown if either log can't be read.
+	 */
+	public boolean compare(PrintStream out) throws IOException {
+		long positionA = 0;
+		long positionB = 0;
+		long previousCycle = 0;
+		int count = 0;
+		
+		while (true) {
+			long lengthA = recordLength(first, positionA);
+			long lengthB = recordLength(second, positionB);
+			
+			if (lengthA < 0 || lengthB < 0) {
+				out.println("Skipped " + count + " checkpoints with matching checksums");
+				if (lengthA == lengthB) {
+					out.println("The checkpoints are the same");
+					return true;
+				}
+				
+				out.println("The " + (lengthA < 0 ? "first" : "second") + 
+					" log ends after " + count + " checkpoints");
+				return false;
+			}
+			
+			if (lengthA != lengthB || 
+				checksum(first, positionA, lengthA) != checksum(second, positionB, lengthB))
+			{
+				out.println("Skipped " + count + " checkpoints with matching checksums");
+				
+				Checkpoint a = Checkpoint.read(first.slice(positionA, (int)lengthA));
+				Checkpoint b = Checkpoint.read(second.slice(positionB, (int)lengthB));
+				out.println("First difference in checkpoint " + (count + 1) + 
+					", so the runs diverged after cycle " + previousCycle + 
+					" and by cycle " + Math.min(a.getCycleCount(), b.getCycleCount()));
+				printDifferences(out, a, b);
+				return false;
+			}
+			
+			previousCycle = first.slice(positionA, Checkpoint.HEADER_SIZE).getLong(20);
+			positionA += lengthA;
+			positionB += lengthB;
+			count++;
+		}
+	}
+	
+	public void close() throws IOException {
+		try {
+			first.close();
+		} finally {
+			second.close();
+		}
+	}
+	
+	/**
+	 * @return The length of the checkpoint record at the given position, 
+	 * or -1 if there isn't a whole one there.
+	 */
+	private static long recordLength(MappedFile file, long position) 
+		throws IOException 
+	{
+		if (position + Checkpoint.HEADER_SIZE > file.size()) {
+			return -1;
+		}
+		
+		long length = Checkpoint.recordLength(
+			file.slice(position, Checkpoint.HEADER_SIZE)
+		);
+		if (length < 0 || position + length > file.size()) {
+			return -1;
+		}
+		
+		return length;
+	}
+	
+	/**
+	 * @return The checksum at the end of the record at the given position.
+	 */
+	private static int checksum(MappedFile file, long position, long length) 
+		throws IOException 
+	{
+		return file.slice(position + length - 4, 4).getInt();
+	}
+	
+	private static void printDifferences(PrintStream out, Checkpoint a, Checkpoint b) {
+		if (a.getCycleCount() != b.getCycleCount()) {
+			out.println("Cycle count: \t\t" + a.getCycleCount() + "\t" + b.getCycleCount());
+		}
+		if (a.getInstructionCount() != b.getInstructionCount()) {
+			out.println("Instruction count: \t" + 
+				a.getInstructionCount() + "\t" + b.getInstructionCount());
+		}
+		
+		ByteBuffer stateA = a.getState();
+		ByteBuffer stateB = b.getState();
+		out.println("PC: \t\t\t" + Long.toHexString(stateA.getLong(0)) + "\t" + 
+			Long.toHexString(stateB.getLong(0)));
+		
+		if (stateA.remaining() != stateB.remaining()) {
+			out.println("The checkpoints are from different simulators");
+			return;
+		}
+		
+		printStateDifferences(out, stateA, stateB);
+		printMemoryDifferences(out, a, b);
+	}
+	
+	/**
+	 * List the registers and pipeline register fields that differ, other
+	 * than the PC, which is always printed.
+	 */
+	private static void printStateDifferences(
+		PrintStream out, 
+		ByteBuffer a, 
+		ByteBuffer b
+	) {
+		int listed = 0;
+		int offset = 0;
+		
+		while (offset < a.limit() && listed < MAX_LISTED) {
+			if (a.get(offset) == b.get(offset)) {
+				offset++;
+				continue;
+			}
+			
+			// find the whole of the field the byte belongs to
+			String field = Mips.stateField(offset);
+			int start = offset;
+			while (start > 0 && Mips.stateField(start - 1).equals(field)) {
+				start--;
+			}
+			int end = offset + 1;
+			while (end < a.limit() && Mips.stateField(end).equals(field)) {
+				end++;
+			}
+			
+			if (field.equals("PC")) {
+				// already printed along with the counts
+				offset = end;
+				continue;
+			} else if (end - start == 8) {
+				out.println(field + ": \t" + Long.toHexString(a.getLong(start)) + 
+					"\t" + Long.toHexString(b.getLong(start)));
+			} else {
+				out.println(field + " differs");
+			}
+			
+			listed++;
+			offset = end;
+		}
+	}
+	
+	/**
+	 * List the memory words that differ in the pages saved by the 
+	 * checkpoints.
+	 */
+	private static void printMemoryDifferences(
+		PrintStream out, 
+		Checkpoint a, 
+		Checkpoint b
+	) {
+		TreeMap<Integer, long[]> pagesA = pages(a);
+		TreeMap<Integer, long[]> pagesB = pages(b);
+		int listed = 0;
+		
+		TreeMap<Integer, Boolean> indices = new TreeMap<Integer, Boolean>();
+		for (Integer index : pagesA.keySet()) {
+			indices.put(index, true);
+		}
+		for (Integer index : pagesB.keySet()) {
+			indices.put(index, true);
+		}
+		
+		for (Integer index : indices.keySet()) {
+			long[] pageA = pagesA.get(index);
+			long[] pageB = pagesB.get(index);
+			long first = (long)index * MemoryStore.PAGE_SIZE * 4;
+			
+			if (pageA == null || pageB == null) {
+				out.println("Page at " + Long.toHexString(first) + 
+					" only written in the " + (pageA == null ? "second" : "first") + 
+					" run");
+				if (++listed == MAX_LISTED) {
+					return;
+				}
+				continue;
+			}
+			
+			for (int i = 0; i < MemoryStore.PAGE_SIZE; i++) {
+				if (pageA[i] != pageB[i]) {
+					out.println("Memory at " + Long.toHexString(first + 4 * i) + 
+						": \t" + Long.toHexString(pageA[i]) + 
+						"\t" + Long.toHexString(pageB[i]));
+					if (++listed == MAX_LISTED) {
+						return;
+					}
+				}
+			}
+		}
+	}
+	
+	private static TreeMap<Integer, long[]> pages(Checkpoint checkpoint) {
+		TreeMap<Integer, long[]> pages = new TreeMap<Integer, long[]>();
+		for (int i = 0; i < checkpoint.getPageCount(); i++) {
+			pages.put(checkpoint.getPageIndex(i), checkpoint.getPage(i));
+		}
+		
+		return pages;
+	}
+}
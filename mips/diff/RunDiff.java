@@ -0,0 +1,63 @@
+package mips.diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import mips.trace.TraceFormat;
+
+/**
+ * Compares two runs of the simulator, given either their pipeline traces
+ * or their checkpoint logs, and reports where they first differ.  Which 
+ * kind of file they are is told from the first one.
+ */
+public class RunDiff {
+	/**
+	 * The launching point for comparing runs.  This takes the paths of the
+	 * two traces or checkpoint logs.
+	 * 
+	 * @param args The paths of the files to compare.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("You must supply two traces or checkpoint logs");
+			return;
+		}
+		
+		File first = new File(args[0]);
+		File second = new File(args[1]);
+		
+		try {
+			if (isTrace(first)) {
+				TraceDiff diff = new TraceDiff(first, second);
+				try {
+					diff.compare(System.out);
+				} finally {
+					diff.close();
+				}
+			} else {
+				CheckpointDiff diff = new CheckpointDiff(first, second);
+				try {
+					diff.compare(System.out);
+				} finally {
+					diff.close();
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Error comparing runs: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * @return Whether the file starts like a pipeline trace.
+	 */
+	private static boolean isTrace(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		
+		try {
+			return input.length() >= 4 && input.readInt() == TraceFormat.MAGIC;
+		} finally {
+			input.close();
+		}
+	}
+}
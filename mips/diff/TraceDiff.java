@@ -0,0 +1,237 @@
+package mips.diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import mips.trace.TraceFormat;
+import mips.trace.TraceReader;
+import mips.trace.TraceRecord;
+
+/**
+ * Finds the first cycle where two pipeline traces differ.  The traces are
+ * read side by side a block at a time, and blocks covering the same cycles
+ * with the same length and checksum are taken to be the same without 
+ * reading their records.  Blocks that differ are decoded and compared
+ * record by record, until a record differs or the blocks of the two traces
+ * line up and match again.
+ */
+public class TraceDiff {
+	// what comparing records can end in
+	private static final int SAME = 0;
+	private static final int DIFFERENT = 1;
+	private static final int LINED_UP = 2;
+	
+	private final TraceReader first;
+	private final TraceReader second;
+	
+	// the blocks skipped over because their checksums matched
+	private long skippedBlocks = 0;
+	private long skippedCycles = 0;
+	
+	/**
+	 * Open two traces to compare.
+	 * 
+	 * @param first The first trace file.
+	 * @param second The second trace file.
+	 * @throws IOException Thrown if either trace can't be opened.
+	 */
+	public TraceDiff(File first, File second) throws IOException {
+		this.first = new TraceReader(first);
+		
+		try {
+			this.second = new TraceReader(second);
+		} catch (IOException e) {
+			this.first.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Compare the traces and print a report of the first difference.
+	 * 
+	 * @param out Where to print the report.
+	 * @return Whether the traces are the same.
+	 * @throws IOException Thrown if either trace can't be read.
+	 */
+	public boolean compare(PrintStream out) throws IOException {
+		while (true) {
+			boolean moreFirst = first.nextBlock();
+			boolean moreSecond = second.nextBlock();
+			
+			if (!moreFirst || !moreSecond) {
+				printSkipped(out);
+				if (moreFirst == moreSecond) {
+					out.println("The traces are the same");
+					return true;
+				}
+				
+				out.println("The " + (moreFirst ? "second" : "first") + 
+					" trace ends at cycle " + 
+					(moreFirst ? first : second).getBlockCycle());
+				return false;
+			}
+			
+			if (first.getBlockCycle() != second.getBlockCycle() ||
+				first.getBlockCycles() != second.getBlockCycles() ||
+				first.getBlockChecksum() != second.getBlockChecksum())
+			{
+				int result = compareRecords(out);
+				if (result != LINED_UP) {
+					return result == SAME;
+				}
+				continue;
+			}
+			
+			skippedBlocks++;
+			skippedCycles += first.getBlockCycles();
+		}
+	}
+	
+	public void close() throws IOException {
+		try {
+			first.close();
+		} finally {
+			second.close();
+		}
+	}
+	
+	/**
+	 * Compare the traces record by record from the current blocks on, 
+	 * lining them up by cycle, until a pair differs or both traces reach
+	 * the end of a block on the same cycle, when whole blocks can be
+	 * skipped again.
+	 * 
+	 * @return <code>SAME</code> or <code>DIFFERENT</code> once the report
+	 * has been printed, or <code>LINED_UP</code> if the blocks line up
+	 * again.
+	 */
+	private int compareRecords(PrintStream out) throws IOException {
+		TraceRecord a = new TraceRecord();
+		TraceRecord b = new TraceRecord();
+		boolean moreA = first.next(a);
+		boolean moreB = second.next(b);
+		
+		while (true) {
+			if (!moreA && !moreB && blockEnd(first) == blockEnd(second)) {
+				return LINED_UP;
+			}
+			
+			// move on to the next block of whichever trace has run out
+			boolean endedA = false;
+			boolean endedB = false;
+			if (!moreA) {
+				endedA = !first.nextBlock();
+				moreA = !endedA && next(first, a);
+			}
+			if (!moreB) {
+				endedB = !second.nextBlock();
+				moreB = !endedB && next(second, b);
+			}
+			
+			if (!moreA || !moreB) {
+				printSkipped(out);
+				if (moreA == moreB) {
+					out.println("The traces are the same");
+					return SAME;
+				}
+				
+				out.println("The " + (moreA ? "second" : "first") + 
+					" trace ends after cycle " + (moreA ? b : a).getCycle());
+				return DIFFERENT;
+			}
+			
+			if (a.getCycle() < b.getCycle()) {
+				moreA = first.next(a);
+			} else if (b.getCycle() < a.getCycle()) {
+				moreB = second.next(b);
+			} else {
+				String field = differingField(a, b);
+				if (field != null) {
+					printSkipped(out);
+					out.println("First difference at cycle " + a.getCycle() + 
+						", in the " + field);
+					out.println("Trace\t" + TraceRecord.header());
+					out.println("1\t" + a);
+					out.println("2\t" + b);
+					return DIFFERENT;
+				}
+				
+				moreA = first.next(a);
+				moreB = second.next(b);
+			}
+		}
+	}
+	
+	/**
+	 * @return The cycle just after the current block of a trace.
+	 */
+	private static long blockEnd(TraceReader reader) {
+		return reader.getBlockCycle() + reader.getBlockCycles();
+	}
+	
+	/**
+	 * Read the next record of a trace, moving on to the next block when 
+	 * need be.
+	 */
+	private static boolean next(TraceReader reader, TraceRecord record) 
+		throws IOException 
+	{
+		while (!reader.next(record)) {
+			if (!reader.nextBlock()) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @return The name of the first field that differs between records of
+	 * the same cycle, or null if they're the same.
+	 */
+	private static String differingField(TraceRecord a, TraceRecord b) {
+		if (a.getFetchPc() != b.getFetchPc()) {
+			return "fetch address";
+		}
+		
+		for (int i = 0; i < TraceFormat.STAGES; i++) {
+			String stage = TraceRecord.getStageName(i);
+			
+			if (a.hasInstruction(i) != b.hasInstruction(i)) {
+				return stage + " bubble";
+			} else if (a.hasInstruction(i) && a.getPc(i) != b.getPc(i)) {
+				return stage + " address";
+			}
+		}
+		
+		if (a.hasInstruction(0) && a.getInstruction() != b.getInstruction()) {
+			return "IF/ID instruction";
+		}
+		
+		int events = TraceFormat.STALL | TraceFormat.FLUSH | 
+			TraceFormat.LOAD | TraceFormat.STORE;
+		if ((a.getFlags() & events) != (b.getFlags() & events)) {
+			return "stalls, flushes or memory accesses";
+		}
+		
+		if ((a.getFlags() & (TraceFormat.LOAD | TraceFormat.STORE)) != 0 &&
+			a.getAddress() != b.getAddress())
+		{
+			return "memory address";
+		}
+		
+		if ((a.getFlags() & TraceFormat.STORE) != 0 && 
+			a.getValue() != b.getValue()) 
+		{
+			return "stored value";
+		}
+		
+		return null;
+	}
+	
+	private void printSkipped(PrintStream out) {
+		out.println("Skipped " + skippedCycles + " cycles in " + skippedBlocks + 
+			" blocks with matching checksums");
+	}
+}
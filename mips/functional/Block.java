@@ -0,0 +1,100 @@
+package mips.functional;
+
+/**
+ * A basic block of translated instructions.  A block runs straight through
+ * a linked chain of operations and then leaves through a single exit, which
+ * is a branch, a jump, a halt, or simply falling through to the next block
+ * if the block grew too long.
+ * 
+ * Blocks remember the blocks they last went on to, so that the common
+ * transitions between blocks don't need to look anything up.
+ */
+final class Block {
+	// the kinds of exit a block can have
+	static final int FALLTHROUGH = 0;
+	static final int BRANCH_EQUAL = 1;
+	static final int BRANCH_NOT_EQUAL = 2;
+	static final int JUMP = 3;
+	static final int JUMP_REGISTER = 4;
+	static final int HALT = 5;
+	
+	/**
+	 * The address of the first instruction in the block.
+	 */
+	final long start;
+	
+	/**
+	 * The address just past the last instruction in the block.
+	 */
+	long end;
+	
+	/**
+	 * The instructions the block was translated from, including its exit.
+	 */
+	long[] instructions;
+	
+	/**
+	 * The first operation of the body of the block, or null if the body is
+	 * empty.
+	 */
+	Operation first = null;
+	
+	/**
+	 * The number of instructions counted when the whole block is executed.
+	 */
+	int count = 0;
+	
+	/**
+	 * The kind of exit the block leaves through.
+	 */
+	int exit = FALLTHROUGH;
+	
+	// the registers used by the exit
+	int rs, rt, rd;
+	
+	/**
+	 * The address the exit goes to if taken.  For a halt this is the
+	 * address of the halt instruction.
+	 */
+	long target;
+	
+	/**
+	 * The address the exit goes to if not taken.
+	 */
+	long fallthrough;
+	
+	/**
+	 * The block last gone to when the exit was taken.
+	 */
+	Block taken = null;
+	
+	/**
+	 * The block last gone to when the exit wasn't taken.
+	 */
+	Block notTaken = null;
+	
+	/**
+	 * Whether or not the block still matches the code in memory.
+	 */
+	boolean valid = true;
+	
+	/**
+	 * The number of times the block has been run without being compiled.
+	 */
+	int executions = 0;
+	
+	/**
+	 * The compiled form of the block, or null if it hasn't been compiled.
+	 */
+	CompiledBlock compiled = null;
+	
+	/**
+	 * Whether compiling the block can be tried, which it can't once it
+	 * has failed.
+	 */
+	boolean compilable = true;
+	
+	Block(long start) {
+		this.start = start;
+	}
+}
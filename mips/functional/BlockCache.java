@@ -0,0 +1,280 @@
+package mips.functional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import mips.CodeListener;
+import mips.MemoryStore;
+
+/**
+ * Translates the program into basic blocks and keeps hold of them by their
+ * start address.  Every block is marked as code in memory, and any store
+ * into a block invalidates it so that it's translated again the next time
+ * it's needed.
+ */
+class BlockCache implements CodeListener {
+	/**
+	 * The most instructions that are put into a single block.
+	 */
+	private static final int MAX_BLOCK_LENGTH = 256;
+	
+	/**
+	 * The number of address bits within a region.  Blocks are indexed by
+	 * the regions they cover so that stores can find them quickly.
+	 */
+	private static final int REGION_BITS = 12;
+	
+	private final MemoryStore memory;
+	
+	/**
+	 * The valid blocks, keyed by start address.
+	 */
+	private final HashMap<Long, Block> blocks = new HashMap<Long, Block>();
+	
+	/**
+	 * The blocks covering each region, keyed by region number.
+	 */
+	private final HashMap<Long, ArrayList<Block>> regions = 
+		new HashMap<Long, ArrayList<Block>>();
+	
+	public BlockCache(MemoryStore memory) {
+		this.memory = memory;
+		memory.addCodeListener(this);
+	}
+	
+	/**
+	 * Get the block starting at the given address, translating it if it
+	 * hasn't been translated yet.
+	 * 
+	 * @param pc The address of the first instruction of the block.
+	 * @return The block.
+	 */
+	public Block lookup(long pc) {
+		long address = pc & 0xFFFFFFFFL;
+		Block block = blocks.get(address);
+		
+		if (block == null) {
+			block = translate(address);
+			blocks.put(address, block);
+			
+			for (long region = address >>> REGION_BITS; 
+				 region <= (block.end - 1) >>> REGION_BITS; 
+				 region++)
+			{
+				ArrayList<Block> list = regions.get(region);
+				if (list == null) {
+					list = new ArrayList<Block>();
+					regions.put(region, list);
+				}
+				list.add(block);
+			}
+		}
+		
+		return block;
+	}
+	
+	/**
+	 * Get the block to go to next, reusing the given block if it's still
+	 * valid and starts at the given address.
+	 * 
+	 * @param cached The block last gone to, or null.
+	 * @param pc The address of the block to go to.
+	 * @return The block starting at the given address.
+	 */
+	public Block link(Block cached, long pc) {
+		if (cached != null && cached.valid && cached.start == (pc & 0xFFFFFFFFL)) {
+			return cached;
+		}
+		
+		return lookup(pc);
+	}
+	
+	@Override
+	public void codeModified(long location) {
+		long address = location & 0xFFFFFFFCL;
+		ArrayList<Block> list = regions.get(address >>> REGION_BITS);
+		if (list == null) {
+			return;
+		}
+		
+		for (int i = list.size() - 1; i >= 0; i--) {
+			Block block = list.get(i);
+			
+			if (block.valid && block.start <= address && address < block.end) {
+				block.valid = false;
+				blocks.remove(block.start);
+			}
+			
+			// drop blocks from the region once they're invalid
+			if (!block.valid) {
+				list.set(i, list.get(list.size() - 1));
+				list.remove(list.size() - 1);
+			}
+		}
+	}
+	
+	/**
+	 * Translate the instructions starting at the given address into a
+	 * block.
+	 * 
+	 * @param start The address of the first instruction.
+	 * @return The new block.
+	 */
+	private Block translate(long start) {
+		Block block = new Block(start);
+		long[] instructions = new long[16];
+		int length = 0;
+		Operation last = null;
+		long address = start;
+		
+		while (true) {
+			long instruction = memory.getValue(address);
+			memory.markCode(address);
+			
+			if (length == instructions.length) {
+				long[] grown = new long[length * 2];
+				System.arraycopy(instructions, 0, grown, 0, length);
+				instructions = grown;
+			}
+			instructions[length++] = instruction;
+			
+			long next = (address + 4) & 0xFFFFFFFFL;
+			int rs = Instructions.rs(instruction);
+			int rt = Instructions.rt(instruction);
+			int rd = Instructions.rd(instruction);
+			long immediate = Instructions.immediate(instruction);
+			Operation operation = null;
+			boolean counted = true;
+			boolean exit = false;
+			
+			switch (Instructions.opCode(instruction)) {
+				case Instructions.ARITH_OP_CODE:
+					int funct = Instructions.funct(instruction);
+					if (funct == Instructions.JR_FUNCT) {
+						block.exit = Block.JUMP_REGISTER;
+						exit = true;
+					} else if (rd != 0) {
+						operation = arithmetic(funct, rd, rs, rt);
+					}
+					break;
+					
+				case Instructions.ADDI:
+					if (rt != 0) {
+						operation = new Operation.AddImmediate(rt, rs, immediate);
+					}
+					break;
+					
+				case Instructions.ANDI:
+					if (rt != 0) {
+						operation = new Operation.AndImmediate(rt, rs, immediate);
+					}
+					break;
+					
+				case Instructions.ORI:
+					if (rt != 0) {
+						operation = new Operation.OrImmediate(rt, rs, immediate);
+					}
+					break;
+					
+				case Instructions.SLTI:
+					if (rt != 0) {
+						operation = new Operation.SltImmediate(rt, rs, immediate);
+					}
+					break;
+					
+				case Instructions.BEQ:
+					block.exit = Block.BRANCH_EQUAL;
+					block.target = (next + 4 * immediate) & 0xFFFFFFFFL;
+					exit = true;
+					break;
+					
+				case Instructions.BNE:
+					block.exit = Block.BRANCH_NOT_EQUAL;
+					block.target = (next + 4 * immediate) & 0xFFFFFFFFL;
+					exit = true;
+					break;
+					
+				case Instructions.J:
+					block.exit = Block.JUMP;
+					block.target = Instructions.address(instruction) * 4;
+					exit = true;
+					break;
+					
+				case Instructions.LW:
+					if (rt != 0) {
+						operation = new Operation.Load(rt, rs, immediate, memory);
+					}
+					break;
+					
+				case Instructions.SW:
+					operation = new Operation.Store(
+						rt, rs, immediate, memory, block, next, block.count + 1
+					);
+					break;
+					
+				case Instructions.HLT:
+					block.exit = Block.HALT;
+					block.target = address;
+					counted = false;
+					exit = true;
+					break;
+					
+				default:
+					// unknown opcodes don't do anything and aren't counted
+					counted = false;
+					break;
+			}
+			
+			if (counted) {
+				block.count++;
+			}
+			
+			if (operation != null) {
+				if (last == null) {
+					block.first = operation;
+				} else {
+					last.next = operation;
+				}
+				last = operation;
+			}
+			
+			address = next;
+			
+			if (exit) {
+				block.rs = rs;
+				block.rt = rt;
+				block.rd = rd;
+				break;
+			}
+			
+			if (length == MAX_BLOCK_LENGTH) {
+				block.exit = Block.FALLTHROUGH;
+				break;
+			}
+		}
+		
+		block.fallthrough = address;
+		block.end = address > start ? address : 0x100000000L;
+		block.instructions = new long[length];
+		System.arraycopy(instructions, 0, block.instructions, 0, length);
+		
+		return block;
+	}
+	
+	private static Operation arithmetic(int funct, int rd, int rs, int rt) {
+		switch (funct) {
+			case Instructions.SUB_FUNCT:
+				return new Operation.Sub(rd, rs, rt);
+			case Instructions.AND_FUNCT:
+				return new Operation.And(rd, rs, rt);
+			case Instructions.OR_FUNCT:
+				return new Operation.Or(rd, rs, rt);
+			case Instructions.NOR_FUNCT:
+				return new Operation.Nor(rd, rs, rt);
+			case Instructions.SLT_FUNCT:
+				return new Operation.Slt(rd, rs, rt);
+			default:
+				return new Operation.Add(rd, rs, rt);
+		}
+	}
+}
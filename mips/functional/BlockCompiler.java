@@ -0,0 +1,603 @@
+package mips.functional;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+/**
+ * Compiles blocks into hidden JVM classes implementing 
+ * <code>CompiledBlock</code>, so that the JIT compiler of the JVM can
+ * optimize the program being simulated.
+ * 
+ * The generated code keeps every register used by the block in a local
+ * variable, loading them from the register array on entry and only writing
+ * back the ones that were changed when the block is left.  The class files
+ * are generated by hand as version 49 class files, which don't need stack
+ * map frames.
+ */
+final class BlockCompiler {
+	/**
+	 * The class file version of the generated classes.
+	 */
+	private static final int CLASS_VERSION = 49;
+	
+	/**
+	 * The name of the generated classes.  Hidden classes get a unique
+	 * suffix added to this when they are defined.
+	 */
+	private static final String CLASS_NAME = "mips/functional/GeneratedBlock";
+	
+	/**
+	 * The most operands the generated code ever pushes onto the stack.
+	 */
+	private static final int MAX_STACK = 8;
+	
+	/**
+	 * The local variable of the first register.  Locals 0 to 3 hold this
+	 * and the three arguments, and each register takes two locals.
+	 */
+	private static final int FIRST_REGISTER_LOCAL = 4;
+	
+	// constant pool tags
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELD_REF = 9;
+	private static final int CONSTANT_METHOD_REF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+	
+	// the bytecode instructions used
+	private static final int LCONST_0 = 0x09;
+	private static final int BIPUSH = 0x10;
+	private static final int LDC2_W = 0x14;
+	private static final int LLOAD = 0x16;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int ALOAD_2 = 0x2c;
+	private static final int ALOAD_3 = 0x2d;
+	private static final int LALOAD = 0x2f;
+	private static final int LSTORE = 0x37;
+	private static final int LASTORE = 0x50;
+	private static final int LADD = 0x61;
+	private static final int LSUB = 0x65;
+	private static final int IUSHR = 0x7c;
+	private static final int LAND = 0x7f;
+	private static final int LOR = 0x81;
+	private static final int LXOR = 0x83;
+	private static final int I2L = 0x85;
+	private static final int LCMP = 0x94;
+	private static final int IFEQ = 0x99;
+	private static final int IFNE = 0x9a;
+	private static final int LRETURN = 0xad;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	
+	/**
+	 * Used to define the hidden classes in this package.
+	 */
+	private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+	
+	// the class file being built
+	private final ClassBytes constants = new ClassBytes();
+	private final HashMap<String, Integer> constantIndexes = 
+		new HashMap<String, Integer>();
+	private int constantCount;
+	private final ClassBytes code = new ClassBytes();
+	
+	/**
+	 * A bit set of the registers written so far by the block being
+	 * compiled.
+	 */
+	private long written;
+	
+	/**
+	 * Compile the given block.
+	 * 
+	 * @param block The block to compile.
+	 * @return The compiled block.
+	 * @throws ReflectiveOperationException Thrown if the generated class
+	 * can't be defined or instantiated.
+	 * @throws LinkageError Thrown if the generated class fails to load or
+	 * verify.
+	 */
+	public CompiledBlock compile(Block block) throws ReflectiveOperationException {
+		byte[] bytes = generate(block);
+		MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytes, true);
+		
+		try {
+			return (CompiledBlock)hidden.findConstructor(
+				hidden.lookupClass(), MethodType.methodType(void.class)
+			).invoke();
+		} catch (ReflectiveOperationException e) {
+			throw e;
+		} catch (LinkageError e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+	
+	/**
+	 * Generate the class file for the given block.
+	 * 
+	 * @param block The block to compile.
+	 * @return The bytes of the class file.
+	 */
+	private byte[] generate(Block block) {
+		constants.reset();
+		constantIndexes.clear();
+		constantCount = 1;
+		
+		int thisClass = classConstant(CLASS_NAME);
+		int superClass = classConstant("java/lang/Object");
+		int compiledBlock = classConstant("mips/functional/CompiledBlock");
+		int codeName = utf8Constant("Code");
+		
+		// the constructor just calls the constructor of Object
+		code.reset();
+		code.u1(ALOAD_0);
+		code.u1(INVOKESPECIAL);
+		code.u2(memberConstant(
+			CONSTANT_METHOD_REF, "java/lang/Object", "<init>", "()V"
+		));
+		code.u1(RETURN);
+		byte[] constructor = code.toByteArray();
+		int constructorName = utf8Constant("<init>");
+		int constructorType = utf8Constant("()V");
+		
+		code.reset();
+		generateRun(block);
+		byte[] run = code.toByteArray();
+		int runName = utf8Constant("run");
+		int runType = utf8Constant(
+			"([JLmips/MemoryStore;Lmips/functional/Block;)J"
+		);
+		
+		ClassBytes classFile = new ClassBytes();
+		classFile.u4(0xCAFEBABE);
+		classFile.u2(0);
+		classFile.u2(CLASS_VERSION);
+		classFile.u2(constantCount);
+		classFile.bytes(constants.toByteArray());
+		classFile.u2(0x0031);
+		classFile.u2(thisClass);
+		classFile.u2(superClass);
+		classFile.u2(1);
+		classFile.u2(compiledBlock);
+		classFile.u2(0);
+		classFile.u2(2);
+		method(classFile, constructorName, constructorType, codeName, 1, 1, constructor);
+		method(
+			classFile, runName, runType, codeName, MAX_STACK, 
+			FIRST_REGISTER_LOCAL + 64, run
+		);
+		classFile.u2(0);
+		
+		return classFile.toByteArray();
+	}
+	
+	/**
+	 * Write a public method with the given code into a class file.
+	 */
+	private static void method(
+		ClassBytes classFile, int name, int type, int codeName,
+		int maxStack, int maxLocals, byte[] code
+	) {
+		classFile.u2(0x0001);
+		classFile.u2(name);
+		classFile.u2(type);
+		classFile.u2(1);
+		classFile.u2(codeName);
+		classFile.u4(12 + code.length);
+		classFile.u2(maxStack);
+		classFile.u2(maxLocals);
+		classFile.u4(code.length);
+		classFile.bytes(code);
+		classFile.u2(0);
+		classFile.u2(0);
+	}
+	
+	/**
+	 * Generate the code of the run method for the given block.
+	 * 
+	 * @param block The block to compile.
+	 */
+	private void generateRun(Block block) {
+		long[] instructions = block.instructions;
+		int bodyLength = block.exit == Block.FALLTHROUGH ? 
+			instructions.length : instructions.length - 1;
+		
+		// load every register the block uses into its local
+		long used = 0;
+		for (long instruction : instructions) {
+			used |= 1L << Instructions.rs(instruction);
+			used |= 1L << Instructions.rt(instruction);
+			used |= 1L << Instructions.rd(instruction);
+		}
+		for (int register = 1; register < 32; register++) {
+			if ((used & (1L << register)) != 0) {
+				code.u1(ALOAD_1);
+				code.u1(BIPUSH);
+				code.u1(register);
+				code.u1(LALOAD);
+				code.u1(LSTORE);
+				code.u1(local(register));
+			}
+		}
+		
+		written = 0;
+		for (int i = 0; i < bodyLength; i++) {
+			long resumePc = (block.start + 4 * (i + 1)) & 0xFFFFFFFFL;
+			generateOperation(instructions[i], resumePc);
+		}
+		
+		generateExit(block, instructions[instructions.length - 1]);
+	}
+	
+	/**
+	 * Generate the code for a single instruction in the body of a block.
+	 * 
+	 * @param instruction The instruction.
+	 * @param resumePc The address of the next instruction.
+	 */
+	private void generateOperation(long instruction, long resumePc) {
+		int rs = Instructions.rs(instruction);
+		int rt = Instructions.rt(instruction);
+		int rd = Instructions.rd(instruction);
+		long immediate = Instructions.immediate(instruction);
+		
+		switch (Instructions.opCode(instruction)) {
+			case Instructions.ARITH_OP_CODE:
+				if (rd == 0) {
+					break;
+				}
+				
+				loadRegister(rs);
+				loadRegister(rt);
+				switch (Instructions.funct(instruction)) {
+					case Instructions.SUB_FUNCT:
+						code.u1(LSUB);
+						break;
+					case Instructions.AND_FUNCT:
+						code.u1(LAND);
+						break;
+					case Instructions.OR_FUNCT:
+						code.u1(LOR);
+						break;
+					case Instructions.NOR_FUNCT:
+						// the low 32 bits of ~(a | b)
+						code.u1(LOR);
+						loadConstant(0xFFFFFFFFL);
+						code.u1(LXOR);
+						loadConstant(0xFFFFFFFFL);
+						code.u1(LAND);
+						break;
+					case Instructions.SLT_FUNCT:
+						lessThan();
+						break;
+					default:
+						code.u1(LADD);
+						break;
+				}
+				storeRegister(rd);
+				break;
+				
+			case Instructions.ADDI:
+				immediateOperation(rt, rs, immediate, LADD);
+				break;
+				
+			case Instructions.ANDI:
+				immediateOperation(rt, rs, immediate, LAND);
+				break;
+				
+			case Instructions.ORI:
+				immediateOperation(rt, rs, immediate, LOR);
+				break;
+				
+			case Instructions.SLTI:
+				if (rt != 0) {
+					loadRegister(rs);
+					loadConstant(immediate);
+					lessThan();
+					storeRegister(rt);
+				}
+				break;
+				
+			case Instructions.LW:
+				if (rt != 0) {
+					code.u1(ALOAD_2);
+					loadRegister(rs);
+					loadConstant(immediate);
+					code.u1(LADD);
+					code.u1(INVOKEVIRTUAL);
+					code.u2(memberConstant(
+						CONSTANT_METHOD_REF, "mips/MemoryStore", "getValue", "(J)J"
+					));
+					storeRegister(rt);
+				}
+				break;
+				
+			case Instructions.SW:
+				code.u1(ALOAD_2);
+				loadRegister(rs);
+				loadConstant(immediate);
+				code.u1(LADD);
+				loadRegister(rt);
+				code.u1(INVOKEVIRTUAL);
+				code.u2(memberConstant(
+					CONSTANT_METHOD_REF, "mips/MemoryStore", "storeValue", "(JJ)V"
+				));
+				
+				// leave the block if the store overwrote it
+				code.u1(ALOAD_3);
+				code.u1(GETFIELD);
+				code.u2(memberConstant(
+					CONSTANT_FIELD_REF, "mips/functional/Block", "valid", "Z"
+				));
+				int branch = code.size();
+				code.u1(IFNE);
+				code.u2(0);
+				spillRegisters();
+				loadConstant(~resumePc);
+				code.u1(LRETURN);
+				code.patch(branch + 1, code.size() - branch);
+				break;
+				
+			default:
+				// unknown opcodes don't do anything
+				break;
+		}
+	}
+	
+	/**
+	 * Generate the code that leaves the block.
+	 * 
+	 * @param block The block to compile.
+	 * @param instruction The last instruction of the block.
+	 */
+	private void generateExit(Block block, long instruction) {
+		switch (block.exit) {
+			case Block.BRANCH_EQUAL:
+			case Block.BRANCH_NOT_EQUAL:
+				spillRegisters();
+				loadRegister(block.rs);
+				loadRegister(block.rt);
+				code.u1(LCMP);
+				int branch = code.size();
+				code.u1(block.exit == Block.BRANCH_EQUAL ? IFNE : IFEQ);
+				code.u2(0);
+				loadConstant(block.target);
+				code.u1(LRETURN);
+				code.patch(branch + 1, code.size() - branch);
+				loadConstant(block.fallthrough);
+				code.u1(LRETURN);
+				break;
+				
+			case Block.JUMP_REGISTER:
+				loadRegister(block.rs);
+				code.u1(INVOKESTATIC);
+				code.u2(memberConstant(
+					CONSTANT_METHOD_REF, "mips/functional/Instructions", 
+					"jumpRegisterTarget", "(J)J"
+				));
+				
+				// like any other arithmetic instruction, JR writes the sum
+				// of its registers to rd
+				if (block.rd != 0) {
+					loadRegister(block.rs);
+					loadRegister(block.rt);
+					code.u1(LADD);
+					storeRegister(block.rd);
+				}
+				
+				spillRegisters();
+				code.u1(LRETURN);
+				break;
+				
+			case Block.JUMP:
+			case Block.HALT:
+				spillRegisters();
+				loadConstant(block.target);
+				code.u1(LRETURN);
+				break;
+				
+			default:
+				spillRegisters();
+				loadConstant(block.fallthrough);
+				code.u1(LRETURN);
+				break;
+		}
+	}
+	
+	private void immediateOperation(int rt, int rs, long immediate, int operation) {
+		if (rt != 0) {
+			loadRegister(rs);
+			loadConstant(immediate);
+			code.u1(operation);
+			storeRegister(rt);
+		}
+	}
+	
+	/**
+	 * Replace the two longs on top of the stack with 1 if the first is less
+	 * than the second, or 0 otherwise.
+	 */
+	private void lessThan() {
+		// the sign bit of the comparison is only set for less than
+		code.u1(LCMP);
+		code.u1(BIPUSH);
+		code.u1(31);
+		code.u1(IUSHR);
+		code.u1(I2L);
+	}
+	
+	private void loadRegister(int register) {
+		if (register == 0) {
+			code.u1(LCONST_0);
+		} else {
+			code.u1(LLOAD);
+			code.u1(local(register));
+		}
+	}
+	
+	private void storeRegister(int register) {
+		code.u1(LSTORE);
+		code.u1(local(register));
+		written |= 1L << register;
+	}
+	
+	/**
+	 * Write the locals of every register written so far back into the
+	 * register array.
+	 */
+	private void spillRegisters() {
+		for (int register = 1; register < 32; register++) {
+			if ((written & (1L << register)) != 0) {
+				code.u1(ALOAD_1);
+				code.u1(BIPUSH);
+				code.u1(register);
+				code.u1(LLOAD);
+				code.u1(local(register));
+				code.u1(LASTORE);
+			}
+		}
+	}
+	
+	private void loadConstant(long value) {
+		code.u1(LDC2_W);
+		code.u2(longConstant(value));
+	}
+	
+	private static int local(int register) {
+		return FIRST_REGISTER_LOCAL + 2 * register;
+	}
+	
+	private int utf8Constant(String value) {
+		Integer index = constantIndexes.get("U" + value);
+		if (index == null) {
+			index = constantCount++;
+			constants.u1(CONSTANT_UTF8);
+			constants.utf8(value);
+			constantIndexes.put("U" + value, index);
+		}
+		
+		return index;
+	}
+	
+	private int classConstant(String name) {
+		Integer index = constantIndexes.get("C" + name);
+		if (index == null) {
+			int nameIndex = utf8Constant(name);
+			index = constantCount++;
+			constants.u1(CONSTANT_CLASS);
+			constants.u2(nameIndex);
+			constantIndexes.put("C" + name, index);
+		}
+		
+		return index;
+	}
+	
+	private int memberConstant(int tag, String owner, String name, String type) {
+		String key = "M" + owner + '.' + name + type;
+		Integer index = constantIndexes.get(key);
+		if (index == null) {
+			int ownerIndex = classConstant(owner);
+			int nameIndex = utf8Constant(name);
+			int typeIndex = utf8Constant(type);
+			int nameAndType = constantCount++;
+			constants.u1(CONSTANT_NAME_AND_TYPE);
+			constants.u2(nameIndex);
+			constants.u2(typeIndex);
+			
+			index = constantCount++;
+			constants.u1(tag);
+			constants.u2(ownerIndex);
+			constants.u2(nameAndType);
+			constantIndexes.put(key, index);
+		}
+		
+		return index;
+	}
+	
+	private int longConstant(long value) {
+		String key = "J" + value;
+		Integer index = constantIndexes.get(key);
+		if (index == null) {
+			// long constants take up two entries in the pool
+			index = constantCount;
+			constantCount += 2;
+			constants.u1(CONSTANT_LONG);
+			constants.u4((int)(value >>> 32));
+			constants.u4((int)value);
+			constantIndexes.put(key, index);
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * A growable big-endian byte buffer for building class files.
+	 */
+	private static final class ClassBytes {
+		private byte[] bytes = new byte[256];
+		private int size = 0;
+		
+		void reset() {
+			size = 0;
+		}
+		
+		int size() {
+			return size;
+		}
+		
+		void u1(int value) {
+			if (size == bytes.length) {
+				byte[] grown = new byte[size * 2];
+				System.arraycopy(bytes, 0, grown, 0, size);
+				bytes = grown;
+			}
+			bytes[size++] = (byte)value;
+		}
+		
+		void u2(int value) {
+			u1(value >>> 8);
+			u1(value);
+		}
+		
+		void u4(int value) {
+			u2(value >>> 16);
+			u2(value);
+		}
+		
+		void bytes(byte[] values) {
+			for (byte value : values) {
+				u1(value);
+			}
+		}
+		
+		void utf8(String value) {
+			// the names used are all plain ASCII
+			u2(value.length());
+			for (int i = 0; i < value.length(); i++) {
+				u1(value.charAt(i));
+			}
+		}
+		
+		/**
+		 * Overwrite two bytes that were already written.
+		 */
+		void patch(int position, int value) {
+			bytes[position] = (byte)(value >>> 8);
+			bytes[position + 1] = (byte)value;
+		}
+		
+		byte[] toByteArray() {
+			byte[] result = new byte[size];
+			System.arraycopy(bytes, 0, result, 0, size);
+			return result;
+		}
+	}
+}
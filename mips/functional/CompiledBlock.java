@@ -0,0 +1,21 @@
+package mips.functional;
+
+import mips.MemoryStore;
+
+/**
+ * A block that has been compiled into JVM bytecode by the
+ * <code>BlockCompiler</code>.
+ */
+interface CompiledBlock {
+	/**
+	 * Run the whole block, including its exit.
+	 * 
+	 * @param registers The values of registers $r0-$r31.
+	 * @param memory The memory the program runs in.
+	 * @param block The block that was compiled.
+	 * @return The address of the next instruction to execute.  If a store
+	 * overwrote the block this is instead the bitwise complement of the
+	 * address of the instruction after the store, which is always negative.
+	 */
+	long run(long[] registers, MemoryStore memory, Block block);
+}
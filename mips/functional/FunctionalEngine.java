@@ -0,0 +1,121 @@
+package mips.functional;
+
+import mips.MemoryStore;
+import mips.ProgramCounter;
+import mips.RegisterFile;
+
+/**
+ * The base class for engines that execute a program one instruction at a
+ * time at the instruction set level, without modelling the pipeline.  They
+ * only keep track of the architectural state: the program counter, the
+ * registers and memory.
+ * 
+ * The engines follow the semantics of the pipelined simulator, including
+ * its unsigned immediates and its 64 bit register values, so programs end
+ * with the same register file.  The one difference is that the pipeline
+ * doesn't forward results to branches and jumps in the decode stage, so a
+ * program that branches on a register written by either of the two
+ * instructions before the branch will see the new value here and the old
+ * value in the pipeline.
+ */
+public abstract class FunctionalEngine {
+	/**
+	 * The values of registers $r0-$r31.
+	 */
+	protected final long[] registers = new long[32];
+	
+	/**
+	 * The memory holding the program and its data.
+	 */
+	protected final MemoryStore memory;
+	
+	/**
+	 * The address of the next instruction to execute.
+	 */
+	protected long pc = ProgramCounter.FIRST_INSTRUCTION;
+	
+	/**
+	 * The number of instructions executed so far.  As in the pipeline, the
+	 * halt instruction and unknown opcodes aren't counted.
+	 */
+	protected long instructionCount = 0;
+	
+	/**
+	 * Whether or not the halt instruction has been executed.
+	 */
+	protected boolean halted = false;
+	
+	/**
+	 * Create a new engine that executes the program in the given memory.
+	 * 
+	 * @param memory The memory holding the program.
+	 */
+	protected FunctionalEngine(MemoryStore memory) {
+		this.memory = memory;
+	}
+	
+	/**
+	 * Execute instructions until the program halts or at least the given
+	 * number of instructions have been executed.
+	 * 
+	 * @param maxInstructions The number of instructions to execute.
+	 */
+	public abstract void execute(long maxInstructions);
+	
+	/**
+	 * Runs the program until it halts and prints the results out after
+	 * completion.
+	 */
+	public void run() {
+		execute(Long.MAX_VALUE);
+		
+		// output the results
+		System.out.println("Instruction count: \t" + instructionCount);
+		System.out.println(getRegisterFile());
+	}
+	
+	/**
+	 * @return A register file holding the current register values.
+	 */
+	public RegisterFile getRegisterFile() {
+		RegisterFile registerFile = new RegisterFile();
+		registerFile.setValues(registers);
+		
+		return registerFile;
+	}
+	
+	/**
+	 * @return The values of registers $r0-$r31, which may be modified.
+	 */
+	public long[] getRegisters() {
+		return registers;
+	}
+	
+	/**
+	 * @return The address of the next instruction to execute.
+	 */
+	public long getPc() {
+		return pc;
+	}
+	
+	/**
+	 * @param pc The address of the next instruction to execute.
+	 */
+	public void setPc(long pc) {
+		this.pc = pc;
+	}
+	
+	/**
+	 * @return The number of instructions executed so far.
+	 */
+	public long getInstructionCount() {
+		return instructionCount;
+	}
+	
+	/**
+	 * @return Whether or not the program has halted.
+	 */
+	public boolean isHalted() {
+		return halted;
+	}
+}
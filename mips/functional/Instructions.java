@@ -0,0 +1,109 @@
+package mips.functional;
+
+/**
+ * The instruction encodings shared by the functional engines.  These
+ * mirror the values used by the <code>Decode</code> pipeline stage.
+ */
+final class Instructions {
+	// values for opcodes and funct codes
+	static final int ARITH_OP_CODE = 0;
+	static final int ADD_FUNCT = 0x20;
+	static final int SUB_FUNCT = 0x22;
+	static final int AND_FUNCT = 0x24;
+	static final int OR_FUNCT = 0x25;
+	static final int NOR_FUNCT = 0x27;
+	static final int SLT_FUNCT = 0x2a;
+	static final int ADDI = 0x8;
+	static final int ANDI = 0xC;
+	static final int ORI = 0xD;
+	static final int SLTI = 0xA;
+	static final int BEQ = 0x4;
+	static final int BNE = 0x5;
+	static final int J = 0x2;
+	static final int JR_FUNCT = 0x8;
+	static final int LW = 0x23;
+	static final int SW = 0x2B;
+	static final int HLT = 0x3F;
+	
+	/**
+	 * Returned by <code>opCode</code> for words that can't be an
+	 * instruction because they have bits set above the low 32.
+	 */
+	static final int INVALID_OP_CODE = -1;
+	
+	private Instructions() {
+	}
+	
+	static int opCode(long instruction) {
+		if ((instruction >>> 32) != 0) {
+			return INVALID_OP_CODE;
+		}
+		
+		return (int)(instruction >>> 26);
+	}
+	
+	static int rs(long instruction) {
+		return (int)(instruction >>> 21) & 0x1F;
+	}
+	
+	static int rt(long instruction) {
+		return (int)(instruction >>> 16) & 0x1F;
+	}
+	
+	static int rd(long instruction) {
+		return (int)(instruction >>> 11) & 0x1F;
+	}
+	
+	static int funct(long instruction) {
+		return (int)instruction & 0x3F;
+	}
+	
+	static long immediate(long instruction) {
+		return instruction & 0xFFFF;
+	}
+	
+	static long address(long instruction) {
+		return instruction & 0x3FFFFFF;
+	}
+	
+	/**
+	 * Apply the given R-type funct code to its two arguments.  Unknown funct
+	 * codes, including JR, are decoded with the add ALU operation.
+	 * 
+	 * @param funct The funct code.
+	 * @param a The value of the rs register.
+	 * @param b The value of the rt register.
+	 * @return The result of the operation.
+	 */
+	static long arithmetic(int funct, long a, long b) {
+		switch (funct) {
+			case SUB_FUNCT:
+				return a - b;
+			case AND_FUNCT:
+				return a & b;
+			case OR_FUNCT:
+				return a | b;
+			case NOR_FUNCT:
+				return ~(a | b) & 0xFFFFFFFFl;
+			case SLT_FUNCT:
+				return a < b ? 1 : 0;
+			default:
+				return a + b;
+		}
+	}
+	
+	/**
+	 * Check the value of a register used by JR and turn it into the
+	 * address to jump to.
+	 * 
+	 * @param value The value of the rs register.
+	 * @return The address to jump to.
+	 */
+	static long jumpRegisterTarget(long value) {
+		if (value % 4 != 0) {
+			throw new IllegalArgumentException("jump register value not divisible by four");
+		}
+		
+		return value;
+	}
+}
@@ -0,0 +1,113 @@
+package mips.functional;
+
+import mips.MemoryStore;
+
+/**
+ * A functional engine that fetches, decodes and executes a single
+ * instruction at a time straight out of memory.
+ */
+public class Interpreter extends FunctionalEngine {
+	public Interpreter(MemoryStore memory) {
+		super(memory);
+	}
+	
+	@Override
+	public void execute(long maxInstructions) {
+		long[] registers = this.registers;
+		long pc = this.pc;
+		long count = 0;
+		
+		while (!halted && count < maxInstructions) {
+			long instruction = memory.getValue(pc);
+			int rs = Instructions.rs(instruction);
+			int rt = Instructions.rt(instruction);
+			long next = pc + 4;
+			long value = 0;
+			int dest = 0;
+			
+			switch (Instructions.opCode(instruction)) {
+				case Instructions.ARITH_OP_CODE:
+					int funct = Instructions.funct(instruction);
+					if (funct == Instructions.JR_FUNCT) {
+						next = Instructions.jumpRegisterTarget(registers[rs]);
+					}
+					
+					dest = Instructions.rd(instruction);
+					value = Instructions.arithmetic(
+						funct, registers[rs], registers[rt]
+					);
+					break;
+					
+				case Instructions.ADDI:
+					dest = rt;
+					value = registers[rs] + Instructions.immediate(instruction);
+					break;
+					
+				case Instructions.ANDI:
+					dest = rt;
+					value = registers[rs] & Instructions.immediate(instruction);
+					break;
+					
+				case Instructions.ORI:
+					dest = rt;
+					value = registers[rs] | Instructions.immediate(instruction);
+					break;
+					
+				case Instructions.SLTI:
+					dest = rt;
+					value = registers[rs] < Instructions.immediate(instruction) ? 1 : 0;
+					break;
+					
+				case Instructions.BEQ:
+					if (registers[rs] == registers[rt]) {
+						next += 4 * Instructions.immediate(instruction);
+					}
+					break;
+					
+				case Instructions.BNE:
+					if (registers[rs] != registers[rt]) {
+						next += 4 * Instructions.immediate(instruction);
+					}
+					break;
+					
+				case Instructions.J:
+					next = Instructions.address(instruction) * 4;
+					break;
+					
+				case Instructions.LW:
+					dest = rt;
+					value = memory.getValue(
+						registers[rs] + Instructions.immediate(instruction)
+					);
+					break;
+					
+				case Instructions.SW:
+					memory.storeValue(
+						registers[rs] + Instructions.immediate(instruction),
+						registers[rt]
+					);
+					break;
+					
+				case Instructions.HLT:
+					halted = true;
+					continue;
+					
+				default:
+					// unknown opcodes don't do anything and aren't counted
+					pc = next;
+					continue;
+			}
+			
+			// $r0 can never be written
+			if (dest != 0) {
+				registers[dest] = value;
+			}
+			
+			pc = next;
+			count++;
+		}
+		
+		this.pc = pc;
+		instructionCount += count;
+	}
+}
@@ -0,0 +1,249 @@
+package mips.functional;
+
+import mips.MemoryStore;
+
+/**
+ * A single translated instruction in the body of a <code>Block</code>.
+ * Each kind of instruction gets its own subclass with its register numbers
+ * and immediate already extracted, and the operations of a block are
+ * linked together in the order they execute.
+ */
+abstract class Operation {
+	/**
+	 * The operation to execute after this one, or null if this is the last
+	 * operation in the body of its block.
+	 */
+	Operation next = null;
+	
+	/**
+	 * Execute the operation.
+	 * 
+	 * @param registers The values of registers $r0-$r31.
+	 * @return Whether or not the rest of the block can still be executed.
+	 */
+	abstract boolean execute(long[] registers);
+	
+	static final class Add extends Operation {
+		private final int rd, rs, rt;
+		
+		Add(int rd, int rs, int rt) {
+			this.rd = rd;
+			this.rs = rs;
+			this.rt = rt;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			registers[rd] = registers[rs] + registers[rt];
+			return true;
+		}
+	}
+	
+	static final class Sub extends Operation {
+		private final int rd, rs, rt;
+		
+		Sub(int rd, int rs, int rt) {
+			this.rd = rd;
+			this.rs = rs;
+			this.rt = rt;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			registers[rd] = registers[rs] - registers[rt];
+			return true;
+		}
+	}
+	
+	static final class And extends Operation {
+		private final int rd, rs, rt;
+		
+		And(int rd, int rs, int rt) {
+			this.rd = rd;
+			this.rs = rs;
+			this.rt = rt;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			registers[rd] = registers[rs] & registers[rt];
+			return true;
+		}
+	}
+	
+	static final class Or extends Operation {
+		private final int rd, rs, rt;
+		
+		Or(int rd, int rs, int rt) {
+			this.rd = rd;
+			this.rs = rs;
+			this.rt = rt;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			registers[rd] = registers[rs] | registers[rt];
+			return true;
+		}
+	}
+	
+	static final class Nor extends Operation {
+		private final int rd, rs, rt;
+		
+		Nor(int rd, int rs, int rt) {
+			this.rd = rd;
+			this.rs = rs;
+			this.rt = rt;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			registers[rd] = ~(registers[rs] | registers[rt]) & 0xFFFFFFFFl;
+			return true;
+		}
+	}
+	
+	static final class Slt extends Operation {
+		private final int rd, rs, rt;
+		
+		Slt(int rd, int rs, int rt) {
+			this.rd = rd;
+			this.rs = rs;
+			this.rt = rt;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			registers[rd] = registers[rs] < registers[rt] ? 1 : 0;
+			return true;
+		}
+	}
+	
+	static final class AddImmediate extends Operation {
+		private final int rt, rs;
+		private final long immediate;
+		
+		AddImmediate(int rt, int rs, long immediate) {
+			this.rt = rt;
+			this.rs = rs;
+			this.immediate = immediate;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			registers[rt] = registers[rs] + immediate;
+			return true;
+		}
+	}
+	
+	static final class AndImmediate extends Operation {
+		private final int rt, rs;
+		private final long immediate;
+		
+		AndImmediate(int rt, int rs, long immediate) {
+			this.rt = rt;
+			this.rs = rs;
+			this.immediate = immediate;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			registers[rt] = registers[rs] & immediate;
+			return true;
+		}
+	}
+	
+	static final class OrImmediate extends Operation {
+		private final int rt, rs;
+		private final long immediate;
+		
+		OrImmediate(int rt, int rs, long immediate) {
+			this.rt = rt;
+			this.rs = rs;
+			this.immediate = immediate;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			registers[rt] = registers[rs] | immediate;
+			return true;
+		}
+	}
+	
+	static final class SltImmediate extends Operation {
+		private final int rt, rs;
+		private final long immediate;
+		
+		SltImmediate(int rt, int rs, long immediate) {
+			this.rt = rt;
+			this.rs = rs;
+			this.immediate = immediate;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			registers[rt] = registers[rs] < immediate ? 1 : 0;
+			return true;
+		}
+	}
+	
+	static final class Load extends Operation {
+		private final int rt, rs;
+		private final long immediate;
+		private final MemoryStore memory;
+		
+		Load(int rt, int rs, long immediate, MemoryStore memory) {
+			this.rt = rt;
+			this.rs = rs;
+			this.immediate = immediate;
+			this.memory = memory;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			registers[rt] = memory.getValue(registers[rs] + immediate);
+			return true;
+		}
+	}
+	
+	/**
+	 * A store, which may overwrite the code of the block it's in.  If it
+	 * does, the block is left straight after the store.
+	 */
+	static final class Store extends Operation {
+		private final int rt, rs;
+		private final long immediate;
+		private final MemoryStore memory;
+		private final Block block;
+		
+		/**
+		 * The address of the instruction after the store.
+		 */
+		final long resumePc;
+		
+		/**
+		 * The number of instructions in the block up to and including
+		 * the store.
+		 */
+		final int executed;
+		
+		Store(
+			int rt, int rs, long immediate, MemoryStore memory, 
+			Block block, long resumePc, int executed
+		) {
+			this.rt = rt;
+			this.rs = rs;
+			this.immediate = immediate;
+			this.memory = memory;
+			this.block = block;
+			this.resumePc = resumePc;
+			this.executed = executed;
+		}
+		
+		@Override
+		boolean execute(long[] registers) {
+			memory.storeValue(registers[rs] + immediate, registers[rt]);
+			return block.valid;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package mips.functional;
+
+import mips.MemoryStore;
+
+/**
+ * A functional engine that executes a single instruction at a time and
+ * records what it did: the registers it read and wrote, the memory it
+ * accessed and where it went next.  Timing models such as the out of
+ * order core use it to learn the outcome of each instruction as it's
+ * fetched, so they only have to work out when things happen rather than
+ * what happens.
+ */
+public class Oracle extends FunctionalEngine {
+	// the kinds of instruction
+	public static final int ALU = 0;
+	public static final int LOAD = 1;
+	public static final int STORE = 2;
+	public static final int BRANCH = 3;
+	public static final int JUMP = 4;
+	public static final int JUMP_REGISTER = 5;
+	public static final int HALT = 6;
+	
+	// what the last instruction was and did
+	private long lastPc = 0;
+	private long instruction = 0;
+	private int kind = ALU;
+	private int source1 = 0;
+	private int source2 = 0;
+	private int dest = 0;
+	private long value = 0;
+	private long address = 0;
+	private long next = 0;
+	
+	public Oracle(MemoryStore memory) {
+		super(memory);
+	}
+	
+	@Override
+	public void execute(long maxInstructions) {
+		for (long count = 0; count < maxInstructions && step(); count++) {
+		}
+	}
+	
+	/**
+	 * Execute the next instruction, skipping any unknown opcodes, which
+	 * don't do anything and aren't counted.
+	 * 
+	 * @return Whether an instruction was executed, rather than the program
+	 * halting.  The halt instruction itself is recorded as the last
+	 * instruction.
+	 */
+	public boolean step() {
+		if (halted) {
+			return false;
+		}
+		
+		while (true) {
+			long instruction = memory.getValue(pc);
+			int rs = Instructions.rs(instruction);
+			int rt = Instructions.rt(instruction);
+			long next = pc + 4;
+			
+			kind = ALU;
+			source1 = 0;
+			source2 = 0;
+			dest = 0;
+			value = 0;
+			address = 0;
+			
+			switch (Instructions.opCode(instruction)) {
+				case Instructions.ARITH_OP_CODE:
+					int funct = Instructions.funct(instruction);
+					if (funct == Instructions.JR_FUNCT) {
+						kind = JUMP_REGISTER;
+						next = Instructions.jumpRegisterTarget(registers[rs]);
+					}
+					
+					source1 = rs;
+					source2 = rt;
+					dest = Instructions.rd(instruction);
+					value = Instructions.arithmetic(
+						funct, registers[rs], registers[rt]
+					);
+					break;
+				
+				case Instructions.ADDI:
+					source1 = rs;
+					dest = rt;
+					value = registers[rs] + Instructions.immediate(instruction);
+					break;
+				
+				case Instructions.ANDI:
+					source1 = rs;
+					dest = rt;
+					value = registers[rs] & Instructions.immediate(instruction);
+					break;
+				
+				case Instructions.ORI:
+					source1 = rs;
+					dest = rt;
+					value = registers[rs] | Instructions.immediate(instruction);
+					break;
+				
+				case Instructions.SLTI:
+					source1 = rs;
+					dest = rt;
+					value = registers[rs] < Instructions.immediate(instruction) ? 1 : 0;
+					break;
+				
+				case Instructions.BEQ:
+					kind = BRANCH;
+					source1 = rs;
+					source2 = rt;
+					if (registers[rs] == registers[rt]) {
+						next += 4 * Instructions.immediate(instruction);
+					}
+					break;
+				
+				case Instructions.BNE:
+					kind = BRANCH;
+					source1 = rs;
+					source2 = rt;
+					if (registers[rs] != registers[rt]) {
+						next += 4 * Instructions.immediate(instruction);
+					}
+					break;
+				
+				case Instructions.J:
+					kind = JUMP;
+					next = Instructions.address(instruction) * 4;
+					break;
+				
+				case Instructions.LW:
+					kind = LOAD;
+					source1 = rs;
+					dest = rt;
+					address = registers[rs] + Instructions.immediate(instruction);
+					value = memory.getValue(address);
+					break;
+				
+				case Instructions.SW:
+					kind = STORE;
+					source1 = rs;
+					source2 = rt;
+					address = registers[rs] + Instructions.immediate(instruction);
+					memory.storeValue(address, registers[rt]);
+					break;
+				
+				case Instructions.HLT:
+					kind = HALT;
+					halted = true;
+					lastPc = pc;
+					this.instruction = instruction;
+					this.next = pc;
+					return false;
+				
+				default:
+					// unknown opcodes don't do anything and aren't counted
+					pc = next;
+					continue;
+			}
+			
+			// $r0 can never be written
+			if (dest != 0) {
+				registers[dest] = value;
+			}
+			
+			lastPc = pc;
+			this.instruction = instruction;
+			this.next = next;
+			pc = next;
+			instructionCount++;
+			return true;
+		}
+	}
+	
+	/**
+	 * @return The address of the last instruction executed.
+	 */
+	public long getLastPc() {
+		return lastPc;
+	}
+	
+	/**
+	 * @return The last instruction executed.
+	 */
+	public long getInstruction() {
+		return instruction;
+	}
+	
+	/**
+	 * @return The kind of the last instruction, such as <code>LOAD</code>.
+	 */
+	public int getKind() {
+		return kind;
+	}
+	
+	/**
+	 * @return The first register the last instruction read, or 0 if it
+	 * didn't read one.
+	 */
+	public int getSource1() {
+		return source1;
+	}
+	
+	/**
+	 * @return The second register the last instruction read, or 0 if it
+	 * didn't read one.
+	 */
+	public int getSource2() {
+		return source2;
+	}
+	
+	/**
+	 * @return The register the last instruction wrote, or 0 if it didn't
+	 * write one.
+	 */
+	public int getDest() {
+		return dest;
+	}
+	
+	/**
+	 * @return The value the last instruction wrote to its register.
+	 */
+	public long getValue() {
+		return value;
+	}
+	
+	/**
+	 * @return The address the last load or store accessed.
+	 */
+	public long getAddress() {
+		return address;
+	}
+	
+	/**
+	 * @return The address of the instruction after the last one.
+	 */
+	public long getNext() {
+		return next;
+	}
+}
@@ -0,0 +1,136 @@
+package mips.functional;
+
+import mips.MemoryStore;
+
+/**
+ * A functional engine that translates the program into basic blocks of
+ * pre-decoded operations and runs each block as a chain of operations,
+ * going straight from each block to the next.
+ */
+public class ThreadedEngine extends FunctionalEngine {
+	/**
+	 * The translated blocks of the program.
+	 */
+	protected final BlockCache blocks;
+	
+	public ThreadedEngine(MemoryStore memory) {
+		super(memory);
+		blocks = new BlockCache(memory);
+	}
+	
+	@Override
+	public void execute(long maxInstructions) {
+		if (halted) {
+			return;
+		}
+		
+		long limit = instructionCount + maxInstructions;
+		if (limit < instructionCount) {
+			limit = Long.MAX_VALUE;
+		}
+		
+		Block block = blocks.lookup(pc);
+		while (block != null && instructionCount < limit) {
+			block = runBlock(block);
+		}
+		
+		if (block != null) {
+			pc = block.start;
+		}
+	}
+	
+	/**
+	 * Run the given block and leave it through its exit.
+	 * 
+	 * @param block The block to run.
+	 * @return The block to run next, or null if the program halted.
+	 */
+	protected Block runBlock(Block block) {
+		// run the body of the block
+		long[] registers = this.registers;
+		Operation operation = block.first;
+		while (operation != null && operation.execute(registers)) {
+			operation = operation.next;
+		}
+		
+		// a store overwrote the block, so carry on from a fresh
+		// translation of the code after the store
+		if (operation != null) {
+			Operation.Store store = (Operation.Store)operation;
+			instructionCount += store.executed;
+			return blocks.lookup(store.resumePc);
+		}
+		
+		instructionCount += block.count;
+		
+		switch (block.exit) {
+			case Block.BRANCH_EQUAL:
+				return branch(block, registers[block.rs] == registers[block.rt]);
+				
+			case Block.BRANCH_NOT_EQUAL:
+				return branch(block, registers[block.rs] != registers[block.rt]);
+				
+			case Block.JUMP:
+				return jump(block, block.target);
+				
+			case Block.JUMP_REGISTER:
+				long target = Instructions.jumpRegisterTarget(registers[block.rs]);
+				
+				// like any other arithmetic instruction, JR writes the sum
+				// of its registers to rd
+				if (block.rd != 0) {
+					registers[block.rd] = registers[block.rs] + registers[block.rt];
+				}
+				
+				return jump(block, target);
+				
+			case Block.HALT:
+				return halt(block);
+				
+			default:
+				return branch(block, false);
+		}
+	}
+	
+	/**
+	 * Go from the given block to either its target or its fallthrough.
+	 * 
+	 * @param block The block being left.
+	 * @param taken Whether to go to the target of the block.
+	 * @return The block to run next.
+	 */
+	protected Block branch(Block block, boolean taken) {
+		if (taken) {
+			return jump(block, block.target);
+		}
+		
+		Block next = blocks.link(block.notTaken, block.fallthrough);
+		block.notTaken = next;
+		return next;
+	}
+	
+	/**
+	 * Go from the given block to the block at the given address.
+	 * 
+	 * @param block The block being left.
+	 * @param target The address of the next block.
+	 * @return The block to run next.
+	 */
+	protected Block jump(Block block, long target) {
+		Block next = blocks.link(block.taken, target);
+		block.taken = next;
+		return next;
+	}
+	
+	/**
+	 * Halt the program at the halt instruction ending the given block.
+	 * 
+	 * @param block The block being left.
+	 * @return Always null.
+	 */
+	protected Block halt(Block block) {
+		halted = true;
+		pc = block.target;
+		return null;
+	}
+}
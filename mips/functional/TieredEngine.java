@@ -0,0 +1,103 @@
+package mips.functional;
+
+import mips.MemoryStore;
+
+/**
+ * A functional engine that starts out running translated blocks like the
+ * <code>ThreadedEngine</code>, but compiles a block into JVM bytecode once
+ * it has run often enough to be considered hot.  Compiled blocks keep the
+ * registers they use in local variables, so the JIT compiler of the JVM can
+ * optimize them like any other Java code.
+ */
+public class TieredEngine extends ThreadedEngine {
+	/**
+	 * The number of times a block has to run before it's compiled.
+	 */
+	private static final int COMPILE_THRESHOLD = 1000;
+	
+	private final BlockCompiler compiler = new BlockCompiler();
+	
+	public TieredEngine(MemoryStore memory) {
+		super(memory);
+	}
+	
+	@Override
+	protected Block runBlock(Block block) {
+		CompiledBlock compiled = block.compiled;
+		
+		if (compiled == null) {
+			if (block.compilable && ++block.executions == COMPILE_THRESHOLD) {
+				compile(block);
+			}
+			
+			return super.runBlock(block);
+		}
+		
+		long next = compiled.run(registers, memory, block);
+		
+		// a store overwrote the block, so carry on from a fresh
+		// translation of the code after the store
+		if (next < 0) {
+			long resumePc = ~next;
+			instructionCount += executedBefore(block, resumePc);
+			return blocks.lookup(resumePc);
+		}
+		
+		instructionCount += block.count;
+		
+		switch (block.exit) {
+			case Block.HALT:
+				return halt(block);
+				
+			case Block.JUMP:
+			case Block.JUMP_REGISTER:
+				return jump(block, next);
+				
+			default:
+				return branch(block, next == block.target);
+		}
+	}
+	
+	/**
+	 * Compile the given block.  If it can't be compiled, including when the
+	 * generated class fails to verify, it's left to run as translated
+	 * operations and never tried again.
+	 * 
+	 * @param block The block to compile.
+	 */
+	private void compile(Block block) {
+		try {
+			block.compiled = compiler.compile(block);
+		} catch (ReflectiveOperationException e) {
+			block.compiled = null;
+			block.compilable = false;
+		} catch (LinkageError e) {
+			block.compiled = null;
+			block.compilable = false;
+		}
+	}
+	
+	/**
+	 * Count the instructions of a block that come before the given
+	 * address, which must be just after one of its stores.
+	 * 
+	 * @param block The block.
+	 * @param resumePc The address just after the store.
+	 * @return The number of instructions executed up to and including
+	 * the store.
+	 */
+	private static int executedBefore(Block block, long resumePc) {
+		for (Operation operation = block.first; 
+			 operation != null; 
+			 operation = operation.next)
+		{
+			if (operation instanceof Operation.Store &&
+				((Operation.Store)operation).resumePc == resumePc)
+			{
+				return ((Operation.Store)operation).executed;
+			}
+		}
+		
+		throw new IllegalStateException("No store before " + Long.toHexString(resumePc));
+	}
+}
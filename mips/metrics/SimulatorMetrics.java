@@ -0,0 +1,205 @@
+package mips.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import mips.pipeline.stages.Decode;
+import mips.pipeline.stages.Execute;
+import mips.pipeline.stages.Memory;
+
+/**
+ * The live metrics of a running simulator, for JMX clients to read.  The
+ * pipeline stages count events in plain fields of their own, and the 
+ * simulator copies them here every so often, so watching a simulation
+ * costs almost nothing per cycle.  The copies are volatile so they can be
+ * read from any thread.
+ */
+public class SimulatorMetrics implements SimulatorMetricsMBean {
+	/**
+	 * The number of cycles between publications, which must be a power of
+	 * two.
+	 */
+	public static final long PUBLISH_INTERVAL = 1 << 20;
+	
+	/**
+	 * The domain of the names metrics are registered under.
+	 */
+	public static final String DOMAIN = "mips";
+	
+	private volatile long cycles;
+	private volatile long instructions;
+	private volatile double instructionsPerSecond;
+	private volatile long updateTime = System.nanoTime();
+	private volatile boolean halted;
+	private volatile long loadUseStalls;
+	private volatile long hazardStalls;
+	private volatile long branchesTaken;
+	private volatile long jumpsTaken;
+	private volatile long mispredictions;
+	private volatile long exForwards;
+	private volatile long memForwards;
+	private volatile long memoryReads;
+	private volatile long memoryWrites;
+	
+	/**
+	 * The name the metrics are registered under, if they are.
+	 */
+	private ObjectName name;
+	
+	/**
+	 * Copy the counts of a simulator.  This must only be called by the
+	 * thread running the simulator.
+	 * 
+	 * @param cycles The number of cycles run.
+	 * @param instructions The number of instructions completed.
+	 * @param halted Whether the program has halted.
+	 * @param decode The decode stage of the simulator.
+	 * @param execute The execute stage of the simulator.
+	 * @param memory The memory stage of the simulator.
+	 */
+	public void publish(
+		long cycles,
+		long instructions,
+		boolean halted,
+		Decode decode,
+		Execute execute,
+		Memory memory
+	) {
+		long now = System.nanoTime();
+		long elapsed = now - updateTime;
+		if (elapsed > 0) {
+			instructionsPerSecond = 
+				(instructions - this.instructions) * 1e9 / elapsed;
+		}
+		
+		this.cycles = cycles;
+		this.instructions = instructions;
+		this.halted = halted;
+		loadUseStalls = decode.getLoadUseStalls();
+		hazardStalls = decode.getHazardStalls();
+		branchesTaken = decode.getBranchesTaken();
+		jumpsTaken = decode.getJumpsTaken();
+		mispredictions = decode.getMispredictions();
+		exForwards = execute.getExForwards();
+		memForwards = execute.getMemForwards();
+		memoryReads = memory.getReads();
+		memoryWrites = memory.getWrites();
+		updateTime = now;
+	}
+	
+	/**
+	 * Register the metrics with the platform MBean server, so they can be 
+	 * read by JMX clients such as JConsole.
+	 * 
+	 * @param simulation The name of the simulation, such as the program 
+	 * being run.
+	 * @throws JMException Thrown if the metrics can't be registered, for 
+	 * instance if another simulation has the same name.
+	 */
+	public synchronized void register(String simulation) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(
+			DOMAIN + ":type=Simulator,name=" + ObjectName.quote(simulation)
+		);
+		
+		server.registerMBean(this, name);
+		this.name = name;
+	}
+	
+	/**
+	 * Remove the metrics from the platform MBean server, if they're 
+	 * registered.
+	 */
+	public synchronized void unregister() {
+		if (name == null) {
+			return;
+		}
+		
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			// already gone
+		}
+		name = null;
+	}
+	
+	@Override
+	public long getCycles() {
+		return cycles;
+	}
+	
+	@Override
+	public long getInstructions() {
+		return instructions;
+	}
+	
+	@Override
+	public double getCpi() {
+		long instructions = this.instructions;
+		
+		return instructions == 0 ? 0 : (double)cycles / instructions;
+	}
+	
+	@Override
+	public double getInstructionsPerSecond() {
+		return instructionsPerSecond;
+	}
+	
+	@Override
+	public long getMillisSinceUpdate() {
+		return (System.nanoTime() - updateTime) / 1000000;
+	}
+	
+	@Override
+	public boolean isHalted() {
+		return halted;
+	}
+	
+	@Override
+	public long getLoadUseStalls() {
+		return loadUseStalls;
+	}
+	
+	@Override
+	public long getHazardStalls() {
+		return hazardStalls;
+	}
+	
+	@Override
+	public long getBranchesTaken() {
+		return branchesTaken;
+	}
+	
+	@Override
+	public long getJumpsTaken() {
+		return jumpsTaken;
+	}
+	
+	@Override
+	public long getMispredictions() {
+		return mispredictions;
+	}
+	
+	@Override
+	public long getExForwards() {
+		return exForwards;
+	}
+	
+	@Override
+	public long getMemForwards() {
+		return memForwards;
+	}
+	
+	@Override
+	public long getMemoryReads() {
+		return memoryReads;
+	}
+	
+	@Override
+	public long getMemoryWrites() {
+		return memoryWrites;
+	}
+}
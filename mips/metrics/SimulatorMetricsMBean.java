@@ -0,0 +1,57 @@
+package mips.metrics;
+
+/**
+ * The management interface of the live metrics of a running simulator.  
+ * Counts are as of the last time the simulator published them, which is
+ * every <code>SimulatorMetrics.PUBLISH_INTERVAL</code> cycles and when the
+ * program halts.
+ */
+public interface SimulatorMetricsMBean {
+	long getCycles();
+	
+	long getInstructions();
+	
+	/**
+	 * @return The cycles per instruction so far.
+	 */
+	double getCpi();
+	
+	/**
+	 * @return The number of instructions completed per second of wall clock
+	 * time between the last two publications.
+	 */
+	double getInstructionsPerSecond();
+	
+	/**
+	 * @return The number of milliseconds since the simulator last published
+	 * its counts, which keeps growing if the simulation is stuck.
+	 */
+	long getMillisSinceUpdate();
+	
+	boolean isHalted();
+	
+	long getLoadUseStalls();
+	
+	/**
+	 * @return The number of stalls for operands that couldn't be forwarded.
+	 */
+	long getHazardStalls();
+	
+	long getBranchesTaken();
+	
+	long getJumpsTaken();
+	
+	/**
+	 * @return The number of times fetch had to be flushed because it went
+	 * the wrong way after a branch or jump.
+	 */
+	long getMispredictions();
+	
+	long getExForwards();
+	
+	long getMemForwards();
+	
+	long getMemoryReads();
+	
+	long getMemoryWrites();
+}
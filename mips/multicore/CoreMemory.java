@@ -0,0 +1,259 @@
+package mips.multicore;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import mips.CodeListener;
+import mips.MemoryStore;
+
+/**
+ * The memory of one core of a multiprocessor: a view of the memory shared
+ * by every core, with the stores of the core held in a store buffer until
+ * the end of each quantum.  The core's loads see its own buffered stores,
+ * and otherwise the shared memory as it was at the start of the quantum,
+ * so the cores never see each other's stores part way through a quantum
+ * and a run doesn't depend on how their threads are scheduled.
+ * 
+ * The store buffer is an open addressing hash table from word address to
+ * value, along with the slots of the table in the order they were first
+ * written, so committing it only touches the words actually stored.
+ */
+public class CoreMemory extends MemoryStore {
+	/**
+	 * The number of slots the store buffer starts with.
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+	
+	// the pages code is tracked in, the same size as the pages of memory
+	private static final int PAGE_BITS =
+		Integer.numberOfTrailingZeros(MemoryStore.PAGE_SIZE);
+	private static final int PAGE_COUNT = 1 << (30 - PAGE_BITS);
+	
+	/**
+	 * The memory shared by every core.
+	 */
+	private final MemoryStore shared;
+	
+	/**
+	 * The word address of each slot of the store buffer plus one, so that
+	 * empty slots hold zero.
+	 */
+	private int[] keys = new int[INITIAL_CAPACITY];
+	
+	/**
+	 * The value stored to each slot of the store buffer.
+	 */
+	private long[] values = new long[INITIAL_CAPACITY];
+	
+	/**
+	 * The slots of the store buffer in use, in the order they were first
+	 * written.
+	 */
+	private int[] order = new int[INITIAL_CAPACITY / 2];
+	private int size = 0;
+	
+	/**
+	 * A bit for each page marked as holding code by this core.
+	 */
+	private final long[] codePages = new long[PAGE_COUNT / 64];
+	
+	/**
+	 * The listeners to tell about stores into pages marked as holding code.
+	 */
+	private CodeListener[] codeListeners = new CodeListener[0];
+	
+	/**
+	 * The number of words written to the shared memory by this core.
+	 */
+	private long committedStores = 0;
+	
+	/**
+	 * Create the memory of a core.
+	 * 
+	 * @param shared The memory shared by every core.  It must only be
+	 * written to by committing the memories of the cores.
+	 */
+	public CoreMemory(MemoryStore shared) {
+		this.shared = shared;
+	}
+	
+	@Override
+	public long getValue(long location) {
+		if (size != 0) {
+			int slot = find(wordAddress(location));
+			if (keys[slot] != 0) {
+				return values[slot];
+			}
+		}
+		
+		return shared.getValue(location);
+	}
+	
+	/**
+	 * Store the given value into the store buffer, where it stays until the
+	 * end of the quantum.
+	 * 
+	 * @param location The byte address to write.
+	 * @param value The value to write at the given location.
+	 */
+	@Override
+	public void storeValue(long location, long value) {
+		int word = wordAddress(location);
+		int slot = find(word);
+		if (keys[slot] == 0) {
+			keys[slot] = word + 1;
+			if (size == order.length) {
+				order = Arrays.copyOf(order, size * 2);
+			}
+			order[size++] = slot;
+		}
+		values[slot] = value;
+		
+		codeModified(location);
+		
+		// keep the table at most half full
+		if (size * 2 > keys.length) {
+			rehash();
+		}
+	}
+	
+	@Override
+	public void addCodeListener(CodeListener listener) {
+		CodeListener[] listeners = new CodeListener[codeListeners.length + 1];
+		System.arraycopy(codeListeners, 0, listeners, 0, codeListeners.length);
+		listeners[codeListeners.length] = listener;
+		codeListeners = listeners;
+	}
+	
+	@Override
+	public void markCode(long location) {
+		int pageIndex = wordAddress(location) >>> PAGE_BITS;
+		codePages[pageIndex >>> 6] |= 1L << pageIndex;
+	}
+	
+	/**
+	 * The memory of a core can't be checkpointed, since some of it is only
+	 * in the store buffer.
+	 */
+	@Override
+	public int[] takeDirtyPages() {
+		throw new UnsupportedOperationException("The memory of a core can't be checkpointed");
+	}
+	
+	@Override
+	public long[] getPage(int pageIndex) {
+		throw new UnsupportedOperationException("The memory of a core can't be checkpointed");
+	}
+	
+	@Override
+	public void restorePage(int pageIndex, long[] words) {
+		throw new UnsupportedOperationException("The memory of a core can't be checkpointed");
+	}
+	
+	/**
+	 * The memory of a core can't be given a new program, since the program
+	 * is in the memory shared by every core.  The shared memory has to be
+	 * reset instead, while no core is running, and the cores given new
+	 * memories.
+	 */
+	@Override
+	public void reset(byte[] image) {
+		throw new UnsupportedOperationException("The memory of a core can't be reset");
+	}
+	
+	@Override
+	public void reset(ByteBuffer image) {
+		throw new UnsupportedOperationException("The memory of a core can't be reset");
+	}
+	
+	@Override
+	public void reset(IntBuffer image) {
+		throw new UnsupportedOperationException("The memory of a core can't be reset");
+	}
+	
+	/**
+	 * @return The number of words written to the shared memory by this
+	 * core.
+	 */
+	public long getCommittedStores() {
+		return committedStores;
+	}
+	
+	/**
+	 * Write the store buffer into the shared memory and empty it, telling
+	 * the other cores about any code it overwrites.  This may only be
+	 * called while no core is running.
+	 * 
+	 * @param cores The memories of every core, including this one.
+	 */
+	void commit(CoreMemory[] cores) {
+		for (int i = 0; i < size; i++) {
+			int slot = order[i];
+			long location = (long)(keys[slot] - 1) << 2;
+			shared.storeValue(location, values[slot]);
+			
+			for (CoreMemory core : cores) {
+				if (core != this) {
+					core.codeModified(location);
+				}
+			}
+			
+			keys[slot] = 0;
+		}
+		
+		committedStores += size;
+		size = 0;
+	}
+	
+	/**
+	 * Tell the listeners about a store, if it's into a page marked as
+	 * holding code.
+	 */
+	private void codeModified(long location) {
+		int pageIndex = wordAddress(location) >>> PAGE_BITS;
+		if ((codePages[pageIndex >>> 6] & (1L << pageIndex)) != 0) {
+			for (CodeListener listener : codeListeners) {
+				listener.codeModified(location);
+			}
+		}
+	}
+	
+	/**
+	 * @return The slot of the store buffer holding the given word address,
+	 * or the empty slot it would go in.
+	 */
+	private int find(int word) {
+		int mask = keys.length - 1;
+		int slot = hash(word) & mask;
+		while (keys[slot] != 0 && keys[slot] != word + 1) {
+			slot = (slot + 1) & mask;
+		}
+		
+		return slot;
+	}
+	
+	private void rehash() {
+		int[] oldKeys = keys;
+		long[] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new long[oldValues.length * 2];
+		
+		// the order is kept, since it's the order the slots are committed in
+		for (int i = 0; i < size; i++) {
+			int oldSlot = order[i];
+			int slot = find(oldKeys[oldSlot] - 1);
+			keys[slot] = oldKeys[oldSlot];
+			values[slot] = oldValues[oldSlot];
+			order[i] = slot;
+		}
+	}
+	
+	private static int hash(int word) {
+		return (word * 0x9E3779B9) >>> 8;
+	}
+	
+	private static int wordAddress(long location) {
+		return (int)((location & 0xFFFFFFFFL) >>> 2);
+	}
+}
@@ -0,0 +1,280 @@
+package mips.multicore;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.Phaser;
+
+import mips.MemoryStore;
+import mips.Mips;
+import mips.PipelineConfig;
+import mips.ProgramCounter;
+import mips.RegisterName;
+import mips.SimulationResult;
+
+/**
+ * Simulates a small multiprocessor: several pipelines, each with its own
+ * program counter, register file and pipeline registers, running the same
+ * program against one shared memory.  Each core runs on a thread of its
+ * own, and the cores move on together a quantum of cycles at a time.
+ * 
+ * During a quantum each core's stores go into its own store buffer, so
+ * the cores only see each other's stores from the start of the next
+ * quantum.  The store buffers are written into the shared memory between
+ * quanta in order of core, so a store from a later core wins if two cores
+ * store to the same word in the same quantum.  A run is therefore the same
+ * however the threads happen to be scheduled.
+ * 
+ * Every core starts at the first instruction with every register zero
+ * except <code>$r26</code>, which holds the number of the core, starting
+ * from zero.
+ */
+public class Multiprocessor {
+	/**
+	 * The register holding the number of each core when it starts.
+	 */
+	public static final RegisterName CORE_ID = RegisterName.R_26;
+	
+	/**
+	 * The default number of cycles in a quantum.
+	 */
+	public static final long DEFAULT_QUANTUM = 10000;
+	
+	/**
+	 * The memory shared by every core.
+	 */
+	private final MemoryStore memory;
+	
+	private final Mips[] cores;
+	private final CoreMemory[] memories;
+	
+	/**
+	 * The number of cycles each core runs between exchanging stores.
+	 */
+	private final long quantum;
+	
+	/**
+	 * The number of quanta run so far.
+	 */
+	private long quanta = 0;
+	
+	/**
+	 * The first error thrown by any core, which stops them all.
+	 */
+	private volatile Throwable error;
+	
+	/**
+	 * The launching point for multiprocessor simulations.  This takes the
+	 * path to the program, preceded by any of these options:
+	 * <ul>
+	 * <li><code>-cores N</code> to simulate N cores instead of one per
+	 * available processor</li>
+	 * <li><code>-quantum N</code> to exchange stores every N cycles rather
+	 * than every ten thousand</li>
+	 * <li><code>-config C</code> to run every core in the configuration
+	 * read by <code>PipelineConfig.parse</code></li>
+	 * <li><code>-mmap</code> to memory map the program</li>
+	 * </ul>
+	 * 
+	 * @param args The options and the path to the program.
+	 */
+	public static void main(String[] args) {
+		int coreCount = Runtime.getRuntime().availableProcessors();
+		long quantum = DEFAULT_QUANTUM;
+		PipelineConfig config = new PipelineConfig();
+		boolean mapped = false;
+		int i = 0;
+		
+		// read any options before the path
+		try {
+			for (; i < args.length && args[i].startsWith("-"); i++) {
+				if (args[i].equals("-cores") && i + 1 < args.length) {
+					coreCount = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-quantum") && i + 1 < args.length) {
+					quantum = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-config") && i + 1 < args.length) {
+					config = PipelineConfig.parse(args[++i]);
+				} else if (args[i].equals("-mmap")) {
+					mapped = true;
+				} else {
+					System.out.println("Unknown option \"" + args[i] + "\"");
+					return;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+		
+		if (i >= args.length) {
+			System.out.println("You must supply an input filename");
+			return;
+		}
+		
+		try {
+			MemoryStore memory = new MemoryStore(args[i], mapped);
+			Multiprocessor multiprocessor =
+				new Multiprocessor(memory, coreCount, quantum, config);
+			
+			multiprocessor.run(System.out);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		} catch (IOException e) {
+			System.out.println("Error opening file named \"" + args[i] + "\"");
+		}
+	}
+	
+	/**
+	 * Create a multiprocessor with every core ready to run the program in
+	 * the given memory.
+	 * 
+	 * @param memory The memory holding the program, which the cores share
+	 * and write to as they run.
+	 * @param coreCount The number of cores.
+	 * @param quantum The number of cycles each core runs between
+	 * exchanging stores.
+	 * @param config The configuration of the pipeline of every core.
+	 */
+	public Multiprocessor(MemoryStore memory, int coreCount, long quantum, PipelineConfig config) {
+		if (coreCount < 1) {
+			throw new IllegalArgumentException("There must be at least one core");
+		}
+		if (quantum < 1) {
+			throw new IllegalArgumentException("A quantum must be at least one cycle");
+		}
+		
+		this.memory = memory;
+		this.quantum = quantum;
+		
+		cores = new Mips[coreCount];
+		memories = new CoreMemory[coreCount];
+		for (int core = 0; core < coreCount; core++) {
+			long[] registers = new long[32];
+			registers[CORE_ID.ordinal()] = core;
+			
+			memories[core] = new CoreMemory(memory);
+			cores[core] = new Mips(memories[core], config);
+			cores[core].reset(ProgramCounter.FIRST_INSTRUCTION, registers);
+		}
+	}
+	
+	/**
+	 * Run every core until they have all halted, and print the results of
+	 * each along with how long the whole run took.
+	 * 
+	 * @param out Where to print the results.
+	 */
+	public void run(PrintStream out) {
+		long start = System.nanoTime();
+		simulate();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		
+		long instructions = 0;
+		long cycles = 0;
+		for (int core = 0; core < cores.length; core++) {
+			SimulationResult result = cores[core].getResult();
+			instructions += result.getInstructionCount();
+			cycles = Math.max(cycles, result.getCycleCount());
+			
+			out.println("Core " + core + ":");
+			out.println(result);
+			out.println("Committed stores: \t" + memories[core].getCommittedStores());
+			out.println();
+		}
+		
+		out.println("Cores: \t\t\t" + cores.length);
+		out.println("Quanta: \t\t" + quanta);
+		out.println("Instructions: \t\t" + instructions);
+		out.println("Cycles: \t\t" + cycles);
+		out.println("Wall time: \t\t" + seconds + " s");
+	}
+	
+	/**
+	 * Run every core until they have all halted.
+	 * 
+	 * @throws IllegalStateException Thrown if any of the cores failed, with
+	 * the failure as its cause.
+	 */
+	public void simulate() {
+		final Phaser phaser = new Phaser(cores.length) {
+			@Override
+			protected boolean onAdvance(int phase, int registeredParties) {
+				// every core is waiting, so the stores of the quantum can
+				// go into the shared memory
+				for (CoreMemory core : memories) {
+					core.commit(memories);
+				}
+				quanta++;
+				
+				return registeredParties == 0 || error != null;
+			}
+		};
+		
+		Thread[] threads = new Thread[cores.length];
+		for (int core = 0; core < cores.length; core++) {
+			final Mips mips = cores[core];
+			threads[core] = new Thread("core " + core) {
+				@Override
+				public void run() {
+					try {
+						// a core drops out once it halts, and the rest carry on
+						// without it
+						while (!mips.simulate(quantum)) {
+							if (phaser.arriveAndAwaitAdvance() < 0) {
+								return;
+							}
+						}
+						phaser.arriveAndDeregister();
+					} catch (Throwable t) {
+						if (error == null) {
+							error = t;
+						}
+						phaser.forceTermination();
+					}
+				}
+			};
+			threads[core].start();
+		}
+		
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			phaser.forceTermination();
+			Thread.currentThread().interrupt();
+		}
+		
+		if (error != null) {
+			throw new IllegalStateException("A core failed: " + error, error);
+		}
+	}
+	
+	/**
+	 * @return The number of cores.
+	 */
+	public int getCoreCount() {
+		return cores.length;
+	}
+	
+	/**
+	 * @param core The number of a core.
+	 * @return The simulator of that core.
+	 */
+	public Mips getCore(int core) {
+		return cores[core];
+	}
+	
+	/**
+	 * @return The memory shared by every core.
+	 */
+	public MemoryStore getMemory() {
+		return memory;
+	}
+	
+	/**
+	 * @return The number of quanta run so far.
+	 */
+	public long getQuanta() {
+		return quanta;
+	}
+}
@@ -0,0 +1,244 @@
+package mips.outoforder;
+
+import mips.PipelineConfig;
+
+/**
+ * The shape of an out of order core: how many instructions it fetches and
+ * retires a cycle, how big its reorder buffer, reservation stations and
+ * physical register file are, how many functional units it has and how
+ * long they take.  The branch predictor and caches are described by a
+ * <code>PipelineConfig</code>, as they are for the in order pipeline.
+ */
+public class OutOfOrderConfig {
+	// the defaults
+	public static final int WIDTH = 4;
+	public static final int ROB_SIZE = 128;
+	public static final int RS_SIZE = 32;
+	public static final int ALUS = 4;
+	public static final int LOAD_STORE_UNITS = 2;
+	public static final int LOAD_LATENCY = 2;
+	public static final int MISPREDICT_PENALTY = 2;
+	
+	/**
+	 * The number of architectural registers, each of which needs a
+	 * physical register of its own.
+	 */
+	static final int ARCHITECTURAL_REGISTERS = 32;
+	
+	/**
+	 * The number of instructions fetched, renamed and retired a cycle.
+	 */
+	private final int width;
+	
+	private final int robSize;
+	
+	/**
+	 * The number of instructions that can wait for their operands at once.
+	 */
+	private final int rsSize;
+	
+	private final int physicalRegisters;
+	private final int alus;
+	private final int loadStoreUnits;
+	
+	/**
+	 * The number of cycles a load takes, not counting cache misses.
+	 */
+	private final int loadLatency;
+	
+	/**
+	 * The number of cycles fetch waits after a mispredicted branch or jump
+	 * resolves before it starts fetching the right instructions.
+	 */
+	private final int mispredictPenalty;
+	
+	/**
+	 * The branch predictor and caches.
+	 */
+	private final PipelineConfig pipeline;
+	
+	/**
+	 * Create the default configuration of an out of order core, which has
+	 * enough physical registers that renaming never runs out.
+	 */
+	public OutOfOrderConfig() {
+		this(
+			WIDTH, ROB_SIZE, RS_SIZE, ARCHITECTURAL_REGISTERS + ROB_SIZE,
+			ALUS, LOAD_STORE_UNITS, LOAD_LATENCY, MISPREDICT_PENALTY,
+			new PipelineConfig()
+		);
+	}
+	
+	/**
+	 * Create the configuration of an out of order core.
+	 * 
+	 * @param width The number of instructions fetched, renamed and retired
+	 * a cycle.
+	 * @param robSize The number of entries in the reorder buffer.
+	 * @param rsSize The number of instructions that can wait in the
+	 * reservation stations at once.
+	 * @param physicalRegisters The number of physical registers, which must
+	 * be more than the number of architectural registers.
+	 * @param alus The number of ALUs, which also resolve branches.
+	 * @param loadStoreUnits The number of loads and stores that can start a
+	 * cycle.
+	 * @param loadLatency The number of cycles a load takes, not counting
+	 * cache misses.
+	 * @param mispredictPenalty The number of cycles fetch waits after a
+	 * mispredicted branch or jump resolves.
+	 * @param pipeline The branch predictor and caches.
+	 */
+	public OutOfOrderConfig(
+		int width,
+		int robSize,
+		int rsSize,
+		int physicalRegisters,
+		int alus,
+		int loadStoreUnits,
+		int loadLatency,
+		int mispredictPenalty,
+		PipelineConfig pipeline
+	) {
+		if (width < 1 || robSize < 1 || rsSize < 1 || alus < 1 || loadStoreUnits < 1) {
+			throw new IllegalArgumentException(
+				"The width, buffers and functional units must all be at least one"
+			);
+		}
+		if (physicalRegisters <= ARCHITECTURAL_REGISTERS) {
+			throw new IllegalArgumentException(
+				"There must be more than " + ARCHITECTURAL_REGISTERS + " physical registers"
+			);
+		}
+		if (loadLatency < 1 || mispredictPenalty < 0) {
+			throw new IllegalArgumentException(
+				"Loads take at least a cycle, and penalties can't be negative"
+			);
+		}
+		
+		this.width = width;
+		this.robSize = robSize;
+		this.rsSize = rsSize;
+		this.physicalRegisters = physicalRegisters;
+		this.alus = alus;
+		this.loadStoreUnits = loadStoreUnits;
+		this.loadLatency = loadLatency;
+		this.mispredictPenalty = mispredictPenalty;
+		this.pipeline = pipeline;
+	}
+	
+	/**
+	 * Parse a configuration from a comma separated list of options:
+	 * <code>width=N</code>, <code>rob=N</code>, <code>rs=N</code>,
+	 * <code>regs=N</code> for the number of physical registers,
+	 * <code>alu=N</code>, <code>lsu=N</code>, <code>load=N</code> for the
+	 * load latency and <code>penalty=N</code> for the mispredict penalty.
+	 * Any other options are read by <code>PipelineConfig.parse</code>, so
+	 * <code>rob=256,gshare,btb,l1d=32k:4:64</code> is a 256 entry reorder
+	 * buffer with a gshare predictor, a branch target buffer and a data
+	 * cache.  Unless it's given, there's a physical register for every
+	 * architectural register and reorder buffer entry.
+	 * 
+	 * @param description The options.
+	 * @return The configuration.
+	 */
+	public static OutOfOrderConfig parse(String description) {
+		int width = WIDTH;
+		int robSize = ROB_SIZE;
+		int rsSize = RS_SIZE;
+		int physicalRegisters = 0;
+		int alus = ALUS;
+		int loadStoreUnits = LOAD_STORE_UNITS;
+		int loadLatency = LOAD_LATENCY;
+		int mispredictPenalty = MISPREDICT_PENALTY;
+		StringBuilder pipeline = new StringBuilder("default");
+		
+		for (String option : description.split(",")) {
+			option = option.trim();
+			int equals = option.indexOf('=');
+			String name = equals < 0 ? option : option.substring(0, equals);
+			
+			if (name.equals("width")) {
+				width = parseNumber(option, equals);
+			} else if (name.equals("rob")) {
+				robSize = parseNumber(option, equals);
+			} else if (name.equals("rs")) {
+				rsSize = parseNumber(option, equals);
+			} else if (name.equals("regs")) {
+				physicalRegisters = parseNumber(option, equals);
+			} else if (name.equals("alu")) {
+				alus = parseNumber(option, equals);
+			} else if (name.equals("lsu")) {
+				loadStoreUnits = parseNumber(option, equals);
+			} else if (name.equals("load")) {
+				loadLatency = parseNumber(option, equals);
+			} else if (name.equals("penalty")) {
+				mispredictPenalty = parseNumber(option, equals);
+			} else if (option.length() > 0) {
+				pipeline.append(',').append(option);
+			}
+		}
+		
+		if (physicalRegisters == 0) {
+			physicalRegisters = ARCHITECTURAL_REGISTERS + robSize;
+		}
+		
+		return new OutOfOrderConfig(
+			width, robSize, rsSize, physicalRegisters, alus, loadStoreUnits,
+			loadLatency, mispredictPenalty, PipelineConfig.parse(pipeline.toString())
+		);
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getRobSize() {
+		return robSize;
+	}
+	
+	public int getRsSize() {
+		return rsSize;
+	}
+	
+	public int getPhysicalRegisters() {
+		return physicalRegisters;
+	}
+	
+	public int getAlus() {
+		return alus;
+	}
+	
+	public int getLoadStoreUnits() {
+		return loadStoreUnits;
+	}
+	
+	public int getLoadLatency() {
+		return loadLatency;
+	}
+	
+	public int getMispredictPenalty() {
+		return mispredictPenalty;
+	}
+	
+	public PipelineConfig getPipeline() {
+		return pipeline;
+	}
+	
+	/**
+	 * @return The configuration in the form read by <code>parse</code>.
+	 */
+	@Override
+	public String toString() {
+		return "width=" + width + ",rob=" + robSize + ",rs=" + rsSize +
+			",regs=" + physicalRegisters + ",alu=" + alus + ",lsu=" + loadStoreUnits +
+			",load=" + loadLatency + ",penalty=" + mispredictPenalty + "," + pipeline;
+	}
+	
+	private static int parseNumber(String option, int equals) {
+		try {
+			return Integer.parseInt(option.substring(equals + 1));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Unknown out of order option: " + option);
+		}
+	}
+}
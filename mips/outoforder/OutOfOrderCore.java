@@ -0,0 +1,651 @@
+package mips.outoforder;
+
+import mips.MemoryStore;
+import mips.RegisterFile;
+import mips.SimulationResult;
+import mips.cache.CacheHierarchy;
+import mips.functional.Oracle;
+import mips.pipeline.ControlWord;
+import mips.pipeline.prediction.BranchPredictor;
+
+/**
+ * A timing model of an out of order superscalar core, as an alternative to
+ * the in order pipeline.  Each cycle it retires, completes, issues and then
+ * fetches instructions, in that order, so an instruction can't move more
+ * than one step a cycle:
+ * <ul>
+ * <li>Fetch takes up to a width of instructions a cycle, stopping at a
+ * taken branch, and renames their registers onto physical registers taken
+ * from a free list.  Each instruction goes into the reorder buffer, and all
+ * but jumps wait in the reservation stations for their operands.</li>
+ * <li>Issue picks the oldest instructions whose operands are ready, as many
+ * as there are ALUs and load/store units.  A load also waits for the last
+ * older store to the same word.</li>
+ * <li>Completion marks the physical register of an instruction ready once
+ * its latency is up, which wakes up everything waiting on it.</li>
+ * <li>Retirement takes completed instructions off the head of the reorder
+ * buffer in program order, writes their results into the architectural
+ * registers and frees the physical registers they replaced.</li>
+ * </ul>
+ * 
+ * What each instruction does comes from an <code>Oracle</code> as it's
+ * fetched, so the model only works out when things happen.  Fetch never
+ * goes down the wrong path: after a mispredicted branch it waits until the
+ * branch has executed, and then the mispredict penalty, before going on.
+ * 
+ * The reorder buffer, reservation stations, free list and store queue are
+ * all rings of primitive arrays, and which entries are waiting, executing
+ * or done are bit sets over the reorder buffer, so a cycle only costs a
+ * few words per 64 entries however big the buffers are.
+ */
+public class OutOfOrderCore {
+	private final OutOfOrderConfig config;
+	private final Oracle oracle;
+	private final BranchPredictor predictor;
+	private final CacheHierarchy caches;
+	
+	// the sizes of things, copied out of the configuration
+	private final int width;
+	private final int robSize;
+	private final int rsSize;
+	private final int alus;
+	private final int loadStoreUnits;
+	private final int loadLatency;
+	private final int mispredictPenalty;
+	
+	// the reorder buffer: a ring of entries from the oldest at head, with
+	// the kind of each instruction, the architectural and physical
+	// registers it writes, the physical register it replaces, the physical
+	// registers it reads, what the oracle said it did, the first cycle it
+	// can issue in, which is later for an instruction that missed in the
+	// instruction cache, and when it will finish executing
+	private final int[] robKind;
+	private final int[] robDest;
+	private final int[] robPhys;
+	private final int[] robOldPhys;
+	private final int[] robSource1;
+	private final int[] robSource2;
+	private final long[] robValue;
+	private final long[] robAddress;
+	private final long[] robIssueAt;
+	private final long[] robCompleteAt;
+	
+	/**
+	 * The sequence number of the last older store to the same word that
+	 * each load has to wait for, or -1 if there isn't one.
+	 */
+	private final long[] robStoreDependency;
+	
+	private int head = 0;
+	private int count = 0;
+	
+	/**
+	 * The sequence number of the entry at the head of the reorder buffer.
+	 * Every instruction fetched gets the next number, so the entry of any
+	 * instruction still in the buffer can be found from its number.
+	 */
+	private long headSequence = 0;
+	
+	// bit sets over the reorder buffer of the entries waiting in the
+	// reservation stations, executing, done, and that fetch is waiting on
+	// because they were mispredicted
+	private final long[] waiting;
+	private final long[] executing;
+	private final long[] done;
+	private final long[] mispredicted;
+	
+	/**
+	 * The number of entries in the reservation stations.
+	 */
+	private int rsCount = 0;
+	
+	/**
+	 * The physical register each architectural register maps onto.  $r0
+	 * always maps onto physical register 0, which is never written.
+	 */
+	private final int[] map = new int[OutOfOrderConfig.ARCHITECTURAL_REGISTERS];
+	
+	// the free list, a ring of physical registers
+	private final int[] freeList;
+	private int freeHead = 0;
+	private int freeCount = 0;
+	
+	private final long[] physicalValues;
+	
+	/**
+	 * A bit set of the physical registers holding their final values.
+	 */
+	private final long[] ready;
+	
+	/**
+	 * The architectural registers, written as instructions retire.
+	 */
+	private final long[] registers = new long[OutOfOrderConfig.ARCHITECTURAL_REGISTERS];
+	
+	// the store queue, a ring of the reorder buffer entries of the stores
+	// that haven't retired, oldest first
+	private final int[] storeQueue;
+	private int storeHead = 0;
+	private int storeCount = 0;
+	
+	// where fetch is up to: whether it's fetched the halt instruction,
+	// whether it's waiting for a mispredicted branch to execute, and the
+	// cycle it can start again after a mispredict or instruction cache miss
+	private boolean fetchedHalt = false;
+	private boolean blocked = false;
+	private long fetchResumesAt = 0;
+	
+	/**
+	 * Whether the halt instruction has retired.
+	 */
+	private boolean halted = false;
+	
+	private long cycleCount = 0;
+	private long instructionCount = 0;
+	
+	// what held things up
+	private long mispredictions = 0;
+	private long robFullCycles = 0;
+	private long rsFullCycles = 0;
+	private long registerFullCycles = 0;
+	
+	/**
+	 * The sum over every cycle of the number of entries in the reorder
+	 * buffer.
+	 */
+	private long robOccupancy = 0;
+	
+	/**
+	 * Create an out of order core to run the program in the given memory.
+	 * 
+	 * @param memory The memory holding the program.  It is written to as
+	 * the program runs.
+	 * @param config The shape of the core.
+	 */
+	public OutOfOrderCore(MemoryStore memory, OutOfOrderConfig config) {
+		this.config = config;
+		this.oracle = new Oracle(memory);
+		this.predictor = BranchPredictor.create(config.getPipeline());
+		this.caches = new CacheHierarchy(config.getPipeline());
+		
+		width = config.getWidth();
+		robSize = config.getRobSize();
+		rsSize = config.getRsSize();
+		alus = config.getAlus();
+		loadStoreUnits = config.getLoadStoreUnits();
+		loadLatency = config.getLoadLatency();
+		mispredictPenalty = config.getMispredictPenalty();
+		
+		robKind = new int[robSize];
+		robDest = new int[robSize];
+		robPhys = new int[robSize];
+		robOldPhys = new int[robSize];
+		robSource1 = new int[robSize];
+		robSource2 = new int[robSize];
+		robValue = new long[robSize];
+		robAddress = new long[robSize];
+		robIssueAt = new long[robSize];
+		robCompleteAt = new long[robSize];
+		robStoreDependency = new long[robSize];
+		
+		int words = (robSize + 63) >>> 6;
+		waiting = new long[words];
+		executing = new long[words];
+		done = new long[words];
+		mispredicted = new long[words];
+		
+		storeQueue = new int[robSize];
+		
+		// each architectural register starts out in the physical register
+		// of the same number, and the rest are free
+		int physicalRegisters = config.getPhysicalRegisters();
+		physicalValues = new long[physicalRegisters];
+		ready = new long[(physicalRegisters + 63) >>> 6];
+		freeList = new int[physicalRegisters];
+		
+		for (int register = 0; register < map.length; register++) {
+			map[register] = register;
+			set(ready, register);
+		}
+		for (int register = map.length; register < physicalRegisters; register++) {
+			freeList[freeCount++] = register;
+		}
+	}
+	
+	/**
+	 * Run the core until the program halts.
+	 * 
+	 * @return The instruction count, cycle count and final register file
+	 * of the run.
+	 */
+	public SimulationResult simulate() {
+		simulate(Long.MAX_VALUE);
+		
+		return getResult();
+	}
+	
+	/**
+	 * Run the core until the program halts or the given number of cycles
+	 * have been run.
+	 * 
+	 * @param cycles The most cycles to run.
+	 * @return Whether the program has halted.
+	 */
+	public boolean simulate(long cycles) {
+		for (; cycles > 0 && !halted; cycles--) {
+			retire();
+			complete();
+			issue();
+			fetch();
+			
+			robOccupancy += count;
+			cycleCount++;
+		}
+		
+		return halted;
+	}
+	
+	/**
+	 * @return The instruction count, cycle count and architectural register
+	 * file of the run so far.
+	 */
+	public SimulationResult getResult() {
+		RegisterFile registerFile = new RegisterFile();
+		registerFile.setValues(registers);
+		
+		return new SimulationResult(instructionCount, cycleCount, registerFile);
+	}
+	
+	public OutOfOrderConfig getConfig() {
+		return config;
+	}
+	
+	public BranchPredictor getPredictor() {
+		return predictor;
+	}
+	
+	public CacheHierarchy getCaches() {
+		return caches;
+	}
+	
+	public long getInstructionCount() {
+		return instructionCount;
+	}
+	
+	public long getCycleCount() {
+		return cycleCount;
+	}
+	
+	/**
+	 * @return The number of branches and jumps fetch had to wait on.
+	 */
+	public long getMispredictions() {
+		return mispredictions;
+	}
+	
+	/**
+	 * @return The instructions retired per cycle.
+	 */
+	public double getIpc() {
+		return cycleCount == 0 ? 0 : (double)instructionCount / cycleCount;
+	}
+	
+	/**
+	 * @return The number of entries in the reorder buffer on an average
+	 * cycle.
+	 */
+	public double getAverageRobOccupancy() {
+		return cycleCount == 0 ? 0 : (double)robOccupancy / cycleCount;
+	}
+	
+	/**
+	 * @return What held up fetch, in the format printed by the simulator.
+	 */
+	@Override
+	public String toString() {
+		return "Configuration: \t\t" + config + '\n' +
+			"IPC: \t\t\t" + (float)getIpc() + '\n' +
+			"Mispredictions: \t" + mispredictions + '\n' +
+			"ROB full cycles: \t" + robFullCycles + '\n' +
+			"RS full cycles: \t" + rsFullCycles + '\n' +
+			"Free list empty cycles: " + registerFullCycles + '\n' +
+			"Average ROB occupancy: \t" + (float)getAverageRobOccupancy();
+	}
+	
+	/**
+	 * Retire completed instructions from the head of the reorder buffer.
+	 */
+	private void retire() {
+		for (int retired = 0; retired < width && count > 0; retired++) {
+			int slot = head;
+			if (!isSet(done, slot)) {
+				break;
+			}
+			
+			clear(done, slot);
+			head = next(slot);
+			count--;
+			headSequence++;
+			
+			int kind = robKind[slot];
+			if (kind == Oracle.HALT) {
+				halted = true;
+				return;
+			}
+			
+			if (robDest[slot] != 0) {
+				registers[robDest[slot]] = physicalValues[robPhys[slot]];
+				freeList[(freeHead + freeCount) % freeList.length] = robOldPhys[slot];
+				freeCount++;
+			}
+			
+			// stores only write to the cache once they're no longer
+			// speculative, and are buffered from there on
+			if (kind == Oracle.STORE) {
+				caches.write(robAddress[slot]);
+				storeHead = (storeHead + 1) % storeQueue.length;
+				storeCount--;
+			}
+			
+			instructionCount++;
+		}
+	}
+	
+	/**
+	 * Finish executing every instruction whose latency is up, waking up
+	 * anything waiting on its result.
+	 */
+	private void complete() {
+		for (int word = 0; word < executing.length; word++) {
+			long bits = executing[word];
+			while (bits != 0) {
+				int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				
+				if (robCompleteAt[slot] > cycleCount) {
+					continue;
+				}
+				
+				clear(executing, slot);
+				set(done, slot);
+				
+				int phys = robPhys[slot];
+				if (phys != 0) {
+					physicalValues[phys] = robValue[slot];
+					set(ready, phys);
+				}
+				
+				// fetch carries on down the right path
+				if (isSet(mispredicted, slot)) {
+					clear(mispredicted, slot);
+					blocked = false;
+					fetchResumesAt = Math.max(fetchResumesAt, cycleCount + mispredictPenalty);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Start executing the oldest instructions whose operands are ready, as
+	 * many as there are functional units for.
+	 */
+	private void issue() {
+		int freeAlus = alus;
+		int freeLoadStoreUnits = loadStoreUnits;
+		
+		// the entries from head to the end of the array are older than
+		// those that have wrapped around to the start
+		int end = head + count;
+		for (int range = 0; range < 2; range++) {
+			int from = range == 0 ? head : 0;
+			int to = range == 0 ? Math.min(end, robSize) : end - robSize;
+			
+			for (int slot = nextSet(waiting, from, to); slot >= 0; slot = nextSet(waiting, slot + 1, to)) {
+				if (freeAlus == 0 && freeLoadStoreUnits == 0) {
+					return;
+				}
+				
+				int kind = robKind[slot];
+				boolean memory = kind == Oracle.LOAD || kind == Oracle.STORE;
+				if ((memory ? freeLoadStoreUnits : freeAlus) == 0 || !isReady(slot)) {
+					continue;
+				}
+				
+				int latency = 1;
+				if (kind == Oracle.LOAD) {
+					// a load that forwards from a store in flight doesn't
+					// go to the cache
+					latency = robStoreDependency[slot] >= 0 ? loadLatency :
+						loadLatency + caches.read(robAddress[slot]);
+				}
+				
+				if (memory) {
+					freeLoadStoreUnits--;
+				} else {
+					freeAlus--;
+				}
+				
+				clear(waiting, slot);
+				set(executing, slot);
+				rsCount--;
+				robCompleteAt[slot] = cycleCount + latency;
+			}
+		}
+	}
+	
+	/**
+	 * @return Whether the instruction of the given entry has arrived and
+	 * its operands are ready, and for a load, whether the store it has to
+	 * wait for has executed.
+	 */
+	private boolean isReady(int slot) {
+		if (robIssueAt[slot] > cycleCount) {
+			return false;
+		}
+		if (!isSet(ready, robSource1[slot]) || !isSet(ready, robSource2[slot])) {
+			return false;
+		}
+		
+		long store = robStoreDependency[slot];
+		if (store >= headSequence) {
+			return isSet(done, (int)((head + (store - headSequence)) % robSize));
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Fetch and rename up to a width of instructions, and put them in the
+	 * reorder buffer and reservation stations.
+	 */
+	private void fetch() {
+		if (fetchedHalt || blocked || cycleCount < fetchResumesAt) {
+			return;
+		}
+		
+		for (int fetched = 0; fetched < width; fetched++) {
+			// the oracle can't take an instruction back, so there has to
+			// be room for whatever it turns out to be
+			if (count == robSize) {
+				robFullCycles++;
+				return;
+			}
+			if (rsCount == rsSize) {
+				rsFullCycles++;
+				return;
+			}
+			if (freeCount == 0) {
+				registerFullCycles++;
+				return;
+			}
+			
+			long pc = oracle.getPc();
+			int missCycles = caches.fetch(pc);
+			
+			oracle.step();
+			
+			int slot = (head + count) % robSize;
+			int kind = oracle.getKind();
+			count++;
+			
+			robKind[slot] = kind;
+			robDest[slot] = oracle.getDest();
+			robSource1[slot] = map[oracle.getSource1()];
+			robSource2[slot] = map[oracle.getSource2()];
+			robValue[slot] = oracle.getValue();
+			robAddress[slot] = oracle.getAddress();
+			robStoreDependency[slot] = -1;
+			robIssueAt[slot] = cycleCount + missCycles;
+			
+			// rename the register it writes
+			int dest = oracle.getDest();
+			if (dest != 0) {
+				int phys = freeList[freeHead];
+				freeHead = (freeHead + 1) % freeList.length;
+				freeCount--;
+				
+				robPhys[slot] = phys;
+				robOldPhys[slot] = map[dest];
+				map[dest] = phys;
+				clear(ready, phys);
+			} else {
+				robPhys[slot] = 0;
+			}
+			
+			if (kind == Oracle.HALT || kind == Oracle.JUMP) {
+				// nothing to execute, but it isn't done until its line
+				// arrives
+				if (missCycles > 0) {
+					set(executing, slot);
+					robCompleteAt[slot] = cycleCount + missCycles;
+				} else {
+					set(done, slot);
+				}
+			} else {
+				set(waiting, slot);
+				rsCount++;
+			}
+			
+			if (kind == Oracle.LOAD) {
+				robStoreDependency[slot] = findStore(oracle.getAddress());
+			} else if (kind == Oracle.STORE) {
+				storeQueue[(storeHead + storeCount) % storeQueue.length] = slot;
+				storeCount++;
+			}
+			
+			boolean carryOn = true;
+			if (kind == Oracle.HALT) {
+				fetchedHalt = true;
+				carryOn = false;
+			} else if (kind == Oracle.BRANCH || kind == Oracle.JUMP || kind == Oracle.JUMP_REGISTER) {
+				carryOn = predict(slot, pc, kind);
+			}
+			
+			// an instruction that missed is still predicted, but nothing
+			// more is fetched until its line arrives
+			if (missCycles > 0) {
+				fetchResumesAt = Math.max(fetchResumesAt, cycleCount + 1 + missCycles);
+				return;
+			}
+			
+			if (!carryOn) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Check the prediction fetch made for a branch or jump.
+	 * 
+	 * @return Whether fetch can carry on with the same group of
+	 * instructions: the prediction was right and it wasn't taken.
+	 */
+	private boolean predict(int slot, long pc, int kind) {
+		long predicted = predictor.predict(pc, oracle.getInstruction());
+		long next = oracle.getNext();
+		boolean taken = next != pc + 4 || kind != Oracle.BRANCH;
+		boolean correct = next == predicted && taken == (predicted != pc + 4);
+		
+		predictor.update(
+			pc, kind == Oracle.BRANCH ? ControlWord.BRANCH : ControlWord.JUMP,
+			taken, next, correct
+		);
+		
+		if (correct) {
+			return !taken;
+		}
+		
+		mispredictions++;
+		if (kind == Oracle.JUMP) {
+			// the target of a jump is known as soon as it's decoded
+			fetchResumesAt = cycleCount + 1;
+		} else {
+			set(mispredicted, slot);
+			blocked = true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @return The sequence number of the youngest store in flight to the
+	 * same word as the given address, or -1 if there isn't one.
+	 */
+	private long findStore(long address) {
+		long word = (address & 0xFFFFFFFFL) >>> 2;
+		
+		for (int i = storeCount - 1; i >= 0; i--) {
+			int slot = storeQueue[(storeHead + i) % storeQueue.length];
+			if (((robAddress[slot] & 0xFFFFFFFFL) >>> 2) == word) {
+				int age = slot - head;
+				if (age < 0) {
+					age += robSize;
+				}
+				
+				return headSequence + age;
+			}
+		}
+		
+		return -1;
+	}
+	
+	private int next(int slot) {
+		return slot + 1 == robSize ? 0 : slot + 1;
+	}
+	
+	/**
+	 * @return The first set bit from <code>from</code> up to but not
+	 * including <code>to</code>, or -1 if there isn't one.
+	 */
+	private static int nextSet(long[] bits, int from, int to) {
+		if (from >= to) {
+			return -1;
+		}
+		
+		int word = from >>> 6;
+		long current = bits[word] & (-1L << from);
+		while (true) {
+			if (current != 0) {
+				int index = (word << 6) + Long.numberOfTrailingZeros(current);
+				return index < to ? index : -1;
+			}
+			
+			if (++word > (to - 1) >>> 6) {
+				return -1;
+			}
+			current = bits[word];
+		}
+	}
+	
+	private static boolean isSet(long[] bits, int index) {
+		return (bits[index >>> 6] & (1L << index)) != 0;
+	}
+	
+	private static void set(long[] bits, int index) {
+		bits[index >>> 6] |= 1L << index;
+	}
+	
+	private static void clear(long[] bits, int index) {
+		bits[index >>> 6] &= ~(1L << index);
+	}
+}
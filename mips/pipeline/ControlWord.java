@@ -0,0 +1,64 @@
+package mips.pipeline;
+
+import mips.RegisterName;
+
+/**
+ * The layout of the control lines when they are packed together into a
+ * single int.  Each of the single bit control lines gets its own bit, and
+ * the ALU operation is stored in the bits above them.
+ */
+public final class ControlWord {
+	public static final int REG_DST = 1 << 0;
+	public static final int ALU_SRC = 1 << 1;
+	public static final int MEM_TO_REG = 1 << 2;
+	public static final int REG_WRITE = 1 << 3;
+	public static final int MEM_READ = 1 << 4;
+	public static final int MEM_WRITE = 1 << 5;
+	public static final int BRANCH = 1 << 6;
+	public static final int BRANCH_NE = 1 << 7;
+	public static final int JUMP = 1 << 8;
+	public static final int JUMP_SRC = 1 << 9;
+	public static final int HALT = 1 << 10;
+	public static final int ALU_OP_SHIFT = 11;
+	public static final int ALU_OP_MASK = 0x7 << ALU_OP_SHIFT;
+	
+	/**
+	 * The registers holding the single bit control lines, in bit order.
+	 */
+	static final RegisterName[] LINES = {
+		RegisterName.REG_DST,
+		RegisterName.ALU_SRC,
+		RegisterName.MEM_TO_REG,
+		RegisterName.REG_WRITE,
+		RegisterName.MEM_READ,
+		RegisterName.MEM_WRITE,
+		RegisterName.BRANCH,
+		RegisterName.BRANCH_NE,
+		RegisterName.JUMP,
+		RegisterName.JUMP_SRC,
+		RegisterName.HALT
+	};
+	
+	private ControlWord() {
+	}
+	
+	/**
+	 * Pack an ALU operation into a control word.
+	 * 
+	 * @param aluOp The ALU operation.
+	 * @return The control word bits for the operation.
+	 */
+	public static int aluOp(int aluOp) {
+		return aluOp << ALU_OP_SHIFT;
+	}
+	
+	/**
+	 * Get the ALU operation out of a control word.
+	 * 
+	 * @param control The control word.
+	 * @return The ALU operation.
+	 */
+	public static int getAluOp(int control) {
+		return (control & ALU_OP_MASK) >>> ALU_OP_SHIFT;
+	}
+}
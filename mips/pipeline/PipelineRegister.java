@@ -1,37 +1,123 @@
 package mips.pipeline;
 
-import java.util.Map.Entry;
-
-import mips.Register;
+import mips.MachineState;
 import mips.RegisterFile;
 import mips.RegisterName;
 import mips.pipeline.stages.Decode;
 
 public class PipelineRegister extends RegisterFile {
+	/**
+	 * The index of the ALU operation register.
+	 */
+	private static final int ALU_OP = RegisterName.ALU_OP.ordinal();
+	
+	/**
+	 * The indexes of the single bit control line registers, in the order
+	 * of their bits in a control word.
+	 */
+	private static final int[] CONTROL_LINES = 
+		new int[ControlWord.LINES.length];
+	
+	/**
+	 * A bit set of all the control line registers.
+	 */
+	private static final long CONTROL_REGISTERS;
+	
+	static {
+		long registers = 1L << ALU_OP;
+		for (int i = 0; i < CONTROL_LINES.length; i++) {
+			CONTROL_LINES[i] = ControlWord.LINES[i].ordinal();
+			registers |= 1L << CONTROL_LINES[i];
+		}
+		
+		CONTROL_REGISTERS = registers;
+	}
+	
+	/**
+	 * Create a pipeline register, in a state of its own, holding a no-op.
+	 */
 	public PipelineRegister() {
-		super();
-		Register register = new Register(Decode.NOP);
-		registers.put(RegisterName.OP_CODE, register);	
+		this(new MachineState(1), 0);
+	}
+	
+	/**
+	 * Create a pipeline register held in a group of the given state, 
+	 * holding a no-op.
+	 * 
+	 * @param state The state holding the pipeline register.
+	 * @param group The group of the state for the pipeline register.
+	 */
+	public PipelineRegister(MachineState state, int group) {
+		super(state, group, false);
+		clear();
 	}
 	
-	protected boolean validRegister(RegisterName registerName) {
+	/**
+	 * Put the pipeline register back into its initial state, holding a
+	 * no-op.
+	 */
+	@Override
+	public void clear() {
+		super.clear();
+		reset(RegisterName.OP_CODE.ordinal(), Decode.NOP);
+	}
+	
+	/**
+	 * @return Whether none of the control lines are set, so the register
+	 * holds a no-op that has no effect on the rest of the pipeline.
+	 */
+	public boolean isNop() {
+		long control = CONTROL_REGISTERS;
+		while (control != 0) {
+			int index = Long.numberOfTrailingZeros(control);
+			if (values[base + index] != 0) {
+				return false;
+			}
+			control &= control - 1;
+		}
+		
 		return true;
 	}
 	
+	/**
+	 * Set all of the control line registers at once from a packed control
+	 * word.  Like <code>setValue</code>, this won't take effect until
+	 * <code>tick</code> is called.
+	 * 
+	 * @param control The control word, laid out as in 
+	 * <code>ControlWord</code>.
+	 */
+	public void setControlLines(int control) {
+		for (int i = 0; i < CONTROL_LINES.length; i++) {
+			newValues[base + CONTROL_LINES[i]] = (control >>> i) & 1;
+		}
+		newValues[base + ALU_OP] = ControlWord.getAluOp(control);
+		
+		written(CONTROL_REGISTERS);
+	}
+	
 	public void forwardValues(PipelineRegister target) {
-		for (Entry<RegisterName, Register> entry : registers.entrySet()) {
-			target.setValue(entry.getKey(), entry.getValue().getValue());
+		long used = usedRegisters();
+		long remaining = used;
+		while (remaining != 0) {
+			int index = Long.numberOfTrailingZeros(remaining);
+			target.newValues[target.base + index] = values[base + index];
+			remaining &= remaining - 1;
 		}
+		target.written(used);
 	}
 	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		for (Entry<RegisterName, Register> entry : registers.entrySet()) {
-			builder.append(entry.getKey());
+		long used = usedRegisters();
+		while (used != 0) {
+			int index = Long.numberOfTrailingZeros(used);
+			builder.append(RegisterName.valueOf(index));
 			builder.append('\t');
-			builder.append(entry.getValue().getValue());
+			builder.append(values[base + index]);
 			builder.append('\n');
+			used &= used - 1;
 		}
 		
 		return builder.toString();
@@ -2,4 +2,11 @@ package mips.pipeline;
 
 public abstract class PipelineStage {
 	public abstract void run();
+	
+	/**
+	 * Put the stage back the way it was created, with its counts zeroed,
+	 * ready to run a new program.
+	 */
+	public void reset() {
+	}
 }
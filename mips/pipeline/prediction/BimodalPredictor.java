@@ -0,0 +1,63 @@
+package mips.pipeline.prediction;
+
+import java.util.Arrays;
+
+/**
+ * Predicts each branch from a two-bit saturating counter picked by its
+ * address, so a branch has to go against its usual direction twice in a
+ * row before the prediction changes.
+ */
+public class BimodalPredictor extends BranchPredictor {
+	/**
+	 * The number of address bits used to pick a counter.
+	 */
+	static final int INDEX_BITS = 12;
+	
+	/**
+	 * Counters at or above this predict taken.
+	 */
+	static final byte TAKEN = 2;
+	
+	static final byte MAX_COUNT = 3;
+	
+	private final byte[] counters = new byte[1 << INDEX_BITS];
+	
+	public BimodalPredictor(BranchTargetBuffer btb) {
+		super(btb);
+		
+		// start out weakly not taken
+		Arrays.fill(counters, (byte)(TAKEN - 1));
+	}
+	
+	@Override
+	public void reset() {
+		super.reset();
+		Arrays.fill(counters, (byte)(TAKEN - 1));
+	}
+	
+	@Override
+	protected boolean predictTaken(long pc, long target) {
+		return counters[index(pc)] >= TAKEN;
+	}
+	
+	@Override
+	protected void train(long pc, boolean taken) {
+		int index = index(pc);
+		counters[index] = count(counters[index], taken);
+	}
+	
+	/**
+	 * @return The counter moved one step towards the outcome.
+	 */
+	static byte count(byte counter, boolean taken) {
+		if (taken) {
+			return counter < MAX_COUNT ? (byte)(counter + 1) : counter;
+		}
+		
+		return counter > 0 ? (byte)(counter - 1) : counter;
+	}
+	
+	private static int index(long pc) {
+		return (int)(pc >>> 2) & ((1 << INDEX_BITS) - 1);
+	}
+}
@@ -0,0 +1,215 @@
+package mips.pipeline.prediction;
+
+import mips.PipelineConfig;
+import mips.pipeline.ControlWord;
+
+/**
+ * Predicts the address of the next instruction to fetch, so that fetch can
+ * follow branches and jumps without waiting for decode to resolve them.
+ * Decode checks every prediction against the real next address and flushes
+ * the fetched instruction when they differ, so a wrong guess costs a cycle
+ * and a right one costs nothing.
+ * 
+ * Fetch predecodes just enough of each instruction to tell conditional
+ * branches, whose direction is left to the subclass and whose target is
+ * in the instruction, from jumps, whose target comes from the branch 
+ * target buffer if there is one.  Everything else is predicted to fall 
+ * through to the next instruction.
+ */
+public abstract class BranchPredictor {
+	// the opcodes and funct code fetch has to recognize
+	private static final int OPCODE_SHIFT = 26;
+	private static final int ARITH_OP_CODE = 0;
+	private static final int BEQ = 0x4;
+	private static final int BNE = 0x5;
+	private static final int J = 0x2;
+	private static final int FUNCT_MASK = 0x3F;
+	private static final int JR_FUNCT = 0x8;
+	private static final int IMMEDIATE_MASK = 0xFFFF;
+	
+	/**
+	 * The targets of jumps, or null to predict that jumps fall through.
+	 */
+	private final BranchTargetBuffer btb;
+	
+	// how many predictions have been checked, and how many were right
+	private long branches = 0;
+	private long branchesCorrect = 0;
+	private long jumps = 0;
+	private long jumpsCorrect = 0;
+	
+	protected BranchPredictor(BranchTargetBuffer btb) {
+		this.btb = btb;
+	}
+	
+	/**
+	 * Create the predictor a pipeline configuration asks for.
+	 * 
+	 * @param config The configuration.
+	 * @return The predictor.
+	 */
+	public static BranchPredictor create(PipelineConfig config) {
+		BranchTargetBuffer btb = config.isBtb() ? new BranchTargetBuffer() : null;
+		String name = config.getPredictor();
+		
+		if (name.equals(PipelineConfig.BTFN)) {
+			return new BtfnPredictor(btb);
+		} else if (name.equals(PipelineConfig.BIMODAL)) {
+			return new BimodalPredictor(btb);
+		} else if (name.equals(PipelineConfig.GSHARE)) {
+			return new GsharePredictor(btb);
+		}
+		
+		return new NotTakenPredictor(btb);
+	}
+	
+	/**
+	 * Predict the address of the instruction after the given one.
+	 * 
+	 * @param pc The address of the instruction being fetched.
+	 * @param instruction The instruction.
+	 * @return The address to fetch next.
+	 */
+	public final long predict(long pc, long instruction) {
+		int opCode = (int)(instruction >>> OPCODE_SHIFT);
+		
+		if (opCode == BEQ || opCode == BNE) {
+			long target = pc + 4 + 4 * (instruction & IMMEDIATE_MASK);
+			
+			return predictTaken(pc, target) ? target : pc + 4;
+		}
+		
+		if (btb != null && 
+			(opCode == J || 
+			 (opCode == ARITH_OP_CODE && (instruction & FUNCT_MASK) == JR_FUNCT)))
+		{
+			return btb.lookup(pc, pc + 4);
+		}
+		
+		return pc + 4;
+	}
+	
+	/**
+	 * Learn from a branch or jump once decode has resolved it.
+	 * 
+	 * @param pc The address of the branch or jump.
+	 * @param control The control word of the instruction.
+	 * @param taken Whether the branch was taken.
+	 * @param next The address of the instruction that really comes next.
+	 * @param correct Whether the prediction was right.
+	 */
+	public final void update(
+		long pc, 
+		int control, 
+		boolean taken, 
+		long next, 
+		boolean correct
+	) {
+		if ((control & ControlWord.BRANCH) != 0) {
+			branches++;
+			if (correct) {
+				branchesCorrect++;
+			}
+			
+			train(pc, taken);
+		} else if ((control & ControlWord.JUMP) != 0) {
+			jumps++;
+			if (correct) {
+				jumpsCorrect++;
+			}
+			
+			if (btb != null) {
+				btb.update(pc, next);
+			}
+		}
+	}
+	
+	/**
+	 * Forget everything learned and zero the counts, as if the predictor
+	 * had just been created.  Subclasses with tables of their own reset
+	 * them too.
+	 */
+	public void reset() {
+		branches = 0;
+		branchesCorrect = 0;
+		jumps = 0;
+		jumpsCorrect = 0;
+		
+		if (btb != null) {
+			btb.reset();
+		}
+	}
+	
+	/**
+	 * @return The number of conditional branches resolved.
+	 */
+	public long getBranches() {
+		return branches;
+	}
+	
+	public long getBranchesCorrect() {
+		return branchesCorrect;
+	}
+	
+	/**
+	 * @return The number of jumps and jump registers resolved.
+	 */
+	public long getJumps() {
+		return jumps;
+	}
+	
+	public long getJumpsCorrect() {
+		return jumpsCorrect;
+	}
+	
+	/**
+	 * @return The percentage of conditional branches predicted right.
+	 */
+	public String getBranchAccuracy() {
+		return percent(branchesCorrect, branches);
+	}
+	
+	/**
+	 * @return The percentage of jumps and jump registers predicted right.
+	 */
+	public String getJumpAccuracy() {
+		return percent(jumpsCorrect, jumps);
+	}
+	
+	/**
+	 * @return The prediction accuracy, in the format printed by the 
+	 * simulator.
+	 */
+	@Override
+	public String toString() {
+		return "Branch accuracy: \t" + getBranchAccuracy() + 
+			" (" + branchesCorrect + " of " + branches + ")\n" +
+			"Jump accuracy: \t\t" + getJumpAccuracy() + 
+			" (" + jumpsCorrect + " of " + jumps + ")";
+	}
+	
+	/**
+	 * Predict whether a conditional branch will be taken.
+	 * 
+	 * @param pc The address of the branch.
+	 * @param target The address the branch goes to if it's taken.
+	 * @return Whether to fetch from the target next.
+	 */
+	protected abstract boolean predictTaken(long pc, long target);
+	
+	/**
+	 * Learn whether a conditional branch was taken.
+	 * 
+	 * @param pc The address of the branch.
+	 * @param taken Whether it was taken.
+	 */
+	protected abstract void train(long pc, boolean taken);
+	
+	private static String percent(long correct, long total) {
+		if (total == 0) {
+			return "n/a";
+		}
+		
+		return String.format("%.2f%%", 100.0 * correct / total);
+	}
+}
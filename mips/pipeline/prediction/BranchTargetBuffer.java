@@ -0,0 +1,64 @@
+package mips.pipeline.prediction;
+
+import java.util.Arrays;
+
+/**
+ * Remembers where recent jumps went, so that fetch can follow a jump or
+ * jump register to the same place the next time it's fetched.  The buffer
+ * is direct mapped, tagged with the whole address of the jump.
+ */
+public class BranchTargetBuffer {
+	/**
+	 * The number of address bits used to pick an entry.
+	 */
+	private static final int INDEX_BITS = 9;
+	
+	private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+	
+	/**
+	 * The address of the jump in each entry, or -1 if it's empty.
+	 */
+	private final long[] tags = new long[1 << INDEX_BITS];
+	
+	private final long[] targets = new long[1 << INDEX_BITS];
+	
+	public BranchTargetBuffer() {
+		reset();
+	}
+	
+	/**
+	 * Empty the buffer.
+	 */
+	public void reset() {
+		Arrays.fill(tags, -1);
+	}
+	
+	/**
+	 * Look up where a jump went last time.
+	 * 
+	 * @param pc The address of the jump.
+	 * @param miss The address to return if the jump isn't in the buffer.
+	 * @return The target of the jump.
+	 */
+	public long lookup(long pc, long miss) {
+		int index = index(pc);
+		
+		return tags[index] == pc ? targets[index] : miss;
+	}
+	
+	/**
+	 * Remember where a jump went.
+	 * 
+	 * @param pc The address of the jump.
+	 * @param target Where it went.
+	 */
+	public void update(long pc, long target) {
+		int index = index(pc);
+		tags[index] = pc;
+		targets[index] = target;
+	}
+	
+	private static int index(long pc) {
+		return (int)(pc >>> 2) & INDEX_MASK;
+	}
+}
@@ -0,0 +1,20 @@
+package mips.pipeline.prediction;
+
+/**
+ * Predicts that backward branches are taken, since they usually close 
+ * loops, and that forward branches aren't.
+ */
+public class BtfnPredictor extends BranchPredictor {
+	public BtfnPredictor(BranchTargetBuffer btb) {
+		super(btb);
+	}
+	
+	@Override
+	protected boolean predictTaken(long pc, long target) {
+		return target <= pc;
+	}
+	
+	@Override
+	protected void train(long pc, boolean taken) {
+	}
+}
@@ -0,0 +1,54 @@
+package mips.pipeline.prediction;
+
+import java.util.Arrays;
+
+/**
+ * Predicts each branch from a two-bit saturating counter picked by its
+ * address exclusive-ored with the outcomes of the most recent branches, so
+ * branches that depend on the path taken to them can be told apart.
+ */
+public class GsharePredictor extends BranchPredictor {
+	/**
+	 * The number of bits of address and history used to pick a counter.
+	 */
+	private static final int INDEX_BITS = BimodalPredictor.INDEX_BITS;
+	
+	private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+	
+	private final byte[] counters = new byte[1 << INDEX_BITS];
+	
+	/**
+	 * The outcomes of the most recent branches, newest in the lowest bit.
+	 */
+	private int history = 0;
+	
+	public GsharePredictor(BranchTargetBuffer btb) {
+		super(btb);
+		
+		// start out weakly not taken
+		Arrays.fill(counters, (byte)(BimodalPredictor.TAKEN - 1));
+	}
+	
+	@Override
+	public void reset() {
+		super.reset();
+		Arrays.fill(counters, (byte)(BimodalPredictor.TAKEN - 1));
+		history = 0;
+	}
+	
+	@Override
+	protected boolean predictTaken(long pc, long target) {
+		return counters[index(pc)] >= BimodalPredictor.TAKEN;
+	}
+	
+	@Override
+	protected void train(long pc, boolean taken) {
+		int index = index(pc);
+		counters[index] = BimodalPredictor.count(counters[index], taken);
+		history = ((history << 1) | (taken ? 1 : 0)) & INDEX_MASK;
+	}
+	
+	private int index(long pc) {
+		return ((int)(pc >>> 2) ^ history) & INDEX_MASK;
+	}
+}
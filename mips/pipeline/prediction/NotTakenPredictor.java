@@ -0,0 +1,20 @@
+package mips.pipeline.prediction;
+
+/**
+ * Predicts that conditional branches are never taken, as the pipeline 
+ * always did before it had a predictor.
+ */
+public class NotTakenPredictor extends BranchPredictor {
+	public NotTakenPredictor(BranchTargetBuffer btb) {
+		super(btb);
+	}
+	
+	@Override
+	protected boolean predictTaken(long pc, long target) {
+		return false;
+	}
+	
+	@Override
+	protected void train(long pc, boolean taken) {
+	}
+}
@@ -1,31 +1,33 @@
 package mips.pipeline.stages;
 
-import java.util.HashMap;
-
+import mips.MemoryStore;
+import mips.PipelineConfig;
 import mips.ProgramCounter;
 import mips.RegisterFile;
 import mips.RegisterName;
+import mips.pipeline.ControlWord;
 import mips.pipeline.PipelineRegister;
 import mips.pipeline.PipelineStage;
+import mips.pipeline.prediction.BranchPredictor;
 
 public class Decode extends PipelineStage {
 	// values for decoding the instruction
-	private static final int OPCODE_MASK = 0xFC000000;
-	private static final int OPCODE_SHIFT = 26;
-	private static final int RS_MASK = 0x3E00000;
-	private static final int RS_SHIFT = 21;
-	private static final int RT_MASK = 0x1F0000;
-	private static final int RT_SHIFT = 16;
-	private static final int RD_MASK = 0xF800;
-	private static final int RD_SHIFT = 11;
-	private static final int SHAMT_MASK = 0x7C0;
-	private static final int SHAMT_SHIFT = 6;
-	private static final int FUNCT_MASK = 0x3F;
-	private static final int FUNCT_SHIFT = 0;
-	private static final int IMMEDIATE_MASK = 0xFFFF;
-	private static final int IMMEDIATE_SHIFT = 0;
-	private static final int ADDRESS_MASK = 0x3FFFFFF;
-	private static final int ADDRESS_SHIFT = 0;
+	static final int OPCODE_MASK = 0xFC000000;
+	static final int OPCODE_SHIFT = 26;
+	static final int RS_MASK = 0x3E00000;
+	static final int RS_SHIFT = 21;
+	static final int RT_MASK = 0x1F0000;
+	static final int RT_SHIFT = 16;
+	static final int RD_MASK = 0xF800;
+	static final int RD_SHIFT = 11;
+	static final int SHAMT_MASK = 0x7C0;
+	static final int SHAMT_SHIFT = 6;
+	static final int FUNCT_MASK = 0x3F;
+	static final int FUNCT_SHIFT = 0;
+	static final int IMMEDIATE_MASK = 0xFFFF;
+	static final int IMMEDIATE_SHIFT = 0;
+	static final int ADDRESS_MASK = 0x3FFFFFF;
+	static final int ADDRESS_SHIFT = 0;
 	
 	// values for opcodes and funct codes
 	private static final int ARITH_OP_CODE = 0;
@@ -49,34 +51,95 @@ public class Decode extends PipelineStage {
 	
 	public static final int NOP = 0xFF;
 	
+	// the control words for each opcode, and for each funct code of
+	// the arithmetic opcode
+	private static final int[] OP_CODE_CONTROL = new int[64];
+	private static final int[] FUNCT_CONTROL = new int[64];
+	
+	static {
+		int arith = ControlWord.REG_DST | ControlWord.REG_WRITE;
+		for (int funct = 0; funct < FUNCT_CONTROL.length; funct++) {
+			FUNCT_CONTROL[funct] = arith;
+		}
+		FUNCT_CONTROL[SUB_FUNCT] = arith | ControlWord.aluOp(1);
+		FUNCT_CONTROL[AND_FUNCT] = arith | ControlWord.aluOp(2);
+		FUNCT_CONTROL[OR_FUNCT] = arith | ControlWord.aluOp(3);
+		FUNCT_CONTROL[NOR_FUNCT] = arith | ControlWord.aluOp(4);
+		FUNCT_CONTROL[SLT_FUNCT] = arith | ControlWord.aluOp(5);
+		FUNCT_CONTROL[JR_FUNCT] = 
+			arith | ControlWord.JUMP | ControlWord.JUMP_SRC;
+		
+		int immediate = ControlWord.ALU_SRC | ControlWord.REG_WRITE;
+		OP_CODE_CONTROL[ADDI] = immediate;
+		OP_CODE_CONTROL[ANDI] = immediate | ControlWord.aluOp(2);
+		OP_CODE_CONTROL[ORI] = immediate | ControlWord.aluOp(3);
+		OP_CODE_CONTROL[SLTI] = immediate | ControlWord.aluOp(5);
+		OP_CODE_CONTROL[BEQ] = ControlWord.BRANCH | ControlWord.aluOp(1);
+		OP_CODE_CONTROL[BNE] = 
+			ControlWord.BRANCH | ControlWord.BRANCH_NE | ControlWord.aluOp(1);
+		OP_CODE_CONTROL[J] = ControlWord.JUMP;
+		OP_CODE_CONTROL[LW] = ControlWord.ALU_SRC | ControlWord.MEM_TO_REG | 
+			ControlWord.REG_WRITE | ControlWord.MEM_READ;
+		OP_CODE_CONTROL[SW] = ControlWord.ALU_SRC | ControlWord.MEM_WRITE;
+		OP_CODE_CONTROL[HLT] = ControlWord.HALT;
+	}
+	
 	private final PipelineRegister if_id;
 	private final PipelineRegister id_ex;
+	private final PipelineRegister ex_mem;
 	private final RegisterFile registerFile;
 	private final ProgramCounter pc;
+	private final PredecodeCache predecodeCache;
+	private final BranchPredictor predictor;
+	private final boolean exForwarding;
+	private final boolean memForwarding;
+	private final boolean branchInterlock;
+	
+	// event counts, read now and then for the simulator's metrics
+	private long loadUseStalls = 0;
+	private long hazardStalls = 0;
+	private long branchesTaken = 0;
+	private long jumpsTaken = 0;
+	private long mispredictions = 0;
 	
 	public Decode(
 		PipelineRegister if_id, 
 		PipelineRegister id_ex, 
+		PipelineRegister ex_mem,
 		RegisterFile registerFile,
-		ProgramCounter pc
+		ProgramCounter pc,
+		MemoryStore memory,
+		PipelineConfig config,
+		BranchPredictor predictor
 	) {
 		this.if_id = if_id;
 		this.id_ex = id_ex;
+		this.ex_mem = ex_mem;
 		this.registerFile = registerFile;
 		this.pc = pc;
+		this.predecodeCache = new PredecodeCache(memory);
+		this.predictor = predictor;
+		this.exForwarding = config.isExForwarding();
+		this.memForwarding = config.isMemForwarding();
+		this.branchInterlock = config.isBranchInterlock();
 	}
 	
 	@Override
 	public void run() {
 		long instruction = if_id.getValue(RegisterName.INSTRUCTION);
-		long opCode = (instruction & OPCODE_MASK) >> OPCODE_SHIFT;
-		long rs = (instruction & RS_MASK) >> RS_SHIFT;
-		long rt = (instruction & RT_MASK) >> RT_SHIFT;
-		long rd = (instruction & RD_MASK) >> RD_SHIFT;
-		long shamt = (instruction & SHAMT_MASK) >> SHAMT_SHIFT;
-		long funct = (instruction & FUNCT_MASK) >> FUNCT_SHIFT;
-		long immediate = (instruction & IMMEDIATE_MASK) >> IMMEDIATE_SHIFT;
-		long address = (instruction & ADDRESS_MASK) >> ADDRESS_SHIFT;
+		int slot = predecodeCache.lookup(
+			if_id.getValue(RegisterName.PC), instruction
+		);
+		
+		long[] entries = predecodeCache.entries;
+		int entry = slot * PredecodeCache.ENTRY_SIZE;
+		long opCode = entries[entry + PredecodeCache.OP_CODE];
+		long rs = entries[entry + PredecodeCache.RS];
+		long rt = entries[entry + PredecodeCache.RT];
+		long rd = entries[entry + PredecodeCache.RD];
+		long shamt = entries[entry + PredecodeCache.SHAMT];
+		long immediate = entries[entry + PredecodeCache.IMMEDIATE];
+		long address = entries[entry + PredecodeCache.ADDRESS];
 				
 		id_ex.setValue(RegisterName.R_S, rs);
 		id_ex.setValue(RegisterName.R_T, rt);
@@ -86,8 +149,16 @@ public class Decode extends PipelineStage {
 		id_ex.setValue(RegisterName.ADDRESS, address);
 		id_ex.setValue(RegisterName.OP_CODE, opCode);
 		
-		HashMap<RegisterName, Long> controlLines = 
-			setControlLines(opCode, funct);
+		// carried down the pipeline so traces can tell what's in each stage
+		id_ex.setValue(RegisterName.PC, if_id.getValue(RegisterName.PC));
+		id_ex.setValue(RegisterName.INSTRUCTION, instruction);
+		
+		// no-ops don't set any control lines
+		int control = 0;
+		if (if_id.getValue(RegisterName.OP_CODE) != NOP) {
+			control = predecodeCache.controls[slot];
+		}
+		id_ex.setControlLines(control);
 		
 		long readData1 = registerFile.getValue(RegisterName.valueOf(rs));
 		long readData2 = registerFile.getValue(RegisterName.valueOf(rt));
@@ -99,18 +170,47 @@ public class Decode extends PipelineStage {
 			((id_ex.getValue(RegisterName.R_T) == rs) ||
 			 (id_ex.getValue(RegisterName.R_T) == rt)))
 		{
+			loadUseStalls++;
+			stallPipeline();
+		} else if (operandsUnavailable(control, rs, rt)) {
+			hazardStalls++;
 			stallPipeline();
-		} else if (controlLines.get(RegisterName.BRANCH) == 1 &&
-				   ((controlLines.get(RegisterName.BRANCH_NE) == 1 &&
-				     readData1 != readData2) ||
-				    (controlLines.get(RegisterName.BRANCH_NE) == 0 &&
-				     readData1 == readData2)))
+		} else if (if_id.getValue(RegisterName.OP_CODE) != NOP &&
+				   (control & ControlWord.HALT) == 0)
 		{
-			takeBranch(immediate);
-		} else if (controlLines.get(RegisterName.JUMP) == 1) {
+			resolve(control, immediate, address, readData1, readData2);
+		}
+	}
+	
+	/**
+	 * Work out where the instruction being decoded really goes next, and
+	 * if fetch predicted somewhere else, throw away what it fetched and
+	 * send it to the right place.
+	 */
+	private void resolve(
+		int control, 
+		long immediate, 
+		long address, 
+		long readData1, 
+		long readData2
+	) {
+		long pc = if_id.getValue(RegisterName.PC);
+		long next = pc + 4;
+		boolean taken = false;
+		
+		if ((control & ControlWord.BRANCH) != 0 &&
+			(((control & ControlWord.BRANCH_NE) != 0 &&
+			  readData1 != readData2) ||
+			 ((control & ControlWord.BRANCH_NE) == 0 &&
+			  readData1 == readData2)))
+		{
+			branchesTaken++;
+			taken = true;
+			next = pc + 4 + 4 * immediate;
+		} else if ((control & ControlWord.JUMP) != 0) {
 			long jumpAddress = address;
 			
-			if (controlLines.get(RegisterName.JUMP_SRC) == 1) {
+			if ((control & ControlWord.JUMP_SRC) != 0) {
 				jumpAddress = readData1;
 				
 				if (jumpAddress % 4 != 0) {
@@ -120,188 +220,129 @@ public class Decode extends PipelineStage {
 				jumpAddress /= 4;
 			}
 			
-			takeJump(jumpAddress);
+			jumpsTaken++;
+			taken = true;
+			next = jumpAddress * 4;
+		}
+		
+		// the prediction has to get the direction right as well as the
+		// address, so a branch or jump taken to the very next instruction
+		// still flushes unless fetch predicted it taken
+		long predicted = if_id.getValue(RegisterName.PREDICTED_PC);
+		boolean correct = next == predicted && taken == (predicted != pc + 4);
+		predictor.update(pc, control, taken, next, correct);
+		
+		if (!correct) {
+			mispredictions++;
+			redirect(next);
 		}
 	}
 	
-	private HashMap<RegisterName, Long> setControlLines(
-		long opCode, long funct
-	) {
-		HashMap<RegisterName, Long> values = 
-			new HashMap<RegisterName, Long>();
+	/**
+	 * @return The number of times decode has stalled for a register being
+	 * loaded by the instruction just ahead of it.
+	 */
+	public long getLoadUseStalls() {
+		return loadUseStalls;
+	}
+	
+	/**
+	 * @return The number of times decode has stalled for a register that 
+	 * couldn't be forwarded in this configuration.
+	 */
+	public long getHazardStalls() {
+		return hazardStalls;
+	}
+	
+	public long getBranchesTaken() {
+		return branchesTaken;
+	}
+	
+	public long getJumpsTaken() {
+		return jumpsTaken;
+	}
+	
+	/**
+	 * @return The number of times fetch went the wrong way and had to be
+	 * flushed.
+	 */
+	public long getMispredictions() {
+		return mispredictions;
+	}
+	
+	/**
+	 * Zero the counts.  The decoded instructions are kept, since resetting
+	 * memory drops any whose words change.
+	 */
+	@Override
+	public void reset() {
+		loadUseStalls = 0;
+		hazardStalls = 0;
+		branchesTaken = 0;
+		jumpsTaken = 0;
+		mispredictions = 0;
+	}
+	
+	/**
+	 * Check whether the instruction being decoded needs a register that's
+	 * still being computed further down the pipeline and can't be forwarded
+	 * to it in this configuration.  The default configuration never needs
+	 * to wait here.
+	 */
+	private boolean operandsUnavailable(int control, long rs, long rt) {
+		// branches and jump registers use their operands in this stage
+		if (branchInterlock &&
+			(control & (ControlWord.BRANCH | ControlWord.JUMP_SRC)) != 0)
+		{
+			long branchRt = (control & ControlWord.BRANCH) != 0 ? rt : 0;
+			
+			if (isWriting(id_ex, rs, branchRt) || 
+				isWriting(ex_mem, rs, branchRt)) 
+			{
+				return true;
+			}
+		}
 		
-		values.put(RegisterName.REG_DST, 0l);
-		id_ex.setValue(RegisterName.REG_DST, 0l);
-		values.put(RegisterName.ALU_SRC, 0l);
-		id_ex.setValue(RegisterName.ALU_SRC, 0l);
-		values.put(RegisterName.MEM_TO_REG, 0l);
-		id_ex.setValue(RegisterName.MEM_TO_REG, 0l);
-		values.put(RegisterName.REG_WRITE, 0l);
-		id_ex.setValue(RegisterName.REG_WRITE, 0l);
-		values.put(RegisterName.MEM_READ, 0l);
-		id_ex.setValue(RegisterName.MEM_READ, 0l);
-		values.put(RegisterName.MEM_WRITE, 0l);
-		id_ex.setValue(RegisterName.MEM_WRITE, 0l);
-		values.put(RegisterName.BRANCH, 0l);
-		id_ex.setValue(RegisterName.BRANCH, 0l);
-		values.put(RegisterName.BRANCH_NE, 0l);
-		id_ex.setValue(RegisterName.BRANCH_NE, 0l);
-		values.put(RegisterName.JUMP, 0l);
-		id_ex.setValue(RegisterName.JUMP, 0l);	
-		values.put(RegisterName.JUMP_SRC, 0l);
-		id_ex.setValue(RegisterName.JUMP_SRC, 0l);
-		values.put(RegisterName.ALU_OP, 0l);
-		id_ex.setValue(RegisterName.ALU_OP, 0l);		
-		values.put(RegisterName.HALT, 0l);
-		id_ex.setValue(RegisterName.HALT, 0l);
+		// only instructions that write a register or memory use their
+		// operands in the execute stage
+		long readRs = 
+			(control & (ControlWord.REG_WRITE | ControlWord.MEM_WRITE)) != 0 ? 
+			rs : 0;
+		long readRt = 
+			(control & (ControlWord.REG_DST | ControlWord.MEM_WRITE)) != 0 ? 
+			rt : 0;
 		
-		if (if_id.getValue(RegisterName.OP_CODE) == NOP) {
-			return values;
+		return (!exForwarding && isWriting(id_ex, readRs, readRt)) ||
+			(!memForwarding && isWriting(ex_mem, readRs, readRt));
+	}
+	
+	/**
+	 * Check whether the instruction in the given pipeline register writes
+	 * either of the given registers.  Register zero is never written.
+	 */
+	private boolean isWriting(PipelineRegister rp, long reg1, long reg2) {
+		if (rp.getValue(RegisterName.REG_WRITE) != 1) {
+			return false;
 		}
 		
-		switch ((int)opCode) {
-			case ARITH_OP_CODE:
-				values.put(RegisterName.REG_DST, 1l);
-				id_ex.setValue(RegisterName.REG_DST, 1l);
-
-				values.put(RegisterName.REG_WRITE, 1l);
-				id_ex.setValue(RegisterName.REG_WRITE, 1l);
-
-				switch ((int)funct) {
-					case SUB_FUNCT:
-						values.put(RegisterName.ALU_OP, 1l);
-						id_ex.setValue(RegisterName.ALU_OP, 1l);
-						break;
-					case AND_FUNCT:
-						values.put(RegisterName.ALU_OP, 2l);
-						id_ex.setValue(RegisterName.ALU_OP, 2l);
-						break;
-					case OR_FUNCT:
-						values.put(RegisterName.ALU_OP, 3l);
-						id_ex.setValue(RegisterName.ALU_OP, 3l);
-						break;
-					case NOR_FUNCT:
-						values.put(RegisterName.ALU_OP, 4l);
-						id_ex.setValue(RegisterName.ALU_OP, 4l);
-						break;
-					case SLT_FUNCT:
-						values.put(RegisterName.ALU_OP, 5l);
-						id_ex.setValue(RegisterName.ALU_OP, 5l);
-						break;		
-					case JR_FUNCT:
-						values.put(RegisterName.JUMP, 1l);
-						id_ex.setValue(RegisterName.JUMP, 1l);
-						
-						values.put(RegisterName.JUMP_SRC, 1l);
-						id_ex.setValue(RegisterName.JUMP_SRC, 1l);
-						break;
-				}
-				break;
-				
-			case ADDI:
-				values.put(RegisterName.ALU_SRC, 1l);
-				id_ex.setValue(RegisterName.ALU_SRC, 1l);
-	
-				values.put(RegisterName.REG_WRITE, 1l);
-				id_ex.setValue(RegisterName.REG_WRITE, 1l);
+		long dest = rp.getValue(RegisterName.REG_DST) == 1 ?
+			rp.getValue(RegisterName.R_D) :
+			rp.getValue(RegisterName.R_T);
+		
+		return dest != 0 && (dest == reg1 || dest == reg2);
+	}
 	
-				break;
-				
-			case ANDI:
-				values.put(RegisterName.ALU_SRC, 1l);
-				id_ex.setValue(RegisterName.ALU_SRC, 1l);
-				
-				values.put(RegisterName.REG_WRITE, 1l);
-				id_ex.setValue(RegisterName.REG_WRITE, 1l);
-			
-				values.put(RegisterName.ALU_OP, 2l);
-				id_ex.setValue(RegisterName.ALU_OP, 2l);
-				
-				break;
-			
-			case ORI:
-				values.put(RegisterName.ALU_SRC, 1l);
-				id_ex.setValue(RegisterName.ALU_SRC, 1l);
-			
-				values.put(RegisterName.REG_WRITE, 1l);
-				id_ex.setValue(RegisterName.REG_WRITE, 1l);
-				
-				values.put(RegisterName.ALU_OP, 3l);
-				id_ex.setValue(RegisterName.ALU_OP, 3l);
-				
-				break;
-				
-			case SLTI:
-				values.put(RegisterName.ALU_SRC, 1l);
-				id_ex.setValue(RegisterName.ALU_SRC, 1l);
-				
-				values.put(RegisterName.REG_WRITE, 1l);
-				id_ex.setValue(RegisterName.REG_WRITE, 1l);
-				
-				values.put(RegisterName.ALU_OP, 5l);
-				id_ex.setValue(RegisterName.ALU_OP, 5l);
-				
-				break;
-				
-			case BEQ:
-				values.put(RegisterName.BRANCH, 1l);
-				id_ex.setValue(RegisterName.BRANCH, 1l);
-				
-				values.put(RegisterName.ALU_OP, 1l);
-				id_ex.setValue(RegisterName.ALU_OP, 1l);
-				
-				break;
-				
-			case BNE:
-				values.put(RegisterName.BRANCH, 1l);
-				id_ex.setValue(RegisterName.BRANCH, 1l);
-				
-				values.put(RegisterName.BRANCH_NE, 1l);
-				id_ex.setValue(RegisterName.BRANCH_NE, 1l);
-				
-				values.put(RegisterName.ALU_OP, 1l);
-				id_ex.setValue(RegisterName.ALU_OP, 1l);
-				
-				break;
-				
-			case J:
-				values.put(RegisterName.JUMP, 1l);
-				id_ex.setValue(RegisterName.JUMP, 1l);
-				
-				break;
-				
-			case LW:
-				values.put(RegisterName.ALU_SRC, 1l);
-				id_ex.setValue(RegisterName.ALU_SRC, 1l);
-				
-				values.put(RegisterName.MEM_TO_REG, 1l);
-				id_ex.setValue(RegisterName.MEM_TO_REG, 1l);
-				
-				values.put(RegisterName.REG_WRITE, 1l);
-				id_ex.setValue(RegisterName.REG_WRITE, 1l);
-				
-				values.put(RegisterName.MEM_READ, 1l);
-				id_ex.setValue(RegisterName.MEM_READ, 1l);
-				
-				break;
-				
-			case SW:
-				values.put(RegisterName.ALU_SRC, 1l);
-				id_ex.setValue(RegisterName.ALU_SRC, 1l);
-				
-				values.put(RegisterName.MEM_WRITE, 1l);
-				id_ex.setValue(RegisterName.MEM_WRITE, 1l);
-				
-				break;
-				
-			case HLT:
-				values.put(RegisterName.HALT, 1l);
-				id_ex.setValue(RegisterName.HALT, 1l);
-				
-				break;
+	static int getControlWord(long opCode, long funct) {
+		// unknown opcodes don't set any control lines
+		if (opCode < 0 || opCode >= OP_CODE_CONTROL.length) {
+			return 0;
+		}
+		
+		if (opCode == ARITH_OP_CODE) {
+			return FUNCT_CONTROL[(int)funct];
 		}
 		
-		return values;
+		return OP_CODE_CONTROL[(int)opCode];
 	}
 	
 	private void stallPipeline() {
@@ -311,17 +352,10 @@ public class Decode extends PipelineStage {
 		pc.disableWrite();
 	}
 	
-	private void takeBranch(long addressOffset) {
-		zeroOutRegister(if_id);
-		
-		pc.setValue(if_id.getValue(RegisterName.PC) + 4 + 4 * addressOffset);
-		pc.enableWrite();
-	}
-	
-	private void takeJump(long address) {
+	private void redirect(long address) {
 		zeroOutRegister(if_id);
 		
-		pc.setValue(address * 4);
+		pc.setValue(address);
 		pc.enableWrite();
 	}
 	
@@ -1,5 +1,6 @@
 package mips.pipeline.stages;
 
+import mips.PipelineConfig;
 import mips.RegisterName;
 import mips.pipeline.PipelineRegister;
 import mips.pipeline.PipelineStage;
@@ -8,17 +9,46 @@ public class Execute extends PipelineStage {
 	private final PipelineRegister ex_mem;
 	private final PipelineRegister id_ex;
 	private final PipelineRegister mem_wb;
+	private final boolean exForwarding;
+	private final boolean memForwarding;
+	
+	// the number of operands forwarded from each stage
+	private long exForwards = 0;
+	private long memForwards = 0;
 	
 	public Execute(
 		PipelineRegister id_ex,
 		PipelineRegister ex_mem, 
-		PipelineRegister mem_wb
+		PipelineRegister mem_wb,
+		PipelineConfig config
 	) {
 		this.ex_mem = ex_mem;
 		this.id_ex = id_ex;
 		this.mem_wb = mem_wb;
+		this.exForwarding = config.isExForwarding();
+		this.memForwarding = config.isMemForwarding();
 	}
 
+	/**
+	 * @return The number of operands forwarded from the execute stage.
+	 */
+	public long getExForwards() {
+		return exForwards;
+	}
+	
+	/**
+	 * @return The number of operands forwarded from the memory stage.
+	 */
+	public long getMemForwards() {
+		return memForwards;
+	}
+	
+	@Override
+	public void reset() {
+		exForwards = 0;
+		memForwards = 0;
+	}
+	
 	@Override
 	public void run() {
 		long aluArg1, aluArg2, writeData;
@@ -30,14 +60,18 @@ public class Execute extends PipelineStage {
 						mem_wb.getValue(RegisterName.R_D) :
 						mem_wb.getValue(RegisterName.R_T);			
 		
-		if (ex_mem.getValue(RegisterName.REG_WRITE) == 1 &&
+		if (exForwarding &&
+			ex_mem.getValue(RegisterName.REG_WRITE) == 1 &&
 			dest != 0 && 
 			dest == id_ex.getValue(RegisterName.R_S))
 		{
+			exForwards++;
 			aluArg1 = ex_mem.getValue(RegisterName.ALU_RESULT);
-		} else if (mem_wb.getValue(RegisterName.REG_WRITE) == 1 &&
+		} else if (memForwarding &&
+			mem_wb.getValue(RegisterName.REG_WRITE) == 1 &&
 			dest2 != 0 &&
 			dest2 == id_ex.getValue(RegisterName.R_S)) {
+			memForwards++;
 			if (mem_wb.getValue(RegisterName.MEM_TO_REG) == 1) {
 				aluArg1 = mem_wb.getValue(RegisterName.MEM_RESULT);
 			} else {
@@ -48,14 +82,18 @@ public class Execute extends PipelineStage {
 		}
 		
 	
-		if (ex_mem.getValue(RegisterName.REG_WRITE) == 1 &&
+		if (exForwarding &&
+			ex_mem.getValue(RegisterName.REG_WRITE) == 1 &&
 			dest != 0 && 
 			dest == id_ex.getValue(RegisterName.R_T))
 		{
+			exForwards++;
 			writeData = ex_mem.getValue(RegisterName.ALU_RESULT);
-		} else if (mem_wb.getValue(RegisterName.REG_WRITE) == 1 &&
+		} else if (memForwarding &&
+			mem_wb.getValue(RegisterName.REG_WRITE) == 1 &&
 			dest2 != 0 &&
 			dest2 == id_ex.getValue(RegisterName.R_T)) {
+			memForwards++;
 			if (mem_wb.getValue(RegisterName.MEM_TO_REG) == 1) {
 				writeData = mem_wb.getValue(RegisterName.MEM_RESULT);
 			} else {
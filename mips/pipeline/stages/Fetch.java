@@ -3,8 +3,10 @@ package mips.pipeline.stages;
 import mips.MemoryStore;
 import mips.ProgramCounter;
 import mips.RegisterName;
+import mips.cache.CacheHierarchy;
 import mips.pipeline.PipelineRegister;
 import mips.pipeline.PipelineStage;
+import mips.pipeline.prediction.BranchPredictor;
 
 public class Fetch extends PipelineStage {
 	private static final int HALT_INSTRUCTION = 0xFC000000; 
@@ -12,28 +14,123 @@ public class Fetch extends PipelineStage {
 	private final PipelineRegister if_id;
 	private final MemoryStore memory;
 	private final ProgramCounter pc;
+	private final BranchPredictor predictor;
+	private final CacheHierarchy caches;
+	
+	/**
+	 * Whether new instructions are being fetched.  While disabled, fetch
+	 * only feeds no-ops into the pipeline so it drains.
+	 */
+	private boolean enabled = true;
+	
+	/**
+	 * The number of cycles left until an instruction cache miss is filled.
+	 */
+	private int missCycles = 0;
+	
+	/**
+	 * Whether the instruction at <code>missAddress</code> has missed in the
+	 * instruction cache, so it shouldn't be looked up again once the miss
+	 * has been filled.
+	 */
+	private boolean missed = false;
+	private long missAddress = 0;
 	
 	public Fetch(
 		PipelineRegister if_id, 
 		MemoryStore memory, 
-		ProgramCounter pc
+		ProgramCounter pc,
+		BranchPredictor predictor,
+		CacheHierarchy caches
 	) {
 		this.if_id = if_id;
 		this.memory = memory;
 		this.pc = pc;
+		this.predictor = predictor;
+		this.caches = caches;
+	}
+	
+	/**
+	 * Start or stop fetching new instructions.  While stopped the program
+	 * counter holds the address of the next instruction, unless a branch or
+	 * jump in decode changes it.
+	 * 
+	 * @param enabled Whether to fetch instructions.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * Forget any instruction cache miss being waited for, such as when the
+	 * pipeline is started over.
+	 */
+	public void cancelMiss() {
+		missCycles = 0;
+		missed = false;
+	}
+	
+	@Override
+	public void reset() {
+		enabled = true;
+		cancelMiss();
 	}
 	
 	@Override
 	public void run() {
-		long instruction = memory.getValue(pc.getValue());
-		//System.out.println(Integer.toHexString(instruction));
+		if (!enabled) {
+			bubble();
+			return;
+		}
+		
+		// feed no-ops into the pipeline until the missing line arrives
+		if (missCycles > 0) {
+			missCycles--;
+			bubble();
+			return;
+		}
+		
+		long address = pc.getValue();
+		if (missed && address == missAddress) {
+			missed = false;
+		} else {
+			missed = false;
+			
+			int cycles = caches.fetch(address);
+			if (cycles > 0) {
+				missed = true;
+				missAddress = address;
+				missCycles = cycles - 1;
+				bubble();
+				return;
+			}
+		}
+		
+		long instruction = memory.getValue(address);
 		if_id.setValue(RegisterName.INSTRUCTION, instruction);
 		if_id.setValue(RegisterName.OP_CODE, 0);
-		if_id.setValue(RegisterName.PC, pc.getValue());
+		if_id.setValue(RegisterName.PC, address);
 		
+		// keep fetching the halt until it reaches the end of the pipeline
+		long next = address;
 		if (instruction != HALT_INSTRUCTION) {
-			pc.increment();
+			next = predictor.predict(address, instruction);
+			pc.setValue(next);
 		}
+		
+		// decode checks the prediction once it knows where to go next
+		if_id.setValue(RegisterName.PREDICTED_PC, next);
+	}
+	
+	/**
+	 * Send a no-op down the pipeline instead of an instruction, and stay
+	 * at the same address unless decode changes it.
+	 */
+	private void bubble() {
+		if_id.setValue(RegisterName.INSTRUCTION, 0);
+		if_id.setValue(RegisterName.OP_CODE, Decode.NOP);
+		if_id.setValue(RegisterName.PC, pc.getValue());
+		pc.setValue(pc.getValue());
 	}
 
 }
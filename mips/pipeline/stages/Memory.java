@@ -2,6 +2,7 @@ package mips.pipeline.stages;
 
 import mips.MemoryStore;
 import mips.RegisterName;
+import mips.cache.CacheHierarchy;
 import mips.pipeline.PipelineRegister;
 import mips.pipeline.PipelineStage;
 
@@ -10,20 +11,79 @@ public class Memory extends PipelineStage {
 	private final PipelineRegister ex_mem;
 	private final PipelineRegister mem_wb;
 	private final MemoryStore memory;
+	private final CacheHierarchy caches;
+	private long reads = 0;
+	private long writes = 0;
+	
+	/**
+	 * Whether the access waiting in EX/MEM has already been looked up in the
+	 * data cache.
+	 */
+	private boolean accessed = false;
 	
 	public Memory(
 		PipelineRegister ex_mem,
 		PipelineRegister mem_wb,
-		MemoryStore memory
+		MemoryStore memory,
+		CacheHierarchy caches
 	) {
 		this.ex_mem = ex_mem;
 		this.mem_wb = mem_wb;
 		this.memory = memory;
+		this.caches = caches;
+	}
+	
+	public long getReads() {
+		return reads;
+	}
+	
+	public long getWrites() {
+		return writes;
+	}
+	
+	/**
+	 * Look up the load or store waiting in EX/MEM in the data cache, before
+	 * the stages run, to find out how long the pipeline has to freeze for
+	 * it.  Each access is only looked up once, however many times this is 
+	 * called before the stage runs.
+	 * 
+	 * @return The number of cycles to freeze the pipeline for.
+	 */
+	public int access() {
+		if (accessed) {
+			return 0;
+		}
+		accessed = true;
+		
+		if (ex_mem.getValue(RegisterName.MEM_READ) == 1) {
+			return caches.read(ex_mem.getValue(RegisterName.ALU_RESULT));
+		}
+		if (ex_mem.getValue(RegisterName.MEM_WRITE) == 1) {
+			return caches.write(ex_mem.getValue(RegisterName.ALU_RESULT));
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * Forget that the access in EX/MEM has been looked up, such as when the
+	 * pipeline is started over.
+	 */
+	public void cancelMiss() {
+		accessed = false;
+	}
+	
+	@Override
+	public void reset() {
+		reads = 0;
+		writes = 0;
+		cancelMiss();
 	}
 	
 	@Override
 	public void run() {
 		if (ex_mem.getValue(RegisterName.MEM_READ) == 1) {
+			reads++;
 			mem_wb.setValue(
 				RegisterName.MEM_RESULT, 
 				memory.getValue(ex_mem.getValue(RegisterName.ALU_RESULT))
@@ -31,6 +91,7 @@ public class Memory extends PipelineStage {
 		}
 		
 		if (ex_mem.getValue(RegisterName.MEM_WRITE) == 1) {
+			writes++;
 			memory.storeValue(
 				ex_mem.getValue(RegisterName.ALU_RESULT), 
 				ex_mem.getValue(RegisterName.WRITE_DATA)
@@ -38,6 +99,7 @@ public class Memory extends PipelineStage {
 		}
 		
 		ex_mem.forwardValues(mem_wb);
+		accessed = false;
 	}
 
 }
@@ -0,0 +1,117 @@
+package mips.pipeline.stages;
+
+import mips.CodeListener;
+import mips.MemoryStore;
+
+/**
+ * A direct mapped cache of decoded instructions, keyed by the address of
+ * the instruction.  Each entry holds the fields extracted from the
+ * instruction along with its control word, so that instructions executed
+ * over and over don't need to be decoded again each time.
+ * 
+ * The cache marks the memory pages of the instructions it holds as code,
+ * and drops an entry whenever its instruction is overwritten.
+ */
+class PredecodeCache implements CodeListener {
+	// the offsets of the values within an entry
+	static final int TAG = 0;
+	static final int RS = 1;
+	static final int RT = 2;
+	static final int RD = 3;
+	static final int SHAMT = 4;
+	static final int IMMEDIATE = 5;
+	static final int ADDRESS = 6;
+	static final int OP_CODE = 7;
+	static final int ENTRY_SIZE = 8;
+	
+	/**
+	 * The number of bits of the word address used to pick a slot.
+	 */
+	private static final int SLOT_BITS = 12;
+	
+	/**
+	 * Mask used to get the slot of a word address.
+	 */
+	private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+	
+	/**
+	 * The tag of an empty slot.  Real tags are always word aligned.
+	 */
+	private static final long EMPTY = -1;
+	
+	/**
+	 * The entries of the cache, <code>ENTRY_SIZE</code> values per slot.
+	 */
+	final long[] entries = new long[ENTRY_SIZE << SLOT_BITS];
+	
+	/**
+	 * The control word of each slot.
+	 */
+	final int[] controls = new int[1 << SLOT_BITS];
+	
+	private final MemoryStore memory;
+	
+	public PredecodeCache(MemoryStore memory) {
+		this.memory = memory;
+		
+		for (int slot = 0; slot <= SLOT_MASK; slot++) {
+			entries[slot * ENTRY_SIZE + TAG] = EMPTY;
+		}
+		
+		memory.addCodeListener(this);
+	}
+	
+	/**
+	 * Find the decoded form of the given instruction, decoding it if it
+	 * isn't in the cache.
+	 * 
+	 * @param pc The address the instruction was fetched from.
+	 * @param instruction The instruction that was fetched.
+	 * @return The slot holding the decoded instruction.
+	 */
+	public int lookup(long pc, long instruction) {
+		long address = pc & 0xFFFFFFFCL;
+		int slot = (int)(address >>> 2) & SLOT_MASK;
+		int entry = slot * ENTRY_SIZE;
+		
+		if (entries[entry + TAG] == address) {
+			return slot;
+		}
+		
+		entries[entry + RS] = (instruction & Decode.RS_MASK) >> Decode.RS_SHIFT;
+		entries[entry + RT] = (instruction & Decode.RT_MASK) >> Decode.RT_SHIFT;
+		entries[entry + RD] = (instruction & Decode.RD_MASK) >> Decode.RD_SHIFT;
+		entries[entry + SHAMT] = 
+			(instruction & Decode.SHAMT_MASK) >> Decode.SHAMT_SHIFT;
+		entries[entry + IMMEDIATE] = 
+			(instruction & Decode.IMMEDIATE_MASK) >> Decode.IMMEDIATE_SHIFT;
+		entries[entry + ADDRESS] = 
+			(instruction & Decode.ADDRESS_MASK) >> Decode.ADDRESS_SHIFT;
+		
+		long opCode = (instruction & Decode.OPCODE_MASK) >> Decode.OPCODE_SHIFT;
+		long funct = (instruction & Decode.FUNCT_MASK) >> Decode.FUNCT_SHIFT;
+		entries[entry + OP_CODE] = opCode;
+		controls[slot] = Decode.getControlWord(opCode, funct);
+		
+		// The instruction may have been overwritten since it was fetched,
+		// in which case it's decoded this once but not kept.
+		if (memory.getValue(address) == instruction) {
+			entries[entry + TAG] = address;
+			memory.markCode(address);
+		} else {
+			entries[entry + TAG] = EMPTY;
+		}
+		
+		return slot;
+	}
+	
+	@Override
+	public void codeModified(long location) {
+		long address = location & 0xFFFFFFFCL;
+		int entry = ((int)(address >>> 2) & SLOT_MASK) * ENTRY_SIZE;
+		
+		if (entries[entry + TAG] == address) {
+			entries[entry + TAG] = EMPTY;
+		}
+	}
+}
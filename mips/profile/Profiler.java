@@ -0,0 +1,377 @@
+package mips.profile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import mips.ProgramCounter;
+
+/**
+ * Counts where the cycles of a run go.  Every instruction is charged, as it
+ * retires, with the cycles since the instruction before it retired, so the
+ * cycles it spent stalled or waiting behind a flush are charged to it as
+ * well.  The counts are kept per word address in pages of primitive arrays
+ * that are only allocated once an instruction in them retires.
+ * 
+ * The instruction set has no calls or returns, so they're guessed at from
+ * jumps: a jump register goes back to the instruction after a call, so its
+ * target is remembered as a return site, and a jump from just before a
+ * return site is taken to be a call.  A call is only recognised once it's
+ * returned once, and until then its callee is counted as part of the
+ * caller.  The cycles of each chain of calls are kept in a calling context
+ * tree, which can be written out as collapsed stacks for flame graph tools.
+ */
+public class Profiler {
+	// the pages the counts are kept in
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final int PAGE_COUNT = 1 << (30 - PAGE_BITS);
+	
+	// the counts kept for each instruction, next to each other in a page
+	private static final int INSTRUCTIONS = 0;
+	private static final int CYCLES = 1;
+	private static final int STALLS = 2;
+	private static final int FIELDS = 3;
+	
+	/**
+	 * The deepest chain of calls that's tracked.  Calls any deeper are
+	 * counted as part of the deepest caller.
+	 */
+	private static final int MAX_DEPTH = 256;
+	
+	/**
+	 * The node at the root of the calling context tree.
+	 */
+	private static final int ROOT = 0;
+	
+	// how the last instruction to retire changed the flow of control
+	private static final int NONE = 0;
+	private static final int JUMP = 1;
+	private static final int JUMP_REGISTER = 2;
+	
+	/**
+	 * The counts of each word address, or null for pages where nothing has
+	 * retired.
+	 */
+	private final long[][] counts = new long[PAGE_COUNT][];
+	
+	/**
+	 * A bit for each word address that a jump register has gone to.
+	 */
+	private final long[][] returnSites = new long[PAGE_COUNT][];
+	
+	// the nodes of the calling context tree: the node they were called
+	// from, the address they were called at, and the cycles spent in them
+	// rather than anything they called
+	private int[] parents = new int[1024];
+	private long[] entries = new long[1024];
+	private long[] nodeCycles = new long[1024];
+	private int nodeCount = 1;
+	
+	/**
+	 * The children of every node, as an open addressing hash table from
+	 * the parent and address of the child to the child.  Empty slots hold
+	 * node 0, which is the root and so never anyone's child.
+	 */
+	private long[] childKeys = new long[2048];
+	private int[] children = new int[2048];
+	
+	// the calls being made: the node of each and where it returns to
+	private final int[] stack = new int[MAX_DEPTH];
+	private final long[] returns = new long[MAX_DEPTH];
+	private int depth = 0;
+	
+	/**
+	 * The number of calls made past the deepest tracked.
+	 */
+	private int overflow = 0;
+	
+	// the last instruction to retire
+	private long lastCycle = -1;
+	private long lastPc = 0;
+	private int lastKind = NONE;
+	
+	// the totals over every instruction
+	private long totalInstructions = 0;
+	private long totalCycles = 0;
+	
+	public Profiler() {
+		entries[ROOT] = ProgramCounter.FIRST_INSTRUCTION;
+	}
+	
+	/**
+	 * Charge an instruction that has just retired with the cycles since the
+	 * one before it.
+	 * 
+	 * @param pc The address of the instruction.
+	 * @param jump Whether the instruction is a jump or jump register.
+	 * @param jumpRegister Whether the instruction is a jump register.
+	 * @param cycle The cycle it retired in.
+	 */
+	public void retire(long pc, boolean jump, boolean jumpRegister, long cycle) {
+		long cycles = cycle - lastCycle;
+		lastCycle = cycle;
+		
+		// where a jump went shows whether it was a call or return
+		if (lastKind == JUMP) {
+			if (isReturnSite(lastPc + 4)) {
+				call(pc, lastPc + 4);
+			}
+		} else if (lastKind == JUMP_REGISTER) {
+			addReturnSite(pc);
+			returnTo(pc);
+		}
+		
+		lastPc = pc;
+		lastKind = !jump ? NONE : jumpRegister ? JUMP_REGISTER : JUMP;
+		
+		int word = wordAddress(pc);
+		long[] page = counts[word >>> PAGE_BITS];
+		if (page == null) {
+			page = new long[PAGE_SIZE * FIELDS];
+			counts[word >>> PAGE_BITS] = page;
+		}
+		
+		int index = (word & PAGE_MASK) * FIELDS;
+		page[index + INSTRUCTIONS]++;
+		page[index + CYCLES] += cycles;
+		page[index + STALLS] += cycles - 1;
+		
+		nodeCycles[depth == 0 ? ROOT : stack[depth - 1]] += cycles;
+		
+		totalInstructions++;
+		totalCycles += cycles;
+	}
+	
+	/**
+	 * Carry on from a different cycle count, without charging the cycles
+	 * in between to anything, such as after the simulator has been reset
+	 * or restored from a checkpoint.
+	 * 
+	 * @param cycle The cycle before the next one to run.
+	 */
+	public void skipTo(long cycle) {
+		lastCycle = cycle;
+		lastKind = NONE;
+	}
+	
+	public long getInstructions() {
+		return totalInstructions;
+	}
+	
+	public long getCycles() {
+		return totalCycles;
+	}
+	
+	/**
+	 * Print the instructions that took the most cycles, most first.
+	 * 
+	 * @param out Where to print the profile.
+	 * @param limit The most instructions to print.
+	 */
+	public void writeFlat(PrintStream out, int limit) {
+		// gather the word addresses of everything that retired
+		int count = 0;
+		int[] words = new int[1024];
+		for (int pageIndex = 0; pageIndex < PAGE_COUNT; pageIndex++) {
+			long[] page = counts[pageIndex];
+			if (page == null) {
+				continue;
+			}
+			
+			for (int i = 0; i < PAGE_SIZE; i++) {
+				if (page[i * FIELDS + INSTRUCTIONS] != 0) {
+					if (count == words.length) {
+						words = Arrays.copyOf(words, count * 2);
+					}
+					words[count++] = (pageIndex << PAGE_BITS) | i;
+				}
+			}
+		}
+		
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = words[i];
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				long difference = get(b, CYCLES) - get(a, CYCLES);
+				return difference < 0 ? -1 : difference > 0 ? 1 : a.compareTo(b);
+			}
+		});
+		
+		out.println("Address\t\tInstructions\tCycles\t\tStalls\t\tCycles %\tCPI");
+		for (int i = 0; i < Math.min(limit, count); i++) {
+			int word = order[i];
+			long instructions = get(word, INSTRUCTIONS);
+			long cycles = get(word, CYCLES);
+			
+			out.println(String.format(
+				"0x%08x\t%-12d\t%-12d\t%-12d\t%6.2f%%\t\t%.3f",
+				(long)word << 2, instructions, cycles, get(word, STALLS),
+				100.0 * cycles / Math.max(totalCycles, 1),
+				(double)cycles / instructions
+			));
+		}
+	}
+	
+	/**
+	 * Write the cycles spent in each chain of calls as collapsed stacks:
+	 * one line per chain, naming the address each call went to from the
+	 * outermost in, separated by semicolons, followed by the cycles.
+	 * 
+	 * @param out Where to write the stacks.
+	 * @throws IOException Thrown if there's a problem writing.
+	 */
+	public void writeCollapsed(Writer out) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int[] chain = new int[MAX_DEPTH + 1];
+		
+		for (int node = 0; node < nodeCount; node++) {
+			if (nodeCycles[node] == 0) {
+				continue;
+			}
+			
+			int length = 0;
+			for (int ancestor = node; ; ancestor = parents[ancestor]) {
+				chain[length++] = ancestor;
+				if (ancestor == ROOT) {
+					break;
+				}
+			}
+			
+			line.setLength(0);
+			for (int i = length - 1; i >= 0; i--) {
+				line.append(String.format("0x%08x", entries[chain[i]]));
+				line.append(i > 0 ? ';' : ' ');
+			}
+			line.append(nodeCycles[node]).append('\n');
+			out.write(line.toString());
+		}
+	}
+	
+	/**
+	 * Enter the function at the given address.
+	 */
+	private void call(long entry, long returnAddress) {
+		if (depth == MAX_DEPTH) {
+			overflow++;
+			return;
+		}
+		
+		int parent = depth == 0 ? ROOT : stack[depth - 1];
+		stack[depth] = child(parent, entry);
+		returns[depth] = returnAddress;
+		depth++;
+	}
+	
+	/**
+	 * Return from the innermost call that returns to the given address,
+	 * and from every call made after it.  If no call returns there the
+	 * jump isn't a return after all.
+	 */
+	private void returnTo(long address) {
+		for (int i = depth - 1; i >= 0; i--) {
+			if (returns[i] == address) {
+				depth = i;
+				overflow = 0;
+				return;
+			}
+		}
+		
+		// returns from calls too deep to track
+		if (overflow > 0) {
+			overflow--;
+		}
+	}
+	
+	/**
+	 * @return The node for a call to the given address from the given
+	 * node, added if there isn't one already.
+	 */
+	private int child(int parent, long entry) {
+		long key = ((long)parent << 32) | (entry >>> 2);
+		int mask = children.length - 1;
+		
+		int slot = hash(key) & mask;
+		while (children[slot] != ROOT) {
+			if (childKeys[slot] == key) {
+				return children[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		
+		if (nodeCount == parents.length) {
+			parents = Arrays.copyOf(parents, nodeCount * 2);
+			entries = Arrays.copyOf(entries, nodeCount * 2);
+			nodeCycles = Arrays.copyOf(nodeCycles, nodeCount * 2);
+		}
+		
+		int node = nodeCount++;
+		parents[node] = parent;
+		entries[node] = entry;
+		childKeys[slot] = key;
+		children[slot] = node;
+		
+		// keep the table at most half full
+		if (nodeCount * 2 > children.length) {
+			rehash();
+		}
+		
+		return node;
+	}
+	
+	private void rehash() {
+		long[] oldKeys = childKeys;
+		int[] oldChildren = children;
+		childKeys = new long[oldKeys.length * 2];
+		children = new int[oldChildren.length * 2];
+		int mask = children.length - 1;
+		
+		for (int i = 0; i < oldChildren.length; i++) {
+			if (oldChildren[i] != ROOT) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (children[slot] != ROOT) {
+					slot = (slot + 1) & mask;
+				}
+				childKeys[slot] = oldKeys[i];
+				children[slot] = oldChildren[i];
+			}
+		}
+	}
+	
+	private static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key >>> 32);
+	}
+	
+	private boolean isReturnSite(long address) {
+		int word = wordAddress(address);
+		long[] page = returnSites[word >>> PAGE_BITS];
+		
+		return page != null &&
+			(page[(word & PAGE_MASK) >>> 6] & (1L << word)) != 0;
+	}
+	
+	private void addReturnSite(long address) {
+		int word = wordAddress(address);
+		long[] page = returnSites[word >>> PAGE_BITS];
+		if (page == null) {
+			page = new long[PAGE_SIZE / 64];
+			returnSites[word >>> PAGE_BITS] = page;
+		}
+		
+		page[(word & PAGE_MASK) >>> 6] |= 1L << word;
+	}
+	
+	private static int wordAddress(long address) {
+		return (int)(address >>> 2) & ((1 << 30) - 1);
+	}
+	
+	private long get(int word, int field) {
+		return counts[word >>> PAGE_BITS][(word & PAGE_MASK) * FIELDS + field];
+	}
+}
@@ -0,0 +1,353 @@
+package mips.sampling;
+
+import java.io.IOException;
+
+import mips.MemoryStore;
+import mips.Mips;
+import mips.PipelineConfig;
+import mips.SimulationResult;
+import mips.functional.FunctionalEngine;
+import mips.functional.TieredEngine;
+
+/**
+ * Estimates the cycle count of programs too long to run through the 
+ * pipeline, by systematic sampling.  Most of the program is fast-forwarded
+ * by a functional engine.  Once every sampling period, the architectural
+ * state is handed to the pipeline, which is warmed up for a few instructions
+ * and then measured in detail for a few more, before being drained and its
+ * state handed back.  The CPI of the whole program is estimated from the
+ * mean CPI of the measured intervals, with a Student-t confidence
+ * interval from their variance.
+ * 
+ * The functional engine sees the results of instructions that the pipeline
+ * doesn't forward to branches in the decode stage, so programs that depend
+ * on those hazards can take different paths than under full simulation.
+ */
+public class Sampler {
+	/**
+	 * The default number of instructions in each sampling period.
+	 */
+	public static final long DEFAULT_PERIOD = 1000000;
+	
+	/**
+	 * The default number of instructions to warm the pipeline up with.
+	 */
+	public static final long DEFAULT_WARMUP = 2000;
+	
+	/**
+	 * The default number of instructions measured in each sample.
+	 */
+	public static final long DEFAULT_DETAIL = 1000;
+	
+	/**
+	 * The standard normal quantile for a 95% confidence interval.
+	 */
+	private static final double Z = 1.959964;
+	
+	/**
+	 * The Student-t quantiles for a 95% confidence interval, indexed by
+	 * degrees of freedom up to 30.
+	 */
+	private static final double[] T = {
+		Double.NaN, 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 
+		2.228, 2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 
+		2.086, 2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 
+		2.042
+	};
+	
+	private final FunctionalEngine engine;
+	private final Mips mips;
+	
+	/**
+	 * The number of instructions in each sampling period, of which 
+	 * <code>warmup + detail</code> run through the pipeline.
+	 */
+	private final long period;
+	private final long warmup;
+	private final long detail;
+	
+	/**
+	 * The number of instructions completed by the pipeline over all of the
+	 * samples, including warming up and draining.
+	 */
+	private long pipelineInstructions = 0;
+	
+	/**
+	 * The number of measured intervals and the sum of their CPIs and of 
+	 * the squares of their CPIs.
+	 */
+	private long samples = 0;
+	private double cpiSum = 0;
+	private double cpiSquares = 0;
+	
+	/**
+	 * The launching point for sampled simulation.  This takes the path to
+	 * the input binary file, optionally preceded by any of these options:
+	 * <ul>
+	 * <li><code>-mmap</code> to memory map the file</li>
+	 * <li><code>-period N</code> to take a sample every N instructions</li>
+	 * <li><code>-warmup N</code> to warm the pipeline up for N instructions
+	 * before each sample</li>
+	 * <li><code>-detail N</code> to measure N instructions in each 
+	 * sample</li>
+	 * <li><code>-config C</code> to use the pipeline configuration C, in the
+	 * form read by <code>PipelineConfig.parse</code></li>
+	 * </ul>
+	 * 
+	 * @param args The options and the path to the input file.
+	 */
+	public static void main(String[] args) {
+		boolean mapped = false;
+		long period = DEFAULT_PERIOD;
+		long warmup = DEFAULT_WARMUP;
+		long detail = DEFAULT_DETAIL;
+		PipelineConfig config = new PipelineConfig();
+		int i = 0;
+		
+		// read any options before the filename
+		try {
+			for (; i < args.length && args[i].startsWith("-"); i++) {
+				if (args[i].equals("-mmap")) {
+					mapped = true;
+				} else if (args[i].equals("-period") && i + 1 < args.length) {
+					period = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-warmup") && i + 1 < args.length) {
+					warmup = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-detail") && i + 1 < args.length) {
+					detail = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-config") && i + 1 < args.length) {
+					config = PipelineConfig.parse(args[++i]);
+				} else {
+					System.out.println("Unknown option \"" + args[i] + "\"");
+					return;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+		
+		if (i >= args.length) {
+			System.out.println("You must supply an input filename");
+			return;
+		}
+		
+		try {
+			MemoryStore memory = new MemoryStore(args[i], mapped);
+			Sampler sampler = new Sampler(memory, config, period, warmup, detail);
+			sampler.run();
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		} catch (IOException e) {
+			System.out.println("Error opening file named \"" + args[i] + "\"");
+		}
+	}
+	
+	/**
+	 * Create a sampler for the program in the given memory.
+	 * 
+	 * @param memory The memory holding the program, shared by the functional
+	 * engine and the pipeline.
+	 * @param config The configuration of the pipeline.
+	 * @param period The number of instructions in each sampling period.
+	 * @param warmup The number of instructions to warm up the pipeline with.
+	 * @param detail The number of instructions to measure in each sample.
+	 */
+	public Sampler(
+		MemoryStore memory, 
+		PipelineConfig config, 
+		long period, 
+		long warmup, 
+		long detail
+	) {
+		if (warmup < 0 || detail <= 0 || period <= warmup + detail) {
+			throw new IllegalArgumentException(
+				"The sampling period must be longer than the warm up and detail intervals"
+			);
+		}
+		
+		this.engine = new TieredEngine(memory);
+		this.mips = new Mips(memory, config);
+		this.period = period;
+		this.warmup = warmup;
+		this.detail = detail;
+	}
+	
+	/**
+	 * Runs the program to completion and prints the estimates out.
+	 */
+	public void run() {
+		simulate();
+		
+		// output the results
+		System.out.println(this);
+	}
+	
+	/**
+	 * Runs the program to completion, sampling it once every period.
+	 */
+	public void simulate() {
+		long[] registers = engine.getRegisters();
+		
+		while (!engine.isHalted()) {
+			// fast-forward to the next sample
+			engine.execute(period - warmup - detail);
+			if (engine.isHalted()) {
+				break;
+			}
+			
+			mips.reset(engine.getPc(), registers);
+			
+			boolean done = runInstructions(warmup);
+			if (!done) {
+				long instructions = mips.getInstructionCount();
+				long cycles = mips.getCycleCount();
+				
+				done = runInstructions(detail);
+				if (!done) {
+					addSample(
+						mips.getCycleCount() - cycles, 
+						mips.getInstructionCount() - instructions
+					);
+				}
+			}
+			
+			// hand the state of the pipeline back to the engine
+			done = mips.drain() || done;
+			SimulationResult result = mips.getResult();
+			pipelineInstructions += result.getInstructionCount();
+			System.arraycopy(result.getRegisters(), 0, registers, 0, registers.length);
+			engine.setPc(mips.getPc());
+			
+			if (done) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Run the pipeline until it has completed the given number of 
+	 * instructions.
+	 * 
+	 * @param instructions The number of instructions to complete.
+	 * @return Whether the program halted first.
+	 */
+	private boolean runInstructions(long instructions) {
+		long target = mips.getInstructionCount() + instructions;
+		
+		while (mips.getInstructionCount() < target) {
+			if (mips.simulate(1)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private void addSample(long cycles, long instructions) {
+		double cpi = (double)cycles / instructions;
+		
+		samples++;
+		cpiSum += cpi;
+		cpiSquares += cpi * cpi;
+	}
+	
+	/**
+	 * @return The number of instructions in the whole program.
+	 */
+	public long getInstructionCount() {
+		return engine.getInstructionCount() + pipelineInstructions;
+	}
+	
+	/**
+	 * @return The number of instructions completed by the pipeline.
+	 */
+	public long getPipelineInstructionCount() {
+		return pipelineInstructions;
+	}
+	
+	public long getSampleCount() {
+		return samples;
+	}
+	
+	/**
+	 * @return The estimated CPI of the whole program.
+	 */
+	public double getCpi() {
+		return cpiSum / samples;
+	}
+	
+	/**
+	 * @return The half width of the 95% confidence interval of the CPI,
+	 * which is only known once there are at least two samples.
+	 */
+	public double getCpiError() {
+		if (samples < 2) {
+			return Double.NaN;
+		}
+		
+		double mean = getCpi();
+		double variance = (cpiSquares - samples * mean * mean) / (samples - 1);
+		return quantile(samples - 1) * Math.sqrt(Math.max(variance, 0) / samples);
+	}
+	
+	/**
+	 * @param degrees The degrees of freedom, at least one.
+	 * @return The Student-t quantile for a 95% confidence interval.
+	 */
+	private static double quantile(long degrees) {
+		if (degrees < T.length) {
+			return T[(int)degrees];
+		}
+		
+		// past the table, the Cornish-Fisher expansion about the normal
+		// quantile is good to the third decimal place
+		double z3 = Z * Z * Z;
+		double z5 = z3 * Z * Z;
+		return Z + (z3 + Z) / (4 * degrees) + 
+			(5 * z5 + 16 * z3 + 3 * Z) / (96.0 * degrees * degrees);
+	}
+	
+	/**
+	 * @return The estimated cycle count of the whole program.
+	 */
+	public double getCycleCount() {
+		return getCpi() * getInstructionCount();
+	}
+	
+	/**
+	 * @return The half width of the 95% confidence interval of the cycle
+	 * count.
+	 */
+	public double getCycleError() {
+		return getCpiError() * getInstructionCount();
+	}
+	
+	/**
+	 * @return The estimates and final register file, in the format printed
+	 * by the sampler.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("Instruction count: \t" + getInstructionCount() + '\n');
+		builder.append("Samples: \t\t" + samples + '\n');
+		builder.append("Detailed instructions: \t" + pipelineInstructions + '\n');
+		
+		if (samples == 0) {
+			builder.append("The program is too short to sample, run it in full instead\n");
+		} else if (samples == 1) {
+			builder.append("Estimated CPI: \t\t" + (float)getCpi() + '\n');
+			builder.append("Estimated cycle count: \t" + Math.round(getCycleCount()) + '\n');
+			builder.append("More samples are needed for error bounds\n");
+		} else {
+			builder.append("Estimated CPI: \t\t" + (float)getCpi() + 
+				" +/- " + (float)getCpiError() + " (95% confidence)\n");
+			builder.append("Estimated cycle count: \t" + Math.round(getCycleCount()) + 
+				" +/- " + Math.round(getCycleError()) + " (95% confidence)\n");
+		}
+		
+		builder.append(engine.getRegisterFile());
+		return builder.toString();
+	}
+}
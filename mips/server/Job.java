@@ -0,0 +1,241 @@
+package mips.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import mips.MemoryStore;
+import mips.Mips;
+import mips.PipelineConfig;
+import mips.functional.FunctionalEngine;
+import mips.functional.Interpreter;
+import mips.functional.ThreadedEngine;
+import mips.functional.TieredEngine;
+import mips.outoforder.OutOfOrderConfig;
+import mips.outoforder.OutOfOrderCore;
+
+/**
+ * One program sent to a simulation server, along with the options it is to
+ * be run with.  The options are the ones <code>Mips</code> takes that make
+ * sense without files: <code>-config C</code>, <code>-functional</code>,
+ * <code>-threaded</code>, <code>-jit</code> and <code>-ooo C</code>, plus
+ * <code>-timeout MS</code> to give the job a timeout of its own, which
+ * the server caps.  The output is exactly what <code>Mips</code> prints for
+ * the same options.  The program itself is only read in once the job has
+ * room to run, so it's given to the job when it's run.
+ */
+class Job {
+	/**
+	 * The number of cycles or instructions run between checks of the
+	 * deadline.
+	 */
+	private static final long SLICE = 10000;
+	
+	// what to run the program on
+	private static final int PIPELINE = 0;
+	private static final int FUNCTIONAL = 1;
+	private static final int THREADED = 2;
+	private static final int JIT = 3;
+	private static final int OUT_OF_ORDER = 4;
+	
+	private int engine = PIPELINE;
+	
+	/**
+	 * The configuration of the pipeline, or null if none was given.
+	 */
+	private PipelineConfig config = null;
+	
+	private OutOfOrderConfig outOfOrder = null;
+	
+	/**
+	 * When the job has to be finished by, in the terms of
+	 * <code>System.nanoTime</code>.
+	 */
+	private final long deadline;
+	
+	private final long timeoutMillis;
+	
+	/**
+	 * Create a job from its options.  Its deadline starts now.
+	 * 
+	 * @param options The options, in the form given to <code>Mips</code>.
+	 * @param defaultTimeoutMillis The timeout if the options don't give
+	 * one.
+	 * @param maxTimeoutMillis The longest timeout the options can give,
+	 * which longer ones are cut down to.
+	 * @throws IllegalArgumentException Thrown if any of the options are
+	 * unknown or malformed.
+	 */
+	public Job(String[] options, long defaultTimeoutMillis, long maxTimeoutMillis) {
+		long timeoutMillis = defaultTimeoutMillis;
+		
+		for (int i = 0; i < options.length; i++) {
+			String option = options[i];
+			boolean hasValue = i + 1 < options.length;
+			
+			if (option.equals("-functional")) {
+				engine = FUNCTIONAL;
+			} else if (option.equals("-threaded")) {
+				engine = THREADED;
+			} else if (option.equals("-jit")) {
+				engine = JIT;
+			} else if (option.equals("-ooo") && hasValue) {
+				engine = OUT_OF_ORDER;
+				outOfOrder = OutOfOrderConfig.parse(options[++i]);
+			} else if (option.equals("-config") && hasValue) {
+				config = PipelineConfig.parse(options[++i]);
+			} else if (option.equals("-timeout") && hasValue) {
+				try {
+					timeoutMillis = Long.parseLong(options[++i]);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Unknown timeout \"" + options[i] + "\"");
+				}
+				
+				// a program that never halts would otherwise keep a worker
+				// for as long as the client liked
+				if (timeoutMillis < 1) {
+					throw new IllegalArgumentException("The timeout must be at least a millisecond");
+				}
+				timeoutMillis = Math.min(timeoutMillis, maxTimeoutMillis);
+			} else {
+				throw new IllegalArgumentException("Unknown option \"" + option + "\"");
+			}
+		}
+		
+		this.timeoutMillis = timeoutMillis;
+		this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+	
+	/**
+	 * Run the program, giving up once the deadline has passed.
+	 * 
+	 * @param image The bytes of the program.
+	 * @param simulators Where to get a warm pipeline from.
+	 * @return The output, or why there isn't any.
+	 */
+	public Response run(byte[] image, SimulatorPool simulators) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes);
+		
+		try {
+			boolean finished;
+			if (expired()) {
+				// the job spent its whole timeout waiting to start
+				finished = false;
+			} else if (engine == PIPELINE) {
+				finished = runPipeline(image, simulators, out);
+			} else if (engine == OUT_OF_ORDER) {
+				finished = runOutOfOrder(image, out);
+			} else {
+				finished = runFunctional(image, out);
+			}
+			
+			if (!finished) {
+				return timedOut();
+			}
+		} catch (RuntimeException e) {
+			return new Response(Response.ERROR, "Simulation failed: " + e);
+		}
+		
+		out.flush();
+		return new Response(Response.OK, bytes.toByteArray());
+	}
+	
+	/**
+	 * @return Whether the program halted before the deadline.
+	 */
+	private boolean runPipeline(byte[] image, SimulatorPool simulators, PrintStream out) {
+		PipelineConfig pipeline = config != null ? config : new PipelineConfig();
+		// a simulator is only given back if it doesn't fail part way
+		// through, but one that timed out is as good as any once it's reset
+		Mips mips = simulators.take(pipeline, image);
+		while (!mips.simulate(SLICE)) {
+			if (expired()) {
+				simulators.give(pipeline, mips);
+				return false;
+			}
+		}
+		
+		out.println(mips.getResult());
+		if (config != null) {
+			out.println(mips.getPredictor());
+			if (config.hasCaches()) {
+				out.println(mips.getCaches());
+			}
+		}
+		
+		simulators.give(pipeline, mips);
+		return true;
+	}
+	
+	/**
+	 * @return Whether the program halted before the deadline.
+	 */
+	private boolean runOutOfOrder(byte[] image, PrintStream out) {
+		OutOfOrderCore core = new OutOfOrderCore(new MemoryStore(image), outOfOrder);
+		
+		while (!core.simulate(SLICE)) {
+			if (expired()) {
+				return false;
+			}
+		}
+		
+		out.println(core.getResult());
+		out.println(core);
+		out.println(core.getPredictor());
+		if (outOfOrder.getPipeline().hasCaches()) {
+			out.println(core.getCaches());
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @return Whether the program halted before the deadline.
+	 */
+	private boolean runFunctional(byte[] image, PrintStream out) {
+		MemoryStore memory = new MemoryStore(image);
+		FunctionalEngine functional;
+		if (engine == JIT) {
+			functional = new TieredEngine(memory);
+		} else if (engine == THREADED) {
+			functional = new ThreadedEngine(memory);
+		} else {
+			functional = new Interpreter(memory);
+		}
+		
+		while (!functional.isHalted()) {
+			if (expired()) {
+				return false;
+			}
+			functional.execute(SLICE);
+		}
+		
+		out.println("Instruction count: \t" + functional.getInstructionCount());
+		out.println(functional.getRegisterFile());
+		return true;
+	}
+	
+	/**
+	 * @return The response to send if the job doesn't finish in time.
+	 */
+	public Response timedOut() {
+		return new Response(Response.TIMEOUT, "Timed out after " + timeoutMillis + " ms");
+	}
+	
+	/**
+	 * @return The number of nanoseconds left until the deadline, which is
+	 * negative once it has passed.
+	 */
+	public long remaining() {
+		return deadline - System.nanoTime();
+	}
+	
+	/**
+	 * @return Whether the deadline has passed, which it may have done
+	 * while the job was waiting to start.
+	 */
+	private boolean expired() {
+		return remaining() < 0;
+	}
+}
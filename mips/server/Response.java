@@ -0,0 +1,169 @@
+package mips.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The answer to one job sent to a simulation server: a status, and the
+ * output of the simulation or a message saying what went wrong.  On the
+ * wire it is a line holding the status and the length of the body in
+ * bytes, followed by the body itself.
+ */
+public class Response {
+	// the statuses
+	public static final String OK = "OK";
+	public static final String TIMEOUT = "TIMEOUT";
+	public static final String ERROR = "ERROR";
+	
+	/**
+	 * The longest line read from a connection, so a client can't make the
+	 * server buffer a line without end.
+	 */
+	static final int MAX_LINE = 4096;
+	
+	private final String status;
+	private final byte[] body;
+	
+	/**
+	 * @param status The status, such as <code>OK</code>.
+	 * @param body The output of the simulation or a message.
+	 */
+	public Response(String status, byte[] body) {
+		this.status = status;
+		this.body = body;
+	}
+	
+	/**
+	 * @param status The status, such as <code>ERROR</code>.
+	 * @param message The message to send as the body.
+	 */
+	public Response(String status, String message) {
+		this(status, (message + '\n').getBytes(StandardCharsets.UTF_8));
+	}
+	
+	public String getStatus() {
+		return status;
+	}
+	
+	public byte[] getBody() {
+		return body;
+	}
+	
+	/**
+	 * @return The body as text.
+	 */
+	public String getText() {
+		return new String(body, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Write the response.  The stream isn't flushed.
+	 * 
+	 * @param out Where to write it.
+	 * @throws IOException Thrown if there's a problem writing.
+	 */
+	public void write(OutputStream out) throws IOException {
+		out.write((status + ' ' + body.length + '\n').getBytes(StandardCharsets.UTF_8));
+		out.write(body);
+	}
+	
+	/**
+	 * Read a response written by <code>write</code>.
+	 * 
+	 * @param in Where to read it from.
+	 * @return The response.
+	 * @throws IOException Thrown if there's a problem reading, or the
+	 * stream ends or holds something other than a response.
+	 */
+	public static Response read(InputStream in) throws IOException {
+		String line = readLine(in);
+		if (line == null) {
+			throw new EOFException("The server closed the connection");
+		}
+		
+		String[] fields = line.split(" ");
+		if (fields.length != 2) {
+			throw new IOException("Not a response: " + line);
+		}
+		
+		byte[] body;
+		try {
+			body = new byte[Integer.parseInt(fields[1])];
+		} catch (NumberFormatException e) {
+			throw new IOException("Not a response: " + line);
+		}
+		readFully(in, body);
+		
+		return new Response(fields[0], body);
+	}
+	
+	/**
+	 * Read a line ending in a newline.
+	 * 
+	 * @param in Where to read it from.
+	 * @return The line without its newline, or null if the stream ended
+	 * before the line started.
+	 * @throws IOException Thrown if there's a problem reading, or the line
+	 * is cut short or too long.
+	 */
+	static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		
+		while (true) {
+			int b = in.read();
+			if (b == '\n') {
+				return line.toString("UTF-8");
+			}
+			if (b < 0) {
+				if (line.size() == 0) {
+					return null;
+				}
+				throw new EOFException("The connection closed part way through a line");
+			}
+			if (line.size() == MAX_LINE) {
+				throw new IOException("Line longer than " + MAX_LINE + " bytes");
+			}
+			
+			line.write(b);
+		}
+	}
+	
+	/**
+	 * Fill the given array from the stream.
+	 * 
+	 * @throws IOException Thrown if there's a problem reading, or the
+	 * stream ends first.
+	 */
+	static void readFully(InputStream in, byte[] bytes) throws IOException {
+		for (int read = 0; read < bytes.length; ) {
+			int count = in.read(bytes, read, bytes.length - read);
+			if (count < 0) {
+				throw new EOFException("The connection closed part way through a body");
+			}
+			read += count;
+		}
+	}
+	
+	/**
+	 * Read past the given number of bytes of the stream without keeping
+	 * them.
+	 * 
+	 * @throws IOException Thrown if there's a problem reading, or the
+	 * stream ends first.
+	 */
+	static void skipFully(InputStream in, long length) throws IOException {
+		byte[] buffer = new byte[8192];
+		
+		while (length > 0) {
+			int count = in.read(buffer, 0, (int)Math.min(buffer.length, length));
+			if (count < 0) {
+				throw new EOFException("The connection closed part way through a body");
+			}
+			length -= count;
+		}
+	}
+}
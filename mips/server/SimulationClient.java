@@ -0,0 +1,150 @@
+package mips.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connection to a simulation server, over which any number of programs
+ * can be simulated one after another.
+ */
+public class SimulationClient implements Closeable {
+	private final SocketChannel channel;
+	private final InputStream in;
+	private final OutputStream out;
+	
+	/**
+	 * The launching point for the client.  This takes the paths to any
+	 * number of programs, preceded by any of these options:
+	 * <ul>
+	 * <li><code>-port N</code> to connect to port N of the loopback
+	 * interface rather than port 7474</li>
+	 * <li><code>-unix PATH</code> to connect to the Unix domain socket at
+	 * the given path instead</li>
+	 * </ul>
+	 * along with any of the options the server runs jobs with, such as
+	 * <code>-config C</code>, <code>-jit</code> or <code>-timeout MS</code>.
+	 * The result of each program is printed as <code>Mips</code> would print
+	 * it.
+	 * 
+	 * @param args The options and the paths to the programs.
+	 */
+	public static void main(String[] args) {
+		SocketAddress address = new InetSocketAddress(
+			InetAddress.getLoopbackAddress(), SimulationServer.DEFAULT_PORT
+		);
+		StringBuilder options = new StringBuilder();
+		int i = 0;
+		
+		// read any options before the paths, passing on the ones for jobs
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			boolean hasValue = i + 1 < args.length;
+			
+			if (args[i].equals("-port") && hasValue) {
+				address = new InetSocketAddress(
+					InetAddress.getLoopbackAddress(), Integer.parseInt(args[++i])
+				);
+			} else if (args[i].equals("-unix") && hasValue) {
+				address = UnixDomainSocketAddress.of(args[++i]);
+			} else if ((args[i].equals("-config") || args[i].equals("-ooo") ||
+				args[i].equals("-timeout")) && hasValue)
+			{
+				options.append(' ').append(args[i]).append(' ').append(args[++i]);
+			} else {
+				options.append(' ').append(args[i]);
+			}
+		}
+		
+		if (i >= args.length) {
+			System.out.println("You must supply an input filename");
+			return;
+		}
+		
+		List<String> paths = new ArrayList<String>();
+		for (; i < args.length; i++) {
+			paths.add(args[i]);
+		}
+		
+		try {
+			SimulationClient client = new SimulationClient(address);
+			
+			try {
+				for (String path : paths) {
+					byte[] image;
+					try {
+						image = Files.readAllBytes(Paths.get(path));
+					} catch (IOException e) {
+						System.out.println("Error opening file named \"" + path + "\"");
+						continue;
+					}
+					
+					Response response = client.run(image, options.toString().trim());
+					if (!response.getStatus().equals(Response.OK)) {
+						System.out.print(response.getStatus() + ": ");
+					}
+					System.out.write(response.getBody());
+					System.out.flush();
+				}
+			} finally {
+				client.close();
+			}
+		} catch (IOException e) {
+			System.out.println("Error talking to the server: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Connect to a simulation server.
+	 * 
+	 * @param address The address of the server, either on the loopback
+	 * interface or a Unix domain socket.
+	 * @throws IOException Thrown if there's a problem connecting.
+	 */
+	public SimulationClient(SocketAddress address) throws IOException {
+		channel = SocketChannel.open(address);
+		if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		}
+		
+		in = new BufferedInputStream(Channels.newInputStream(channel));
+		out = new BufferedOutputStream(Channels.newOutputStream(channel));
+	}
+	
+	/**
+	 * Simulate a program and wait for the result.
+	 * 
+	 * @param image The bytes of the program.
+	 * @param options The options to run it with, separated by spaces, such
+	 * as <code>-config gshare,btb</code>.
+	 * @return The result.
+	 * @throws IOException Thrown if there's a problem talking to the server.
+	 */
+	public Response run(byte[] image, String options) throws IOException {
+		String header = "RUN " + image.length + (options.length() > 0 ? " " + options : "");
+		out.write((header + '\n').getBytes(StandardCharsets.UTF_8));
+		out.write(image);
+		out.flush();
+		
+		return Response.read(in);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
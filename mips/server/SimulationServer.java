@@ -0,0 +1,512 @@
+package mips.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long lived process that simulates programs sent to it over a local
+ * socket, so that a stream of short simulations doesn't pay for starting a
+ * JVM and warming up its compiler every time.  It listens either on a TCP
+ * port of the loopback interface or on a Unix domain socket.
+ * 
+ * A client sends any number of jobs over a connection, one at a time, each
+ * as a line followed by the bytes of the program:
+ * <pre>
+ * RUN &lt;length&gt; [options...]
+ * &lt;length bytes of program&gt;
+ * </pre>
+ * The options are those taken by <code>Mips</code> that don't involve
+ * files, such as <code>-config gshare,btb</code> or <code>-jit</code>,
+ * along with <code>-timeout MS</code>.  The server answers each job with a
+ * line holding <code>OK</code>, <code>TIMEOUT</code> or <code>ERROR</code>
+ * and the length of the body that follows, which for <code>OK</code> is
+ * exactly what <code>Mips</code> would have printed.
+ * 
+ * Each connection is served by a thread of its own, up to a limit, and
+ * further connections wait to be accepted.  The simulations themselves run
+ * on a fixed pool of threads, and only so many jobs can be waiting for
+ * them; a connection whose job can't be queued stops reading until there's
+ * room, which holds up the client through the socket.  The program of a job
+ * isn't read in until it has been queued, so only the programs of running
+ * and queued jobs are held in memory.  A job that doesn't finish within its
+ * timeout, counting the time it spent waiting, is abandoned, and no job can
+ * ask for a timeout longer than the server allows.  Pipeline simulators are
+ * kept once they're finished with and reset for the next program of the
+ * same configuration.
+ */
+public class SimulationServer {
+	/**
+	 * The TCP port listened on by default.
+	 */
+	public static final int DEFAULT_PORT = 7474;
+	
+	/**
+	 * The default timeout of a job, in milliseconds.
+	 */
+	public static final long DEFAULT_TIMEOUT = 10000;
+	
+	/**
+	 * The longest timeout a job can ask for by default, in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_TIMEOUT = 60000;
+	
+	/**
+	 * The largest program accepted, in bytes.
+	 */
+	public static final int MAX_IMAGE = 64 << 20;
+	
+	private final long timeoutMillis;
+	private final long maxTimeoutMillis;
+	
+	/**
+	 * The threads running simulations.
+	 */
+	private final ExecutorService simulations;
+	
+	/**
+	 * The threads reading jobs from connections and writing back results.
+	 */
+	private final ExecutorService connections;
+	
+	/**
+	 * A permit for every job that can be running or waiting to run.
+	 */
+	private final Semaphore jobSlots;
+	
+	/**
+	 * A permit for every connection that can be served at once.
+	 */
+	private final Semaphore connectionSlots;
+	
+	private final SimulatorPool simulators;
+	
+	/**
+	 * The channel being listened on, once serving has started.
+	 */
+	private volatile ServerSocketChannel server;
+	private volatile boolean closed = false;
+	
+	// what happened to the jobs
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	
+	/**
+	 * The launching point for the server.  It takes any of these options:
+	 * <ul>
+	 * <li><code>-port N</code> to listen on port N of the loopback
+	 * interface rather than port 7474</li>
+	 * <li><code>-unix PATH</code> to listen on a Unix domain socket at the
+	 * given path instead, replacing anything already there</li>
+	 * <li><code>-workers N</code> to run N simulations at once instead of
+	 * one per available processor</li>
+	 * <li><code>-queue N</code> to let N jobs wait for a worker instead of
+	 * four per worker</li>
+	 * <li><code>-connections N</code> to serve N connections at once
+	 * instead of 256</li>
+	 * <li><code>-timeout MS</code> to give up on jobs after MS
+	 * milliseconds rather than ten seconds, unless they say otherwise</li>
+	 * <li><code>-maxtimeout MS</code> to let jobs ask for timeouts of up
+	 * to MS milliseconds rather than a minute</li>
+	 * </ul>
+	 * 
+	 * @param args The options.
+	 */
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT;
+		String unix = null;
+		int workers = Runtime.getRuntime().availableProcessors();
+		int queue = -1;
+		int connectionCount = 256;
+		long timeout = DEFAULT_TIMEOUT;
+		long maxTimeout = -1;
+		
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-port") && i + 1 < args.length) {
+					port = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-unix") && i + 1 < args.length) {
+					unix = args[++i];
+				} else if (args[i].equals("-workers") && i + 1 < args.length) {
+					workers = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-queue") && i + 1 < args.length) {
+					queue = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-connections") && i + 1 < args.length) {
+					connectionCount = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-timeout") && i + 1 < args.length) {
+					timeout = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-maxtimeout") && i + 1 < args.length) {
+					maxTimeout = Long.parseLong(args[++i]);
+				} else {
+					System.out.println("Unknown option \"" + args[i] + "\"");
+					return;
+				}
+			}
+			
+			final SimulationServer simulationServer = new SimulationServer(
+				workers, queue < 0 ? 4 * workers : queue, connectionCount, timeout,
+				maxTimeout < 0 ? Math.max(DEFAULT_MAX_TIMEOUT, timeout) : maxTimeout
+			);
+			
+			final ServerSocketChannel channel;
+			final Path socketPath;
+			if (unix != null) {
+				socketPath = Paths.get(unix);
+				Files.deleteIfExists(socketPath);
+				channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+				channel.bind(UnixDomainSocketAddress.of(socketPath));
+			} else {
+				socketPath = null;
+				channel = ServerSocketChannel.open();
+				channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			}
+			
+			// stop cleanly when the process is told to
+			Runtime.getRuntime().addShutdownHook(new Thread("shutdown") {
+				@Override
+				public void run() {
+					simulationServer.close();
+					if (socketPath != null) {
+						try {
+							Files.deleteIfExists(socketPath);
+						} catch (IOException e) {
+							// nothing more can be done on the way out
+						}
+					}
+				}
+			});
+			
+			System.out.println("Listening on " + channel.getLocalAddress());
+			simulationServer.serve(channel);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		} catch (IOException e) {
+			System.out.println("Error listening: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Create a server.  It doesn't listen for anything until it's given a
+	 * channel to serve.
+	 * 
+	 * @param workers The number of simulations to run at once.
+	 * @param queue The number of jobs that can wait for a worker.
+	 * @param connectionCount The number of connections to serve at once.
+	 * @param timeoutMillis The timeout of jobs that don't give their own.
+	 * @param maxTimeoutMillis The longest timeout a job can give.
+	 */
+	public SimulationServer(
+		int workers, int queue, int connectionCount, long timeoutMillis, long maxTimeoutMillis
+	) {
+		if (workers < 1 || queue < 0 || connectionCount < 1) {
+			throw new IllegalArgumentException(
+				"There must be at least one worker and connection, and the queue can't be negative"
+			);
+		}
+		if (timeoutMillis < 1) {
+			throw new IllegalArgumentException("The timeout must be at least a millisecond");
+		}
+		if (maxTimeoutMillis < timeoutMillis) {
+			throw new IllegalArgumentException("The longest timeout can't be shorter than the default");
+		}
+		
+		this.timeoutMillis = timeoutMillis;
+		this.maxTimeoutMillis = maxTimeoutMillis;
+		this.simulations = Executors.newFixedThreadPool(workers, threads("simulation"));
+		this.connections = Executors.newCachedThreadPool(threads("connection"));
+		this.jobSlots = new Semaphore(workers + queue);
+		this.connectionSlots = new Semaphore(connectionCount);
+		this.simulators = new SimulatorPool(workers);
+	}
+	
+	/**
+	 * Accept connections on the given channel and serve them until the
+	 * server is closed.
+	 * 
+	 * @param channel The bound channel to listen on.  It's closed along
+	 * with the server.
+	 * @throws IOException Thrown if there's a problem accepting a
+	 * connection, other than the server being closed.
+	 */
+	public void serve(ServerSocketChannel channel) throws IOException {
+		server = channel;
+		if (closed) {
+			channel.close();
+			return;
+		}
+		
+		while (true) {
+			// wait for a free connection thread before accepting, so any
+			// more connections wait in the backlog of the socket
+			connectionSlots.acquireUninterruptibly();
+			
+			final SocketChannel client;
+			try {
+				client = channel.accept();
+			} catch (IOException e) {
+				connectionSlots.release();
+				if (closed) {
+					return;
+				}
+				throw e;
+			}
+			
+			try {
+				connections.execute(new Runnable() {
+					@Override
+					public void run() {
+						serveConnection(client);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				connectionSlots.release();
+				client.close();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Stop accepting connections, and stop the threads once the jobs
+	 * already running have finished.
+	 */
+	public void close() {
+		closed = true;
+		
+		ServerSocketChannel channel = server;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// it's closed as far as anyone here is concerned
+			}
+		}
+		
+		connections.shutdownNow();
+		simulations.shutdown();
+	}
+	
+	/**
+	 * Read in the program of a job and run it once there's room for it,
+	 * waiting no longer than its timeout.  The program is skipped over if
+	 * there's no room in time.
+	 * 
+	 * @param job The job.
+	 * @param in Where to read the program from.
+	 * @param length The length of the program in bytes.
+	 * @return The result of the job.
+	 * @throws IOException Thrown if the program couldn't be read.
+	 * @throws InterruptedException Thrown if the thread is interrupted
+	 * while waiting.
+	 */
+	Response submit(final Job job, InputStream in, int length) 
+		throws IOException, InterruptedException 
+	{
+		// the slot is taken before the program is read in, so waiting
+		// connections don't hold programs that have nowhere to run
+		if (!jobSlots.tryAcquire(job.remaining(), TimeUnit.NANOSECONDS)) {
+			Response.skipFully(in, length);
+			timedOut.incrementAndGet();
+			return job.timedOut();
+		}
+		
+		Future<Response> future;
+		boolean submitted = false;
+		try {
+			final byte[] image = new byte[length];
+			Response.readFully(in, image);
+			
+			future = simulations.submit(new Callable<Response>() {
+				@Override
+				public Response call() {
+					try {
+						return job.run(image, simulators);
+					} finally {
+						jobSlots.release();
+					}
+				}
+			});
+			submitted = true;
+		} catch (RejectedExecutionException e) {
+			return new Response(Response.ERROR, "The server is shutting down");
+		} finally {
+			if (!submitted) {
+				jobSlots.release();
+			}
+		}
+		
+		Response response;
+		try {
+			response = future.get();
+		} catch (ExecutionException e) {
+			response = new Response(Response.ERROR, "Simulation failed: " + e.getCause());
+		}
+		
+		String status = response.getStatus();
+		if (status.equals(Response.OK)) {
+			completed.incrementAndGet();
+		} else if (status.equals(Response.TIMEOUT)) {
+			timedOut.incrementAndGet();
+		} else {
+			failed.incrementAndGet();
+		}
+		
+		return response;
+	}
+	
+	/**
+	 * Read jobs from a connection and answer them, one at a time, until the
+	 * client closes it.
+	 */
+	private void serveConnection(SocketChannel client) {
+		try {
+			if (client.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+				// answers are small and the client waits for each one
+				client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			}
+			
+			InputStream in = new BufferedInputStream(Channels.newInputStream(client));
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(client));
+			
+			String line;
+			while ((line = Response.readLine(in)) != null) {
+				String[] fields = line.trim().split("\\s+");
+				
+				// without a length there's no telling where the next job
+				// starts, so the connection is given up
+				int length = fields.length >= 2 && fields[0].equals("RUN") ?
+					parseLength(fields[1]) : -1;
+				if (length < 0) {
+					new Response(Response.ERROR, "Unknown request \"" + line + "\"").write(out);
+					out.flush();
+					return;
+				}
+				
+				String[] options = new String[fields.length - 2];
+				System.arraycopy(fields, 2, options, 0, options.length);
+				
+				Job job;
+				try {
+					job = new Job(options, timeoutMillis, maxTimeoutMillis);
+				} catch (IllegalArgumentException e) {
+					// the program still has to be read past to get to the
+					// next job
+					Response.skipFully(in, length);
+					failed.incrementAndGet();
+					new Response(Response.ERROR, e.getMessage()).write(out);
+					out.flush();
+					continue;
+				}
+				
+				Response response = submit(job, in, length);
+				response.write(out);
+				out.flush();
+			}
+		} catch (ClosedChannelException e) {
+			// the server was closed, or the client went away
+		} catch (IOException e) {
+			// the client went away or sent something unreadable, and
+			// there's no one to tell
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				client.close();
+			} catch (IOException e) {
+				// it's closed as far as anyone here is concerned
+			}
+			connectionSlots.release();
+		}
+	}
+	
+	/**
+	 * @return The length of a program, or -1 if it isn't a number or is
+	 * too long.
+	 */
+	private static int parseLength(String field) {
+		try {
+			int length = Integer.parseInt(field);
+			return length <= MAX_IMAGE ? length : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * @return A factory for daemon threads named after what they're for.
+	 */
+	private static ThreadFactory threads(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + " " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+	
+	/**
+	 * @return The number of jobs that ran to completion.
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+	
+	/**
+	 * @return The number of jobs abandoned because they ran out of time.
+	 */
+	public long getTimedOut() {
+		return timedOut.get();
+	}
+	
+	/**
+	 * @return The number of jobs that failed or had bad options.
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+	
+	/**
+	 * @return The number of pipeline simulators created, rather than
+	 * reused.
+	 */
+	public long getSimulatorsCreated() {
+		return simulators.getCreated();
+	}
+	
+	/**
+	 * @return The number of times a pipeline simulator was reused.
+	 */
+	public long getSimulatorsReused() {
+		return simulators.getReused();
+	}
+}
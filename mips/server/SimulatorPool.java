@@ -0,0 +1,118 @@
+package mips.server;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import mips.MemoryStore;
+import mips.Mips;
+import mips.PipelineConfig;
+
+/**
+ * Idle pipeline simulators kept for reuse, grouped by configuration.  A
+ * simulator taken from the pool is reset to the new program rather than
+ * created afresh, so it keeps its arrays, its stage objects and the code
+ * the JVM has already compiled for them.
+ * 
+ * Only the most recently used configurations are kept, and only as many
+ * simulators of each as could be busy at once.
+ */
+class SimulatorPool {
+	/**
+	 * The number of configurations idle simulators are kept for.
+	 */
+	private static final int MAX_CONFIGURATIONS = 16;
+	
+	/**
+	 * The most idle simulators kept of each configuration.
+	 */
+	private final int maxIdle;
+	
+	/**
+	 * The idle simulators of each configuration, keyed by its description,
+	 * least recently used first.
+	 */
+	private final Map<String, ArrayDeque<Mips>> idle =
+		new LinkedHashMap<String, ArrayDeque<Mips>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ArrayDeque<Mips>> eldest) {
+				return size() > MAX_CONFIGURATIONS;
+			}
+		};
+	
+	private long created = 0;
+	private long reused = 0;
+	
+	/**
+	 * @param maxIdle The most idle simulators to keep of each
+	 * configuration.
+	 */
+	public SimulatorPool(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+	
+	/**
+	 * Get a simulator ready to run the given program, reusing an idle one
+	 * if there is one.
+	 * 
+	 * @param config The configuration of the pipeline.
+	 * @param image The bytes of the program.
+	 * @return The simulator, which is no longer in the pool.
+	 */
+	public Mips take(PipelineConfig config, byte[] image) {
+		Mips mips;
+		synchronized (this) {
+			ArrayDeque<Mips> simulators = idle.get(config.toString());
+			mips = simulators == null ? null : simulators.poll();
+			
+			if (mips == null) {
+				created++;
+			} else {
+				reused++;
+			}
+		}
+		
+		if (mips == null) {
+			return new Mips(new MemoryStore(image), config);
+		}
+		
+		mips.reset(image);
+		return mips;
+	}
+	
+	/**
+	 * Put a simulator back in the pool once it's finished with.
+	 * 
+	 * @param config The configuration it was taken with.
+	 * @param mips The simulator.
+	 */
+	public synchronized void give(PipelineConfig config, Mips mips) {
+		String key = config.toString();
+		ArrayDeque<Mips> simulators = idle.get(key);
+		if (simulators == null) {
+			simulators = new ArrayDeque<Mips>();
+			idle.put(key, simulators);
+		}
+		
+		if (simulators.size() < maxIdle) {
+			simulators.push(mips);
+		}
+	}
+	
+	/**
+	 * @return The number of simulators created because there wasn't an
+	 * idle one.
+	 */
+	public synchronized long getCreated() {
+		return created;
+	}
+	
+	/**
+	 * @return The number of times an idle simulator was reused.
+	 */
+	public synchronized long getReused() {
+		return reused;
+	}
+}
@@ -0,0 +1,188 @@
+package mips.trace;
+
+import java.io.IOException;
+
+import mips.ProgramCounter;
+import mips.RegisterName;
+import mips.pipeline.PipelineRegister;
+import mips.pipeline.stages.Decode;
+
+/**
+ * Records the state of the pipeline every cycle into a trace file: the 
+ * address being fetched, the instruction in each pipeline register, 
+ * whether decode stalled or flushed, and any memory access.  Records are 
+ * encoded straight into blocks of the <code>TraceWriter</code>, which 
+ * compresses and writes them on its own thread.
+ */
+public class PipelineTracer {
+	private final ProgramCounter pc;
+	
+	/**
+	 * The IF/ID, ID/EX, EX/MEM and MEM/WB pipeline registers.
+	 */
+	private final PipelineRegister[] stages;
+	
+	private final Decode decode;
+	private final TraceWriter writer;
+	
+	/**
+	 * The block being filled.
+	 */
+	private TraceWriter.Block block = null;
+	
+	// what the next record is encoded against
+	private long fetchPc;
+	private final long[] stagePcs = new long[TraceFormat.STAGES];
+	private final long[] expected = new long[TraceFormat.STAGES];
+	private final long[] pcs = new long[TraceFormat.STAGES];
+	private long address;
+	private long stalls;
+	private long flushes;
+	
+	/**
+	 * Whether IF/ID held an instruction rather than a no-op last cycle.
+	 */
+	private boolean decoding = false;
+	
+	public PipelineTracer(
+		ProgramCounter pc,
+		PipelineRegister if_id,
+		PipelineRegister id_ex,
+		PipelineRegister ex_mem,
+		PipelineRegister mem_wb,
+		Decode decode,
+		TraceWriter writer
+	) {
+		this.pc = pc;
+		this.stages = new PipelineRegister[] { if_id, id_ex, ex_mem, mem_wb };
+		this.decode = decode;
+		this.writer = writer;
+		this.stalls = stallCount();
+		this.flushes = flushCount();
+	}
+	
+	/**
+	 * Record the cycle just run.  This has to be called after every stage
+	 * has run but before the registers tick over.
+	 * 
+	 * @param cycle The number of the cycle.
+	 */
+	public void record(long cycle) {
+		if (block == null || block.isFull()) {
+			if (block != null) {
+				writer.publish(block);
+			}
+			
+			block = writer.next(cycle);
+			fetchPc = 0;
+			stagePcs[0] = stagePcs[1] = stagePcs[2] = stagePcs[3] = 0;
+			address = 0;
+		}
+		
+		PipelineRegister if_id = stages[0];
+		PipelineRegister ex_mem = stages[2];
+		int flags = 0;
+		
+		// each instruction is expected to have moved on one stage
+		expected[0] = fetchPc;
+		System.arraycopy(stagePcs, 0, expected, 1, TraceFormat.STAGES - 1);
+		
+		for (int i = 0; i < pcs.length; i++) {
+			boolean valid = i == 0 ?
+				if_id.getValue(RegisterName.OP_CODE) != Decode.NOP :
+				!stages[i].isNop();
+			
+			if (valid) {
+				flags |= 1 << i;
+				pcs[i] = stages[i].getValue(RegisterName.PC);
+			} else {
+				pcs[i] = expected[i];
+			}
+		}
+		
+		// a new instruction in decode, rather than one held by a stall; a
+		// no-op keeps the address being fetched, so the instruction after
+		// one can have the address expected of it
+		boolean valid = (flags & TraceFormat.IF_ID) != 0;
+		if (valid && (block.cycles == 0 || !decoding || pcs[0] != stagePcs[0])) {
+			flags |= TraceFormat.INSTRUCTION;
+		}
+		decoding = valid;
+		
+		long stallCount = stallCount();
+		if (stallCount != stalls) {
+			flags |= TraceFormat.STALL;
+			stalls = stallCount;
+		}
+		
+		long flushCount = flushCount();
+		if (flushCount != flushes) {
+			flags |= TraceFormat.FLUSH;
+			flushes = flushCount;
+		}
+		
+		if (ex_mem.getValue(RegisterName.MEM_READ) == 1) {
+			flags |= TraceFormat.LOAD;
+		}
+		if (ex_mem.getValue(RegisterName.MEM_WRITE) == 1) {
+			flags |= TraceFormat.STORE;
+		}
+		
+		byte[] data = block.data;
+		int position = TraceFormat.writeVarint(data, block.length, flags);
+		
+		long newFetchPc = pc.getValue();
+		position = TraceFormat.writeSigned(data, position, newFetchPc - (fetchPc + 4));
+		fetchPc = newFetchPc;
+		
+		for (int i = 0; i < pcs.length; i++) {
+			if ((flags & (1 << i)) != 0) {
+				position = TraceFormat.writeSigned(data, position, pcs[i] - expected[i]);
+			}
+			stagePcs[i] = pcs[i];
+		}
+		
+		if ((flags & TraceFormat.INSTRUCTION) != 0) {
+			position = TraceFormat.writeVarint(
+				data, position, if_id.getValue(RegisterName.INSTRUCTION)
+			);
+		}
+		
+		if ((flags & (TraceFormat.LOAD | TraceFormat.STORE)) != 0) {
+			long newAddress = ex_mem.getValue(RegisterName.ALU_RESULT);
+			position = TraceFormat.writeSigned(data, position, newAddress - address);
+			address = newAddress;
+			
+			if ((flags & TraceFormat.STORE) != 0) {
+				position = TraceFormat.writeSigned(
+					data, position, ex_mem.getValue(RegisterName.WRITE_DATA)
+				);
+			}
+		}
+		
+		block.length = position;
+		block.cycles++;
+	}
+	
+	/**
+	 * Write out the rest of the trace and close the file.
+	 * 
+	 * @throws IOException Thrown if the trace couldn't be written.
+	 */
+	public void close() throws IOException {
+		if (block != null && block.cycles > 0) {
+			writer.publish(block);
+		}
+		block = null;
+		
+		writer.close();
+	}
+	
+	private long stallCount() {
+		return decode.getLoadUseStalls() + decode.getHazardStalls();
+	}
+	
+	private long flushCount() {
+		return decode.getMispredictions();
+	}
+}
@@ -0,0 +1,120 @@
+package mips.trace;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The layout of pipeline trace files.
+ * 
+ * A trace file starts with a header of four ints: the magic number, the
+ * format version, the header flags, and the most cycles in a block.  The
+ * rest of the file is a sequence of blocks, each holding the records of a
+ * run of consecutive cycles.  A block starts with a header giving the 
+ * number of its first cycle (a long), then the number of cycles, the length
+ * of the records, the length stored in the file, and a CRC-32 of the 
+ * records (all ints).  The stored records follow, deflated if the file is
+ * compressed.
+ * 
+ * There is one record per cycle.  A record starts with a varint of flags,
+ * then a zigzag varint of the fetch address less the address expected, 
+ * which is four more than the fetch address of the cycle before.  Then for
+ * each of the IF/ID, ID/EX, EX/MEM and MEM/WB pipeline registers holding
+ * an instruction there is a zigzag varint of its address less the address
+ * expected, which is the address in the stage before it on the cycle 
+ * before.  After those comes the instruction word in IF/ID if it's newly
+ * arrived, the address of a load as a zigzag varint delta from the last 
+ * address accessed, or the address and value of a store in the same way.
+ * Everything a record is encoded against starts over from zero at the
+ * start of each block, so blocks can be decoded on their own.
+ */
+public final class TraceFormat {
+	/**
+	 * The first four bytes of a trace file.
+	 */
+	public static final int MAGIC = 0x4D495054;
+	
+	public static final int VERSION = 1;
+	
+	public static final int HEADER_SIZE = 4 * 4;
+	
+	public static final int BLOCK_HEADER_SIZE = 8 + 4 * 4;
+	
+	/**
+	 * The header flag set if blocks are deflated.
+	 */
+	public static final int COMPRESSED = 1;
+	
+	/**
+	 * The most cycles recorded in one block.
+	 */
+	public static final int BLOCK_CYCLES = 1 << 16;
+	
+	/**
+	 * The number of pipeline registers recorded.
+	 */
+	public static final int STAGES = 4;
+	
+	// record flags: the first four say which pipeline registers hold an
+	// instruction, in pipeline order
+	public static final int IF_ID = 0x1;
+	public static final int ID_EX = 0x2;
+	public static final int EX_MEM = 0x4;
+	public static final int MEM_WB = 0x8;
+	public static final int STALL = 0x10;
+	public static final int FLUSH = 0x20;
+	public static final int LOAD = 0x40;
+	public static final int STORE = 0x80;
+	public static final int INSTRUCTION = 0x100;
+	
+	/**
+	 * The longest a record can be: the flags, six addresses and a value.
+	 */
+	public static final int MAX_RECORD_SIZE = 2 + 8 * 10;
+	
+	private TraceFormat() {
+	}
+	
+	/**
+	 * Write a value as an unsigned varint.
+	 * 
+	 * @param buffer Where to write the value.
+	 * @param position The index to write the value at.
+	 * @param value The value.
+	 * @return The index just after the value.
+	 */
+	public static int writeVarint(byte[] buffer, int position, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer[position++] = (byte)(value | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte)value;
+		
+		return position;
+	}
+	
+	/**
+	 * Write a signed value as a zigzag varint, so that values close to zero
+	 * either side take few bytes.
+	 */
+	public static int writeSigned(byte[] buffer, int position, long value) {
+		return writeVarint(buffer, position, (value << 1) ^ (value >> 63));
+	}
+	
+	public static long readVarint(ByteBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		
+		return value;
+	}
+	
+	public static long readSigned(ByteBuffer buffer) {
+		long value = readVarint(buffer);
+		
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
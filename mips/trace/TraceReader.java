@@ -0,0 +1,319 @@
+package mips.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import mips.MappedFile;
+
+/**
+ * Reads the records of a pipeline trace back, block by block, through a
+ * memory mapping of the file.  A block's records are only read and 
+ * inflated once the first of them is asked for, so skipping a block only
+ * touches its header.
+ */
+public class TraceReader {
+	private final MappedFile file;
+	private final boolean compressed;
+	private final Inflater inflater;
+	
+	// the header of the current block
+	private long blockCycle;
+	private int blockCycles;
+	private int blockLength;
+	private int storedLength;
+	private int checksum;
+	
+	/**
+	 * Where the stored records of the current block start in the file.
+	 */
+	private long blockPosition;
+	
+	/**
+	 * Whether there is a current block.
+	 */
+	private boolean inBlock = false;
+	
+	/**
+	 * The records of the current block, once they've been read in.
+	 */
+	private ByteBuffer records = null;
+	private byte[] stored = new byte[0];
+	private byte[] raw = new byte[0];
+	
+	// what the next record is decoded against
+	private int cycles;
+	private long fetchPc;
+	private final long[] stagePcs = new long[TraceFormat.STAGES];
+	private long address;
+	private long instruction;
+	
+	/**
+	 * The launching point for printing traces.  This takes the path of the
+	 * trace file, optionally preceded by <code>-from C</code> to start at
+	 * cycle C and <code>-count N</code> to print at most N cycles.
+	 * 
+	 * @param args The options and the path of the trace.
+	 */
+	public static void main(String[] args) {
+		long from = 0;
+		long count = Long.MAX_VALUE;
+		int i = 0;
+		
+		// read any options before the filename
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if (args[i].equals("-from") && i + 1 < args.length) {
+				from = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-count") && i + 1 < args.length) {
+				count = Long.parseLong(args[++i]);
+			} else {
+				System.out.println("Unknown option \"" + args[i] + "\"");
+				return;
+			}
+		}
+		
+		if (i >= args.length) {
+			System.out.println("You must supply a trace filename");
+			return;
+		}
+		
+		try {
+			TraceReader reader = new TraceReader(new File(args[i]));
+			
+			try {
+				reader.print(from, count);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			System.out.println("Error reading \"" + args[i] + "\": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Open a trace file.
+	 * 
+	 * @param file The trace file.
+	 * @throws IOException Thrown if the file can't be read or isn't a 
+	 * trace.
+	 */
+	public TraceReader(File file) throws IOException {
+		this.file = new MappedFile(file);
+		
+		try {
+			if (this.file.size() < TraceFormat.HEADER_SIZE) {
+				throw new IOException(file + " isn't a pipeline trace");
+			}
+			
+			ByteBuffer fileHeader = this.file.slice(0, TraceFormat.HEADER_SIZE);
+			if (fileHeader.getInt() != TraceFormat.MAGIC || 
+				fileHeader.getInt() != TraceFormat.VERSION) 
+			{
+				throw new IOException(file + " isn't a pipeline trace");
+			}
+			
+			compressed = (fileHeader.getInt() & TraceFormat.COMPRESSED) != 0;
+			blockPosition = TraceFormat.HEADER_SIZE;
+			storedLength = 0;
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+		
+		inflater = compressed ? new Inflater() : null;
+	}
+	
+	/**
+	 * Print the records of the trace as lines of text.
+	 * 
+	 * @param from The first cycle to print.
+	 * @param count The most cycles to print.
+	 */
+	public void print(long from, long count) throws IOException {
+		TraceRecord record = new TraceRecord();
+		System.out.println(TraceRecord.header());
+		
+		while (count > 0 && nextBlock()) {
+			// skip whole blocks before the first cycle
+			if (blockCycle + blockCycles <= from) {
+				continue;
+			}
+			
+			while (count > 0 && next(record)) {
+				if (record.cycle >= from) {
+					System.out.println(record);
+					count--;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Move on to the next block.  Any records left in the current block are
+	 * skipped.
+	 * 
+	 * @return Whether there is another block.
+	 * @throws IOException Thrown if the header can't be read.
+	 */
+	public boolean nextBlock() throws IOException {
+		long position = blockPosition + storedLength;
+		if (position >= file.size()) {
+			inBlock = false;
+			return false;
+		}
+		
+		ByteBuffer header = file.slice(position, TraceFormat.BLOCK_HEADER_SIZE);
+		blockCycle = header.getLong();
+		blockCycles = header.getInt();
+		blockLength = header.getInt();
+		storedLength = header.getInt();
+		checksum = header.getInt();
+		blockPosition = position + TraceFormat.BLOCK_HEADER_SIZE;
+		
+		if (blockCycles < 0 || blockLength < 0 || storedLength < 0 ||
+			(!compressed && storedLength != blockLength))
+		{
+			throw new IOException("Trace block at cycle " + blockCycle + " is corrupt");
+		}
+		
+		inBlock = true;
+		records = null;
+		
+		return true;
+	}
+	
+	/**
+	 * @return The number of the first cycle in the current block.
+	 */
+	public long getBlockCycle() {
+		return blockCycle;
+	}
+	
+	/**
+	 * @return The number of cycles in the current block.
+	 */
+	public int getBlockCycles() {
+		return blockCycles;
+	}
+	
+	/**
+	 * @return The CRC-32 of the records of the current block.
+	 */
+	public int getBlockChecksum() {
+		return checksum;
+	}
+	
+	/**
+	 * Read the next record of the current block.
+	 * 
+	 * @param record Where to put the record.
+	 * @return Whether there was another record in the block.
+	 * @throws IOException Thrown if the block can't be read or is corrupt.
+	 */
+	public boolean next(TraceRecord record) throws IOException {
+		if (!inBlock) {
+			return false;
+		}
+		
+		if (records == null) {
+			loadBlock();
+		}
+		
+		if (cycles == blockCycles) {
+			return false;
+		}
+		
+		int flags = (int)TraceFormat.readVarint(records);
+		record.cycle = blockCycle + cycles;
+		record.flags = flags;
+		
+		// each instruction is expected to have moved on one stage
+		long expected = fetchPc;
+		fetchPc += 4 + TraceFormat.readSigned(records);
+		record.fetchPc = fetchPc;
+		
+		for (int i = 0; i < TraceFormat.STAGES; i++) {
+			long pc = expected;
+			if ((flags & (1 << i)) != 0) {
+				pc += TraceFormat.readSigned(records);
+			}
+			
+			expected = stagePcs[i];
+			stagePcs[i] = pc;
+			record.pcs[i] = pc;
+		}
+		
+		if ((flags & TraceFormat.INSTRUCTION) != 0) {
+			instruction = TraceFormat.readVarint(records);
+		}
+		record.instruction = instruction;
+		
+		if ((flags & (TraceFormat.LOAD | TraceFormat.STORE)) != 0) {
+			address += TraceFormat.readSigned(records);
+		}
+		record.address = address;
+		
+		record.value = 0;
+		if ((flags & TraceFormat.STORE) != 0) {
+			record.value = TraceFormat.readSigned(records);
+		}
+		
+		cycles++;
+		
+		return true;
+	}
+	
+	public void close() throws IOException {
+		if (inflater != null) {
+			inflater.end();
+		}
+		file.close();
+	}
+	
+	/**
+	 * Read in the records of the current block, inflating them if need be,
+	 * and check them against the block's checksum.
+	 */
+	private void loadBlock() throws IOException {
+		if (stored.length < storedLength) {
+			stored = new byte[storedLength];
+		}
+		file.slice(blockPosition, storedLength).get(stored, 0, storedLength);
+		
+		byte[] data = stored;
+		if (compressed) {
+			if (raw.length < blockLength) {
+				raw = new byte[blockLength];
+			}
+			
+			inflater.reset();
+			inflater.setInput(stored, 0, storedLength);
+			try {
+				if (inflater.inflate(raw, 0, blockLength) != blockLength ||
+					!inflater.finished()) 
+				{
+					throw new DataFormatException();
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Trace block at cycle " + blockCycle + " is corrupt");
+			}
+			data = raw;
+		}
+		
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, blockLength);
+		if ((int)crc.getValue() != checksum) {
+			throw new IOException("Trace block at cycle " + blockCycle + " is corrupt");
+		}
+		
+		records = ByteBuffer.wrap(data, 0, blockLength);
+		cycles = 0;
+		fetchPc = 0;
+		stagePcs[0] = stagePcs[1] = stagePcs[2] = stagePcs[3] = 0;
+		address = 0;
+		instruction = 0;
+	}
+}
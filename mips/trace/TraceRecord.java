@@ -0,0 +1,137 @@
+package mips.trace;
+
+/**
+ * The state of the pipeline on one cycle, as read back from a trace.
+ */
+public class TraceRecord {
+	private static final String[] STAGE_NAMES = { 
+		"IF/ID", "ID/EX", "EX/MEM", "MEM/WB" 
+	};
+	
+	long cycle;
+	int flags;
+	long fetchPc;
+	final long[] pcs = new long[TraceFormat.STAGES];
+	long instruction;
+	long address;
+	long value;
+	
+	public long getCycle() {
+		return cycle;
+	}
+	
+	/**
+	 * @return The flags of the record, as in <code>TraceFormat</code>.
+	 */
+	public int getFlags() {
+		return flags;
+	}
+	
+	/**
+	 * @return The address fetched on the cycle.
+	 */
+	public long getFetchPc() {
+		return fetchPc;
+	}
+	
+	/**
+	 * @param stage The pipeline register, from 0 for IF/ID to 3 for MEM/WB.
+	 * @return Whether the pipeline register holds an instruction rather 
+	 * than a bubble.
+	 */
+	public boolean hasInstruction(int stage) {
+		return (flags & (1 << stage)) != 0;
+	}
+	
+	/**
+	 * @param stage The pipeline register, from 0 for IF/ID to 3 for MEM/WB.
+	 * @return The address of the instruction in the pipeline register, 
+	 * which is meaningless if it holds a bubble.
+	 */
+	public long getPc(int stage) {
+		return pcs[stage];
+	}
+	
+	/**
+	 * @return The instruction word in IF/ID, being decoded on the cycle.
+	 */
+	public long getInstruction() {
+		return instruction;
+	}
+	
+	/**
+	 * @return The address of the load or store on the cycle, if any.
+	 */
+	public long getAddress() {
+		return address;
+	}
+	
+	/**
+	 * @return The value stored on the cycle, if any.
+	 */
+	public long getValue() {
+		return value;
+	}
+	
+	/**
+	 * @return The record as a line of tab separated columns: the cycle, the
+	 * fetch address, the address of the instruction in each pipeline 
+	 * register (with the instruction word for IF/ID) or a dash for a bubble,
+	 * then any events.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(cycle);
+		builder.append('\t').append(Long.toHexString(fetchPc));
+		
+		for (int i = 0; i < TraceFormat.STAGES; i++) {
+			builder.append('\t');
+			if (!hasInstruction(i)) {
+				builder.append('-');
+				continue;
+			}
+			
+			builder.append(Long.toHexString(pcs[i]));
+			if (i == 0) {
+				builder.append(':').append(Long.toHexString(instruction));
+			}
+		}
+		
+		if ((flags & TraceFormat.STALL) != 0) {
+			builder.append("\tstall");
+		}
+		if ((flags & TraceFormat.FLUSH) != 0) {
+			builder.append("\tflush");
+		}
+		if ((flags & TraceFormat.LOAD) != 0) {
+			builder.append("\tload ").append(Long.toHexString(address));
+		}
+		if ((flags & TraceFormat.STORE) != 0) {
+			builder.append("\tstore ").append(Long.toHexString(address));
+			builder.append('=').append(Long.toHexString(value));
+		}
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * @param stage The pipeline register, from 0 for IF/ID to 3 for MEM/WB.
+	 * @return The name of the pipeline register.
+	 */
+	public static String getStageName(int stage) {
+		return STAGE_NAMES[stage];
+	}
+	
+	/**
+	 * @return A header line naming the columns of <code>toString</code>.
+	 */
+	public static String header() {
+		StringBuilder builder = new StringBuilder("Cycle\tFetch");
+		for (String name : STAGE_NAMES) {
+			builder.append('\t').append(name);
+		}
+		
+		return builder.append("\tEvents").toString();
+	}
+}
@@ -0,0 +1,276 @@
+package mips.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes blocks of trace records to a file on a background thread.  The
+ * simulator fills blocks taken from a ring, and the writer thread 
+ * compresses and writes them out in order and hands them back.  There is 
+ * only ever one thread filling blocks and one emptying them, so the ring
+ * needs no locks: each side only moves its own counter on, and only parks
+ * when the ring is full or empty.
+ */
+public class TraceWriter {
+	/**
+	 * The number of blocks in the ring.
+	 */
+	private static final int RING_SIZE = 4;
+	
+	/**
+	 * The number of bytes of records a block can hold.
+	 */
+	private static final int BLOCK_SIZE = 1 << 20;
+	
+	/**
+	 * A run of consecutive cycles of records.
+	 */
+	static class Block {
+		final byte[] data = new byte[BLOCK_SIZE];
+		
+		/**
+		 * The number of bytes of records in the block.
+		 */
+		int length;
+		
+		long firstCycle;
+		int cycles;
+		
+		/**
+		 * @return Whether the block is full, either of cycles or of space
+		 * for another record.
+		 */
+		boolean isFull() {
+			return cycles == TraceFormat.BLOCK_CYCLES ||
+				length > data.length - TraceFormat.MAX_RECORD_SIZE;
+		}
+	}
+	
+	private final FileChannel channel;
+	private final boolean compressed;
+	private final Block[] ring = new Block[RING_SIZE];
+	
+	/**
+	 * The number of blocks written out.  Only the writer thread moves this
+	 * on.
+	 */
+	private final AtomicLong head = new AtomicLong();
+	
+	/**
+	 * The number of blocks filled.  Only the simulator's thread moves this
+	 * on.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	
+	private final Thread writer;
+	
+	/**
+	 * The thread filling blocks, so the writer can wake it.
+	 */
+	private volatile Thread producer;
+	
+	/**
+	 * Set once the last block has been filled.
+	 */
+	private volatile boolean closed = false;
+	
+	/**
+	 * The error that stopped blocks being written, if any.
+	 */
+	private volatile IOException error = null;
+	
+	/**
+	 * Create a trace file, replacing any file already there.
+	 * 
+	 * @param file The trace file.
+	 * @param compressed Whether to deflate the blocks.
+	 * @throws IOException Thrown if the file can't be created.
+	 */
+	public TraceWriter(File file, boolean compressed) throws IOException {
+		this.channel = FileChannel.open(
+			file.toPath(),
+			StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING
+		);
+		this.compressed = compressed;
+		
+		ByteBuffer header = ByteBuffer.allocate(TraceFormat.HEADER_SIZE);
+		header.putInt(TraceFormat.MAGIC);
+		header.putInt(TraceFormat.VERSION);
+		header.putInt(compressed ? TraceFormat.COMPRESSED : 0);
+		header.putInt(TraceFormat.BLOCK_CYCLES);
+		header.flip();
+		
+		try {
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		
+		for (int i = 0; i < ring.length; i++) {
+			ring[i] = new Block();
+		}
+		
+		writer = new Thread("trace writer") {
+			@Override
+			public void run() {
+				writeBlocks();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Take the next empty block from the ring, waiting for the writer to
+	 * free one if they're all full.
+	 * 
+	 * @param firstCycle The number of the first cycle the block will hold.
+	 * @return The block.
+	 */
+	Block next(long firstCycle) {
+		long index = tail.get();
+		
+		while (index - head.get() == ring.length) {
+			producer = Thread.currentThread();
+			if (index - head.get() == ring.length) {
+				LockSupport.park(this);
+			}
+		}
+		
+		Block block = ring[(int)(index % ring.length)];
+		block.length = 0;
+		block.cycles = 0;
+		block.firstCycle = firstCycle;
+		
+		return block;
+	}
+	
+	/**
+	 * Hand a filled block, which must be the last one taken, to the writer.
+	 */
+	void publish(Block block) {
+		tail.lazySet(tail.get() + 1);
+		LockSupport.unpark(writer);
+	}
+	
+	/**
+	 * Wait for every filled block to be written, then close the file.
+	 * 
+	 * @throws IOException Thrown if a block couldn't be written.
+	 */
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(writer);
+		
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			channel.close();
+		}
+		
+		if (error != null) {
+			throw error;
+		}
+	}
+	
+	/**
+	 * Write blocks as they're filled until the trace is closed.  If a write
+	 * fails the rest of the blocks are dropped, so the simulation doesn't
+	 * wait on them.
+	 */
+	private void writeBlocks() {
+		// the fastest level compresses traces nearly as well as the default,
+		// and keeps the writer from falling behind the simulator
+		Deflater deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+		CRC32 crc = new CRC32();
+		ByteBuffer header = ByteBuffer.allocate(TraceFormat.BLOCK_HEADER_SIZE);
+		byte[] output = new byte[BLOCK_SIZE + (BLOCK_SIZE >> 8) + 64];
+		
+		try {
+			while (true) {
+				long index = head.get();
+				
+				if (index == tail.get()) {
+					if (closed && index == tail.get()) {
+						break;
+					}
+					
+					LockSupport.park(this);
+					continue;
+				}
+				
+				Block block = ring[(int)(index % ring.length)];
+				if (error == null) {
+					try {
+						writeBlock(block, deflater, crc, header, output);
+					} catch (IOException e) {
+						error = e;
+					}
+				}
+				
+				head.lazySet(index + 1);
+				LockSupport.unpark(producer);
+			}
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+	}
+	
+	private void writeBlock(
+		Block block, 
+		Deflater deflater, 
+		CRC32 crc, 
+		ByteBuffer header, 
+		byte[] output
+	) throws IOException {
+		crc.reset();
+		crc.update(block.data, 0, block.length);
+		
+		byte[] stored = block.data;
+		int storedLength = block.length;
+		
+		if (deflater != null) {
+			deflater.reset();
+			deflater.setInput(block.data, 0, block.length);
+			deflater.finish();
+			
+			// the output buffer is big enough for incompressible data
+			storedLength = deflater.deflate(output);
+			stored = output;
+			
+			if (!deflater.finished()) {
+				throw new IOException("Trace block didn't fit once deflated");
+			}
+		}
+		
+		header.clear();
+		header.putLong(block.firstCycle);
+		header.putInt(block.cycles);
+		header.putInt(block.length);
+		header.putInt(storedLength);
+		header.putInt((int)crc.getValue());
+		header.flip();
+		
+		ByteBuffer data = ByteBuffer.wrap(stored, 0, storedLength);
+		ByteBuffer[] buffers = { header, data };
+		while (data.hasRemaining()) {
+			channel.write(buffers);
+		}
+	}
+}
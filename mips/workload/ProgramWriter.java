@@ -0,0 +1,226 @@
+package mips.workload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+import mips.ProgramCounter;
+
+/**
+ * Writes a program straight out to a channel as it's generated, in the 
+ * little-endian word format read by <code>MemoryStore</code>, so programs
+ * of any size can be written without holding them in memory.  The words 
+ * below the first instruction are written as zeros.
+ * 
+ * The writer also keeps track of which registers were written by the last
+ * two instructions.  Branches and jump registers read their registers in
+ * the decode stage, where nothing is forwarded to them, so they must not 
+ * read a register written by either of the two instructions before them.
+ */
+class ProgramWriter {
+	// values for opcodes and funct codes
+	static final int ADD_FUNCT = 0x20;
+	static final int SUB_FUNCT = 0x22;
+	static final int AND_FUNCT = 0x24;
+	static final int OR_FUNCT = 0x25;
+	static final int NOR_FUNCT = 0x27;
+	static final int SLT_FUNCT = 0x2a;
+	static final int JR_FUNCT = 0x8;
+	static final int ADDI = 0x8;
+	static final int ANDI = 0xC;
+	static final int ORI = 0xD;
+	static final int SLTI = 0xA;
+	static final int BEQ = 0x4;
+	static final int BNE = 0x5;
+	static final int J = 0x2;
+	static final int LW = 0x23;
+	static final int SW = 0x2B;
+	private static final int HLT_INSTRUCTION = 0xFC000000;
+	
+	/**
+	 * The largest address a J instruction can reach.
+	 */
+	static final long J_LIMIT = 1L << 28;
+	
+	/**
+	 * A register set standing for every register.
+	 */
+	static final int ALL_REGISTERS = -1;
+	
+	/**
+	 * The size of the buffer words are written through.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = 
+		ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	
+	/**
+	 * The address of the next word.
+	 */
+	private long address = 0;
+	
+	/**
+	 * The sets of registers written by the last instruction and by the one
+	 * before it, one bit per register.
+	 */
+	private int lastWrites = 0;
+	private int previousWrites = 0;
+	
+	/**
+	 * Create a writer and write the zeros below the first instruction.
+	 * 
+	 * @param channel The channel to write the program to.
+	 * @throws IOException Thrown if there's a problem writing.
+	 */
+	ProgramWriter(WritableByteChannel channel) throws IOException {
+		this.channel = channel;
+		
+		while (address < ProgramCounter.FIRST_INSTRUCTION) {
+			word(0);
+		}
+	}
+	
+	/**
+	 * @return The address of the next instruction.
+	 */
+	long getAddress() {
+		return address;
+	}
+	
+	/**
+	 * @return The set of registers that branches and jump registers can't
+	 * read yet.
+	 */
+	int getRecentWrites() {
+		return lastWrites | previousWrites;
+	}
+	
+	/**
+	 * Mark the next instruction as one that can be reached from elsewhere,
+	 * so any register could have been written just before it.
+	 */
+	void label() {
+		lastWrites = ALL_REGISTERS;
+		previousWrites = ALL_REGISTERS;
+	}
+	
+	void register(int funct, int rd, int rs, int rt) throws IOException {
+		instruction((rs << 21) | (rt << 16) | (rd << 11) | funct, rd);
+	}
+	
+	void immediate(int opCode, int rt, int rs, int immediate) throws IOException {
+		if (immediate < 0 || immediate > 0xFFFF) {
+			throw new IllegalArgumentException("Immediates are unsigned 16 bit values");
+		}
+		
+		int writes = opCode == SW ? 0 : rt;
+		instruction((opCode << 26) | (rs << 21) | (rt << 16) | immediate, writes);
+	}
+	
+	/**
+	 * Write a branch over the given number of instructions.
+	 */
+	void branch(int opCode, int rs, int rt, int skip) throws IOException {
+		if (skip < 0 || skip > 0xFFFF) {
+			throw new IllegalArgumentException("Branches can only skip forwards");
+		}
+		
+		checkReads(rs, rt);
+		instruction((opCode << 26) | (rs << 21) | (rt << 16) | skip, 0);
+	}
+	
+	void jump(long target) throws IOException {
+		if (target >= J_LIMIT || (target & 3) != 0) {
+			throw new IllegalArgumentException("Can't jump to " + Long.toHexString(target));
+		}
+		
+		instruction((J << 26) | (int)(target >>> 2), 0);
+	}
+	
+	void jumpRegister(int rs) throws IOException {
+		checkReads(rs, 0);
+		instruction((rs << 21) | JR_FUNCT, 0);
+	}
+	
+	void halt() throws IOException {
+		instruction(HLT_INSTRUCTION, 0);
+	}
+	
+	/**
+	 * Load any 32 bit constant into a register, with a single add 
+	 * immediate if it fits in 16 bits, and otherwise by doubling the high
+	 * half sixteen times and or-ing in the low half.
+	 * 
+	 * @return The number of instructions written.
+	 */
+	int constant(int rt, long value) throws IOException {
+		if (value < 0 || value > 0xFFFFFFFFL) {
+			throw new IllegalArgumentException("Constants are unsigned 32 bit values");
+		}
+		
+		if (value <= 0xFFFF) {
+			immediate(ADDI, rt, 0, (int)value);
+			return 1;
+		}
+		
+		immediate(ADDI, rt, 0, (int)(value >>> 16));
+		for (int i = 0; i < 16; i++) {
+			register(ADD_FUNCT, rt, rt, rt);
+		}
+		immediate(ORI, rt, rt, (int)(value & 0xFFFF));
+		return constantLength(value);
+	}
+	
+	/**
+	 * @return The number of instructions <code>constant</code> uses to
+	 * load the given value.
+	 */
+	static int constantLength(long value) {
+		return value <= 0xFFFF ? 1 : 18;
+	}
+	
+	/**
+	 * Write out any buffered words.
+	 * 
+	 * @throws IOException Thrown if there's a problem writing.
+	 */
+	void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	private void checkReads(int rs, int rt) {
+		int reads = (1 << rs) | (1 << rt);
+		if ((getRecentWrites() & reads & ~1) != 0) {
+			throw new IllegalStateException(
+				"Branch at " + Long.toHexString(address) + " reads a register written too recently"
+			);
+		}
+	}
+	
+	private void instruction(int word, int writes) throws IOException {
+		word(word);
+		
+		previousWrites = lastWrites;
+		lastWrites = writes == 0 ? 0 : 1 << writes;
+	}
+	
+	private void word(int word) throws IOException {
+		if (address >= 0x100000000L) {
+			throw new IllegalStateException("The program doesn't fit in memory");
+		}
+		
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+		
+		buffer.putInt(word);
+		address += 4;
+	}
+}
@@ -0,0 +1,492 @@
+package mips.workload;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+/**
+ * Generates synthetic programs for benchmarking and stress testing the 
+ * simulator.  A program is a nest of counted loops around a body of random
+ * instructions, or a single straight run of random instructions when the
+ * loop depth is zero, ending with a halt.  The mix of the body is set by
+ * the densities of forward branches, loads and stores, and jump register
+ * dispatches, and by how often a load is used straight away.
+ * 
+ * The same settings and seed always give the same program.  Programs are
+ * written out as they're generated, so their size is only limited by the
+ * address space.  Every branch and jump register is kept at least two
+ * instructions after anything that writes its registers, so programs get
+ * the same results from the pipeline and the functional engines.
+ */
+public class WorkloadGenerator {
+	/**
+	 * The deepest loop nest that can be generated.
+	 */
+	public static final int MAX_DEPTH = 4;
+	
+	/**
+	 * The address of the start of the data footprint, far above the code.
+	 */
+	public static final long DATA_START = 0xC0000000L;
+	
+	/**
+	 * The largest data footprint, in bytes.
+	 */
+	public static final long MAX_FOOTPRINT = 1L << 30;
+	
+	// how the registers are used: the body works on $r1-$r15, and the rest
+	// are kept for the loops and the addresses of loads, stores and jumps
+	private static final int FIRST_BODY = 1;
+	private static final int BODY_REGISTERS = 15;
+	private static final int FIRST_COUNTER = 16;
+	private static final int FIRST_HEADER = 20;
+	private static final int TARGET = 24;
+	private static final int ONE = 25;
+	private static final int ADDRESS = 26;
+	private static final int MASK = 27;
+	private static final int DATA = 28;
+	
+	/**
+	 * The number of handlers a dispatch picks between, and the number of
+	 * instructions in each.  Handlers are 16 bytes apart, so the handler
+	 * offset is bits 4 and 5 of the selecting register.
+	 */
+	private static final int HANDLERS = 4;
+	private static final int HANDLER_SIZE = 4;
+	private static final int HANDLER_BITS = 0x30;
+	
+	/**
+	 * The number of instructions a dispatch runs, from loading the handler
+	 * address to reaching the end of a handler.
+	 */
+	private static final int DISPATCH_LENGTH = 6 + HANDLER_SIZE;
+	
+	/**
+	 * The most instructions a forward branch skips.
+	 */
+	private static final int MAX_SKIP = 4;
+	
+	// the arithmetic a body can do
+	private static final int[] FUNCTS = {
+		ProgramWriter.ADD_FUNCT, ProgramWriter.SUB_FUNCT, ProgramWriter.AND_FUNCT,
+		ProgramWriter.OR_FUNCT, ProgramWriter.NOR_FUNCT, ProgramWriter.SLT_FUNCT
+	};
+	private static final int[] IMMEDIATE_OP_CODES = {
+		ProgramWriter.ADDI, ProgramWriter.ANDI, ProgramWriter.ORI, ProgramWriter.SLTI
+	};
+	
+	private long seed = 1;
+	private long instructions = 1000000;
+	private int depth = 2;
+	private int bodySize = 64;
+	private double branchDensity = 0.1;
+	private double memoryDensity = 0.2;
+	private double loadUseRate = 0.5;
+	private double dispatchDensity = 0.02;
+	private long footprint = 1 << 16;
+	
+	private Random random;
+	private ProgramWriter out;
+	
+	/**
+	 * The number of times each loop of the nest runs in the last program
+	 * generated.
+	 */
+	private long iterations = 1;
+	
+	/**
+	 * The launching point for the generator.  This takes the path of the
+	 * program file to write, optionally preceded by any of these options:
+	 * <ul>
+	 * <li><code>-seed N</code> to seed the random choices</li>
+	 * <li><code>-instructions N</code> for the rough number of instructions
+	 * the program runs, or the length of the program if it has no loops</li>
+	 * <li><code>-depth N</code> for the depth of the loop nest, from 0 to
+	 * 4</li>
+	 * <li><code>-body N</code> for the number of random operations in the
+	 * innermost loop</li>
+	 * <li><code>-branches F</code> for the fraction of operations that are
+	 * forward branches</li>
+	 * <li><code>-memory F</code> for the fraction of operations that are 
+	 * loads or stores</li>
+	 * <li><code>-loaduse F</code> for the fraction of loads whose result
+	 * is used by the very next instruction</li>
+	 * <li><code>-dispatch F</code> for the fraction of operations that are
+	 * jump register dispatches</li>
+	 * <li><code>-footprint N</code> for the number of bytes loads and 
+	 * stores are spread over, rounded up to a power of two</li>
+	 * </ul>
+	 * 
+	 * @param args The options and the path of the program file.
+	 */
+	public static void main(String[] args) {
+		WorkloadGenerator generator = new WorkloadGenerator();
+		int i = 0;
+		
+		// read any options before the filename
+		try {
+			for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+				String value = args[i + 1];
+				
+				if (args[i].equals("-seed")) {
+					generator.setSeed(Long.parseLong(value));
+				} else if (args[i].equals("-instructions")) {
+					generator.setInstructions(Long.parseLong(value));
+				} else if (args[i].equals("-depth")) {
+					generator.setDepth(Integer.parseInt(value));
+				} else if (args[i].equals("-body")) {
+					generator.setBodySize(Integer.parseInt(value));
+				} else if (args[i].equals("-branches")) {
+					generator.setBranchDensity(Double.parseDouble(value));
+				} else if (args[i].equals("-memory")) {
+					generator.setMemoryDensity(Double.parseDouble(value));
+				} else if (args[i].equals("-loaduse")) {
+					generator.setLoadUseRate(Double.parseDouble(value));
+				} else if (args[i].equals("-dispatch")) {
+					generator.setDispatchDensity(Double.parseDouble(value));
+				} else if (args[i].equals("-footprint")) {
+					generator.setFootprint(Long.parseLong(value));
+				} else {
+					System.out.println("Unknown option \"" + args[i] + "\"");
+					return;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+		
+		if (i >= args.length || args[i].startsWith("-")) {
+			System.out.println("You must supply an output filename");
+			return;
+		}
+		
+		try {
+			FileChannel channel = new FileOutputStream(args[i]).getChannel();
+			long size;
+			try {
+				generator.generate(channel);
+				size = channel.size();
+			} finally {
+				channel.close();
+			}
+			
+			System.out.println("Program size: \t\t" + size / 4 + " words");
+			System.out.println("Loop iterations: \t" + generator.getIterations());
+		} catch (IOException e) {
+			System.out.println("Error writing file named \"" + args[i] + "\"");
+		}
+	}
+	
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+	
+	public void setInstructions(long instructions) {
+		if (instructions < 1) {
+			throw new IllegalArgumentException("There must be at least one instruction");
+		}
+		
+		this.instructions = instructions;
+	}
+	
+	public void setDepth(int depth) {
+		if (depth < 0 || depth > MAX_DEPTH) {
+			throw new IllegalArgumentException("The loop depth must be from 0 to " + MAX_DEPTH);
+		}
+		
+		this.depth = depth;
+	}
+	
+	public void setBodySize(int bodySize) {
+		if (bodySize < 1) {
+			throw new IllegalArgumentException("The loop body must have at least one operation");
+		}
+		
+		this.bodySize = bodySize;
+	}
+	
+	public void setBranchDensity(double branchDensity) {
+		this.branchDensity = checkFraction(branchDensity);
+	}
+	
+	public void setMemoryDensity(double memoryDensity) {
+		this.memoryDensity = checkFraction(memoryDensity);
+	}
+	
+	public void setLoadUseRate(double loadUseRate) {
+		this.loadUseRate = checkFraction(loadUseRate);
+	}
+	
+	public void setDispatchDensity(double dispatchDensity) {
+		this.dispatchDensity = checkFraction(dispatchDensity);
+	}
+	
+	public void setFootprint(long footprint) {
+		if (footprint < 4 || footprint > MAX_FOOTPRINT) {
+			throw new IllegalArgumentException(
+				"The footprint must be from 4 to " + MAX_FOOTPRINT + " bytes"
+			);
+		}
+		
+		this.footprint = footprint;
+	}
+	
+	/**
+	 * @return The number of times each loop of the nest runs in the last
+	 * program generated.
+	 */
+	public long getIterations() {
+		return iterations;
+	}
+	
+	/**
+	 * Generate a program and write it to the given channel.
+	 * 
+	 * @param channel The channel to write the program to.
+	 * @throws IOException Thrown if there's a problem writing.
+	 */
+	public void generate(WritableByteChannel channel) throws IOException {
+		if (branchDensity + memoryDensity + dispatchDensity > 1) {
+			throw new IllegalArgumentException("The densities add up to more than one");
+		}
+		
+		random = new Random(seed);
+		out = new ProgramWriter(channel);
+		
+		prologue();
+		
+		if (depth == 0) {
+			iterations = 1;
+			long end = out.getAddress() + 4 * instructions;
+			while (out.getAddress() < end) {
+				operation();
+			}
+		} else {
+			// spread the instructions evenly over the levels of the nest
+			double perIteration = bodySize * operationLength();
+			double perLevel = Math.pow(instructions / perIteration, 1.0 / depth);
+			iterations = Math.max(1, Math.min(0xFFFFFFFFL, Math.round(perLevel)));
+			loop(0);
+		}
+		
+		out.halt();
+		out.flush();
+	}
+	
+	/**
+	 * @return The rough number of instructions an operation of the body
+	 * runs, going by the densities.
+	 */
+	private double operationLength() {
+		double arithmeticDensity = 1 - dispatchDensity - branchDensity - memoryDensity;
+		
+		return dispatchDensity * DISPATCH_LENGTH +
+			branchDensity * (1 + (MAX_SKIP + 1) / 4.0) +
+			memoryDensity * (3 + 2 / 3.0) +
+			arithmeticDensity;
+	}
+	
+	/**
+	 * Load the constants and give the body registers random starting values.
+	 */
+	private void prologue() throws IOException {
+		long size = Long.highestOneBit(footprint - 1) << 1;
+		
+		out.immediate(ProgramWriter.ADDI, ONE, 0, 1);
+		out.constant(MASK, (size - 1) & ~3L);
+		out.constant(DATA, DATA_START);
+		
+		for (int i = 0; i < BODY_REGISTERS; i++) {
+			out.immediate(ProgramWriter.ADDI, FIRST_BODY + i, 0, random.nextInt(0x10000));
+		}
+	}
+	
+	/**
+	 * Write the loop of the given level of the nest, along with the loops
+	 * inside it.  Loops count down and leave through a forward branch, and 
+	 * go back to the top with a jump, or with a jump register if the top of
+	 * the loop is out of reach of a jump.
+	 */
+	private void loop(int level) throws IOException {
+		int counter = FIRST_COUNTER + level;
+		int header = FIRST_HEADER + level;
+		
+		out.constant(counter, iterations);
+		
+		long top = out.getAddress();
+		boolean far = top + 4 * ProgramWriter.constantLength(ProgramWriter.J_LIMIT) >= 
+			ProgramWriter.J_LIMIT;
+		if (far) {
+			top += 4 * ProgramWriter.constantLength(ProgramWriter.J_LIMIT);
+			out.constant(header, top);
+		}
+		
+		out.label();
+		out.register(ProgramWriter.SUB_FUNCT, counter, counter, ONE);
+		
+		if (level + 1 < depth) {
+			for (int i = 0; i < bodySize / 4; i++) {
+				operation();
+			}
+			loop(level + 1);
+		} else {
+			for (int i = 0; i < bodySize; i++) {
+				operation();
+			}
+		}
+		
+		clearHazard((1 << counter) | (1 << header));
+		out.branch(ProgramWriter.BEQ, counter, 0, 1);
+		if (far) {
+			out.jumpRegister(header);
+		} else {
+			out.jump(top);
+		}
+		out.label();
+	}
+	
+	/**
+	 * Write a random operation of the body.
+	 */
+	private void operation() throws IOException {
+		double choice = random.nextDouble();
+		
+		if (choice < dispatchDensity) {
+			dispatch();
+		} else if ((choice -= dispatchDensity) < branchDensity) {
+			skip();
+		} else if ((choice -= branchDensity) < memoryDensity) {
+			memory();
+		} else {
+			arithmetic(0);
+		}
+	}
+	
+	/**
+	 * Write a random arithmetic instruction on the body registers.
+	 * 
+	 * @param exclude A set of registers the instruction mustn't use.
+	 */
+	private void arithmetic(int exclude) throws IOException {
+		int rd = bodyRegister(exclude);
+		int rs = bodyRegister(exclude);
+		
+		if (random.nextBoolean()) {
+			int funct = FUNCTS[random.nextInt(FUNCTS.length)];
+			out.register(funct, rd, rs, bodyRegister(exclude));
+		} else {
+			int opCode = IMMEDIATE_OP_CODES[random.nextInt(IMMEDIATE_OP_CODES.length)];
+			out.immediate(opCode, rd, rs, random.nextInt(0x10000));
+		}
+	}
+	
+	/**
+	 * Write a load or a store somewhere in the data footprint, at an address
+	 * taken from a body register.
+	 */
+	private void memory() throws IOException {
+		out.register(ProgramWriter.AND_FUNCT, ADDRESS, bodyRegister(0), MASK);
+		out.register(ProgramWriter.ADD_FUNCT, ADDRESS, ADDRESS, DATA);
+		
+		int rt = bodyRegister(0);
+		if (random.nextInt(3) == 0) {
+			out.immediate(ProgramWriter.SW, rt, ADDRESS, 0);
+		} else {
+			out.immediate(ProgramWriter.LW, rt, ADDRESS, 0);
+			
+			// either use the loaded value straight away, stalling the 
+			// pipeline, or follow it with something that doesn't touch it
+			if (random.nextDouble() < loadUseRate) {
+				out.register(ProgramWriter.ADD_FUNCT, bodyRegister(0), rt, bodyRegister(0));
+			} else {
+				arithmetic(1 << rt);
+			}
+		}
+	}
+	
+	/**
+	 * Write a forward branch on two body registers over a few arithmetic
+	 * instructions.
+	 */
+	private void skip() throws IOException {
+		int rs = bodyRegister(0);
+		int rt = bodyRegister(0);
+		int skip = 1 + random.nextInt(MAX_SKIP);
+		int opCode = random.nextBoolean() ? ProgramWriter.BEQ : ProgramWriter.BNE;
+		
+		clearHazard((1 << rs) | (1 << rt));
+		out.branch(opCode, rs, rt, skip);
+		for (int i = 0; i < skip; i++) {
+			arithmetic(0);
+		}
+		out.label();
+	}
+	
+	/**
+	 * Write a jump register to one of a few handlers, picked by a body
+	 * register, with each handler going on to the same place afterwards.
+	 */
+	private void dispatch() throws IOException {
+		// the handlers follow the constant, the offset, two instructions to 
+		// give the target time to be written back, and the jump register
+		long handlers = out.getAddress() + 4 * (1 + 5);
+		if (handlers > 0xFFFF) {
+			handlers = out.getAddress() + 4 * (ProgramWriter.constantLength(handlers) + 5);
+		}
+		
+		out.constant(TARGET, handlers);
+		out.immediate(ProgramWriter.ANDI, ADDRESS, bodyRegister(0), HANDLER_BITS);
+		out.register(ProgramWriter.ADD_FUNCT, TARGET, TARGET, ADDRESS);
+		arithmetic(0);
+		arithmetic(0);
+		out.jumpRegister(TARGET);
+		
+		for (int handler = 0; handler < HANDLERS; handler++) {
+			out.label();
+			for (int i = 0; i < HANDLER_SIZE - 1; i++) {
+				arithmetic(0);
+			}
+			
+			int rest = (HANDLERS - 1 - handler) * HANDLER_SIZE;
+			if (rest > 0) {
+				out.branch(ProgramWriter.BEQ, 0, 0, rest);
+			} else {
+				arithmetic(0);
+			}
+		}
+		out.label();
+	}
+	
+	/**
+	 * Write arithmetic instructions until none of the given registers have
+	 * been written too recently for a branch to read them.
+	 */
+	private void clearHazard(int registers) throws IOException {
+		while ((out.getRecentWrites() & registers) != 0) {
+			arithmetic(registers);
+		}
+	}
+	
+	/**
+	 * @return A random body register not in the given set.
+	 */
+	private int bodyRegister(int exclude) {
+		int register;
+		do {
+			register = FIRST_BODY + random.nextInt(BODY_REGISTERS);
+		} while ((exclude & (1 << register)) != 0);
+		
+		return register;
+	}
+	
+	private static double checkFraction(double fraction) {
+		if (fraction < 0 || fraction > 1) {
+			throw new IllegalArgumentException("Densities and rates must be from 0 to 1");
+		}
+		
+		return fraction;
+	}
+}